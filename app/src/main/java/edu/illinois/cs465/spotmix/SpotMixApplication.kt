@@ -0,0 +1,26 @@
+package edu.illinois.cs465.spotmix
+
+import android.app.Application
+import com.google.firebase.database.FirebaseDatabase
+import edu.illinois.cs465.spotmix.util.JankWatchdog
+import edu.illinois.cs465.spotmix.util.SubscriptionLifecycle
+
+/**
+ * Application class, sets up process wide tooling before the first activity starts.
+ * */
+class SpotMixApplication : Application() {
+
+    override fun onCreate() {
+        super.onCreate()
+        // attribute stutters of the main thread to the code causing them; debug builds only, like
+        // the metrics screen showing them
+        if (BuildConfig.DEBUG) {
+            JankWatchdog.install()
+        }
+        // keeps the synced parties on disk, so listeners added again after an idle time start
+        // from the cached party; has to be set before the database is used
+        FirebaseDatabase.getInstance().setPersistenceEnabled(true)
+        // receive less of the party while the app is in the background
+        SubscriptionLifecycle.install(this)
+    }
+}
@@ -22,12 +22,13 @@ import java.util.LinkedList;
 import java.util.List;
 
 import edu.illinois.cs465.spotmix.R;
-import edu.illinois.cs465.spotmix.api.firebase.FirebaseHelper;
+import edu.illinois.cs465.spotmix.api.PartyBackend;
+import edu.illinois.cs465.spotmix.api.PartyBackends;
 import edu.illinois.cs465.spotmix.api.firebase.models.Attendee;
 import edu.illinois.cs465.spotmix.api.firebase.models.Party;
 
 public class AttendeesActivity extends AppCompatActivity
-        implements View.OnClickListener, FirebaseHelper.AttendeeListener {
+        implements View.OnClickListener, PartyBackend.AttendeeListener {
 
     // instance of a party to display attendees
     private Party party;
@@ -35,7 +36,7 @@ public class AttendeesActivity extends AppCompatActivity
     // instance of Attendee resembled by the user
     private Attendee attendee;
 
-    private FirebaseHelper firebaseHelper;
+    private PartyBackend partyBackend;
 
     private AttendeeAdapter rvAdapter;
 
@@ -68,7 +69,7 @@ public class AttendeesActivity extends AppCompatActivity
             finish();
         }
 
-        firebaseHelper = new FirebaseHelper();
+        partyBackend = PartyBackends.create();
 
         // find recyclerView
         RecyclerView recyclerView = findViewById(R.id.recycler_view);
@@ -86,14 +87,14 @@ public class AttendeesActivity extends AppCompatActivity
         rvAdapter.setAttendees(new LinkedList<>());
         rvAdapter.notifyDataSetChanged();
         // register attendee listener
-        firebaseHelper.addAttendeeListener(party, this);
+        partyBackend.addAttendeeListener(party, this);
     }
 
     @Override
     protected void onStop() {
         super.onStop();
         // unregister attendee listener
-        firebaseHelper.removeAttendeeListener(party, this);
+        partyBackend.removeAttendeeListener(party, this);
     }
 
     @Override
@@ -18,7 +18,8 @@ import androidx.appcompat.app.AppCompatActivity;
 import java.util.List;
 
 import edu.illinois.cs465.spotmix.R;
-import edu.illinois.cs465.spotmix.api.firebase.FirebaseHelper;
+import edu.illinois.cs465.spotmix.api.PartyBackend;
+import edu.illinois.cs465.spotmix.api.PartyBackends;
 import edu.illinois.cs465.spotmix.api.firebase.models.Attendee;
 import edu.illinois.cs465.spotmix.api.firebase.models.Party;
 import edu.illinois.cs465.spotmix.api.spotify.SimpleRetrofitCallback;
@@ -26,7 +27,7 @@ import edu.illinois.cs465.spotmix.api.spotify.SpotifyHelper;
 import edu.illinois.cs465.spotmix.api.spotify.models.User;
 
 public class CreatePartyActivity extends AppCompatActivity
-        implements View.OnClickListener, FirebaseHelper.CreateCallback, AdapterView.OnItemSelectedListener {
+        implements View.OnClickListener, PartyBackend.CreateCallback, AdapterView.OnItemSelectedListener {
 
     // spotify helper - testing commit
     private SpotifyHelper helper;
@@ -64,14 +65,17 @@ public class CreatePartyActivity extends AppCompatActivity
                 // get party name from edit text
                 EditText editText = findViewById(R.id.party_name_edit_txt);
                 final String partyName = editText.getText().toString();
+                // host the party on a LAN party server instead of Firebase, if one is given
+                EditText serverEditText = findViewById(R.id.party_server_edit_txt);
+                PartyBackends.useLanServer(serverEditText.getText().toString());
                 // get signed in user
                 helper.getUser(new SimpleRetrofitCallback<User>() {
                     @Override
                     public void onResult(@org.jetbrains.annotations.Nullable User result) {
                         super.onResult(result);
                         if (result != null) {
-                            // create new party instance on Firebase
-                            new FirebaseHelper().createParty(partyName, result,
+                            // create new party instance on the backend
+                            PartyBackends.create().createParty(partyName, result,
                                     helper.getAccessToken(), CreatePartyActivity.this);
 
                         } else {
@@ -26,12 +26,13 @@ import com.google.android.gms.vision.barcode.BarcodeDetector;
 import java.io.IOException;
 
 import edu.illinois.cs465.spotmix.R;
-import edu.illinois.cs465.spotmix.api.firebase.FirebaseHelper;
+import edu.illinois.cs465.spotmix.api.PartyBackend;
+import edu.illinois.cs465.spotmix.api.PartyBackends;
 import edu.illinois.cs465.spotmix.api.firebase.models.Attendee;
 import edu.illinois.cs465.spotmix.api.firebase.models.Party;
 
 public class JoinPartyActivity extends AppCompatActivity
-        implements View.OnClickListener, FirebaseHelper.JoinCallback{
+        implements View.OnClickListener, PartyBackend.JoinCallback{
     BarcodeDetector barcodeDetector;
     CameraSource cameraSource;
 
@@ -126,8 +127,9 @@ public class JoinPartyActivity extends AppCompatActivity
                         .setPositiveButton(R.string.ok, (dialog, which) -> {
                             // get name from dialog text
                             String attendeeName = nameEditText.getText().toString();
-                            // request to join a party
-                            new FirebaseHelper().joinParty(partyCode, attendeeName,
+                            // request to join a party; the code tells whether it is on a LAN party server
+                            PartyBackends.useBackendOf(partyCode);
+                            PartyBackends.create().joinParty(partyCode, attendeeName,
                                     JoinPartyActivity.this);
                         })
                         // listener null, because just dismissing the dialog, doing nothing else
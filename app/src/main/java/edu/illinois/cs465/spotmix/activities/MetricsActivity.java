@@ -0,0 +1,146 @@
+package edu.illinois.cs465.spotmix.activities;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.ActionBar;
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import edu.illinois.cs465.spotmix.R;
+import edu.illinois.cs465.spotmix.metrics.Metrics;
+import edu.illinois.cs465.spotmix.util.JankWatchdog;
+import edu.illinois.cs465.spotmix.util.SessionRecording;
+
+/**
+ * Debug screen showing the recorded metrics and main thread stalls, and controlling the recording of party sessions.
+ * Only reachable from the party menu of debug builds.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    private TextView metricsTxtView;
+
+    @Override
+    protected void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        // show back button
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar != null) {
+            actionBar.setDisplayHomeAsUpEnabled(true);
+        }
+
+        metricsTxtView = findViewById(R.id.metrics_txt_view);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        showMetrics();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_metrics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        boolean recording = SessionRecording.isRecording();
+        menu.findItem(R.id.start_recording).setVisible(!recording);
+        menu.findItem(R.id.stop_recording).setVisible(recording);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        switch (item.getItemId()) {
+            case android.R.id.home:
+                onBackPressed();
+                return true;
+            case R.id.refresh:
+                showMetrics();
+                return true;
+            case R.id.reset:
+                Metrics.reset();
+                showMetrics();
+                return true;
+            case R.id.dump_to_file:
+                dumpToFile();
+                return true;
+            case R.id.start_recording:
+            case R.id.stop_recording:
+                toggleRecording();
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    private void showMetrics() {
+        metricsTxtView.setText(Metrics.report() + "\n" + JankWatchdog.report());
+    }
+
+    /**
+     * Start or stop recording the party session into the app specific external storage.
+     */
+    private void toggleRecording() {
+        boolean start = !SessionRecording.isRecording();
+        File file = new File(getExternalFilesDir(null), "session-" + System.currentTimeMillis() + ".smrs");
+        // stopping blocks until the recorded events are written
+        new Thread(() -> {
+            String message;
+            try {
+                if (start) {
+                    SessionRecording.start(file);
+                    message = file.getAbsolutePath();
+                } else {
+                    SessionRecording.stop();
+                    message = getString(R.string.recording_stopped);
+                }
+            } catch (IOException e) {
+                Log.e("MetricsActivity", "recording failed", e);
+                message = "Some error ...";
+            }
+            String result = message;
+            runOnUiThread(() -> {
+                invalidateOptionsMenu();
+                Toast.makeText(this, result, Toast.LENGTH_LONG).show();
+            });
+        }, "SessionRecording").start();
+    }
+
+    /**
+     * Write the metrics and stalls to the app specific external storage, so they can be pulled with adb
+     * without further permissions.
+     */
+    private void dumpToFile() {
+        File file = new File(getExternalFilesDir(null), "metrics-" + System.currentTimeMillis() + ".txt");
+        new Thread(() -> {
+            String message;
+            try (Writer writer = new FileWriter(file)) {
+                Metrics.dump(writer);
+                writer.write("\n");
+                JankWatchdog.dump(writer);
+                message = file.getAbsolutePath();
+            } catch (IOException e) {
+                Log.e("MetricsActivity", "dumping metrics failed", e);
+                message = "Some error ...";
+            }
+            String result = message;
+            runOnUiThread(() -> Toast.makeText(this, result, Toast.LENGTH_LONG).show());
+        }, "MetricsDump").start();
+    }
+}
@@ -16,28 +16,44 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.bumptech.glide.Glide;
-
 import org.jetbrains.annotations.NotNull;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 
+import edu.illinois.cs465.spotmix.BuildConfig;
 import edu.illinois.cs465.spotmix.R;
-import edu.illinois.cs465.spotmix.api.firebase.FirebaseHelper;
+import edu.illinois.cs465.spotmix.api.PartyBackend;
+import edu.illinois.cs465.spotmix.api.PartyBackends;
 import edu.illinois.cs465.spotmix.api.firebase.models.Attendee;
 import edu.illinois.cs465.spotmix.api.firebase.models.Party;
-import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack;
-import edu.illinois.cs465.spotmix.api.spotify.SpotifyHelper;
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueViewEntry;
 import edu.illinois.cs465.spotmix.fragments.SpotifyPlaybackFragment;
+import edu.illinois.cs465.spotmix.playback.CommandChannel;
+import edu.illinois.cs465.spotmix.playback.PlaybackCommand;
+import edu.illinois.cs465.spotmix.services.PlaybackService;
+import edu.illinois.cs465.spotmix.sync.QueueProjection;
+import edu.illinois.cs465.spotmix.sync.QueueViewChannel;
+import edu.illinois.cs465.spotmix.util.AlbumThumbnailLoader;
+import edu.illinois.cs465.spotmix.util.AppMetrics;
+import edu.illinois.cs465.spotmix.util.QueueDisplayModelBuilder;
+import edu.illinois.cs465.spotmix.util.QueueItemDisplay;
 import edu.illinois.cs465.spotmix.util.SwipeToVoteCallback;
 
 public class PartyActivity extends AppCompatActivity
-        implements View.OnClickListener, FirebaseHelper.PartyListener, SwipeToVoteCallback.PartyCallback {
+        implements View.OnClickListener, PartyBackend.PartyListener, SwipeToVoteCallback.PartyCallback,
+        QueueDisplayModelBuilder.Callback, QueueViewChannel.Listener {
+
+    private static final String OWN_VOTES_KEY = "ownVotes";
 
     // instance of a party to display
     private Party party;
@@ -45,11 +61,27 @@ public class PartyActivity extends AppCompatActivity
     // instance of Attendee resembled by the user
     private Attendee attendee;
 
-    private SpotifyHelper spotifyHelper;
-    private FirebaseHelper firebaseHelper;
+    private PartyBackend partyBackend;
 
     private QueueAdapter rvAdapter;
 
+    private QueueDisplayModelBuilder displayModelBuilder;
+
+    // view of the top of the queue kept by the host, null if the whole queue is followed instead
+    private QueueViewChannel queueViewChannel;
+
+    // last received view
+    private List<QueueViewEntry> queueView = Collections.emptyList();
+
+    // moves are sent to the host, which has the whole queue; null for LAN parties
+    private CommandChannel commandChannel;
+
+    // votes of the attendee by track uri, the view only has vote counts
+    private HashMap<String, Integer> ownVotes = new HashMap<>();
+
+    // follows only the playback, gets the top of the queue from this screen
+    private SpotifyPlaybackFragment playBackFragment;
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -59,6 +91,12 @@ public class PartyActivity extends AppCompatActivity
             // restore state
             party = savedInstanceState.getParcelable(Party.PARCEL_KEY);
             attendee = savedInstanceState.getParcelable(Attendee.PARCEL_KEY);
+            @SuppressWarnings("unchecked")
+            HashMap<String, Integer> savedVotes =
+                    (HashMap<String, Integer>) savedInstanceState.getSerializable(OWN_VOTES_KEY);
+            if (savedVotes != null) {
+                ownVotes = savedVotes;
+            }
         } else {
             // extract party instance from intent
             party = getIntent().getParcelableExtra(Party.PARCEL_KEY);
@@ -79,16 +117,17 @@ public class PartyActivity extends AppCompatActivity
             actionBar.setTitle(party.getName());
         }
 
-        // instantiate Spotify Helper
-        spotifyHelper = new SpotifyHelper(party.getAccessToken());
+        // start the playback; keeps running while the screen is in the background
+        PlaybackService.start(this, party, party.isHost(attendee));
 
-        firebaseHelper = new FirebaseHelper();
+        partyBackend = PartyBackends.create();
+        queueViewChannel = PartyBackends.createQueueViewChannel();
+        commandChannel = PartyBackends.createCommandChannel();
 
         // find static spotify fragment
-        SpotifyPlaybackFragment playBackFragment = (SpotifyPlaybackFragment)
+        playBackFragment = (SpotifyPlaybackFragment)
                 getSupportFragmentManager().findFragmentById(R.id.spotify_play_back_fragment);
         if (playBackFragment != null) {
-            playBackFragment.setSpotifyHelper(spotifyHelper);
             playBackFragment.setParty(party);
             playBackFragment.setAttendee(attendee);
         }
@@ -96,17 +135,17 @@ public class PartyActivity extends AppCompatActivity
         // find recyclerView
         RecyclerView recyclerView = findViewById(R.id.recycler_view);
         // set a LayoutManager
-        recyclerView.setLayoutManager(new LinearLayoutManager(this) {
-            @Override
-            public boolean supportsPredictiveItemAnimations() {
-                // to enable animations even when calling notifyDataSetChanged()
-                return true;
-            }
-        });
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
         // set an Adapter
-        rvAdapter = new QueueAdapter(attendee);
+        AlbumThumbnailLoader thumbnailLoader = new AlbumThumbnailLoader(this);
+        rvAdapter = new QueueAdapter(attendee, thumbnailLoader);
+        displayModelBuilder = new QueueDisplayModelBuilder(thumbnailLoader.getSize());
         rvAdapter.setHasStableIds(true);
         recyclerView.setAdapter(rvAdapter);
+        // preload album covers of upcoming rows while scrolling
+        recyclerView.addOnScrollListener(thumbnailLoader.createPreloader(position ->
+                position < rvAdapter.getItemCount()
+                        ? rvAdapter.getItem(position).getThumbnailUrl() : null));
         // add item touch helper to make swiping work
         ItemTouchHelper itemTouchHelper = new ItemTouchHelper(new SwipeToVoteCallback(rvAdapter, this, this));
         itemTouchHelper.attachToRecyclerView(recyclerView);
@@ -119,33 +158,94 @@ public class PartyActivity extends AppCompatActivity
         // set visibility of menu items, based on whether attendee is admin
         menu.findItem(R.id.close_party).setVisible(attendee.getAdmin());
         menu.findItem(R.id.leave_party).setVisible(!attendee.getAdmin());
+        // the host decides how the next track is picked
+        MenuItem fairShare = menu.findItem(R.id.fair_share);
+        fairShare.setVisible(party.isHost(attendee));
+        fairShare.setChecked(party.getFairShare());
+        // metrics are a debug tool
+        menu.findItem(R.id.metrics).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
     @Override
     protected void onStart() {
         super.onStart();
-        // get notified when party state changes
-        firebaseHelper.addPartyListener(party, this);
-        // connect app remote
-        spotifyHelper.connect(this);
+        if (queueViewChannel != null) {
+            // only the top of the queue is shown, follow the view of it the host keeps
+            queueViewChannel.listen(party, this);
+        } else {
+            // get notified when party state changes
+            // only the queue is shown here, the playback fragment follows the playback
+            partyBackend.addPartyListener(party, this, EnumSet.of(PartyBackend.Partition.QUEUE));
+        }
     }
 
     @Override
     protected void onStop() {
         super.onStop();
         // remove listener
-        firebaseHelper.removePartyListener(party, this);
-        // disconnect app remote
-        spotifyHelper.disconnect();
+        if (queueViewChannel != null) {
+            queueViewChannel.close(party);
+        } else {
+            partyBackend.removePartyListener(party, this);
+        }
     }
 
     @Override
     public void onPartyChanged(@NotNull Party party) {
+        AppMetrics.PARTY_CHANGED.increment();
         this.party = party;
+        displayModelBuilder.build(party.getQueue(), attendee, this);
+        if (playBackFragment != null) {
+            // the same entries the host would project, for the covers of the next tracks
+            int count = Math.min(SpotifyPlaybackFragment.PREFETCH_COUNT, party.getQueue().size());
+            List<QueueViewEntry> upNext = new ArrayList<>(count);
+            for (int rank = 0; rank < count; rank++) {
+                upNext.add(QueueProjection.entry(rank, party.getQueue().get(rank)));
+            }
+            playBackFragment.onQueueViewChanged(upNext);
+        }
+    }
+
+    @Override
+    public void onQueueViewChanged(@NotNull List<QueueViewEntry> entries) {
+        AppMetrics.PARTY_CHANGED.increment();
+        queueView = entries;
+        displayModelBuilder.buildView(entries, ownVotes, this);
+        if (playBackFragment != null) {
+            playBackFragment.onQueueViewChanged(entries);
+        }
+    }
 
-        rvAdapter.setQueue(party.getQueue());
-        rvAdapter.notifyDataSetChanged();
+    @Override
+    public void onVoted(@NotNull String uri, int vote) {
+        ownVotes.put(uri, vote);
+        if (queueViewChannel != null) {
+            // show the vote before the host updated the view
+            displayModelBuilder.buildView(queueView, ownVotes, this);
+        }
+    }
+
+    @Override
+    public void onMoved(@NotNull String uri, int rank) {
+        if (commandChannel != null) {
+            commandChannel.send(party, PlaybackCommand.Type.MOVE_TRACK, uri, 0, rank, null);
+        } else {
+            partyBackend.moveTrackInQueue(party, uri, rank);
+        }
+    }
+
+    @Override
+    public void onDisplayModelBuilt(@NotNull List<QueueItemDisplay> items) {
+        rvAdapter.submitQueue(items);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (commandChannel != null && party != null) {
+            commandChannel.close(party);
+        }
     }
 
     @Override
@@ -154,6 +254,7 @@ public class PartyActivity extends AppCompatActivity
         // save party and attendee
         outState.putParcelable(Party.PARCEL_KEY, party);
         outState.putParcelable(Attendee.PARCEL_KEY, attendee);
+        outState.putSerializable(OWN_VOTES_KEY, ownVotes);
     }
 
     @Override
@@ -162,12 +263,14 @@ public class PartyActivity extends AppCompatActivity
         switch (item.getItemId()) {
             case R.id.close_party:
                 // delete party from Firebase
-                firebaseHelper.closeParty(party);
+                partyBackend.closeParty(party);
+                PlaybackService.stop(this);
                 finish();
                 return true;
             case R.id.leave_party:
                 // remove self from party
-                firebaseHelper.removeAttendee(party, attendee);
+                partyBackend.removeAttendee(party, attendee);
+                PlaybackService.stop(this);
                 finish();
                 return true;
             case R.id.attendees:
@@ -178,6 +281,14 @@ public class PartyActivity extends AppCompatActivity
                 // start Attendee Activity
                 startActivity(attendeeIntent);
                 return true;
+            case R.id.fair_share:
+                boolean fairShare = !item.isChecked();
+                item.setChecked(fairShare);
+                partyBackend.setFairShare(party, fairShare);
+                return true;
+            case R.id.metrics:
+                startActivity(new Intent(this, MetricsActivity.class));
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -202,9 +313,9 @@ public class PartyActivity extends AppCompatActivity
                         || track.getUpvotes().contains(attendee);
                 if (!voted) {
                     if (v.getId() == R.id.down_vote_btn) {
-                        firebaseHelper.downvoteTrack(party, track, attendee);
+                        partyBackend.downvoteTrack(party, track, attendee);
                     } else {
-                        firebaseHelper.upvoteTrack(party, track, attendee);
+                        partyBackend.upvoteTrack(party, track, attendee);
                     }
                 } else {
                     Toast.makeText(this, "You already voted on this track.", Toast.LENGTH_SHORT).show();
@@ -223,16 +334,47 @@ public class PartyActivity extends AppCompatActivity
 
     public static class QueueAdapter extends RecyclerView.Adapter<QueueAdapter.QueueHolder> {
 
+        // payload for changes that only affect the votes of a track
+        private static final Object PAYLOAD_VOTES = new Object();
+
+        private static final DiffUtil.ItemCallback<QueueItemDisplay> DIFF_CALLBACK =
+                new DiffUtil.ItemCallback<QueueItemDisplay>() {
+                    @Override
+                    public boolean areItemsTheSame(@NonNull QueueItemDisplay oldItem, @NonNull QueueItemDisplay newItem) {
+                        return oldItem.getUri().equals(newItem.getUri());
+                    }
+
+                    @Override
+                    public boolean areContentsTheSame(@NonNull QueueItemDisplay oldItem, @NonNull QueueItemDisplay newItem) {
+                        return oldItem.sameContentAs(newItem);
+                    }
+
+                    @Nullable
+                    @Override
+                    public Object getChangePayload(@NonNull QueueItemDisplay oldItem, @NonNull QueueItemDisplay newItem) {
+                        // same track => only the votes changed
+                        return oldItem.sameTrackAs(newItem) ? PAYLOAD_VOTES : null;
+                    }
+                };
+
         private Attendee attendee;
 
-        private List<QueueTrack> queue = new LinkedList<>();
+        private AlbumThumbnailLoader thumbnailLoader;
+
+        // computes the difference between two queues on a background thread
+        private final AsyncListDiffer<QueueItemDisplay> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
 
-        QueueAdapter(Attendee attendee) {
+        QueueAdapter(Attendee attendee, AlbumThumbnailLoader thumbnailLoader) {
             this.attendee = attendee;
+            this.thumbnailLoader = thumbnailLoader;
         }
 
-        void setQueue(List<QueueTrack> queue) {
-            this.queue = queue;
+        /**
+         * Update the displayed queue, only changed rows are redrawn.
+         * @param items display models of the queue
+         */
+        void submitQueue(List<QueueItemDisplay> items) {
+            differ.submitList(items);
         }
 
         @NonNull
@@ -247,16 +389,27 @@ public class PartyActivity extends AppCompatActivity
 
         @Override
         public void onBindViewHolder(@NonNull QueueHolder holder, int position) {
-            holder.bind(queue.get(position));
+            long start = System.nanoTime();
+            holder.bind(differ.getCurrentList().get(position), thumbnailLoader);
+            AppMetrics.QUEUE_BIND_NANOS.recordSince(start);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull QueueHolder holder, int position, @NonNull List<Object> payloads) {
+            if (payloads.isEmpty()) {
+                onBindViewHolder(holder, position);
+            }
+            // only votes changed; votes are drawn by SwipeToVoteCallback from the current queue,
+            // so there is nothing to rebind
         }
 
         @Override
         public int getItemCount() {
-            return queue.size();
+            return differ.getCurrentList().size();
         }
 
-        public List<QueueTrack> getQueue() {
-            return queue;
+        public QueueItemDisplay getItem(int position) {
+            return differ.getCurrentList().get(position);
         }
 
         public Attendee getAttendee() {
@@ -265,30 +418,29 @@ public class PartyActivity extends AppCompatActivity
 
         @Override
         public long getItemId(int position) {
-            return queue.get(position).getTrack().getId().hashCode();
+            return differ.getCurrentList().get(position).getUri().hashCode();
         }
 
         static class QueueHolder extends RecyclerView.ViewHolder {
 
+            private final TextView trackTitleTxtView;
+            private final TextView artistNameTxtView;
+            private final ImageView albumCoverImgView;
+
             QueueHolder(@NonNull View itemView) {
                 super(itemView);
+                trackTitleTxtView = itemView.findViewById(R.id.track_title_txt_view);
+                artistNameTxtView = itemView.findViewById(R.id.artist_name_txt_view);
+                albumCoverImgView = itemView.findViewById(R.id.album_cover_img_view);
             }
 
-            void bind(QueueTrack track) {
-                TextView trackTitleTxtView = itemView.findViewById(R.id.track_title_txt_view);
+            void bind(QueueItemDisplay item, AlbumThumbnailLoader thumbnailLoader) {
                 // set track title
-                trackTitleTxtView.setText(track.getTrack().getName());
-
-                TextView artistNameTxtView = itemView.findViewById(R.id.artist_name_txt_view);
+                trackTitleTxtView.setText(item.getTitle());
                 // set artist name
-                artistNameTxtView.setText(track.getTrack().getArtistNames());
-
+                artistNameTxtView.setText(item.getArtists());
                 // load album cover
-                ImageView albumCoverImgView = itemView.findViewById(R.id.album_cover_img_view);
-                Glide.with(itemView.getContext())
-                        .load(track.getTrack().getAlbum().getImages().get(0).getUrl())
-                        .placeholder(R.drawable.ic_broken_image_48dp)
-                        .into(albumCoverImgView);
+                thumbnailLoader.load(item.getThumbnailUrl(), albumCoverImgView);
             }
         }
     }
@@ -19,25 +19,27 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.bumptech.glide.Glide;
-
 import org.jetbrains.annotations.NotNull;
 
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
 
 import edu.illinois.cs465.spotmix.R;
-import edu.illinois.cs465.spotmix.api.firebase.FirebaseHelper;
+import edu.illinois.cs465.spotmix.api.PartyBackend;
+import edu.illinois.cs465.spotmix.api.PartyBackends;
 import edu.illinois.cs465.spotmix.api.firebase.models.Attendee;
 import edu.illinois.cs465.spotmix.api.firebase.models.Party;
 import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack;
 import edu.illinois.cs465.spotmix.api.spotify.SpotifyHelper;
 import edu.illinois.cs465.spotmix.api.spotify.models.Track;
 import edu.illinois.cs465.spotmix.api.spotify.models.TrackList;
+import edu.illinois.cs465.spotmix.util.AlbumThumbnailLoader;
+import edu.illinois.cs465.spotmix.util.AppMetrics;
 
 public class SearchTracksActivity extends AppCompatActivity
         implements View.OnClickListener, SpotifyHelper.SearchTrackCallback,
-        FirebaseHelper.PartyListener, FirebaseHelper.AddToQueueCallback {
+        PartyBackend.PartyListener, PartyBackend.AddToQueueCallback {
 
     // instance of a party to display
     private Party party;
@@ -47,10 +49,12 @@ public class SearchTracksActivity extends AppCompatActivity
 
     private SpotifyHelper spotifyHelper;
 
-    private FirebaseHelper firebaseHelper;
+    private PartyBackend partyBackend;
 
     private TrackAdapter rvAdapter;
 
+    private AlbumThumbnailLoader thumbnailLoader;
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -82,7 +86,7 @@ public class SearchTracksActivity extends AppCompatActivity
         // instantiate Spotify Helper
         spotifyHelper = new SpotifyHelper(party.getAccessToken());
 
-        firebaseHelper = new FirebaseHelper();
+        partyBackend = PartyBackends.create();
 
         // find recyclerView
         RecyclerView recyclerView = findViewById(R.id.recycler_view);
@@ -94,21 +98,28 @@ public class SearchTracksActivity extends AppCompatActivity
             }
         });
         // set an Adapter
+        thumbnailLoader = new AlbumThumbnailLoader(this);
         rvAdapter = new TrackAdapter();
         rvAdapter.setHasStableIds(true);
         recyclerView.setAdapter(rvAdapter);
+        // preload album covers of upcoming rows while scrolling
+        recyclerView.addOnScrollListener(thumbnailLoader.createPreloader(position ->
+                position < rvAdapter.getItemCount()
+                        ? rvAdapter.tracks.get(position).getAlbum().getImageUrl(thumbnailLoader.getSize())
+                        : null));
     }
 
     @Override
     protected void onStart() {
         super.onStart();
-        firebaseHelper.addPartyListener(party, this);
+        // only the queue is shown, to mark the queued tracks
+        partyBackend.addPartyListener(party, this, EnumSet.of(PartyBackend.Partition.QUEUE));
     }
 
     @Override
     protected void onStop() {
         super.onStop();
-        firebaseHelper.removePartyListener(party, this);
+        partyBackend.removePartyListener(party, this);
     }
 
     @Override
@@ -132,14 +143,16 @@ public class SearchTracksActivity extends AppCompatActivity
             case R.id.add_track_to_queue_btn:
                 // get track to add from view tag
                 Track track = (Track) v.getTag();
-                if (!party.isTrackInQueue(track)) {
+                if (party.isTrackInQueue(track)) {
+                    Toast.makeText(this, R.string.track_already_in_queue, Toast.LENGTH_SHORT).show();
+                } else if (partyBackend.addTrackToQueue(party, track, attendee, this)) {
                     // run animation
                     AnimatedVectorDrawable addToCheck = (AnimatedVectorDrawable) ((ImageButton) v).getDrawable();
                     addToCheck.start();
-                    // add track to queue
-                    firebaseHelper.addTrackToQueue(party, track, this);
                 } else {
-                    Toast.makeText(this, R.string.track_already_in_queue, Toast.LENGTH_SHORT).show();
+                    // over the write quota of the attendee
+                    AppMetrics.WRITES_THROTTLED.increment();
+                    Toast.makeText(this, R.string.writing_too_fast, Toast.LENGTH_SHORT).show();
                 }
                 break;
             default:
@@ -206,8 +219,10 @@ public class SearchTracksActivity extends AppCompatActivity
 
         @Override
         public void onBindViewHolder(@NonNull TrackHolder holder, int position) {
+            long start = System.nanoTime();
             // bind track to view holder
             holder.bind(tracks.get(position));
+            AppMetrics.SEARCH_BIND_NANOS.recordSince(start);
         }
 
         @Override
@@ -237,10 +252,7 @@ public class SearchTracksActivity extends AppCompatActivity
 
                 // load album cover
                 ImageView albumCoverImgView = itemView.findViewById(R.id.album_cover_img_view);
-                Glide.with(itemView.getContext())
-                        .load(track.getAlbum().getImages().get(0).getUrl())
-                        .placeholder(R.drawable.ic_broken_image_48dp)
-                        .into(albumCoverImgView);
+                thumbnailLoader.load(track.getAlbum(), albumCoverImgView);
 
                 ImageButton addToQueueBtn = itemView.findViewById(R.id.add_track_to_queue_btn);
                 // set tag to Image button, to know which track to add
@@ -0,0 +1,103 @@
+package edu.illinois.cs465.spotmix.api
+
+import android.os.Handler
+import android.os.Looper
+import edu.illinois.cs465.spotmix.api.firebase.FirebaseHelper
+import edu.illinois.cs465.spotmix.api.lan.LanPartyBackend
+import edu.illinois.cs465.spotmix.api.firebase.FirebaseCommandChannel
+import edu.illinois.cs465.spotmix.api.firebase.FirebaseProgressChannel
+import edu.illinois.cs465.spotmix.api.firebase.FirebaseQueueViewChannel
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol
+import edu.illinois.cs465.spotmix.playback.CommandChannel
+import edu.illinois.cs465.spotmix.playback.ProgressChannel
+import edu.illinois.cs465.spotmix.sync.QueueViewChannel
+import java.util.concurrent.Executor
+
+/**
+ * Creates the PartyBackend used by the app; Firebase unless replaced, e.g. by a LAN party server
+ * or by an InMemoryPartyBackend in tests and benchmarks.
+ * */
+object PartyBackends {
+
+    private val firebase: () -> PartyBackend = { FirebaseHelper() }
+
+    @Volatile
+    private var factory: () -> PartyBackend = firebase
+
+    // backends of the LAN party servers by address, shared by all screens so there is one
+    // connection per server
+    private val lanBackends = HashMap<String, LanPartyBackend>()
+
+    /**
+     * @return a new backend instance
+     * */
+    @JvmStatic
+    fun create(): PartyBackend = factory()
+
+    /**
+     * @return a new channel for the playback commands of co-admins, null unless the backend is
+     * Firebase: changes sent to a LAN party server are already applied and fanned out right away
+     * */
+    @JvmStatic
+    fun createCommandChannel(): CommandChannel? =
+        if (factory === firebase) FirebaseCommandChannel() else null
+
+    /**
+     * @return a new channel for the playback progress of the host, null unless the backend is
+     * Firebase; the LAN party server doesn't keep progress yet
+     * */
+    @JvmStatic
+    fun createProgressChannel(): ProgressChannel? =
+        if (factory === firebase) FirebaseProgressChannel() else null
+
+    /**
+     * @return a new channel for the view of the top of the queue maintained by the host, null
+     * unless the backend is Firebase: the LAN party server sends each change as a small delta, so
+     * attendees keep the whole queue
+     * */
+    @JvmStatic
+    fun createQueueViewChannel(): QueueViewChannel? =
+        if (factory === firebase) FirebaseQueueViewChannel() else null
+
+    /**
+     * Replace the backend for all instances created afterwards.
+     * @param factory
+     * */
+    @JvmStatic
+    fun setFactory(factory: () -> PartyBackend) {
+        this.factory = factory
+    }
+
+    /**
+     * Use a LAN party server for all instances created afterwards.
+     * @param address host and optional port of the server; Firebase if null or blank
+     * */
+    @JvmStatic
+    fun useLanServer(address: String?) {
+        if (address.isNullOrBlank()) {
+            factory = firebase
+            return
+        }
+        val hostAndPort = address.trim().let {
+            if (it.contains(':')) it else "$it:${LanProtocol.DEFAULT_PORT}"
+        }
+        val backend = synchronized(lanBackends) {
+            lanBackends.getOrPut(hostAndPort) {
+                // notify the screens on the main thread, as Firebase does
+                val mainHandler = Handler(Looper.getMainLooper())
+                LanPartyBackend(hostAndPort, Executor { mainHandler.post(it) })
+            }
+        }
+        factory = { backend }
+    }
+
+    /**
+     * Use the backend of a party for all instances created afterwards: the LAN party server named
+     * in the key of LAN parties, Firebase otherwise.
+     * @param partyKey e.g. entered or scanned to join the party
+     * */
+    @JvmStatic
+    fun useBackendOf(partyKey: String) {
+        useLanServer(LanProtocol.addressOf(partyKey))
+    }
+}
@@ -0,0 +1,199 @@
+package edu.illinois.cs465.spotmix.api.firebase
+
+import android.os.Handler
+import android.os.Looper
+import com.google.firebase.database.*
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.playback.CommandChannel
+import edu.illinois.cs465.spotmix.playback.CommandChannel.AckCallback
+import edu.illinois.cs465.spotmix.playback.CommandChannel.Consumer
+import edu.illinois.cs465.spotmix.playback.PlaybackCommand
+import edu.illinois.cs465.spotmix.util.AppMetrics
+import java.util.*
+
+/**
+ * Firebase implementation of the CommandChannel. Commands are pushed to commands/{party key}, so
+ * their push ids keep them in order, and the host acknowledges them per issuer in
+ * commandAcks/{party key}/{issuer}. Both are kept next to the parties instead of inside them, so
+ * a command doesn't notify the party listeners; commands are tiny and decoded on the main thread.
+ * The issuer changes with every channel, so its acknowledgements are removed once it is closed or
+ * disconnects.
+ * @param database handle to the root of the party database
+ * */
+class FirebaseCommandChannel @JvmOverloads constructor(
+    private val database: DatabaseReference = FirebaseDatabase.getInstance().reference
+) : CommandChannel {
+
+    companion object {
+
+        private const val COMMANDS = "commands"
+        private const val ACKS = "commandAcks"
+
+        // commands not acknowledged within this time are reported as timed out
+        private const val ACK_TIMEOUT_MS = 5000L
+
+        /**
+         * Delete the commands and acknowledgements of a party, e.g. when it is closed.
+         * @param database handle to the root of the party database
+         * @param partyKey
+         * */
+        fun delete(database: DatabaseReference, partyKey: String) {
+            database.child(COMMANDS).child(partyKey).removeValue()
+            database.child(ACKS).child(partyKey).removeValue()
+        }
+    }
+
+    /**
+     * A sent command waiting for its acknowledgement.
+     * */
+    private class Pending(
+        val command: PlaybackCommand,
+        val sentNanos: Long,
+        val callback: AckCallback?,
+        val timeout: Runnable
+    )
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    // identifies the commands of this channel; push ids are unique across all clients
+    private val issuer: String = database.push().key!!
+
+    private var lastSeq = 0L
+
+    // sent commands by sequence number
+    private val pending = TreeMap<Long, Pending>()
+
+    // acknowledgements of this issuer, listened to once a command was sent
+    private var acks: DatabaseReference? = null
+    private var ackListener: ValueEventListener? = null
+
+    // commands of the consumed party
+    private var commands: DatabaseReference? = null
+    private var commandListener: ChildEventListener? = null
+
+    override fun send(
+        party: Party,
+        type: PlaybackCommand.Type,
+        trackUri: String?,
+        positionMs: Long,
+        rank: Int,
+        callback: AckCallback?
+    ): PlaybackCommand {
+        val partyKey = party.key!!
+        val command = PlaybackCommand(type, issuer, ++lastSeq, trackUri, positionMs, rank)
+        listenForAcks(partyKey)
+        val timeout = Runnable { timedOut(command.seq) }
+        pending[command.seq] = Pending(command, System.nanoTime(), callback, timeout)
+        mainHandler.postDelayed(timeout, ACK_TIMEOUT_MS)
+        database.child(COMMANDS).child(partyKey).push().setValue(FirebaseTrees.command(command))
+        AppMetrics.COMMANDS_SENT.increment()
+        AppMetrics.FIREBASE_WRITES.increment()
+        return command
+    }
+
+    override fun consume(party: Party, consumer: Consumer) {
+        stopConsuming()
+        val partyKey = party.key!!
+        val commands = database.child(COMMANDS).child(partyKey)
+        // applied locally before the listener is added, so it only gets the commands sent later
+        commands.removeValue()
+        val listener = object : ChildEventListener {
+            override fun onChildAdded(snapshot: DataSnapshot, previousChildName: String?) {
+                // executed once, also removes commands that can't be read
+                snapshot.ref.removeValue()
+                val command = SnapshotMapper.command(snapshot.value) ?: return
+                consumer.onCommand(command)
+                AppMetrics.COMMANDS_EXECUTED.increment()
+                database.child(ACKS).child(partyKey).child(command.issuer).setValue(command.seq)
+                AppMetrics.FIREBASE_WRITES.increment()
+            }
+
+            override fun onChildChanged(snapshot: DataSnapshot, previousChildName: String?) {
+                // commands are never changed
+            }
+
+            override fun onChildRemoved(snapshot: DataSnapshot) {
+                // removed by the host once executed
+            }
+
+            override fun onChildMoved(snapshot: DataSnapshot, previousChildName: String?) {
+                // push ids keep the order
+            }
+
+            override fun onCancelled(error: DatabaseError) {
+                // nothing
+            }
+        }
+        commands.addChildEventListener(listener)
+        this.commands = commands
+        commandListener = listener
+    }
+
+    override fun close(party: Party) {
+        stopConsuming()
+        stopListeningForAcks()
+        pending.values.forEach { mainHandler.removeCallbacks(it.timeout) }
+        pending.clear()
+    }
+
+    private fun stopConsuming() {
+        commandListener?.let { commands?.removeEventListener(it) }
+        commands = null
+        commandListener = null
+    }
+
+    /**
+     * Stop listening to the acknowledgements of this issuer and remove them, nobody reads them
+     * anymore.
+     * */
+    private fun stopListeningForAcks() {
+        val acks = acks ?: return
+        ackListener?.let { acks.removeEventListener(it) }
+        acks.onDisconnect().cancel()
+        acks.removeValue()
+        AppMetrics.FIREBASE_WRITES.increment()
+        this.acks = null
+        ackListener = null
+    }
+
+    /**
+     * Listen to the acknowledgements of this issuer in a party.
+     * @param partyKey
+     * */
+    private fun listenForAcks(partyKey: String) {
+        val acks = database.child(ACKS).child(partyKey).child(issuer)
+        if (acks == this.acks) {
+            return
+        }
+        stopListeningForAcks()
+        // also removed if the app dies without closing the channel
+        acks.onDisconnect().removeValue()
+        val listener = object : ValueEventListener {
+            override fun onDataChange(snapshot: DataSnapshot) {
+                // acknowledgements in quick succession may arrive as the last one only
+                val acked = (snapshot.value as? Number)?.toLong() ?: return
+                val now = System.nanoTime()
+                while (pending.isNotEmpty() && pending.firstKey() <= acked) {
+                    val acknowledged = pending.pollFirstEntry().value
+                    mainHandler.removeCallbacks(acknowledged.timeout)
+                    val latencyNanos = now - acknowledged.sentNanos
+                    AppMetrics.COMMAND_LATENCY_NANOS.record(latencyNanos)
+                    acknowledged.callback?.onAcknowledged(acknowledged.command, latencyNanos)
+                }
+            }
+
+            override fun onCancelled(error: DatabaseError) {
+                // nothing
+            }
+        }
+        acks.addValueEventListener(listener)
+        this.acks = acks
+        ackListener = listener
+    }
+
+    private fun timedOut(seq: Long) {
+        val timedOut = pending.remove(seq) ?: return
+        AppMetrics.COMMANDS_TIMED_OUT.increment()
+        timedOut.callback?.onTimedOut(timedOut.command)
+    }
+}
@@ -1,111 +1,71 @@
 package edu.illinois.cs465.spotmix.api.firebase
 
 import com.google.firebase.database.*
+import edu.illinois.cs465.spotmix.api.PartyBackend
+import edu.illinois.cs465.spotmix.api.PartyBackend.*
+import edu.illinois.cs465.spotmix.api.SubscriptionTier
+import edu.illinois.cs465.spotmix.api.SubscriptionTiers
+import edu.illinois.cs465.spotmix.api.WriteQuotas
 import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.FractionalIndex
 import edu.illinois.cs465.spotmix.api.firebase.models.Party
 import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
 import edu.illinois.cs465.spotmix.api.spotify.models.Track
 import edu.illinois.cs465.spotmix.api.spotify.models.User
+import edu.illinois.cs465.spotmix.replay.SessionEvent
+import edu.illinois.cs465.spotmix.util.AppMetrics
+import edu.illinois.cs465.spotmix.util.SessionRecording
 
 /**
- * Helper class to simplify the interactions with Firebase Database.
+ * Helper class to simplify the interactions with Firebase Database, the Firebase implementation
+ * of the PartyBackend.
+ * A party is stored in partitions that are read and subscribed to separately:
+ * parties/{key}/meta holds the name, queues/{key} the queue, attendees/{key} the attendees,
+ * playback/{key} whether it plays, the current track and the history, and secrets/{key} the access
+ * token, which is only read when joining.
+ * @param database handle to the root of the party database
  * */
-class FirebaseHelper {
-
-    /**
-     * Callback used for creating parties.
-     * */
-    interface CreateCallback {
-        /**
-         * Called when creation process is done, either successful or unsuccessful.
-         * When unsuccessful the instances are null.
-         * @param party
-         * @param attendee
-         * */
-        fun onPartyCreated(party: Party?, attendee: Attendee?)
-    }
-
-    /**
-     * Callback used for joining parties.
-     * */
-    interface JoinCallback {
-
-        /**
-         * Called when join process is done, either successful or unsuccessful.
-         * When unsuccessful the instances are null.
-         * @param party
-         * @param attendee
-         * */
-        fun onPartyJoined(party: Party?, attendee: Attendee?)
-    }
-
-    /**
-     * Interface for receiving changes to a party.
-     * */
-    interface PartyListener {
-
-        /**
-         * Called if there was a change in the party.
-         * @param party
-         * */
-        fun onPartyChanged(party: Party)
+class FirebaseHelper @JvmOverloads constructor(
+    private val database: DatabaseReference = FirebaseDatabase.getInstance().reference
+) : PartyBackend {
+
+    companion object {
+        private const val PARTIES = "parties"
+        private const val META = "meta"
+        private const val QUEUES = "queues"
+        private const val ATTENDEES = "attendees"
+        private const val PLAYBACK = "playback"
+        private const val SECRETS = "secrets"
+
+        // shared by all instances, every screen creates its own backend; the only quota on
+        // Firebase, which has no server of the app to check the writes again
+        private val writeQuotas = WriteQuotas<Attendee>()
     }
 
-    /**
-     * Interface for receiving changes to the attendees list.
-     * */
-    interface AttendeeListener {
-
-        /**
-         * Called when new attendee was added to the party.
-         * @param attendees
-         * @param position
-         * */
-        fun onAttendeeAdded(attendees: List<Attendee>, position: Int)
-
-        /**
-         * Called when attendee was removed from the party.
-         * @param attendees
-         * @param position
-         * */
-        fun onAttendeeRemoved(attendees: List<Attendee>, position: Int)
-
-        /**
-         * Called when attendee state changed, e.g. becoming an admin.
-         * @param attendees
-         * @param position
-         * */
-        fun onAttendeeChanged(attendees: List<Attendee>, position: Int)
-
-        /**
-         * Called when whole list changed.
-         * @param attendees
-         * */
-        fun onAttendeeListChanged(attendees: List<Attendee>)
-    }
-
-    /**
-     * Callback for adding track to the queue.
-     * */
-    interface AddToQueueCallback {
-
-        /**
-         * Called when track was added to the queue.
-         * @param track; null in case of an error
-         * */
-        fun onAddedTrackToQueue(track: QueueTrack?)
+    // the nodes the party listeners are subscribed to, to remove their listeners later
+    private val subscriptions = mutableListOf<Pair<DatabaseReference, ValueEventListener>>()
+    // incremented when unsubscribing, snapshots of earlier subscriptions are dropped
+    private var subscriptionNumber = 0
+    // party the party listeners are subscribed to, null while there are none
+    private var subscribedParty: Party? = null
+    // partitions the party listeners asked for
+    private var subscribedPartitions: Set<Partition> = emptySet()
+    // last party delivered, the listeners of the partitions apply their values to it
+    private var lastParty: Party? = null
+    // subscribes again when the tier of the process changes
+    private val tierListener = object : SubscriptionTiers.Listener {
+        override fun onTierChanged(tier: SubscriptionTier) {
+            subscribedParty?.let {
+                unsubscribe()
+                subscribe(it, tier)
+            }
+        }
     }
-
-    // handle to Firebase Database
-    private var database = FirebaseDatabase.getInstance().reference
-
-    // reference to ValueEventListener to remove it later
-    private var partyValueEventListener: ValueEventListener? = null
     // reference to childEventListener to remove it later
     private var attendeeChildEventListener: ChildEventListener? = null
 
-    // all subscribed party listeners
-    private var partyListeners: MutableList<PartyListener> = mutableListOf()
+    // all subscribed party listeners and the partitions they asked for
+    private var partyListeners: MutableMap<PartyListener, Set<Partition>> = mutableMapOf()
     // all subscribed attendee listeners
     private var attendeeListeners: MutableList<AttendeeListener> = mutableListOf()
 
@@ -116,19 +76,24 @@ class FirebaseHelper {
      * @param accessToken the token to access the Spotify Api, this should be provided by the host.
      * @return a new party instance
      * */
-    fun createParty(partyName: String, host: User, accessToken: String, callback: CreateCallback) {
-        // create new child node
-        val partyDb = database.push()
+    override fun createParty(partyName: String, host: User, accessToken: String, callback: CreateCallback) {
+        // create a unique key
+        val partyKey = database.child(PARTIES).push().key!!
         // create party instance
-        val partyKey = partyDb.key
         val party = Party(partyName, partyKey)
         // add accessToken to party so attendees can access the Spotify Api
         party.accessToken = accessToken
         // add host as attendee
         val attendee = Attendee(host.display_name, admin = true)
         party.attendees.add(attendee)
-        // set party in party database
-        partyDb.setValue(party)
+        // write all partitions at once; the queue is empty, so there is no node for it yet
+        database.updateChildren(mapOf(
+            "$PARTIES/$partyKey/$META" to FirebaseTrees.meta(party),
+            "$ATTENDEES/$partyKey" to party.attendees.map(FirebaseTrees::attendee),
+            "$PLAYBACK/$partyKey" to FirebaseTrees.playback(party.playback()),
+            "$SECRETS/$partyKey" to FirebaseTrees.secrets(party)
+        ))
+        recordWrite(PayloadSize.party(party))
         // return newly created party
         callback.onPartyCreated(party, attendee)
     }
@@ -138,28 +103,81 @@ class FirebaseHelper {
      * @param partyCode
      * @param attendeeName
      * */
-    fun joinParty(partyCode: String, attendeeName: String, callback: JoinCallback) {
-        // get party instance from firebase
-        val partyDb = database.child(partyCode)
-        // read party data from firebase
-        partyDb.addValueEventListener(object : ValueEventListener {
-            override fun onCancelled(dataSnapshot: DatabaseError) {
+    override fun joinParty(partyCode: String, attendeeName: String, callback: JoinCallback) {
+        val metaDb = database.child(PARTIES).child(partyCode).child(META)
+        val secretsDb = database.child(SECRETS).child(partyCode)
+        // only the partitions needed to join are read, the party screen subscribes to the others
+        readOnce(metaDb, SnapshotMapper::partyMeta) { party ->
+            if (party == null) {
                 callback.onPartyJoined(null, null)
+                return@readOnce
             }
-
-            override fun onDataChange(snapshot: DataSnapshot) {
-                // unregister listener
-                partyDb.removeEventListener(this)
-                // get party instance
-                val party = snapshot.getValue(Party::class.java)
+            readOnce(secretsDb, SnapshotMapper::accessToken) { accessToken ->
                 // add self as attendee to party
                 val attendee = Attendee(attendeeName)
-                party?.attendees?.add(attendee)
-                // write new party state
-                // TODO: update value instead of setting it
-                partyDb.child("attendees").setValue(party?.attendees)
-                // return to callback
-                callback.onPartyJoined(party, attendee)
+                transactAttendees(partyCode, { it.add(attendee) }) { attendees ->
+                    if (attendees == null) {
+                        callback.onPartyJoined(null, null)
+                        return@transactAttendees
+                    }
+                    party.key = partyCode
+                    party.accessToken = accessToken
+                    party.attendees.addAll(attendees)
+                    // return to callback
+                    callback.onPartyJoined(party, attendee)
+                }
+            }
+        }
+    }
+
+    /**
+     * Change the attendees partition of a party in a transaction. With the disk cache a single
+     * read may return an out of date list, writing it back would drop the attendees who joined
+     * meanwhile.
+     * @param partyKey
+     * @param change applied to the stored attendees
+     * @param callback called with the committed attendees, null if the change failed
+     * */
+    private fun transactAttendees(
+        partyKey: String,
+        change: (MutableList<Attendee>) -> Unit,
+        callback: (List<Attendee>?) -> Unit = {}
+    ) {
+        database.child(ATTENDEES).child(partyKey).runTransaction(object : Transaction.Handler {
+            override fun doTransaction(data: MutableData): Transaction.Result {
+                val attendees = SnapshotMapper.attendees(data.value)
+                change(attendees)
+                data.value = attendees.map(FirebaseTrees::attendee)
+                return Transaction.success(data)
+            }
+
+            override fun onComplete(error: DatabaseError?, committed: Boolean, snapshot: DataSnapshot?) {
+                if (error != null || !committed) {
+                    callback(null)
+                    return
+                }
+                val attendees = SnapshotMapper.attendees(snapshot?.value)
+                recordWrite(PayloadSize.attendees(attendees))
+                callback(attendees)
+            }
+        })
+    }
+
+    /**
+     * Read the value of a node once.
+     * @param ref
+     * @param mapper one of the SnapshotMapper functions
+     * @param callback called on the main thread with the decoded model; null if there was no value
+     * or it couldn't be read
+     * */
+    private fun <T> readOnce(ref: DatabaseReference, mapper: (Any?) -> T?, callback: (T?) -> Unit) {
+        ref.addListenerForSingleValueEvent(object : ValueEventListener {
+            override fun onCancelled(error: DatabaseError) {
+                callback(null)
+            }
+
+            override fun onDataChange(snapshot: DataSnapshot) {
+                SnapshotDecoder.decode(snapshot, mapper, callback)
             }
         })
     }
@@ -168,11 +186,20 @@ class FirebaseHelper {
      * Admin only: close a given party. Entirely delete the party from Firebase.
      * @param party
      * */
-    fun closeParty(party: Party) {
-        // get party instance from Firebase
-        val partyDb = database.child(party.key!!)
-        // delete party from Firebase
-        partyDb.removeValue()
+    override fun closeParty(party: Party) {
+        val partyKey = party.key!!
+        // delete all partitions of the party from Firebase at once
+        database.updateChildren(mapOf(
+            "$PARTIES/$partyKey" to null,
+            "$QUEUES/$partyKey" to null,
+            "$ATTENDEES/$partyKey" to null,
+            "$PLAYBACK/$partyKey" to null,
+            "$SECRETS/$partyKey" to null
+        ))
+        // and the commands sent to its host, its progress and its queue view
+        FirebaseCommandChannel.delete(database, party.key!!)
+        FirebaseProgressChannel.delete(database, party.key!!)
+        FirebaseQueueViewChannel.delete(database, party.key!!)
     }
 
     /**
@@ -180,54 +207,335 @@ class FirebaseHelper {
      * @param party
      * @param attendee the attendee to remove
      * */
-    fun removeAttendee(party: Party, attendee: Attendee) {
+    override fun removeAttendee(party: Party, attendee: Attendee) {
         party.attendees.remove(attendee)
-        // get party instance from Firebase
-        val partyDb = database.child(party.key!!)
         // update firebase
-        // TODO: update value instead of setting it
-        partyDb.child("attendees").setValue(party.attendees)
+        transactAttendees(party.key!!, { it.remove(attendee) })
     }
 
     /**
-     * Add a Spotify track to the current queue of the party.
+     * Add a Spotify track to the current queue of the party. The track is added to the stored
+     * queue in a transaction, screens following the queue view don't have the queue, and their
+     * copy may not have arrived yet; a track queued meanwhile isn't added twice.
      * @param party
      * @param track
+     * @param attendee
+     * */
+    override fun addTrackToQueue(
+        party: Party,
+        track: Track,
+        attendee: Attendee,
+        callback: AddToQueueCallback
+    ): Boolean {
+        if (!writeQuotas.tryAcquire(attendee)) {
+            return false
+        }
+        // add track to queue, shown as queued right away
+        if (!party.isTrackInQueue(track)) {
+            party.addToQueue(QueueTrack(track, addedBy = attendee.copy()))
+        }
+        // entry added by the last run of the transaction, null if the track was stored already
+        var added: QueueTrack? = null
+        transactQueue(party.key!!, onStored = { committed ->
+            callback.onAddedTrackToQueue(if (committed) added else null)
+        }) { stored ->
+            added = null
+            if (stored.positionInQueue(track.uri) == -1) {
+                val queueTrack = QueueTrack(track, addedBy = attendee.copy())
+                stored.addToQueue(queueTrack)
+                added = queueTrack
+            }
+        }
+        return true
+    }
+
+    /**
+     * Admin only: remove a track from the queue of the party.
+     * @param party
+     * @param trackUri
+     * */
+    override fun removeTrackFromQueue(party: Party, trackUri: String) {
+        val position = party.positionInQueue(trackUri)
+        if (position != -1) {
+            party.removeFromQueue(position)
+        }
+        // update the stored queue, admins following the queue view don't have it
+        transactQueue(party.key!!) { stored ->
+            val storedPosition = stored.positionInQueue(trackUri)
+            if (storedPosition != -1) {
+                stored.removeFromQueue(storedPosition)
+            }
+        }
+    }
+
+    /**
+     * Host only: move a track within the tracks with as many upvotes. Only the key of the moved
+     * track is written, to its entry in the stored queue, which readers sort; moves to or from the
+     * head write the whole queue instead, so the head stays first in the stored queue for
+     * skipToNext. So do moves that need the keys spread out again first.
+     * @param party
+     * @param trackUri
+     * @param rank
+     * */
+    override fun moveTrackInQueue(party: Party, trackUri: String, rank: Int) {
+        val from = party.positionInQueue(trackUri)
+        if (from == -1) {
+            return
+        }
+        val storedIndex = party.queue[from].storedIndex
+        val rebalanced = FractionalIndex.needsRebalance(party.queue)
+        val to = party.reorder(from, rank)
+        if (to == -1) {
+            return
+        }
+        if (rebalanced || storedIndex == -1 || from == 0 || to == 0) {
+            moveInStoredQueue(party.key!!, trackUri, rank)
+            return
+        }
+        val position = party.queue[to].position!!
+        database.child(QUEUES).child(party.key!!).child(storedIndex.toString())
+            .runTransaction(object : Transaction.Handler {
+                override fun doTransaction(data: MutableData): Transaction.Result {
+                    // the host follows the queue, so the entry is cached unless it's gone
+                    val stored = SnapshotMapper.queueTrack(data.value)
+                    if (stored?.track?.uri != trackUri) {
+                        // the stored queue was written since it was read
+                        return Transaction.abort()
+                    }
+                    data.child("position").value = position
+                    return Transaction.success(data)
+                }
+
+                override fun onComplete(error: DatabaseError?, committed: Boolean, snapshot: DataSnapshot?) {
+                    if (error != null) {
+                        return
+                    }
+                    if (committed) {
+                        recordWrite(PayloadSize.position(position))
+                    } else {
+                        moveInStoredQueue(party.key!!, trackUri, rank)
+                    }
+                }
+            })
+    }
+
+    /**
+     * Move a track within the stored queue, which is written as a whole.
+     * @param partyKey
+     * @param trackUri
+     * @param rank
      * */
-    fun addTrackToQueue(party: Party, track: Track, callback: AddToQueueCallback) {
-        // add track to queue
-        val queueTrack = QueueTrack(track)
-        party.queue.add(queueTrack)
-        // get party instance from Firebase
-        val partyDb = database.child(party.key!!)
-        // update queue
-        partyDb.child("queue").setValue(party.queue)
-            .addOnSuccessListener { callback.onAddedTrackToQueue(queueTrack) }
-            .addOnFailureListener { callback.onAddedTrackToQueue(null) }
+    private fun moveInStoredQueue(partyKey: String, trackUri: String, rank: Int) {
+        transactQueue(partyKey) { stored ->
+            val position = stored.positionInQueue(trackUri)
+            if (position != -1) {
+                stored.reorder(position, rank)
+            }
+        }
+    }
+
+    /**
+     * Host only: spread the keys of the stored queue out again, if they still need it.
+     * @param party
+     * */
+    override fun rebalanceQueue(party: Party) {
+        if (!FractionalIndex.needsRebalance(party.queue)) {
+            return
+        }
+        party.rebalance()
+        transactQueue(party.key!!) { stored ->
+            if (FractionalIndex.needsRebalance(stored.queue)) {
+                stored.rebalance()
+            }
+        }
+    }
+
+    /**
+     * Host only: switch between playing the most upvoted track next and fair-share scheduling.
+     * @param party
+     * @param fairShare
+     * */
+    override fun setFairShare(party: Party, fairShare: Boolean) {
+        party.fairShare = fairShare
+        // part of the playback, so skipping reads it in the same transaction
+        database.child(PLAYBACK).child(party.key!!).child("fairShare").setValue(fairShare)
+        recordWrite(PayloadSize.boolean(fairShare))
     }
 
     /**
      * Playback started.
      * @param party
      * */
-    fun playing(party: Party) {
+    override fun playing(party: Party) {
         party.playing = true
-        // get party instance from Firebase
-        val partyDb = database.child(party.key!!)
         // update playing value
-        partyDb.child("playing").setValue(party.playing)
+        database.child(PLAYBACK).child(party.key!!).child("playing").setValue(party.playing)
+        recordWrite(PayloadSize.boolean(party.playing))
     }
 
     /**
      * Paused playback.
      * @param
      * */
-    fun paused(party: Party) {
+    override fun paused(party: Party) {
         party.playing = false
-        // get party instance from Firebase
-        val partyDb = database.child(party.key!!)
         // update playing value
-        partyDb.child("playing").setValue(party.playing)
+        database.child(PLAYBACK).child(party.key!!).child("playing").setValue(party.playing)
+        recordWrite(PayloadSize.boolean(party.playing))
+    }
+
+    /**
+     * Admin only: finish the current track, the next track of the queue becomes the current track.
+     * @param party
+     * */
+    override fun skipToNext(party: Party) {
+        val partyKey = party.key!!
+        val current = party.currentTrack?.track?.uri
+        party.advance()
+        // the queue of the party may be out of date, e.g. in the background, so the head is read
+        // from the server; the playback and the queue are separate nodes and change one after
+        // the other, only the device whose transaction moved the head dequeues it. In fair-share
+        // mode any track may be next, so the whole queue is read
+        val fairShare = party.fairShare
+        val storedQueue = database.child(QUEUES).child(partyKey)
+        readStored(if (fairShare) storedQueue else storedQueue.child("0")) { stored ->
+            val candidates = if (fairShare) {
+                SnapshotMapper.queue(stored)
+            } else {
+                listOfNotNull(SnapshotMapper.queueTrack(stored))
+            }
+            transactPlayback(partyKey, current, candidates, { it.advance() }) { changed ->
+                changed.currentTrack?.let { dequeued ->
+                    transactQueue(partyKey) { queue ->
+                        val position = queue.positionInQueue(dequeued.track.uri)
+                        if (position != -1) {
+                            queue.removeFromQueue(position)
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Admin only: play the last track of the history again.
+     * @param party
+     * */
+    override fun skipToPrevious(party: Party) {
+        val partyKey = party.key!!
+        val current = party.currentTrack?.track?.uri
+        party.previous()
+        transactPlayback(partyKey, current, emptyList(), { it.previous() }) { changed ->
+            // the replaced current track is the only one previous() queued
+            changed.queue.firstOrNull()?.let { requeued ->
+                transactQueue(partyKey) { queue ->
+                    if (queue.positionInQueue(requeued.track.uri) == -1) {
+                        queue.requeue(requeued)
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the value a node has on the server. Single value events may return an out of date
+     * value from the persistent cache, a transaction leaving the value as it is is checked
+     * against the server and retried with the stored value.
+     * @param ref
+     * @param callback called with the raw stored value; not called if it couldn't be read
+     * */
+    private fun readStored(ref: DatabaseReference, callback: (Any?) -> Unit) {
+        ref.runTransaction(object : Transaction.Handler {
+            override fun doTransaction(data: MutableData): Transaction.Result =
+                Transaction.success(data)
+
+            override fun onComplete(error: DatabaseError?, committed: Boolean, snapshot: DataSnapshot?) {
+                if (error == null && committed) {
+                    callback(snapshot?.value)
+                }
+            }
+        })
+    }
+
+    /**
+     * Change the playback partition of a party in a transaction, so concurrent skips are applied
+     * once.
+     * @param partyKey
+     * @param current uri of the current track the change expects, null if none
+     * @param queue the tracks of the queue the change may dequeue
+     * @param change applied to a party with the stored playback and the passed queue
+     * @param onCommitted called with the changed party if the change was stored
+     * */
+    private fun transactPlayback(
+        partyKey: String,
+        current: String?,
+        queue: List<QueueTrack>,
+        change: (Party) -> Unit,
+        onCommitted: (Party) -> Unit
+    ) {
+        database.child(PLAYBACK).child(partyKey).runTransaction(object : Transaction.Handler {
+            // party changed by the last run of the transaction
+            private var changed: Party? = null
+
+            override fun doTransaction(data: MutableData): Transaction.Result {
+                changed = null
+                // null until the party was read, the transaction is retried with the stored value
+                val stored = SnapshotMapper.playback(data.value) ?: return Transaction.success(data)
+                if (stored.currentTrack?.track?.uri != current) {
+                    // another admin skipped meanwhile
+                    return Transaction.abort()
+                }
+                val party = Party("", partyKey, queue.toMutableList()).withPlayback(stored)
+                change(party)
+                data.value = FirebaseTrees.playback(party.playback())
+                changed = party
+                return Transaction.success(data)
+            }
+
+            override fun onComplete(error: DatabaseError?, committed: Boolean, snapshot: DataSnapshot?) {
+                // listeners are notified of the outcome either way
+                if (error == null && committed) {
+                    // recorded once for the committed run, not for every retry
+                    SnapshotMapper.playback(snapshot?.value)?.let {
+                        recordWrite(PayloadSize.playback(it))
+                    }
+                    changed?.let(onCommitted)
+                }
+            }
+        })
+    }
+
+    /**
+     * Change the queue partition of a party in a transaction, so the change applies to the stored
+     * queue rather than to an out of date copy.
+     * @param partyKey
+     * @param record records the estimated size of the committed queue
+     * @param onStored called on the main thread with whether the change was stored
+     * @param change applied to a party with the stored queue
+     * */
+    private fun transactQueue(
+        partyKey: String,
+        record: (Int) -> Unit = this::recordWrite,
+        onStored: (Boolean) -> Unit = {},
+        change: (Party) -> Unit
+    ) {
+        database.child(QUEUES).child(partyKey).runTransaction(object : Transaction.Handler {
+            override fun doTransaction(data: MutableData): Transaction.Result {
+                val party = Party("", partyKey, SnapshotMapper.queue(data.value))
+                change(party)
+                data.value = party.queue.map(FirebaseTrees::queueTrack)
+                return Transaction.success(data)
+            }
+
+            override fun onComplete(error: DatabaseError?, committed: Boolean, snapshot: DataSnapshot?) {
+                // listeners are notified of the outcome either way; recorded once for the
+                // committed run, not for every retry
+                if (error == null && committed) {
+                    record(PayloadSize.queue(SnapshotMapper.queue(snapshot?.value)))
+                }
+                onStored(error == null && committed)
+            }
+        })
     }
 
     /**
@@ -236,15 +544,20 @@ class FirebaseHelper {
      * @param track
      * @param attendee the attendee voting on the track
      * */
-    fun upvoteTrack(party: Party, track: QueueTrack, attendee: Attendee) {
-        // upvote the track
-        track.upvotes.add(attendee)
-        // TODO: more sophisticated algorithm
-        party.queue.sortByDescending { it.upvotes.size }
-        // get party instance from Firebase
-        val partyDb = database.child(party.key!!)
-        // update queue
-        partyDb.child("queue").setValue(party.queue)
+    override fun upvoteTrack(party: Party, track: QueueTrack, attendee: Attendee): Boolean {
+        if (!writeQuotas.tryAcquire(attendee)) {
+            return false
+        }
+        // upvote the track; moves it up in the queue
+        party.upvote(track, attendee)
+        // update the stored queue, attendees following the queue view don't have it
+        transactQueue(party.key!!, this::recordVote) { stored ->
+            val position = stored.positionInQueue(track.track)
+            if (position != -1 && !stored.queue[position].hasVoted(attendee)) {
+                stored.upvote(track, attendee)
+            }
+        }
+        return true
     }
 
     /**
@@ -253,41 +566,74 @@ class FirebaseHelper {
      * @param track
      * @param attendee the attendee voting on the track
      * */
-    fun downvoteTrack(party: Party, track: QueueTrack, attendee: Attendee) {
+    override fun downvoteTrack(party: Party, track: QueueTrack, attendee: Attendee): Boolean {
+        if (!writeQuotas.tryAcquire(attendee)) {
+            return false
+        }
         // downvote the track
-        track.downvotes.add(attendee)
-        // TODO: more sophisticated algorithm
-        party.queue.sortByDescending { it.upvotes.size }
-        // get party instance from Firebase
-        val partyDb = database.child(party.key!!)
-        // update queue
-        partyDb.child("queue").setValue(party.queue)
+        party.downvote(track, attendee)
+        // update the stored queue, attendees following the queue view don't have it
+        transactQueue(party.key!!, this::recordVote) { stored ->
+            val position = stored.positionInQueue(track.track)
+            if (position != -1 && !stored.queue[position].hasVoted(attendee)) {
+                stored.downvote(track, attendee)
+            }
+        }
+        return true
+    }
+
+    /**
+     * Record a write to Firebase.
+     * @param bytes estimated size of the written JSON
+     * */
+    private fun recordWrite(bytes: Int) {
+        AppMetrics.FIREBASE_WRITES.increment()
+        AppMetrics.FIREBASE_WRITE_BYTES.record(bytes.toLong())
     }
 
     /**
-     * Get notified when the state of the party changes.
+     * Record the write of a vote, votes upload the whole queue.
+     * @param bytes estimated size of the written JSON
+     * */
+    private fun recordVote(bytes: Int) {
+        recordWrite(bytes)
+        AppMetrics.FIREBASE_VOTE_BYTES.record(bytes.toLong())
+    }
+
+    /**
+     * Get notified when the queue or the playback of the party changes.
      * @param party
      * @param listener
      * */
-    fun addPartyListener(party: Party, listener: PartyListener) {
-        if (partyValueEventListener == null) {
-            partyValueEventListener = object : ValueEventListener {
-                override fun onCancelled(dataSnapshot: DatabaseError) {
-                    // nothing
-                }
+    override fun addPartyListener(party: Party, listener: PartyListener) =
+        addPartyListener(party, listener, Partition.values().toSet())
 
-                override fun onDataChange(snapshot: DataSnapshot) {
-                    if (snapshot.value != null) {
-                        // get party instance
-                        val newParty = snapshot.getValue(Party::class.java)!!
-                        // notfiy all subcribers
-                        partyListeners.forEach { it.onPartyChanged(newParty) }
-                    }
-                }
-            }
-            database.child(party.key!!).addValueEventListener(partyValueEventListener!!)
+    /**
+     * Get notified when some partitions of the party change. How much of them is received depends
+     * on the SubscriptionTier: the partitions in the foreground, only the current track and
+     * playing in the background, and nothing when idle. Changes are applied to the last party
+     * delivered, starting with the passed one.
+     * @param party
+     * @param listener
+     * @param partitions
+     * */
+    override fun addPartyListener(
+        party: Party,
+        listener: PartyListener,
+        partitions: Set<Partition>
+    ) {
+        partyListeners[listener] = partitions
+        if (subscribedParty == null) {
+            subscribedParty = party
+            lastParty = party
+            subscribedPartitions = partitions
+            subscribe(party, SubscriptionTiers.tier)
+            SubscriptionTiers.addListener(tierListener)
+        } else if (!subscribedPartitions.containsAll(partitions)) {
+            subscribedPartitions = subscribedPartitions + partitions
+            unsubscribe()
+            subscribe(party, SubscriptionTiers.tier)
         }
-        partyListeners.add(listener)
     }
 
     /**
@@ -295,67 +641,188 @@ class FirebaseHelper {
      * @param party
      * @param listener
      * */
-    fun removePartyListener(party: Party, listener: PartyListener) {
+    override fun removePartyListener(party: Party, listener: PartyListener) {
         partyListeners.remove(listener)
-        if (partyListeners.isEmpty()) {
-            database.child(party.key!!).removeEventListener(partyValueEventListener!!)
-            partyValueEventListener = null
+        if (partyListeners.isEmpty() && subscribedParty != null) {
+            SubscriptionTiers.removeListener(tierListener)
+            unsubscribe()
+            subscribedParty = null
+            subscribedPartitions = emptySet()
+            lastParty = null
+        }
+    }
+
+    /**
+     * Add the Firebase listeners of a tier for the subscribed partitions.
+     * @param party
+     * @param tier
+     * */
+    private fun subscribe(party: Party, tier: SubscriptionTier) {
+        val partyKey = party.key!!
+        val queue = Partition.QUEUE in subscribedPartitions
+        val playback = Partition.PLAYBACK in subscribedPartitions
+        val playbackDb = database.child(PLAYBACK).child(partyKey)
+        when (tier) {
+            // with the persistent cache, only the changes since the last sync are downloaded
+            SubscriptionTier.FOREGROUND -> {
+                if (queue) {
+                    listen(
+                        database.child(QUEUES).child(partyKey),
+                        SessionEvent.QUEUE_VALUE,
+                        SnapshotMapper::queue,
+                        { PayloadSize.queue(it ?: emptyList()) }
+                    ) { last, value -> value?.let { last.withQueue(it) } }
+                }
+                if (playback) {
+                    listen(
+                        playbackDb,
+                        SessionEvent.PLAYBACK_VALUE,
+                        SnapshotMapper::playback,
+                        { value -> value?.let { PayloadSize.playback(it) } ?: 0 }
+                    ) { last, value -> value?.let { last.withPlayback(it) } }
+                }
+            }
+            SubscriptionTier.BACKGROUND -> if (playback) {
+                listen(
+                    playbackDb.child("currentTrack"),
+                    null,
+                    SnapshotMapper::queueTrack,
+                    { value -> value?.let { PayloadSize.queueTrack(it) } ?: 0 }
+                ) { last, value -> last.copy(currentTrack = value) }
+                listen(
+                    playbackDb.child("playing"),
+                    null,
+                    { it as? Boolean },
+                    { PayloadSize.boolean(it ?: false) }
+                ) { last, value -> last.copy(playing = value ?: false) }
+            }
+            SubscriptionTier.IDLE -> {
+                // nothing is received until the tier rises, then the whole party is received again
+            }
         }
     }
 
+    /**
+     * Listen to the value of a node and apply it to the last party delivered. Values are decoded
+     * in the order they arrive, of each node only the newest one is delivered.
+     * @param ref
+     * @param type SessionEvent type to record the snapshots as, null to not record them
+     * @param mapper one of the SnapshotMapper functions
+     * @param size estimated size of a value
+     * @param apply returns the last party with the value, null to not deliver it, e.g. because
+     * the party was deleted
+     * */
+    private fun <T> listen(
+        ref: DatabaseReference,
+        type: Int?,
+        mapper: (Any?) -> T?,
+        size: (T?) -> Int,
+        apply: (Party, T?) -> Party?
+    ) {
+        val number = subscriptionNumber
+        val listener = object : ValueEventListener {
+            // number of the most recent snapshot, older ones are dropped after decoding
+            private var snapshotNumber = 0
+
+            override fun onCancelled(dataSnapshot: DatabaseError) {
+                // nothing
+            }
+
+            override fun onDataChange(snapshot: DataSnapshot) {
+                type?.let { SessionRecording.recordSnapshot(it, snapshot) }
+                val current = ++snapshotNumber
+                SnapshotDecoder.decode(snapshot, mapper) { value ->
+                    val party = lastParty?.let { apply(it, value) }
+                    val newest = current == snapshotNumber && number == subscriptionNumber
+                    if (party != null && newest) {
+                        AppMetrics.FIREBASE_RECEIVED_BYTES.record(size(value).toLong())
+                        dispatch(party)
+                    } else {
+                        AppMetrics.FIREBASE_SNAPSHOTS_DROPPED.increment()
+                    }
+                }
+            }
+        }
+        subscriptions.add(ref to listener)
+        ref.addValueEventListener(listener)
+    }
+
+    /**
+     * Remove the Firebase listeners of the current tier.
+     * */
+    private fun unsubscribe() {
+        subscriptionNumber++
+        subscriptions.forEach { (ref, listener) -> ref.removeEventListener(listener) }
+        subscriptions.clear()
+    }
+
+    /**
+     * Notify the party listeners of a new party state.
+     * @param party
+     * */
+    private fun dispatch(party: Party) {
+        lastParty = party
+        val start = System.nanoTime()
+        // notfiy all subcribers
+        partyListeners.keys.forEach { it.onPartyChanged(party) }
+        AppMetrics.FIREBASE_DISPATCH_NANOS.recordSince(start)
+    }
+
     /**
      * Get notified when the attendees list changes.
      * @param party
      * @param listener
      * */
-    fun addAttendeeListener(party: Party, listener: AttendeeListener) {
+    override fun addAttendeeListener(party: Party, listener: AttendeeListener) {
         if (attendeeChildEventListener == null) {
             // start with empty list
             val attendees = mutableListOf<Attendee>()
             attendeeChildEventListener = object : ChildEventListener {
                 override fun onChildAdded(snapshot: DataSnapshot, previousChildName: String?) {
+                    SessionRecording.recordSnapshot(
+                        SessionEvent.ATTENDEE_ADDED, snapshot, previousChildName
+                    )
                     // retrieve position of new attendee; +1 because previousChildName is reference to element in front in the list
-                    var position = previousChildName?.toInt()?.plus(1)
-                    if (position == null) {
-                        // is first element in list
-                        position = 0
-                    }
+                    val position = previousChildName?.toInt()?.plus(1) ?: 0
                     // get attendee instance
-                    val attendee = snapshot.getValue(Attendee::class.java)
-                    if (attendee != null) {
-                        // add new attendee
-                        attendees.add(position, attendee)
-                        // notify subscribers
-                        attendeeListeners.forEach { it.onAttendeeAdded(attendees, position!!) }
+                    SnapshotDecoder.decode(snapshot, SnapshotMapper::attendee) { attendee ->
+                        if (attendee != null) {
+                            // add new attendee
+                            attendees.add(position, attendee)
+                            // notify subscribers
+                            attendeeListeners.forEach { it.onAttendeeAdded(attendees, position) }
+                        }
                     }
                 }
 
                 override fun onChildRemoved(snapshot: DataSnapshot) {
+                    SessionRecording.recordSnapshot(SessionEvent.ATTENDEE_REMOVED, snapshot)
                     // get attendee instance
-                    val attendee = snapshot.getValue(Attendee::class.java)
-                    if (attendee != null) {
-                        // remove attendee
-                        val position = attendees.indexOf(attendee)
-                        attendees.remove(attendee)
-                        // notify subscribers
-                        attendeeListeners.forEach { it.onAttendeeRemoved(attendees, position) }
+                    SnapshotDecoder.decode(snapshot, SnapshotMapper::attendee) { attendee ->
+                        if (attendee != null) {
+                            // remove attendee
+                            val position = attendees.indexOf(attendee)
+                            attendees.remove(attendee)
+                            // notify subscribers
+                            attendeeListeners.forEach { it.onAttendeeRemoved(attendees, position) }
+                        }
                     }
                 }
 
                 override fun onChildChanged(snapshot: DataSnapshot, previousChildName: String?) {
+                    SessionRecording.recordSnapshot(
+                        SessionEvent.ATTENDEE_CHANGED, snapshot, previousChildName
+                    )
                     // retrieve position of changed attendee; +1 because previousChildName is reference to element in front in the list
-                    var position = previousChildName?.toInt()?.plus(1)
-                    if (position == null) {
-                        // is first element in list
-                        position = 0
-                    }
+                    val position = previousChildName?.toInt()?.plus(1) ?: 0
                     // get attendee instance
-                    val attendee = snapshot.getValue(Attendee::class.java)
-                    if (attendee != null) {
-                        // change attendee
-                        attendees[position!!] = attendee
-                        // notify subscribers
-                        attendeeListeners.forEach { it.onAttendeeChanged(attendees, position!!) }
+                    SnapshotDecoder.decode(snapshot, SnapshotMapper::attendee) { attendee ->
+                        if (attendee != null) {
+                            // change attendee
+                            attendees[position] = attendee
+                            // notify subscribers
+                            attendeeListeners.forEach { it.onAttendeeChanged(attendees, position) }
+                        }
                     }
                 }
 
@@ -369,8 +836,8 @@ class FirebaseHelper {
 
             }
             database
+                .child(ATTENDEES)
                 .child(party.key!!)
-                .child("attendees")
                 .addChildEventListener(attendeeChildEventListener!!)
         }
         attendeeListeners.add(listener)
@@ -381,12 +848,12 @@ class FirebaseHelper {
      * @param party
      * @param listener
      * */
-    fun removeAttendeeListener(party: Party, listener: AttendeeListener) {
+    override fun removeAttendeeListener(party: Party, listener: AttendeeListener) {
         attendeeListeners.remove(listener)
         if (attendeeListeners.isEmpty()) {
             database
+                .child(ATTENDEES)
                 .child(party.key!!)
-                .child("attendees")
                 .removeEventListener(attendeeChildEventListener!!)
             attendeeChildEventListener = null
         }
@@ -0,0 +1,73 @@
+package edu.illinois.cs465.spotmix.api.firebase
+
+import com.google.firebase.database.*
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.playback.ProgressAnchor
+import edu.illinois.cs465.spotmix.playback.ProgressChannel
+import edu.illinois.cs465.spotmix.playback.ProgressChannel.Listener
+import edu.illinois.cs465.spotmix.util.AppMetrics
+
+/**
+ * Firebase implementation of the ProgressChannel, the anchor of a party is kept in
+ * progress/{party key} next to the parties. Anchors are timed with the ServerClock rather than
+ * ServerValue.TIMESTAMP, which would be the time the write arrived instead of the time the
+ * position was taken.
+ * @param database handle to the root of the party database
+ * */
+class FirebaseProgressChannel @JvmOverloads constructor(
+    private val database: DatabaseReference = FirebaseDatabase.getInstance().reference
+) : ProgressChannel {
+
+    companion object {
+
+        private const val PROGRESS = "progress"
+
+        /**
+         * Delete the anchor of a party, e.g. when it is closed.
+         * @param database handle to the root of the party database
+         * @param partyKey
+         * */
+        fun delete(database: DatabaseReference, partyKey: String) {
+            database.child(PROGRESS).child(partyKey).removeValue()
+        }
+    }
+
+    private var progress: DatabaseReference? = null
+    private var progressListener: ValueEventListener? = null
+
+    init {
+        ServerClock.start()
+    }
+
+    override fun serverTimeMillis(): Long = ServerClock.now()
+
+    override fun publish(party: Party, anchor: ProgressAnchor) {
+        database.child(PROGRESS).child(party.key!!).setValue(FirebaseTrees.progressAnchor(anchor))
+        AppMetrics.PROGRESS_ANCHORS.increment()
+        AppMetrics.FIREBASE_WRITES.increment()
+    }
+
+    override fun listen(party: Party, listener: Listener) {
+        close(party)
+        val progress = database.child(PROGRESS).child(party.key!!)
+        val progressListener = object : ValueEventListener {
+            override fun onDataChange(snapshot: DataSnapshot) {
+                // a handful of fields, decoded on the main thread
+                listener.onProgress(SnapshotMapper.progressAnchor(snapshot.value))
+            }
+
+            override fun onCancelled(error: DatabaseError) {
+                // nothing
+            }
+        }
+        progress.addValueEventListener(progressListener)
+        this.progress = progress
+        this.progressListener = progressListener
+    }
+
+    override fun close(party: Party) {
+        progressListener?.let { progress?.removeEventListener(it) }
+        progress = null
+        progressListener = null
+    }
+}
@@ -0,0 +1,114 @@
+package edu.illinois.cs465.spotmix.api.firebase
+
+import com.google.firebase.database.*
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.sync.QueueProjection
+import edu.illinois.cs465.spotmix.sync.QueueViewChannel
+import edu.illinois.cs465.spotmix.sync.QueueViewChannel.Listener
+import edu.illinois.cs465.spotmix.util.AppMetrics
+
+/**
+ * Firebase implementation of the QueueViewChannel, the view of a party is kept in
+ * queueView/{party key} next to the parties as a list by rank. The host writes the changed ranks
+ * in one update, so listeners get a consistent view.
+ * @param database handle to the root of the party database
+ * */
+class FirebaseQueueViewChannel @JvmOverloads constructor(
+    private val database: DatabaseReference = FirebaseDatabase.getInstance().reference
+) : QueueViewChannel {
+
+    companion object {
+
+        private const val QUEUE_VIEW = "queueView"
+
+        /**
+         * Delete the view of a party, e.g. when it is closed.
+         * @param database handle to the root of the party database
+         * @param partyKey
+         * */
+        fun delete(database: DatabaseReference, partyKey: String) {
+            database.child(QUEUE_VIEW).child(partyKey).removeValue()
+        }
+    }
+
+    private val projection = QueueProjection()
+
+    // whether the whole view was written, it may be left over from an earlier host session before
+    private var published = false
+
+    private var view: DatabaseReference? = null
+    private var viewListener: ValueEventListener? = null
+
+    override fun publish(party: Party) {
+        val view = database.child(QUEUE_VIEW).child(party.key!!)
+        if (!published) {
+            projection.update(party.queue)
+            view.setValue(projection.entries.map(FirebaseTrees::queueViewEntry))
+            recordWrite(PayloadSize.queueView(projection.entries))
+            published = true
+            return
+        }
+        val changes = projection.update(party.queue)
+        if (changes.isEmpty()) {
+            // e.g. votes and additions below the top of the queue
+            return
+        }
+        view.updateChildren(changes.entries.associate { (rank, entry) ->
+            rank.toString() to entry?.let(FirebaseTrees::queueViewEntry)
+        })
+        // removed ranks are written as null
+        recordWrite(changes.values.sumBy { it?.let(PayloadSize::queueViewEntry) ?: 4 })
+    }
+
+    override fun listen(party: Party, listener: Listener) {
+        stopListening()
+        val view = database.child(QUEUE_VIEW).child(party.key!!)
+        val viewListener = object : ValueEventListener {
+            // number of the most recent snapshot, older ones are dropped after decoding
+            private var snapshotNumber = 0
+
+            override fun onDataChange(snapshot: DataSnapshot) {
+                val current = ++snapshotNumber
+                SnapshotDecoder.decode(snapshot, SnapshotMapper::queueView) { entries ->
+                    val listening = this@FirebaseQueueViewChannel.viewListener === this
+                    if (current == snapshotNumber && listening) {
+                        val view = entries.orEmpty()
+                        val size = PayloadSize.queueView(view)
+                        AppMetrics.FIREBASE_RECEIVED_BYTES.record(size.toLong())
+                        listener.onQueueViewChanged(view)
+                    } else {
+                        AppMetrics.FIREBASE_SNAPSHOTS_DROPPED.increment()
+                    }
+                }
+            }
+
+            override fun onCancelled(error: DatabaseError) {
+                // nothing
+            }
+        }
+        view.addValueEventListener(viewListener)
+        this.view = view
+        this.viewListener = viewListener
+    }
+
+    override fun close(party: Party) {
+        stopListening()
+        projection.reset()
+        published = false
+    }
+
+    private fun stopListening() {
+        viewListener?.let { view?.removeEventListener(it) }
+        view = null
+        viewListener = null
+    }
+
+    /**
+     * @param bytes estimated size of the written JSON
+     * */
+    private fun recordWrite(bytes: Int) {
+        AppMetrics.FIREBASE_WRITES.increment()
+        AppMetrics.FIREBASE_WRITE_BYTES.record(bytes.toLong())
+        AppMetrics.QUEUE_VIEW_WRITE_BYTES.record(bytes.toLong())
+    }
+}
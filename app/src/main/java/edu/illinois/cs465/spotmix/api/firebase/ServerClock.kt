@@ -0,0 +1,46 @@
+package edu.illinois.cs465.spotmix.api.firebase
+
+import com.google.firebase.database.DataSnapshot
+import com.google.firebase.database.DatabaseError
+import com.google.firebase.database.FirebaseDatabase
+import com.google.firebase.database.ValueEventListener
+
+/**
+ * Estimate of the Firebase server time, from the offset of the local clock Firebase measures when
+ * connecting and keeps in .info/serverTimeOffset. Reading it is local, it costs no traffic.
+ * */
+object ServerClock {
+
+    @Volatile
+    private var offsetMs = 0L
+
+    private var started = false
+
+    /**
+     * Follow the offset measured by Firebase, the local time is used until it arrives.
+     * Must be called from the main thread.
+     * */
+    @JvmStatic
+    fun start() {
+        if (started) {
+            return
+        }
+        started = true
+        FirebaseDatabase.getInstance().getReference(".info/serverTimeOffset")
+            .addValueEventListener(object : ValueEventListener {
+                override fun onDataChange(snapshot: DataSnapshot) {
+                    offsetMs = (snapshot.value as? Number)?.toLong() ?: 0
+                }
+
+                override fun onCancelled(error: DatabaseError) {
+                    // nothing
+                }
+            })
+    }
+
+    /**
+     * @return estimated current server time in milliseconds since the epoch
+     * */
+    @JvmStatic
+    fun now(): Long = System.currentTimeMillis() + offsetMs
+}
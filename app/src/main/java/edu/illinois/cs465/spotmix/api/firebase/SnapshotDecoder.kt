@@ -0,0 +1,38 @@
+package edu.illinois.cs465.spotmix.api.firebase
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.Looper
+import com.google.firebase.database.DataSnapshot
+import edu.illinois.cs465.spotmix.util.AppMetrics
+
+/**
+ * Decodes DataSnapshots into models on a background thread and hands the results back to the
+ * main thread. Snapshots are decoded one after another, so results arrive in the same order as
+ * the snapshots did.
+ * */
+internal object SnapshotDecoder {
+
+    private val decoderThread = HandlerThread("SnapshotDecoder").apply { start() }
+
+    private val decoderHandler = Handler(decoderThread.looper)
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    /**
+     * Decode a snapshot. Must be called from the main thread.
+     * @param snapshot
+     * @param mapper one of the SnapshotMapper functions
+     * @param callback called on the main thread with the decoded model; null if there was no value
+     * */
+    fun <T> decode(snapshot: DataSnapshot, mapper: (Any?) -> T?, callback: (T?) -> Unit) {
+        AppMetrics.FIREBASE_SNAPSHOTS.increment()
+        decoderHandler.post {
+            val start = System.nanoTime()
+            // reading the raw value converts Firebase's internal tree into maps and lists
+            val result = mapper(snapshot.value)
+            AppMetrics.FIREBASE_DECODE_NANOS.recordSince(start)
+            mainHandler.post { callback(result) }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package edu.illinois.cs465.spotmix.api.spotify
+
+import com.spotify.protocol.types.*
+
+/**
+ * Converts PlayerStates to and from trees of maps, lists and primitives, the shape session
+ * recordings store values in. Restrictions are not recorded, replayed states use the defaults.
+ * */
+internal object PlayerStateTree {
+
+    fun toTree(state: PlayerState?): Map<String, Any?>? {
+        state ?: return null
+        return mapOf(
+            "track" to track(state.track),
+            "isPaused" to state.isPaused,
+            "playbackSpeed" to state.playbackSpeed.toDouble(),
+            "playbackPosition" to state.playbackPosition,
+            "isShuffling" to state.playbackOptions?.isShuffling,
+            "repeatMode" to state.playbackOptions?.repeatMode?.toLong()
+        )
+    }
+
+    fun fromTree(value: Any?): PlayerState? {
+        val map = value as? Map<*, *> ?: return null
+        val options = PlayerOptions(
+            map["isShuffling"] as? Boolean ?: false,
+            (map["repeatMode"] as? Number)?.toInt() ?: 0
+        )
+        return PlayerState(
+            track(map["track"] as? Map<*, *>),
+            map["isPaused"] as? Boolean ?: true,
+            (map["playbackSpeed"] as? Number)?.toFloat() ?: 0f,
+            (map["playbackPosition"] as? Number)?.toLong() ?: 0L,
+            options,
+            PlayerRestrictions.DEFAULT
+        )
+    }
+
+    private fun track(track: Track?): Map<String, Any?>? {
+        track ?: return null
+        return mapOf(
+            "artist" to artist(track.artist),
+            "artists" to track.artists?.map { artist(it) },
+            "albumName" to track.album?.name,
+            "albumUri" to track.album?.uri,
+            "duration" to track.duration,
+            "name" to track.name,
+            "uri" to track.uri,
+            "imageUri" to track.imageUri?.raw,
+            "isEpisode" to track.isEpisode,
+            "isPodcast" to track.isPodcast
+        )
+    }
+
+    private fun track(map: Map<*, *>?): Track? {
+        map ?: return null
+        return Track(
+            artist(map["artist"] as? Map<*, *>),
+            (map["artists"] as? List<*>)?.mapNotNull { artist(it as? Map<*, *>) } ?: emptyList(),
+            Album(map["albumName"] as? String, map["albumUri"] as? String),
+            (map["duration"] as? Number)?.toLong() ?: 0L,
+            map["name"] as? String,
+            map["uri"] as? String,
+            (map["imageUri"] as? String)?.let { ImageUri(it) },
+            map["isEpisode"] as? Boolean ?: false,
+            map["isPodcast"] as? Boolean ?: false
+        )
+    }
+
+    private fun artist(artist: Artist?): Map<String, Any?>? =
+        artist?.let { mapOf("name" to it.name, "uri" to it.uri) }
+
+    private fun artist(map: Map<*, *>?): Artist? =
+        map?.let { Artist(it["name"] as? String, it["uri"] as? String) }
+}
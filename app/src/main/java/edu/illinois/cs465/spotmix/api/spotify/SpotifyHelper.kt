@@ -12,10 +12,12 @@ import com.spotify.android.appremote.api.Connector
 import com.spotify.android.appremote.api.SpotifyAppRemote
 import com.spotify.protocol.client.Subscription
 import com.spotify.protocol.types.PlayerState
-import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
 import edu.illinois.cs465.spotmix.api.spotify.models.TrackList
 import edu.illinois.cs465.spotmix.api.spotify.models.TrackSearchRequestBase
 import edu.illinois.cs465.spotmix.api.spotify.models.User
+import edu.illinois.cs465.spotmix.playback.PlaybackReconciler
+import edu.illinois.cs465.spotmix.util.AppMetrics
+import edu.illinois.cs465.spotmix.util.SessionRecording
 import kotlinx.android.parcel.IgnoredOnParcel
 import kotlinx.android.parcel.Parcelize
 import okhttp3.OkHttpClient
@@ -31,10 +33,7 @@ import retrofit2.converter.gson.GsonConverterFactory
  * @param accessToken token to access Spotify Auth Api
  * */
 @Parcelize
-class SpotifyHelper @JvmOverloads constructor(
-    var accessToken: String,
-    private var currentTrack: QueueTrack? = null
-) :
+class SpotifyHelper(var accessToken: String) :
     Subscription.EventCallback<PlayerState>, Parcelable {
 
     /**
@@ -50,27 +49,32 @@ class SpotifyHelper @JvmOverloads constructor(
     }
 
     /**
-     * Interface for getting the next track in the queue.
+     * Callback for playback state.
      * */
-    interface QueueCallback {
+    interface PlaybackStateListener {
 
         /**
-         * Called when next track from the queue is needed.
-         * @return the next track in the queue. null if queue empty
+         * Called everytime the playback state changes.
+         * @param state
          * */
-        fun getNextTrackFromQueue(): QueueTrack?
+        fun onPlaybackEvent(state: PlayerState?)
     }
 
     /**
-     * Callback for playback state.
+     * Callback for the state of the App Remote connection.
      * */
-    interface PlaybackStateListener {
+    interface ConnectionListener {
 
         /**
-         * Called everytime the playback state changes.
-         * @param state
+         * Called when the App Remote connected.
          * */
-        fun onPlaybackEvent(state: PlayerState?)
+        fun onConnected()
+
+        /**
+         * Called when connecting failed or an open connection was lost.
+         * @param throwable
+         * */
+        fun onConnectionFailed(throwable: Throwable)
     }
 
     companion object {
@@ -102,8 +106,43 @@ class SpotifyHelper @JvmOverloads constructor(
     @Suppress("PLUGIN_WARNING")
     private val service: SpotifyService
 
+    /**
+     * The App Remote player, commands are dropped while it is not connected.
+     * */
     @IgnoredOnParcel
-    var queueCallback: QueueCallback? = null
+    val player: PlaybackReconciler.Player = object : PlaybackReconciler.Player {
+
+        override fun play(uri: String) {
+            spotifyAppRemote?.playerApi?.play(uri)
+        }
+
+        override fun resume() {
+            spotifyAppRemote?.playerApi?.resume()
+        }
+
+        override fun pause() {
+            spotifyAppRemote?.playerApi?.pause()
+        }
+
+        override fun seekTo(positionMs: Long) {
+            spotifyAppRemote?.playerApi?.seekTo(positionMs)
+        }
+    }
+
+    /**
+     * Reconciler of the party playback, gets the player states.
+     * */
+    @IgnoredOnParcel
+    var reconciler: PlaybackReconciler? = null
+
+    @IgnoredOnParcel
+    var connectionListener: ConnectionListener? = null
+
+    /**
+     * Whether the App Remote is connected.
+     * */
+    val isConnected: Boolean
+        get() = spotifyAppRemote?.isConnected == true
 
     // all subscribed playback listeners
     @IgnoredOnParcel
@@ -131,6 +170,10 @@ class SpotifyHelper @JvmOverloads constructor(
      * @param context
      * */
     fun connect(context: Context) {
+        if (isConnected) {
+            return
+        }
+        val start = System.nanoTime()
         // Set the connection parameters
         val connectionParams = ConnectionParams.Builder(CLIENT_ID)
             .setRedirectUri(REDIRECT_URL)
@@ -142,28 +185,37 @@ class SpotifyHelper @JvmOverloads constructor(
 
                 override fun onConnected(spotifyAppRemote: SpotifyAppRemote) {
                     Log.d("SpotifyHelper", "App Remote connected")
+                    AppMetrics.APP_REMOTE_CONNECT_NANOS.recordSince(start)
                     this@SpotifyHelper.spotifyAppRemote = spotifyAppRemote
+                    // commands wait for the first player state of the new connection
+                    reconciler?.reset()
                     // subscribe to listen for PlayerState updates
                     spotifyAppRemote.playerApi
                         .subscribeToPlayerState()
                         .setEventCallback(this@SpotifyHelper)
+                    connectionListener?.onConnected()
                 }
 
+                // also called when the connection is lost later on
                 override fun onFailure(throwable: Throwable) {
                     Log.e(
                         "SpotifyHelper",
                         "App Remote connection failed, ${throwable.message}",
                         throwable
                     )
+                    AppMetrics.APP_REMOTE_FAILURES.increment()
+                    connectionListener?.onConnectionFailed(throwable)
                 }
             })
     }
 
     /**
-     * Disconnect the App remote, so the object can be passed between activities.
+     * Disconnect the App remote.
      * */
     fun disconnect() {
         SpotifyAppRemote.disconnect(spotifyAppRemote)
+        spotifyAppRemote = null
+        reconciler?.reset()
     }
 
     /**
@@ -179,53 +231,37 @@ class SpotifyHelper @JvmOverloads constructor(
      * @param callback
      * */
     fun searchTrack(keyword: String, callback: SearchTrackCallback) {
+        val start = System.nanoTime()
         service.searchTracks(accessToken, keyword)
             .enqueue(object : SimpleRetrofitCallback<TrackSearchRequestBase>() {
                 override fun onResult(result: TrackSearchRequestBase?) {
                     super.onResult(result)
+                    // round trip including parsing the response
+                    AppMetrics.SEARCH_NANOS.recordSince(start)
+                    if (result == null) {
+                        AppMetrics.SEARCH_FAILURES.increment()
+                    }
                     // notify callback
                     callback.onSearchResults(result?.trackList)
                 }
             })
     }
 
-    /**
-     * Start the music playback. Either continue paused playback or play the next song in the queue.
-     * */
-    fun play() {
-        Log.d("SpotifyHelper", "play() called")
-        if (currentTrack != null) {
-            spotifyAppRemote?.playerApi?.resume()
-        } else {
-            currentTrack = queueCallback?.getNextTrackFromQueue()
-            spotifyAppRemote?.playerApi?.play(currentTrack?.track?.uri)
-        }
-    }
-
-    /**
-     * Pause the current Spotify playback.
-     * */
-    fun pause() {
-        spotifyAppRemote?.playerApi?.pause()
-    }
-
     /**
      * Receive updates of the PlayerState
      * @param playerState
      * */
     override fun onEvent(playerState: PlayerState?) {
+        val start = System.nanoTime()
+        AppMetrics.PLAYER_EVENTS.increment()
+        SessionRecording.recordPlayerState(playerState)
         // notify all suscribers
         playbackListeners.forEach { it.onPlaybackEvent(playerState) }
 
-        if (currentTrack != null && playerState?.track?.uri != currentTrack?.track?.uri) {
-            // next track has started => play next track from the queue
-            currentTrack = queueCallback?.getNextTrackFromQueue()
-            if (currentTrack != null) {
-                spotifyAppRemote?.playerApi?.play(currentTrack!!.track.uri)
-            } else {
-                pause()
-            }
+        if (playerState != null) {
+            reconciler?.observe(playerState.track?.uri, playerState.isPaused)
         }
+        AppMetrics.PLAYER_EVENT_NANOS.recordSince(start)
     }
 
     /**
@@ -1,58 +1,150 @@
 package edu.illinois.cs465.spotmix.fragments
 
-import android.animation.Animator
-import android.animation.ArgbEvaluator
-import android.animation.PropertyValuesHolder
 import android.animation.ValueAnimator
-import android.graphics.Bitmap
+import android.content.ComponentName
+import android.content.Intent
+import android.content.ServiceConnection
 import android.graphics.Color
 import android.graphics.drawable.*
 import android.os.Bundle
-import android.util.Log
+import android.os.Handler
+import android.os.IBinder
+import android.os.Looper
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 import android.widget.ImageButton
 import android.widget.LinearLayout
+import android.widget.ProgressBar
 import android.widget.TextView
 import android.widget.Toast
 import androidx.appcompat.app.AppCompatActivity
 import androidx.core.content.ContextCompat
 import androidx.core.graphics.toColor
 import androidx.fragment.app.Fragment
-import androidx.palette.graphics.Palette
 import com.bumptech.glide.Glide
-import com.bumptech.glide.request.target.CustomTarget
-import com.bumptech.glide.request.transition.Transition
 import com.spotify.protocol.types.PlayerState
 import edu.illinois.cs465.spotmix.R
-import edu.illinois.cs465.spotmix.api.firebase.FirebaseHelper
+import edu.illinois.cs465.spotmix.api.PartyBackend
+import edu.illinois.cs465.spotmix.api.PartyBackends
 import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
 import edu.illinois.cs465.spotmix.api.firebase.models.Party
-import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueViewEntry
 import edu.illinois.cs465.spotmix.api.spotify.SpotifyHelper
+import edu.illinois.cs465.spotmix.playback.CommandChannel
+import edu.illinois.cs465.spotmix.playback.PlaybackCommand
+import edu.illinois.cs465.spotmix.playback.ProgressAnchor
+import edu.illinois.cs465.spotmix.playback.ProgressChannel
+import edu.illinois.cs465.spotmix.services.PlaybackService
+import edu.illinois.cs465.spotmix.sync.QueueProjection
+import edu.illinois.cs465.spotmix.sync.QueueViewChannel
+import edu.illinois.cs465.spotmix.util.CoverArtPipeline
+import edu.illinois.cs465.spotmix.util.FrameMath
 import kotlinx.android.synthetic.main.spotify_play_back_fragment.view.*
+import java.util.EnumSet
 
-class SpotifyPlaybackFragment : Fragment(), View.OnClickListener, FirebaseHelper.PartyListener,
-    SpotifyHelper.QueueCallback, SpotifyHelper.PlaybackStateListener {
+/**
+ * Shows the current track and the playback controls. The playback itself runs in the
+ * PlaybackService, which the fragment binds to while started. Only follows the playback partition,
+ * the party screen passes on the top of the queue it shows.
+ * */
+class SpotifyPlaybackFragment : Fragment(), View.OnClickListener, PartyBackend.PartyListener,
+    SpotifyHelper.PlaybackStateListener, CoverArtPipeline.ColorCallback, CommandChannel.AckCallback,
+    ProgressChannel.Listener, QueueViewChannel.Listener {
+
+    companion object {
+        /**
+         * Number of upcoming tracks to prefetch the album cover for.
+         * */
+        const val PREFETCH_COUNT = 3
+        // alpha of the playback controls while commands wait for the host
+        private const val PENDING_ALPHA = 0.5f
+        // interval of the progress bar updates while playing
+        private const val PROGRESS_TICK_MS = 250L
+        // Using R.color.colorPrimaryDark does not provide the correct color
+        private val GRADIENT_END_COLOR = Color.parseColor("#121212")
+    }
 
     lateinit var party: Party
 
     lateinit var attendee: Attendee
 
-    var spotifyHelper: SpotifyHelper? = null
+    // helper of the playback service, null while not bound
+    private var spotifyHelper: SpotifyHelper? = null
+
+    private val serviceConnection = object : ServiceConnection {
+
+        override fun onServiceConnected(name: ComponentName?, binder: IBinder?) {
+            spotifyHelper = (binder as PlaybackService.LocalBinder).service.spotifyHelper
+            // add playback listener to update album covers
+            spotifyHelper?.addPlaybackStateListener(this@SpotifyPlaybackFragment)
+        }
+
+        override fun onServiceDisconnected(name: ComponentName?) {
+            spotifyHelper = null
+        }
+    }
+
+    val partyBackend: PartyBackend = PartyBackends.create()
+
+    // sends the controls of co-admins to the host; null for LAN parties
+    private val commandChannel: CommandChannel? = PartyBackends.createCommandChannel()
+
+    // commands sent and not yet acknowledged or timed out
+    private var pendingCommands = 0
 
-    val firebaseHelper: FirebaseHelper = FirebaseHelper()
+    // progress anchored by the host; null for LAN parties
+    private val progressChannel: ProgressChannel? = PartyBackends.createProgressChannel()
 
-    var previousGradient: IntArray = intArrayOf(
+    private var progressAnchor: ProgressAnchor? = null
+
+    private val progressHandler = Handler(Looper.getMainLooper())
+
+    // extrapolates the progress locally, no writes needed while the track plays
+    private val progressTick = object : Runnable {
+        override fun run() {
+            updateProgress()
+            if (progressAnchor?.playing == true) {
+                progressHandler.postDelayed(this, PROGRESS_TICK_MS)
+            }
+        }
+    }
+
+    // colors currently displayed by the gradient; updated in place while animating
+    private val gradientColors: IntArray = intArrayOf(
         Color.parseColor("#212121"),
-        Color.parseColor("#121212")
+        GRADIENT_END_COLOR
     )
+    // colors the running gradient animation starts from and ends at
+    private val gradientStartColors = IntArray(gradientColors.size)
+    private val gradientTargetColors = IntArray(gradientColors.size)
 
-    var animator: Animator? = null
+    // reused for every gradient animation
+    private val gradientAnimator: ValueAnimator = ValueAnimator.ofFloat(0f, 1f).apply {
+        duration = 500
+        addUpdateListener { anim ->
+            val fraction = anim.animatedFraction
+            for (i in gradientColors.indices) {
+                gradientColors[i] =
+                    FrameMath.blend(gradientStartColors[i], gradientTargetColors[i], fraction)
+            }
+            // setting the colors again invalidates the drawable
+            gd?.colors = gradientColors
+        }
+    }
 
     var gd: GradientDrawable? = null
 
+    // url of the album cover currently displayed
+    private var currentImageUri: String? = null
+    // url of the thumbnail of that cover, the gradient color is taken from it
+    private var currentThumbnailUri: String? = null
+
+    // thumbnails of the upcoming tracks prefetched last
+    private var prefetchedThumbnailUris = emptyList<String>()
+
+    private val coverArtPipeline: CoverArtPipeline by lazy { CoverArtPipeline.getInstance(context!!) }
+
     override fun onCreateView(
         inflater: LayoutInflater,
         container: ViewGroup?,
@@ -70,8 +162,10 @@ class SpotifyPlaybackFragment : Fragment(), View.OnClickListener, FirebaseHelper
     override fun onStart() {
         super.onStart()
 
-        gd = GradientDrawable(GradientDrawable.Orientation.TOP_BOTTOM, previousGradient)
+        gd = GradientDrawable(GradientDrawable.Orientation.TOP_BOTTOM, gradientColors)
         view?.findViewById<LinearLayout>(R.id.album_background)?.background = gd
+        // background was reset, cover has to be loaded again
+        currentImageUri = null
 
 
         if (attendee.admin) {
@@ -81,47 +175,83 @@ class SpotifyPlaybackFragment : Fragment(), View.OnClickListener, FirebaseHelper
             // set visibility to gone
             view?.playback_ctrls?.visibility = View.GONE
         }
-        // get notified when party state changes
-        firebaseHelper.addPartyListener(party, this)
-        // add playback listener to update album covers
-        spotifyHelper?.addPlaybackStateListener(this)
-        spotifyHelper?.queueCallback = this
+        // no progress without a channel for it
+        view?.track_progress_bar?.visibility = if (progressChannel != null) View.VISIBLE else View.GONE
+        // get notified when the playback changes
+        partyBackend.addPartyListener(party, this, EnumSet.of(PartyBackend.Partition.PLAYBACK))
+        progressChannel?.listen(party, this)
+        // the playback service was started by the party screen
+        context?.bindService(Intent(context, PlaybackService::class.java), serviceConnection, 0)
     }
 
     override fun onStop() {
         super.onStop()
         // remove listener
-        firebaseHelper.removePartyListener(party, this)
+        partyBackend.removePartyListener(party, this)
+        progressChannel?.close(party)
+        progressHandler.removeCallbacks(progressTick)
+        // acknowledgements aren't shown anymore
+        commandChannel?.close(party)
+        pendingCommands = 0
+        view?.playback_ctrls?.alpha = 1f
         spotifyHelper?.removePlaybackStateListener(this)
-        spotifyHelper?.queueCallback = null
+        spotifyHelper = null
+        context?.unbindService(serviceConnection)
     }
 
     override fun onPartyChanged(party: Party) {
         this.party = party
         // reload album cover
         loadAlbumCover()
-        // update player; in case co-admin paused
-        if (party.playing) {
-            spotifyHelper?.play()
-        } else {
-            spotifyHelper?.pause()
+        // the anchor may be for the new track already
+        updateProgress()
+    }
+
+    /**
+     * Prefetch the covers and colors of the next tracks, so they swap in immediately.
+     * @param entries top of the queue shown by the party screen
+     * */
+    override fun onQueueViewChanged(entries: List<QueueViewEntry>) {
+        if (context == null) {
+            return
+        }
+        // the view changes with every vote, the upcoming covers only when the head of the queue does
+        val upcoming = entries.take(PREFETCH_COUNT).mapNotNull { it.thumbnailUrl }
+        if (upcoming != prefetchedThumbnailUris) {
+            prefetchedThumbnailUris = upcoming
+            coverArtPipeline.prefetch(upcoming)
         }
     }
 
-    override fun getNextTrackFromQueue(): QueueTrack? {
-        Log.d("SpotifyPlaybackFragment", "getNextTrackFromQueue() called")
-        return if (party.queue.isNotEmpty()) party.queue[0] else null
+    override fun onProgress(anchor: ProgressAnchor?) {
+        progressAnchor = anchor
+        progressHandler.removeCallbacks(progressTick)
+        progressTick.run()
     }
 
-    override fun onPlaybackEvent(state: PlayerState?) {
-        if (state == null) {
+    /**
+     * Show the position of the current track extrapolated from the anchor, empty while the anchor
+     * is for another track.
+     * */
+    private fun updateProgress() {
+        val progressBar = view?.findViewById<ProgressBar>(R.id.track_progress_bar) ?: return
+        val track = party.currentTrack?.track
+        val anchor = progressAnchor
+        val progressChannel = progressChannel
+        if (track == null || anchor == null || progressChannel == null ||
+            anchor.trackUri != track.uri || track.duration_ms <= 0
+        ) {
+            progressBar.progress = 0
             return
         }
+        val position = anchor.positionAt(progressChannel.serverTimeMillis())
+        progressBar.max = track.duration_ms
+        progressBar.progress = minOf(position, track.duration_ms.toLong()).toInt()
+    }
 
-        if (state.isPaused) {
-            firebaseHelper.paused(party)
-        } else {
-            firebaseHelper.playing(party)
+    override fun onPlaybackEvent(state: PlayerState?) {
+        if (state == null) {
+            return
         }
 
         // update play-pause button icon
@@ -139,11 +269,13 @@ class SpotifyPlaybackFragment : Fragment(), View.OnClickListener, FirebaseHelper
     }
 
     private fun loadAlbumCover() {
-        val imageUri =
-            if (party.queue.isNotEmpty()) party.queue[0].track.album.images[0].url else null
-        val trackTitle = if (party.queue.isNotEmpty()) party.queue[0].track.name else null
-        val trackArists =
-            if (party.queue.isNotEmpty()) party.queue[0].track.getArtistNames() else null
+        // read from the current track, the queue only holds the tracks up next
+        val currentTrack = party.currentTrack?.track
+        val imageUri = currentTrack?.album?.images?.firstOrNull()?.url
+        // the queue view has the thumbnails, which the upcoming covers were prefetched with
+        val thumbnailUri = currentTrack?.album?.getImageUrl(QueueProjection.THUMBNAIL_SIZE)
+        val trackTitle = currentTrack?.name
+        val trackArists = currentTrack?.getArtistNames()
 
         // update album cover
         if (context != null && view != null) {
@@ -152,48 +284,41 @@ class SpotifyPlaybackFragment : Fragment(), View.OnClickListener, FirebaseHelper
             view!!.findViewById<TextView>(R.id.track_title_txt_view).text = trackTitle
             view!!.findViewById<TextView>(R.id.artist_name_txt_view).text = trackArists
 
+            if (imageUri == currentImageUri) {
+                // cover didn't change, nothing to reload
+                return
+            }
+            currentImageUri = imageUri
+            currentThumbnailUri = thumbnailUri
+
             Glide.with(context!!)
                 .load(imageUri)
+                .thumbnail(Glide.with(context!!).load(thumbnailUri))
                 .placeholder(R.drawable.ic_broken_image_48dp)
                 .into(view!!.findViewById(R.id.current_track_album_cover_img_view))
 
-            if (imageUri != null) {
+            if (thumbnailUri != null) {
                 // Update background color to most dominant color in album cover
-                Glide.with(context!!)
-                    .asBitmap()
-                    .load(imageUri)
-                    .into(object : CustomTarget<Bitmap>() {
-                        override fun onResourceReady(
-                            resource: Bitmap,
-                            transition: Transition<in Bitmap>?
-                        ) {
-                            val palette = Palette.from(resource).generate()
-                            val color1 = palette.getMutedColor(palette.getDominantColor(0))
-
-                            animateGradient(
-                                intArrayOf(
-                                    color1,
-                                    // Using R.color.colorPrimaryDark does not provide the correct color
-                                    Color.parseColor("#121212")
-                                )
-                            )
-                            // Set color to most vibrant color -> else most dominant color -> else transparent
-                            view?.findViewById<LinearLayout>(R.id.album_background)?.background = gd
-                        }
-
-                        override fun onLoadStarted(placeholder: Drawable?) {}
-                        override fun onLoadFailed(errorDrawable: Drawable?) {}
-                        override fun onLoadCleared(placeholder: Drawable?) {}
-                    })
+                coverArtPipeline.loadColor(thumbnailUri, this)
             }
         }
     }
 
+    override fun onColorReady(imageUrl: String, color: Int) {
+        if (imageUrl != currentThumbnailUri) {
+            // track changed in the meantime
+            return
+        }
+        animateGradient(color)
+        // Set color to most vibrant color -> else most dominant color -> else transparent
+        view?.findViewById<LinearLayout>(R.id.album_background)?.background = gd
+    }
+
     override fun onClick(v: View?) {
         when (v?.id) {
             R.id.prev_track_img_btn -> {
-                // TODO: implement
-                Toast.makeText(context, "TODO", Toast.LENGTH_SHORT).show()
+                // the playback service follows the new current track
+                control(PlaybackCommand.Type.PREVIOUS) { partyBackend.skipToPrevious(party) }
             }
             R.id.play_pause_img_btn -> {
                 // run animation
@@ -202,47 +327,61 @@ class SpotifyPlaybackFragment : Fragment(), View.OnClickListener, FirebaseHelper
                 playPauseAvd.registerAnimationCallback(object : Animatable2.AnimationCallback() {
                     override fun onAnimationEnd(drawable: Drawable?) {
                         super.onAnimationEnd(drawable)
-                        // change player state
+                        // change the party, the playback service brings the player in line
                         if (party.playing) {
-                            spotifyHelper?.pause()
+                            control(PlaybackCommand.Type.PAUSE) { partyBackend.paused(party) }
                         } else {
-                            spotifyHelper?.play()
+                            control(PlaybackCommand.Type.PLAY) { partyBackend.playing(party) }
                         }
                     }
                 })
                 playPauseAvd.start()
             }
             R.id.next_track_img_btn -> {
-                // TODO: implement
-                Toast.makeText(context, "TODO", Toast.LENGTH_SHORT).show()
+                control(PlaybackCommand.Type.NEXT) { partyBackend.skipToNext(party) }
             }
         }
     }
 
-    private fun animateGradient(targetColors: IntArray) {
-        val from = previousGradient
-        require(from.size == targetColors.size)
-        animator?.cancel()
-        val arraySize = from.size
-        val props = Array<PropertyValuesHolder>(arraySize) {
-            PropertyValuesHolder.ofObject(
-                it.toString(),
-                ArgbEvaluator(),
-                from[it],
-                targetColors[it]
-            )
+    /**
+     * Control the playback: the host and admins of LAN parties change the party directly, co-admins
+     * send a command to the host and the controls are dimmed until it took effect.
+     * @param type
+     * @param change changes the party directly
+     * */
+    private fun control(type: PlaybackCommand.Type, change: () -> Unit) {
+        val commandChannel = commandChannel
+        if (commandChannel == null || party.isHost(attendee)) {
+            change()
+            return
         }
-        val anim = ValueAnimator.ofPropertyValuesHolder(*props)
-        anim.addUpdateListener { valueAnim ->
-            IntArray(arraySize) { i ->
-                valueAnim.getAnimatedValue(i.toString()) as Int
-            }.let {
-                previousGradient = it
-                gd?.colors = it
-            }
+        commandChannel.send(party, type, party.currentTrack?.track?.uri, 0, -1, this)
+        pendingCommands++
+        view?.playback_ctrls?.alpha = PENDING_ALPHA
+    }
+
+    override fun onAcknowledged(command: PlaybackCommand, latencyNanos: Long) {
+        commandDone()
+    }
+
+    override fun onTimedOut(command: PlaybackCommand) {
+        commandDone()
+        Toast.makeText(context, R.string.command_timed_out, Toast.LENGTH_SHORT).show()
+    }
+
+    private fun commandDone() {
+        pendingCommands--
+        if (pendingCommands == 0) {
+            view?.playback_ctrls?.alpha = 1f
         }
-        anim.duration = 500
-        anim.start()
-        animator = anim
     }
-}
\ No newline at end of file
+
+    private fun animateGradient(targetColor: Int) {
+        gradientAnimator.cancel()
+        // continue from the currently displayed colors
+        System.arraycopy(gradientColors, 0, gradientStartColors, 0, gradientColors.size)
+        gradientTargetColors[0] = targetColor
+        gradientTargetColors[1] = GRADIENT_END_COLOR
+        gradientAnimator.start()
+    }
+}
@@ -0,0 +1,348 @@
+package edu.illinois.cs465.spotmix.services
+
+import android.app.*
+import android.content.Context
+import android.content.Intent
+import android.os.Binder
+import android.os.Build
+import android.os.Handler
+import android.os.IBinder
+import android.os.Looper
+import androidx.core.app.NotificationCompat
+import androidx.core.content.ContextCompat
+import com.spotify.protocol.types.PlayerState
+import edu.illinois.cs465.spotmix.R
+import edu.illinois.cs465.spotmix.api.PartyBackend
+import edu.illinois.cs465.spotmix.api.PartyBackends
+import edu.illinois.cs465.spotmix.api.SubscriptionTier
+import edu.illinois.cs465.spotmix.api.SubscriptionTiers
+import edu.illinois.cs465.spotmix.api.firebase.models.FractionalIndex
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.spotify.SpotifyHelper
+import edu.illinois.cs465.spotmix.playback.CommandChannel
+import edu.illinois.cs465.spotmix.playback.PlaybackCommand
+import edu.illinois.cs465.spotmix.playback.PlaybackReconciler
+import edu.illinois.cs465.spotmix.playback.ProgressChannel
+import edu.illinois.cs465.spotmix.playback.ProgressPublisher
+import edu.illinois.cs465.spotmix.sync.QueueViewChannel
+import edu.illinois.cs465.spotmix.util.AppMetrics
+import java.util.EnumSet
+
+/**
+ * Foreground service running the playback of a party. Holds one App Remote connection for as long
+ * as the party is open, reconnecting with backoff when it fails or is lost, and keeps advancing
+ * the queue while the party screen is in the background or other screens are on top.
+ * Started by the party screen and stopped when the party is closed or left; screens bind to it
+ * to control and follow the playback. On the host it also executes the commands of co-admins and
+ * publishes the progress of the playback.
+ * */
+class PlaybackService : Service(), PartyBackend.PartyListener, PlaybackReconciler.Listener,
+    CommandChannel.Consumer, SpotifyHelper.PlaybackStateListener,
+    SpotifyHelper.ConnectionListener {
+
+    companion object {
+
+        private const val NOTIFICATION_ID = 1
+        private const val CHANNEL_ID = "playback"
+
+        private const val EXTRA_HOST = "services.PlaybackService.EXTRA_HOST"
+
+        // delay of the first reconnect, doubled after every failed attempt
+        private const val MIN_RECONNECT_DELAY_MS = 1000L
+        private const val MAX_RECONNECT_DELAY_MS = 60_000L
+
+        // the keys of the queue are spread out again once it didn't change for this long
+        private const val REBALANCE_DELAY_MS = 30_000L
+
+        /**
+         * Start the playback of a party, replaces the playback of any other party.
+         * @param context
+         * @param party
+         * @param host whether this device hosts the party, the host executes the commands
+         * */
+        @JvmStatic
+        fun start(context: Context, party: Party, host: Boolean) {
+            val intent = Intent(context, PlaybackService::class.java)
+                .putExtra(Party.PARCEL_KEY, party)
+                .putExtra(EXTRA_HOST, host)
+            ContextCompat.startForegroundService(context, intent)
+        }
+
+        /**
+         * Stop the playback, e.g. when the party was closed or left.
+         * @param context
+         * */
+        @JvmStatic
+        fun stop(context: Context) {
+            context.stopService(Intent(context, PlaybackService::class.java))
+        }
+    }
+
+    /**
+     * Hands the service to screens in the same process.
+     * */
+    inner class LocalBinder : Binder() {
+        val service: PlaybackService
+            get() = this@PlaybackService
+    }
+
+    private val binder = LocalBinder()
+
+    // App Remote callbacks and reconnects run on the main thread
+    private val handler = Handler(Looper.getMainLooper())
+
+    private var partyBackend: PartyBackend? = null
+
+    private var party: Party? = null
+
+    /**
+     * Helper of the App Remote connection, null while no party is played.
+     * */
+    var spotifyHelper: SpotifyHelper? = null
+        private set
+
+    // keeps the player in line with the party, null while no party is played
+    private var reconciler: PlaybackReconciler? = null
+
+    // commands of co-admins executed by the host, null on other devices and for LAN parties
+    private var commandChannel: CommandChannel? = null
+
+    // progress published by the host, null on other devices and for LAN parties
+    private var progressChannel: ProgressChannel? = null
+    private var progressPublisher = ProgressPublisher()
+
+    // view of the top of the queue kept by the host, null on other devices and for LAN parties
+    private var queueViewChannel: QueueViewChannel? = null
+
+    // whether the App Remote is connected
+    private var connected = false
+
+    private var reconnectDelay = MIN_RECONNECT_DELAY_MS
+
+    private val reconnect = Runnable { spotifyHelper?.connect(this) }
+
+    // whether this device hosts the party
+    private var host = false
+
+    private val rebalance = Runnable { party?.let { partyBackend?.rebalanceQueue(it) } }
+
+    override fun onCreate() {
+        super.onCreate()
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            val channel = NotificationChannel(
+                CHANNEL_ID,
+                getString(R.string.playback),
+                NotificationManager.IMPORTANCE_LOW
+            )
+            getSystemService(NotificationManager::class.java)?.createNotificationChannel(channel)
+        }
+    }
+
+    override fun onStartCommand(intent: Intent?, flags: Int, startId: Int): Int {
+        val party = intent?.getParcelableExtra<Party>(Party.PARCEL_KEY)
+        if (party == null) {
+            stopSelf()
+            return START_NOT_STICKY
+        }
+        // has to be called right after being started in the foreground
+        startForeground(NOTIFICATION_ID, notification(party))
+        if (party.key != this.party?.key) {
+            open(party, intent.getBooleanExtra(EXTRA_HOST, false))
+        }
+        // restarted with the party, if the process is killed while the party is still open
+        return START_REDELIVER_INTENT
+    }
+
+    override fun onBind(intent: Intent?): IBinder? = binder
+
+    override fun onDestroy() {
+        super.onDestroy()
+        close()
+    }
+
+    override fun onPartyChanged(party: Party) {
+        this.party = party
+        if (party.playing && party.currentTrack == null && party.queue.isNotEmpty()) {
+            // nothing played yet; devices starting at the same time dequeue a single track. In
+            // the background the queue may be out of date, the transaction skips the stored one
+            partyBackend?.skipToNext(party)
+        }
+        // the player only gets commands if it isn't in that state already, e.g. not on votes
+        reconciler?.desire(party.currentTrack?.track?.uri, party.playing)
+        // only writes the ranks that changed
+        queueViewChannel?.publish(party)
+        if (host && FractionalIndex.needsRebalance(party.queue)) {
+            // in the background, rewrites the whole queue
+            handler.removeCallbacks(rebalance)
+            handler.postDelayed(rebalance, REBALANCE_DELAY_MS)
+        }
+    }
+
+    override fun onTrackFinished() {
+        val party = party ?: return
+        // moves the finished track to the history, the others follow the new current track
+        partyBackend?.skipToNext(party)
+        reconciler?.desire(party.currentTrack?.track?.uri, party.playing)
+    }
+
+    override fun onCommand(command: PlaybackCommand) {
+        val party = party ?: return
+        val partyBackend = partyBackend ?: return
+        val current = party.currentTrack?.track?.uri
+        when (command.type) {
+            PlaybackCommand.Type.PLAY -> partyBackend.playing(party)
+            PlaybackCommand.Type.PAUSE -> partyBackend.paused(party)
+            // skips carry the current track their sender saw, so a repeated skip is dropped
+            PlaybackCommand.Type.NEXT -> if (command.trackUri == current) {
+                partyBackend.skipToNext(party)
+            }
+            PlaybackCommand.Type.PREVIOUS -> if (command.trackUri == current) {
+                partyBackend.skipToPrevious(party)
+            }
+            PlaybackCommand.Type.SEEK -> reconciler?.seek(command.positionMs)
+            PlaybackCommand.Type.REMOVE_TRACK -> command.trackUri?.let {
+                partyBackend.removeTrackFromQueue(party, it)
+            }
+            // the host has the whole queue, so it can write just the key of the moved track
+            PlaybackCommand.Type.MOVE_TRACK -> command.trackUri?.let {
+                partyBackend.moveTrackInQueue(party, it, command.rank)
+            }
+        }
+        // the player of the host follows right away, the others once the change reaches them
+        reconciler?.desire(party.currentTrack?.track?.uri, party.playing)
+    }
+
+    override fun onPlayingChanged(playing: Boolean) {
+        val party = party ?: return
+        // paused or resumed from the Spotify app or its notification
+        if (playing) {
+            partyBackend?.playing(party)
+        } else {
+            partyBackend?.paused(party)
+        }
+    }
+
+    override fun onPlaybackEvent(state: PlayerState?) {
+        val party = party ?: return
+        val progressChannel = progressChannel ?: return
+        if (state == null) {
+            return
+        }
+        // only written when the playback jumped, the attendees extrapolate in between
+        progressPublisher.onPlayerState(
+            state.track?.uri,
+            state.playbackPosition,
+            state.isPaused,
+            progressChannel.serverTimeMillis()
+        )?.let { progressChannel.publish(party, it) }
+    }
+
+    override fun onConnected() {
+        reconnectDelay = MIN_RECONNECT_DELAY_MS
+        connected = true
+        updateMinimumTier()
+    }
+
+    override fun onConnectionFailed(throwable: Throwable) {
+        connected = false
+        updateMinimumTier()
+        AppMetrics.APP_REMOTE_RECONNECTS.increment()
+        handler.removeCallbacks(reconnect)
+        handler.postDelayed(reconnect, reconnectDelay)
+        reconnectDelay = minOf(reconnectDelay * 2, MAX_RECONNECT_DELAY_MS)
+    }
+
+    /**
+     * Start playing a party: connect the App Remote and follow the party.
+     * @param party
+     * @param host whether to execute the commands sent to the party
+     * */
+    private fun open(party: Party, host: Boolean) {
+        close()
+        this.party = party
+        this.host = host
+        val partyBackend = PartyBackends.create()
+        this.partyBackend = partyBackend
+        spotifyHelper = SpotifyHelper(party.accessToken ?: "").also { helper ->
+            val reconciler = PlaybackReconciler(helper.player, this)
+            reconciler.desire(party.currentTrack?.track?.uri, party.playing)
+            this.reconciler = reconciler
+            helper.reconciler = reconciler
+            helper.connectionListener = this
+            helper.addPlaybackStateListener(this)
+            helper.connect(this)
+        }
+        // get notified when party state changes
+        if (host) {
+            // the host projects the view of the queue and keeps its keys spread out
+            partyBackend.addPartyListener(party, this)
+            commandChannel = PartyBackends.createCommandChannel()?.also { it.consume(party, this) }
+            progressChannel = PartyBackends.createProgressChannel()
+            progressPublisher = ProgressPublisher()
+            queueViewChannel = PartyBackends.createQueueViewChannel()
+            updateMinimumTier()
+        } else {
+            // the player of the others only follows the playback
+            partyBackend.addPartyListener(party, this, EnumSet.of(PartyBackend.Partition.PLAYBACK))
+        }
+    }
+
+    /**
+     * Keep the subscription tier the service needs while the app is in the background.
+     * */
+    private fun updateMinimumTier() {
+        SubscriptionTiers.keepAtLeast(
+            when {
+                // the view is projected from the whole queue
+                queueViewChannel != null -> SubscriptionTier.FOREGROUND
+                // the player follows the current track, even after a long time in the background
+                connected -> SubscriptionTier.BACKGROUND
+                else -> SubscriptionTier.IDLE
+            }
+        )
+    }
+
+    /**
+     * Stop playing the current party, if any.
+     * */
+    private fun close() {
+        handler.removeCallbacks(reconnect)
+        handler.removeCallbacks(rebalance)
+        reconnectDelay = MIN_RECONNECT_DELAY_MS
+        party?.let {
+            partyBackend?.removePartyListener(it, this)
+            commandChannel?.close(it)
+            queueViewChannel?.close(it)
+        }
+        commandChannel = null
+        progressChannel = null
+        queueViewChannel = null
+        connected = false
+        updateMinimumTier()
+        spotifyHelper?.let { helper ->
+            // a disconnect is reported as failure, which must not reconnect
+            helper.connectionListener = null
+            helper.reconciler = null
+            helper.removePlaybackStateListener(this)
+            helper.disconnect()
+        }
+        spotifyHelper = null
+        reconciler = null
+        partyBackend = null
+        party = null
+        host = false
+    }
+
+    private fun notification(party: Party): Notification {
+        // brings the task with the party screen back to the front
+        val launchIntent = packageManager.getLaunchIntentForPackage(packageName)
+        val contentIntent = PendingIntent.getActivity(this, 0, launchIntent, 0)
+        return NotificationCompat.Builder(this, CHANNEL_ID)
+            .setSmallIcon(R.drawable.ic_play_arrow_24dp)
+            .setContentTitle(party.name)
+            .setContentText(getString(R.string.playback_notification_text))
+            .setContentIntent(contentIntent)
+            .setOngoing(true)
+            .build()
+    }
+}
@@ -0,0 +1,96 @@
+package edu.illinois.cs465.spotmix.util
+
+import android.app.Activity
+import android.graphics.drawable.Drawable
+import android.widget.ImageView
+import com.bumptech.glide.Glide
+import com.bumptech.glide.ListPreloader
+import com.bumptech.glide.RequestBuilder
+import com.bumptech.glide.RequestManager
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader
+import com.bumptech.glide.load.DecodeFormat
+import com.bumptech.glide.request.RequestOptions
+import com.bumptech.glide.util.FixedPreloadSizeProvider
+import edu.illinois.cs465.spotmix.R
+import edu.illinois.cs465.spotmix.api.spotify.models.Album
+
+/**
+ * Helper class to load album cover thumbnails into list items.
+ * Picks the smallest cover large enough for the thumbnail, decodes it at exactly the thumbnail
+ * size and can preload the covers of upcoming list items while scrolling.
+ * @param activity the activity displaying the thumbnails
+ * */
+class AlbumThumbnailLoader(activity: Activity) {
+
+    /**
+     * Interface for getting the cover displayed at a given list position.
+     * */
+    interface ImageUrlProvider {
+
+        /**
+         * @param position adapter position
+         * @return url of the cover at the position, should be picked with Album.getImageUrl(size);
+         * null if there is none
+         * */
+        fun getImageUrl(position: Int): String?
+    }
+
+    companion object {
+        // number of list items to preload the thumbnails for
+        private const val MAX_PRELOAD = 10
+    }
+
+    // size of the thumbnails in pixels
+    val size = activity.resources.getDimensionPixelSize(R.dimen.album_thumbnail_size)
+
+    private val requestManager: RequestManager = Glide.with(activity)
+
+    // covers don't have transparency => RGB_565 halves the memory
+    private val options = RequestOptions()
+        .format(DecodeFormat.PREFER_RGB_565)
+        .override(size)
+        .placeholder(R.drawable.ic_broken_image_48dp)
+
+    /**
+     * Load the album cover into an image view.
+     * @param album
+     * @param imageView
+     * */
+    fun load(album: Album, imageView: ImageView) {
+        load(album.getImageUrl(size), imageView)
+    }
+
+    /**
+     * Load a cover thumbnail into an image view.
+     * @param imageUrl url of the cover, should be picked with Album.getImageUrl(size)
+     * @param imageView
+     * */
+    fun load(imageUrl: String?, imageView: ImageView) {
+        request(imageUrl).into(imageView)
+    }
+
+    /**
+     * Create a preloader to add as scroll listener to the RecyclerView displaying the albums.
+     * @param imageUrlProvider
+     * */
+    fun createPreloader(imageUrlProvider: ImageUrlProvider): RecyclerViewPreloader<String> {
+        val modelProvider = object : ListPreloader.PreloadModelProvider<String> {
+            override fun getPreloadItems(position: Int): List<String> {
+                val url = imageUrlProvider.getImageUrl(position)
+                return if (url != null) listOf(url) else emptyList()
+            }
+
+            override fun getPreloadRequestBuilder(item: String): RequestBuilder<*>? = request(item)
+        }
+        return RecyclerViewPreloader(
+            requestManager,
+            modelProvider,
+            FixedPreloadSizeProvider<String>(size, size),
+            MAX_PRELOAD
+        )
+    }
+
+    // preloaded and displayed requests need the same options to hit the memory cache
+    private fun request(imageUrl: String?): RequestBuilder<Drawable> =
+        requestManager.load(imageUrl).apply(options)
+}
@@ -0,0 +1,93 @@
+package edu.illinois.cs465.spotmix.util
+
+import edu.illinois.cs465.spotmix.metrics.Counter
+import edu.illinois.cs465.spotmix.metrics.Histogram
+import edu.illinois.cs465.spotmix.metrics.Metrics
+
+/**
+ * The metrics recorded by the app, registered once so hot paths don't look them up by name.
+ * Durations are in nanoseconds unless named otherwise, sizes in bytes.
+ * */
+object AppMetrics {
+
+    // Firebase writes and the estimated size of the written JSON
+    @JvmField
+    val FIREBASE_WRITES: Counter = Metrics.counter("firebase.writes")
+    @JvmField
+    val FIREBASE_WRITE_BYTES: Histogram = Metrics.histogram("firebase.write.bytes")
+    @JvmField
+    val FIREBASE_VOTE_BYTES: Histogram = Metrics.histogram("firebase.vote.bytes")
+
+    // snapshots delivered by Firebase listeners
+    @JvmField
+    val FIREBASE_SNAPSHOTS: Counter = Metrics.counter("firebase.snapshots")
+    @JvmField
+    val FIREBASE_SNAPSHOTS_DROPPED: Counter = Metrics.counter("firebase.snapshots.dropped")
+    @JvmField
+    val FIREBASE_DECODE_NANOS: Histogram = Metrics.histogram("firebase.decode.ns")
+    @JvmField
+    val FIREBASE_DISPATCH_NANOS: Histogram = Metrics.histogram("firebase.dispatch.ns")
+    // estimated size of the party state received by party listeners, per delivery
+    @JvmField
+    val FIREBASE_RECEIVED_BYTES: Histogram = Metrics.histogram("firebase.received.bytes")
+
+    // estimated size of the changed ranks of the queue view written by the host
+    @JvmField
+    val QUEUE_VIEW_WRITE_BYTES: Histogram = Metrics.histogram("queue.view.write.bytes")
+
+    // additions and votes the write quota of the attendee rejected
+    @JvmField
+    val WRITES_THROTTLED: Counter = Metrics.counter("writes.throttled")
+
+    // party changes handled by the party screen
+    @JvmField
+    val PARTY_CHANGED: Counter = Metrics.counter("party.changed")
+
+    // player state events from the Spotify App Remote
+    @JvmField
+    val PLAYER_EVENTS: Counter = Metrics.counter("spotify.player.events")
+    @JvmField
+    val PLAYER_EVENT_NANOS: Histogram = Metrics.histogram("spotify.player.event.ns")
+
+    // App Remote handshakes, connections that failed or were lost, and reconnects scheduled by
+    // the playback service
+    @JvmField
+    val APP_REMOTE_CONNECT_NANOS: Histogram = Metrics.histogram("spotify.remote.connect.ns")
+    @JvmField
+    val APP_REMOTE_FAILURES: Counter = Metrics.counter("spotify.remote.failures")
+    @JvmField
+    val APP_REMOTE_RECONNECTS: Counter = Metrics.counter("spotify.remote.reconnects")
+
+    // playback commands of co-admins: sent, executed by the host, and acknowledged in time or not;
+    // the latency is from sending a command until its acknowledgement arrived
+    @JvmField
+    val COMMANDS_SENT: Counter = Metrics.counter("command.sent")
+    @JvmField
+    val COMMANDS_EXECUTED: Counter = Metrics.counter("command.executed")
+    @JvmField
+    val COMMANDS_TIMED_OUT: Counter = Metrics.counter("command.timeouts")
+    @JvmField
+    val COMMAND_LATENCY_NANOS: Histogram = Metrics.histogram("command.latency.ns")
+
+    // progress anchors published by the host, only on play, pause, seek and track changes
+    @JvmField
+    val PROGRESS_ANCHORS: Counter = Metrics.counter("progress.anchors")
+
+    // track searches on the Spotify Api
+    @JvmField
+    val SEARCH_NANOS: Histogram = Metrics.histogram("spotify.search.ns")
+    @JvmField
+    val SEARCH_FAILURES: Counter = Metrics.counter("spotify.search.failures")
+
+    // dispatches of the main looper exceeding the stall threshold of the JankWatchdog
+    @JvmField
+    val MAIN_STALLS: Counter = Metrics.counter("main.stalls")
+    @JvmField
+    val MAIN_STALL_MILLIS: Histogram = Metrics.histogram("main.stall.ms")
+
+    // binding of RecyclerView rows
+    @JvmField
+    val QUEUE_BIND_NANOS: Histogram = Metrics.histogram("adapter.queue.bind.ns")
+    @JvmField
+    val SEARCH_BIND_NANOS: Histogram = Metrics.histogram("adapter.search.bind.ns")
+}
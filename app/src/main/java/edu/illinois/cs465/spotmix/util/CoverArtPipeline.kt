@@ -0,0 +1,239 @@
+package edu.illinois.cs465.spotmix.util
+
+import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import android.util.AtomicFile
+import android.util.Log
+import android.util.LruCache
+import androidx.palette.graphics.Palette
+import com.bumptech.glide.Glide
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Pipeline for album covers and the background color extracted from them.
+ * Palette generation runs on a background executor, the resulting colors are cached by image url
+ * in memory and on disk, so the gradient of the playback screen can be updated without decoding
+ * the cover again. Covers of upcoming tracks can be prefetched to swap them in immediately.
+ * The disk cache is only read and written on the background executor and keeps the most recently
+ * used colors up to a fixed number.
+ * */
+class CoverArtPipeline private constructor(context: Context) {
+
+    /**
+     * Callback to return the extracted color to the caller.
+     * */
+    interface ColorCallback {
+
+        /**
+         * Called on the main thread once the color of the cover is available.
+         * @param imageUrl the url of the album cover
+         * @param color
+         * */
+        fun onColorReady(imageUrl: String, color: Int)
+    }
+
+    companion object {
+
+        // name of the shared preferences file the colors were cached in before, unbounded
+        private const val LEGACY_DISK_CACHE_NAME = "cover_art_palette"
+        // name of the file in the cache directory used as disk cache for the colors
+        private const val DISK_CACHE_NAME = "cover_art_palette.bin"
+        // number of colors kept on disk
+        private const val DISK_CACHE_SIZE = 512
+        // number of colors kept in memory
+        private const val MEMORY_CACHE_SIZE = 64
+        // size the cover is decoded at for palette generation, Palette scales down anyway
+        private const val PALETTE_BITMAP_SIZE = 128
+
+        @Volatile
+        private var instance: CoverArtPipeline? = null
+
+        /**
+         * Get the shared pipeline instance.
+         * @param context
+         * */
+        @JvmStatic
+        fun getInstance(context: Context): CoverArtPipeline =
+            instance ?: synchronized(this) {
+                instance ?: CoverArtPipeline(context.applicationContext).also { instance = it }
+            }
+    }
+
+    private val appContext = context.applicationContext
+
+    // colors by image url
+    private val memoryCache = LruCache<String, Int>(MEMORY_CACHE_SIZE)
+
+    private val diskCacheFile = AtomicFile(File(appContext.cacheDir, DISK_CACHE_NAME))
+
+    // colors by image url in the order of their last use, survives restarts of the app;
+    // background thread only, loaded by the first task
+    private val diskCache = object : LinkedHashMap<String, Int>(DISK_CACHE_SIZE, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Int>?): Boolean =
+            size > DISK_CACHE_SIZE
+    }
+
+    // whether a write of the disk cache is queued already; background thread only
+    private var diskCacheWriteQueued = false
+
+    // background thread for the disk cache, decoding covers and generating palettes
+    private val executor: ExecutorService = Executors.newSingleThreadExecutor()
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    // urls currently being processed, to not generate the same palette twice; main thread only
+    private val pending = mutableMapOf<String, MutableList<ColorCallback>>()
+
+    init {
+        executor.execute {
+            readDiskCache()
+            // drop the colors of the unbounded cache used before
+            val legacy = appContext.getSharedPreferences(LEGACY_DISK_CACHE_NAME, Context.MODE_PRIVATE)
+            if (legacy.all.isNotEmpty()) {
+                legacy.edit().clear().apply()
+            }
+        }
+    }
+
+    /**
+     * Get the color of a cover if it is in the memory cache.
+     * @param imageUrl
+     * @return the cached color, null if not yet available
+     * */
+    fun getCachedColor(imageUrl: String): Int? = memoryCache.get(imageUrl)
+
+    /**
+     * Get the color of a cover. Returns immediately when cached in memory, otherwise it is read
+     * from the disk cache or the palette is generated in the background. Must be called from the
+     * main thread.
+     * @param imageUrl
+     * @param callback null to only warm up the cache
+     * */
+    fun loadColor(imageUrl: String, callback: ColorCallback?) {
+        val cached = getCachedColor(imageUrl)
+        if (cached != null) {
+            callback?.onColorReady(imageUrl, cached)
+            return
+        }
+        val callbacks = pending[imageUrl]
+        if (callbacks != null) {
+            // already in progress, just wait for the result
+            callback?.let { callbacks.add(it) }
+            return
+        }
+        pending[imageUrl] = mutableListOf<ColorCallback>().also { list -> callback?.let { list.add(it) } }
+        executor.execute {
+            val color = diskCache[imageUrl] ?: extractColor(imageUrl)?.also {
+                diskCache[imageUrl] = it
+                queueDiskCacheWrite()
+            }
+            mainHandler.post {
+                val waiting = pending.remove(imageUrl)
+                if (color != null) {
+                    memoryCache.put(imageUrl, color)
+                    waiting?.forEach { it.onColorReady(imageUrl, color) }
+                }
+            }
+        }
+    }
+
+    /**
+     * Prefetch the covers and colors of upcoming tracks.
+     * @param imageUrls
+     * */
+    fun prefetch(imageUrls: List<String>) {
+        imageUrls.forEach { url ->
+            // warm up Glide's caches for the cover itself
+            Glide.with(appContext).load(url).preload()
+            // and the color for the gradient
+            loadColor(url, null)
+        }
+    }
+
+    /**
+     * Decode a down scaled version of the cover and extract its color; background thread only.
+     * @param imageUrl
+     * @return muted color, else the dominant color; null if the cover couldn't be loaded
+     * */
+    private fun extractColor(imageUrl: String): Int? {
+        val target = Glide.with(appContext)
+            .asBitmap()
+            .load(imageUrl)
+            .submit(PALETTE_BITMAP_SIZE, PALETTE_BITMAP_SIZE)
+        return try {
+            val palette = Palette.from(target.get()).generate()
+            palette.getMutedColor(palette.getDominantColor(0))
+        } catch (e: Exception) {
+            Log.e("CoverArtPipeline", "extracting color of $imageUrl failed", e)
+            null
+        } finally {
+            Glide.with(appContext).clear(target)
+        }
+    }
+
+    /**
+     * Read the colors cached on disk; background thread only.
+     * */
+    private fun readDiskCache() {
+        try {
+            DataInputStream(diskCacheFile.openRead().buffered()).use { input ->
+                repeat(input.readInt()) {
+                    val imageUrl = input.readUTF()
+                    diskCache[imageUrl] = input.readInt()
+                }
+            }
+        } catch (e: FileNotFoundException) {
+            // nothing cached yet
+        } catch (e: IOException) {
+            Log.e("CoverArtPipeline", "reading the color cache failed", e)
+            diskCache.clear()
+        }
+    }
+
+    /**
+     * Write the disk cache after the tasks queued so far, so colors extracted one after another
+     * are written once; background thread only.
+     * */
+    private fun queueDiskCacheWrite() {
+        if (diskCacheWriteQueued) {
+            return
+        }
+        diskCacheWriteQueued = true
+        executor.execute {
+            diskCacheWriteQueued = false
+            writeDiskCache()
+        }
+    }
+
+    /**
+     * Replace the colors cached on disk, the least recently used first; background thread only.
+     * */
+    private fun writeDiskCache() {
+        val stream = try {
+            diskCacheFile.startWrite()
+        } catch (e: IOException) {
+            Log.e("CoverArtPipeline", "writing the color cache failed", e)
+            return
+        }
+        try {
+            val output = DataOutputStream(stream.buffered())
+            output.writeInt(diskCache.size)
+            diskCache.forEach { (imageUrl, color) ->
+                output.writeUTF(imageUrl)
+                output.writeInt(color)
+            }
+            output.flush()
+            diskCacheFile.finishWrite(stream)
+        } catch (e: IOException) {
+            Log.e("CoverArtPipeline", "writing the color cache failed", e)
+            diskCacheFile.failWrite(stream)
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package edu.illinois.cs465.spotmix.util
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Printer
+import java.io.StringWriter
+import java.io.Writer
+
+/**
+ * Watches the dispatch times of the main looper's messages. When a dispatch takes longer than
+ * STALL_THRESHOLD_MS the main thread's stack is sampled from a background thread and the stall is
+ * attributed to the innermost known hot path on that stack. The most recent stalls are kept in a
+ * ring buffer for export.
+ * Uses the message logging of the main looper, so it replaces any other Printer set there.
+ * */
+object JankWatchdog {
+
+    /**
+     * A dispatch of the main looper that took too long.
+     * @param uptimeMillis when the dispatch started, in SystemClock.uptimeMillis()
+     * @param durationMillis
+     * @param message description of the dispatched message by the looper
+     * @param hotPath the known hot path the stall is attributed to, null if none was on the stack
+     * @param stack stack of the main thread sampled during the stall, null if sampling was too late
+     * */
+    class Stall(
+        val uptimeMillis: Long,
+        val durationMillis: Long,
+        val message: String,
+        val hotPath: String?,
+        val stack: Array<StackTraceElement>?
+    )
+
+    // dispatches taking longer are stalls, about three dropped frames
+    private const val STALL_THRESHOLD_MS = 50L
+    // number of stalls kept for export
+    private const val MAX_STALLS = 32
+    // frames written per stall on export
+    private const val MAX_EXPORTED_FRAMES = 30
+
+    // known hot paths by a fragment of "class.method", checked from the innermost frame outwards
+    private val HOT_PATHS = arrayOf(
+        "androidx.palette" to "Palette",
+        "com.google.gson" to "Gson",
+        "SnapshotMapper" to "SnapshotMapper",
+        "DiffUtil" to "DiffUtil",
+        "LayoutInflater.inflate" to "inflate",
+        "onBindViewHolder" to "onBindViewHolder",
+        "notifyDataSetChanged" to "notifyDataSetChanged",
+        "loadAlbumCover" to "loadAlbumCover",
+        "onPartyChanged" to "onPartyChanged",
+        "onDisplayModelBuilt" to "onDisplayModelBuilt",
+        "onPlaybackEvent" to "onPlaybackEvent",
+        "SpotifyHelper.onEvent" to "SpotifyHelper.onEvent",
+        "onSearchResults" to "onSearchResults"
+    )
+
+    private val mainThread = Looper.getMainLooper().thread
+
+    private var watchdogHandler: Handler? = null
+
+    // state of the current dispatch; written by the main thread
+    @Volatile
+    private var dispatchStart = 0L
+    @Volatile
+    private var dispatchNumber = 0
+    private var dispatchMessage: String? = null
+
+    // stack sampled during the dispatch with the given number; written by the watchdog thread
+    @Volatile
+    private var sampledStack: Array<StackTraceElement>? = null
+    @Volatile
+    private var sampledNumber = -1
+
+    // ring buffer of the recent stalls, guarded by itself
+    private val stalls = arrayOfNulls<Stall>(MAX_STALLS)
+    private var stallCount = 0
+
+    private val sampleStack = Runnable {
+        val number = dispatchNumber
+        if (dispatchStart != 0L) {
+            sampledStack = mainThread.stackTrace
+            sampledNumber = number
+        }
+    }
+
+    private val printer = Printer { line ->
+        // the looper prints ">>>>> Dispatching to ..." before and "<<<<< Finished to ..." after
+        // every dispatch
+        if (line.startsWith(">")) {
+            onDispatchStart(line)
+        } else if (line.startsWith("<")) {
+            onDispatchEnd()
+        }
+    }
+
+    /**
+     * Start watching the main looper. Must be called from the main thread.
+     * */
+    @JvmStatic
+    fun install() {
+        if (watchdogHandler != null) {
+            return
+        }
+        val thread = HandlerThread("JankWatchdog").apply { start() }
+        watchdogHandler = Handler(thread.looper)
+        Looper.getMainLooper().setMessageLogging(printer)
+    }
+
+    private fun onDispatchStart(line: String) {
+        dispatchMessage = line
+        dispatchNumber++
+        dispatchStart = SystemClock.uptimeMillis()
+        watchdogHandler?.postDelayed(sampleStack, STALL_THRESHOLD_MS)
+    }
+
+    private fun onDispatchEnd() {
+        val start = dispatchStart
+        if (start == 0L) {
+            // installed during a dispatch
+            return
+        }
+        dispatchStart = 0L
+        watchdogHandler?.removeCallbacks(sampleStack)
+        val duration = SystemClock.uptimeMillis() - start
+        if (duration < STALL_THRESHOLD_MS) {
+            return
+        }
+        val stack = if (sampledNumber == dispatchNumber) sampledStack else null
+        AppMetrics.MAIN_STALLS.increment()
+        AppMetrics.MAIN_STALL_MILLIS.record(duration)
+        addStall(Stall(start, duration, messageOf(dispatchMessage), hotPathOf(stack), stack))
+    }
+
+    private fun addStall(stall: Stall) {
+        synchronized(stalls) {
+            stalls[stallCount % MAX_STALLS] = stall
+            stallCount++
+        }
+    }
+
+    /**
+     * @return the recent stalls, oldest first
+     * */
+    @JvmStatic
+    fun recentStalls(): List<Stall> = synchronized(stalls) {
+        val count = minOf(stallCount, MAX_STALLS)
+        List(count) { stalls[(stallCount - count + it) % MAX_STALLS]!! }
+    }
+
+    /**
+     * Write a plain text report of the recent stalls, including the sampled stacks.
+     * @param writer
+     * */
+    @JvmStatic
+    fun dump(writer: Writer) {
+        recentStalls().forEach { stall ->
+            writer.write(
+                "stall at=${stall.uptimeMillis} duration=${stall.durationMillis}ms" +
+                        " hotPath=${stall.hotPath ?: "unknown"} message=${stall.message}\n"
+            )
+            stall.stack?.take(MAX_EXPORTED_FRAMES)?.forEach { writer.write("    at $it\n") }
+        }
+        writer.flush()
+    }
+
+    /**
+     * @return short report of the recent stalls without the stacks, newest first
+     * */
+    @JvmStatic
+    fun report(): String {
+        val writer = StringWriter()
+        recentStalls().asReversed().forEach {
+            writer.write("${it.durationMillis}ms ${it.hotPath ?: "unknown"}: ${it.message}\n")
+        }
+        return writer.toString()
+    }
+
+    private fun messageOf(line: String?): String =
+        line?.removePrefix(">>>>> Dispatching to ") ?: ""
+
+    private fun hotPathOf(stack: Array<StackTraceElement>?): String? {
+        stack ?: return null
+        for (frame in stack) {
+            val method = "${frame.className}.${frame.methodName}"
+            for ((fragment, hotPath) in HOT_PATHS) {
+                if (method.contains(fragment)) {
+                    return hotPath
+                }
+            }
+        }
+        return null
+    }
+}
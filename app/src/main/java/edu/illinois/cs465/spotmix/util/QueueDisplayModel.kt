@@ -0,0 +1,172 @@
+package edu.illinois.cs465.spotmix.util
+
+import android.os.Handler
+import android.os.Looper
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueViewEntry
+import edu.illinois.cs465.spotmix.api.spotify.models.Track
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Immutable display model of a track in the queue. Holds everything a queue row displays,
+ * precomputed once per queue snapshot, so binding a row is just assigning fields.
+ * @param uri of the track, to look up the queue entry when voting
+ * @param title
+ * @param artists displayable artist names
+ * @param thumbnailUrl url of the smallest album cover large enough for the thumbnail
+ * @param upvotes number of upvotes
+ * @param downvotes number of downvotes
+ * @param ownVote vote of the viewing attendee; one of VOTE_NONE, VOTE_UP, VOTE_DOWN
+ * */
+class QueueItemDisplay(
+    val uri: String,
+    val title: String,
+    val artists: String,
+    val thumbnailUrl: String?,
+    val upvotes: Int,
+    val downvotes: Int,
+    val ownVote: Int
+) {
+
+    companion object {
+        const val VOTE_NONE = 0
+        const val VOTE_UP = 1
+        const val VOTE_DOWN = 2
+
+        /**
+         * Placeholder for rows that are no longer in the queue.
+         * */
+        @JvmField
+        val EMPTY = QueueItemDisplay("", "", "", null, 0, 0, VOTE_NONE)
+    }
+
+    val hasVoted: Boolean
+        get() = ownVote != VOTE_NONE
+
+    /**
+     * @param other
+     * @return whether both models display the same
+     * */
+    fun sameContentAs(other: QueueItemDisplay): Boolean = sameTrackAs(other) && sameVotesAs(other)
+
+    /**
+     * @param other
+     * @return whether both models display the same track
+     * */
+    fun sameTrackAs(other: QueueItemDisplay): Boolean =
+        uri == other.uri && title == other.title && artists == other.artists
+                && thumbnailUrl == other.thumbnailUrl
+
+    /**
+     * @param other
+     * @return whether both models have the same votes
+     * */
+    fun sameVotesAs(other: QueueItemDisplay): Boolean =
+        upvotes == other.upvotes && downvotes == other.downvotes && ownVote == other.ownVote
+}
+
+/**
+ * Builds the display models of a queue snapshot on a background thread.
+ * @param thumbnailSize size of the album cover thumbnails in pixels
+ * */
+class QueueDisplayModelBuilder(private val thumbnailSize: Int) {
+
+    /**
+     * Callback to return the built display models.
+     * */
+    interface Callback {
+
+        /**
+         * Called on the main thread with the models of the most recent snapshot.
+         * @param items
+         * */
+        fun onDisplayModelBuilt(items: List<QueueItemDisplay>)
+    }
+
+    private val executor: ExecutorService = Executors.newSingleThreadExecutor()
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    // number of the most recent snapshot, to drop outdated results; main thread only
+    private var generation = 0
+
+    // votes of a queue entry as they were when the build started, the tracks are immutable
+    private class VotedTrack(
+        val track: Track,
+        val upvotes: Int,
+        val downvotes: Int,
+        val ownVote: Int
+    )
+
+    /**
+     * Build the display models of a queue snapshot. Must be called from the main thread.
+     * @param queue only read during the call, the votes are copied as voting changes the entries
+     * on the main thread
+     * @param attendee the viewing attendee
+     * @param callback
+     * */
+    fun build(queue: List<QueueTrack>, attendee: Attendee, callback: Callback) {
+        val buildGeneration = ++generation
+        val votedTracks = queue.map { queueTrack ->
+            val ownVote = when {
+                queueTrack.hasUpVoted(attendee) -> QueueItemDisplay.VOTE_UP
+                queueTrack.hasDownVoted(attendee) -> QueueItemDisplay.VOTE_DOWN
+                else -> QueueItemDisplay.VOTE_NONE
+            }
+            VotedTrack(queueTrack.track, queueTrack.upvotes.size, queueTrack.downvotes.size, ownVote)
+        }
+        executor.execute {
+            val items = votedTracks.map(::toDisplay)
+            mainHandler.post {
+                if (buildGeneration == generation) {
+                    callback.onDisplayModelBuilt(items)
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the display models of a queue view, which has no voters. Must be called from the main
+     * thread.
+     * @param entries the list must not be modified afterwards
+     * @param ownVotes votes of the viewing attendee by track uri; copied
+     * @param callback
+     * */
+    fun buildView(entries: List<QueueViewEntry>, ownVotes: Map<String, Int>, callback: Callback) {
+        val buildGeneration = ++generation
+        val votes = HashMap(ownVotes)
+        executor.execute {
+            val items = entries.map { entry ->
+                QueueItemDisplay(
+                    entry.uri,
+                    entry.title,
+                    entry.artists,
+                    entry.thumbnailUrl,
+                    entry.score,
+                    entry.downvotes,
+                    votes[entry.uri] ?: QueueItemDisplay.VOTE_NONE
+                )
+            }
+            mainHandler.post {
+                if (buildGeneration == generation) {
+                    callback.onDisplayModelBuilt(items)
+                }
+            }
+        }
+    }
+
+    private fun toDisplay(votedTrack: VotedTrack): QueueItemDisplay {
+        val track = votedTrack.track
+        return QueueItemDisplay(
+            track.uri,
+            track.name,
+            if (track.artists.isNotEmpty()) track.getArtistNames() else "",
+            track.album.getImageUrl(thumbnailSize),
+            votedTrack.upvotes,
+            votedTrack.downvotes,
+            votedTrack.ownVote
+        )
+    }
+}
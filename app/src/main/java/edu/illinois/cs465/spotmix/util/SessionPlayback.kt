@@ -0,0 +1,77 @@
+package edu.illinois.cs465.spotmix.util
+
+import edu.illinois.cs465.spotmix.api.PartyBackend
+import edu.illinois.cs465.spotmix.api.firebase.SnapshotMapper
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.spotify.PlayerStateTree
+import edu.illinois.cs465.spotmix.api.spotify.SpotifyHelper
+import edu.illinois.cs465.spotmix.replay.SessionEvent
+import edu.illinois.cs465.spotmix.replay.SessionReader
+import edu.illinois.cs465.spotmix.replay.SessionReplayer
+import java.io.File
+import java.io.FileInputStream
+
+/**
+ * Feeds a recorded session into the same listeners FirebaseHelper and SpotifyHelper notify,
+ * decoding the snapshots with the same mappers. Events are delivered synchronously on the thread
+ * calling replay(), e.g. the main thread of a Robolectric test or a plain JVM test thread.
+ * @param partyListener
+ * @param attendeeListener
+ * @param playbackListener
+ * */
+class SessionPlayback(
+    private val partyListener: PartyBackend.PartyListener?,
+    private val attendeeListener: PartyBackend.AttendeeListener?,
+    private val playbackListener: SpotifyHelper.PlaybackStateListener?
+) : SessionReplayer.Listener {
+
+    // party the partitions are applied to, like FirebaseHelper does
+    private var party = Party("")
+
+    // attendee list rebuilt from the child events, like FirebaseHelper does
+    private val attendees = mutableListOf<Attendee>()
+
+    /**
+     * Replay a recorded session.
+     * @param file
+     * @param speed 1.0 for real time, SessionReplayer.MAX_SPEED to not wait between events
+     * @return number of replayed events
+     * */
+    fun replay(file: File, speed: Double): Int =
+        SessionReader(FileInputStream(file)).use { SessionReplayer(it, speed).replay(this) }
+
+    override fun onEvent(event: SessionEvent) {
+        when (event.type) {
+            SessionEvent.PARTY_VALUE -> SnapshotMapper.party(event.value)?.let {
+                party = it
+                partyListener?.onPartyChanged(it)
+            }
+            SessionEvent.QUEUE_VALUE -> {
+                party = party.withQueue(SnapshotMapper.queue(event.value))
+                partyListener?.onPartyChanged(party)
+            }
+            SessionEvent.PLAYBACK_VALUE -> SnapshotMapper.playback(event.value)?.let {
+                party = party.withPlayback(it)
+                partyListener?.onPartyChanged(party)
+            }
+            SessionEvent.ATTENDEE_ADDED -> SnapshotMapper.attendee(event.value)?.let {
+                val position = event.key?.toInt()?.plus(1) ?: 0
+                attendees.add(position, it)
+                attendeeListener?.onAttendeeAdded(attendees, position)
+            }
+            SessionEvent.ATTENDEE_CHANGED -> SnapshotMapper.attendee(event.value)?.let {
+                val position = event.key?.toInt()?.plus(1) ?: 0
+                attendees[position] = it
+                attendeeListener?.onAttendeeChanged(attendees, position)
+            }
+            SessionEvent.ATTENDEE_REMOVED -> SnapshotMapper.attendee(event.value)?.let {
+                val position = attendees.indexOf(it)
+                attendees.remove(it)
+                attendeeListener?.onAttendeeRemoved(attendees, position)
+            }
+            SessionEvent.PLAYER_STATE ->
+                playbackListener?.onPlaybackEvent(PlayerStateTree.fromTree(event.value))
+        }
+    }
+}
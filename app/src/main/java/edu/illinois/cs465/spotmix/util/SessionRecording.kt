@@ -0,0 +1,69 @@
+package edu.illinois.cs465.spotmix.util
+
+import com.google.firebase.database.DataSnapshot
+import com.spotify.protocol.types.PlayerState
+import edu.illinois.cs465.spotmix.api.spotify.PlayerStateTree
+import edu.illinois.cs465.spotmix.replay.SessionEvent
+import edu.illinois.cs465.spotmix.replay.SessionRecorder
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+
+/**
+ * Records the Firebase snapshots and Spotify player states the app receives into a session file,
+ * which SessionPlayback can feed back into the listeners. Recording is off unless started, the
+ * hooks then only check a field.
+ * */
+object SessionRecording {
+
+    @Volatile
+    private var recorder: SessionRecorder? = null
+
+    @JvmStatic
+    val isRecording: Boolean
+        get() = recorder != null
+
+    /**
+     * Start recording into a file, stops a running recording first. Blocks while stopping.
+     * @param file
+     * @throws IOException if the file can't be created
+     * */
+    @JvmStatic
+    @Synchronized
+    @Throws(IOException::class)
+    fun start(file: File) {
+        stop()
+        recorder = SessionRecorder(FileOutputStream(file))
+    }
+
+    /**
+     * Stop recording, blocks until all recorded events are written.
+     * @throws IOException if writing the recording failed
+     * */
+    @JvmStatic
+    @Synchronized
+    @Throws(IOException::class)
+    fun stop() {
+        val stopped = recorder ?: return
+        recorder = null
+        stopped.close()
+        stopped.error?.let { throw it }
+    }
+
+    /**
+     * @param type one of the SessionEvent snapshot types
+     * @param snapshot
+     * @param previousChildName of child events
+     * */
+    fun recordSnapshot(type: Int, snapshot: DataSnapshot, previousChildName: String? = null) {
+        // the raw value is read on the recorder thread
+        recorder?.record(type, previousChildName) { snapshot.value }
+    }
+
+    /**
+     * @param state
+     * */
+    fun recordPlayerState(state: PlayerState?) {
+        recorder?.record(SessionEvent.PLAYER_STATE, null) { PlayerStateTree.toTree(state) }
+    }
+}
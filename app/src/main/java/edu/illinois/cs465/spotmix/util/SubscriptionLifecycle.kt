@@ -0,0 +1,64 @@
+package edu.illinois.cs465.spotmix.util
+
+import android.app.Activity
+import android.app.Application
+import android.os.Bundle
+import android.os.Handler
+import android.os.Looper
+import edu.illinois.cs465.spotmix.api.SubscriptionTier
+import edu.illinois.cs465.spotmix.api.SubscriptionTiers
+
+/**
+ * Requests the SubscriptionTier from the lifecycle of the process: FOREGROUND while an activity
+ * is started, BACKGROUND shortly after the last one stopped and IDLE after a long time in the
+ * background. The playback keeps the tier from dropping below BACKGROUND while it plays along.
+ * */
+object SubscriptionLifecycle : Application.ActivityLifecycleCallbacks {
+
+    // rotations and switches between screens don't resubscribe
+    private const val BACKGROUND_DELAY_MS = 2000L
+    private const val IDLE_DELAY_MS = 10 * 60_000L
+
+    private val handler = Handler(Looper.getMainLooper())
+
+    // number of started activities
+    private var started = 0
+
+    private val background = Runnable { SubscriptionTiers.request(SubscriptionTier.BACKGROUND) }
+
+    private val idle = Runnable { SubscriptionTiers.request(SubscriptionTier.IDLE) }
+
+    /**
+     * Follow the activities of the app, before the first one starts.
+     * @param application
+     * */
+    @JvmStatic
+    fun install(application: Application) {
+        application.registerActivityLifecycleCallbacks(this)
+    }
+
+    override fun onActivityStarted(activity: Activity) {
+        if (started++ == 0) {
+            handler.removeCallbacks(background)
+            handler.removeCallbacks(idle)
+            SubscriptionTiers.request(SubscriptionTier.FOREGROUND)
+        }
+    }
+
+    override fun onActivityStopped(activity: Activity) {
+        if (--started == 0) {
+            handler.postDelayed(background, BACKGROUND_DELAY_MS)
+            handler.postDelayed(idle, IDLE_DELAY_MS)
+        }
+    }
+
+    override fun onActivityCreated(activity: Activity, savedInstanceState: Bundle?) {}
+
+    override fun onActivityResumed(activity: Activity) {}
+
+    override fun onActivityPaused(activity: Activity) {}
+
+    override fun onActivitySaveInstanceState(activity: Activity, outState: Bundle) {}
+
+    override fun onActivityDestroyed(activity: Activity) {}
+}
@@ -3,17 +3,20 @@ package edu.illinois.cs465.spotmix.util
 import android.content.Context
 import android.graphics.Canvas
 import android.graphics.Color
-import android.util.Log
+import android.graphics.Paint
+import android.graphics.drawable.Drawable
+import android.util.TypedValue
+import android.view.View
 import android.widget.Toast
 import androidx.core.content.ContextCompat
 import androidx.recyclerview.widget.ItemTouchHelper
 import androidx.recyclerview.widget.RecyclerView
 import edu.illinois.cs465.spotmix.R
 import edu.illinois.cs465.spotmix.activities.PartyActivity
-import edu.illinois.cs465.spotmix.api.firebase.FirebaseHelper
+import edu.illinois.cs465.spotmix.api.PartyBackends
 import edu.illinois.cs465.spotmix.api.firebase.models.Party
 import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
-import it.xabaras.android.recyclerview.swipedecorator.RecyclerViewSwipeDecorator
+import edu.illinois.cs465.spotmix.api.spotify.models.Track
 import kotlin.math.abs
 import kotlin.math.min
 
@@ -29,56 +32,126 @@ class SwipeToVoteCallback(
      * */
     interface PartyCallback {
         fun getParty(): Party
+
+        /**
+         * Called after the attendee voted on a track.
+         * @param uri of the track
+         * @param vote QueueItemDisplay.VOTE_UP or QueueItemDisplay.VOTE_DOWN
+         * */
+        fun onVoted(uri: String, vote: Int)
+
+        /**
+         * Called after an admin dragged a track to another row.
+         * @param uri of the track
+         * @param rank position in the queue it was dropped at
+         * */
+        fun onMoved(uri: String, rank: Int)
     }
 
-    private val upVoteIconRes = R.drawable.ic_thumb_up_24dp
-    private val upVoteIconOutlineRes = R.drawable.ic_thumb_up_outline_24dp
+    // everything needed for drawing is created once, onChildDraw runs every frame of a swipe
+    private val upVoteIcon = ContextCompat.getDrawable(context, R.drawable.ic_thumb_up_24dp)
+    private val upVoteIconOutline = ContextCompat.getDrawable(context, R.drawable.ic_thumb_up_outline_24dp)
     private val upVoteBackgroundColor = ContextCompat.getColor(context, R.color.up_vote_bg_clr)
-    private val downVoteIconRes = R.drawable.ic_thumb_down_24dp
-    private val downVoteIconOutlineRes = R.drawable.ic_thumb_down_outline_24dp
+    private val downVoteIcon = ContextCompat.getDrawable(context, R.drawable.ic_thumb_down_24dp)
+    private val downVoteIconOutline = ContextCompat.getDrawable(context, R.drawable.ic_thumb_down_outline_24dp)
     private val downVoteBackgroundColor = ContextCompat.getColor(context, R.color.down_vote_bg_clr)
 
-    private val firebaseHelper = FirebaseHelper()
+    private val iconMargin = TypedValue.applyDimension(
+        TypedValue.COMPLEX_UNIT_DIP, 16f, context.resources.displayMetrics
+    ).toInt()
+
+    private val backgroundPaint = Paint()
+
+    private val labelPaint = Paint(Paint.ANTI_ALIAS_FLAG).apply {
+        color = Color.parseColor("#c8ffffff")
+        textSize = TypedValue.applyDimension(
+            TypedValue.COMPLEX_UNIT_SP, 14f, context.resources.displayMetrics
+        )
+    }
+
+    // digits of the vote count label; large enough for any Int
+    private val labelBuffer = CharArray(10)
+
+    private val partyBackend = PartyBackends.create()
+
+    // row the dragged track would be dropped at, -1 while nothing is dragged over another row
+    private var dropPosition = -1
+
+    // admins reorder the tracks with as many upvotes by dragging
+    override fun getDragDirs(rV: RecyclerView, vH: RecyclerView.ViewHolder): Int =
+        if (rvAdapter.attendee.admin) ItemTouchHelper.UP or ItemTouchHelper.DOWN else 0
+
+    override fun canDropOver(
+        rV: RecyclerView,
+        current: RecyclerView.ViewHolder,
+        target: RecyclerView.ViewHolder
+    ): Boolean {
+        if (current.adapterPosition == -1 || target.adapterPosition == -1) {
+            return false
+        }
+        // the tracks ahead by votes stay ahead
+        return rvAdapter.getItem(current.adapterPosition).upvotes ==
+                rvAdapter.getItem(target.adapterPosition).upvotes
+    }
 
     override fun onMove(
         rV: RecyclerView,
         vH: RecyclerView.ViewHolder,
         t: RecyclerView.ViewHolder
-    ): Boolean = false
+    ): Boolean {
+        // the rows stay in place, the queue is reordered once the track is dropped
+        dropPosition = t.adapterPosition
+        return false
+    }
+
+    override fun clearView(rV: RecyclerView, vH: RecyclerView.ViewHolder) {
+        super.clearView(rV, vH)
+        val rank = dropPosition
+        dropPosition = -1
+        if (rank != -1 && vH.adapterPosition != -1 && rank != vH.adapterPosition) {
+            partyCallback.onMoved(rvAdapter.getItem(vH.adapterPosition).uri, rank)
+        }
+    }
 
     override fun onSwiped(vH: RecyclerView.ViewHolder, direction: Int) {
         val attendee = rvAdapter.attendee
-        val track = rvAdapter.queue[vH.adapterPosition]
+        val item = rvAdapter.getItem(vH.adapterPosition)
+        val party = partyCallback.getParty()
+        val track = queueEntry(party, item)
 
         when (direction) {
             ItemTouchHelper.LEFT -> {
-                if (track.hasVoted(attendee)) {
+                if (item.hasVoted) {
                     Toast.makeText(
                         vH.itemView.context,
-                        "You already voted for ${track.track.name}",
+                        "You already voted for ${item.title}",
                         Toast.LENGTH_SHORT
                     ).show()
+                } else if (!partyBackend.downvoteTrack(party, track, attendee)) {
+                    onThrottled(vH)
                 } else {
-                    firebaseHelper.downvoteTrack(partyCallback.getParty(), track, attendee)
+                    partyCallback.onVoted(item.uri, QueueItemDisplay.VOTE_DOWN)
                     Toast.makeText(
                         vH.itemView.context,
-                        "downvoted ${track.track.name}",
+                        "downvoted ${item.title}",
                         Toast.LENGTH_SHORT
                     ).show()
                 }
             }
             ItemTouchHelper.RIGHT -> {
-                if (track.hasVoted(attendee)) {
+                if (item.hasVoted) {
                     Toast.makeText(
                         vH.itemView.context,
-                        "You already voted for ${track.track.name}",
+                        "You already voted for ${item.title}",
                         Toast.LENGTH_SHORT
                     ).show()
+                } else if (!partyBackend.upvoteTrack(party, track, attendee)) {
+                    onThrottled(vH)
                 } else {
-                    firebaseHelper.upvoteTrack(partyCallback.getParty(), track, attendee)
+                    partyCallback.onVoted(item.uri, QueueItemDisplay.VOTE_UP)
                     Toast.makeText(
                         vH.itemView.context,
-                        "upvoted ${track.track.name}",
+                        "upvoted ${item.title}",
                         Toast.LENGTH_SHORT
                     ).show()
                 }
@@ -87,6 +160,30 @@ class SwipeToVoteCallback(
         rvAdapter.notifyItemChanged(vH.adapterPosition)
     }
 
+    /**
+     * @param party
+     * @param item
+     * @return the queue entry of the row; a track of the queue view only has the uri and title
+     * here, which is enough to vote on the stored entry
+     * */
+    private fun queueEntry(party: Party, item: QueueItemDisplay): QueueTrack {
+        val position = party.positionInQueue(item.uri)
+        return if (position != -1) {
+            party.queue[position]
+        } else {
+            QueueTrack(Track().copy(name = item.title, uri = item.uri))
+        }
+    }
+
+    /**
+     * The vote was rejected by the write quota of the attendee, the row swipes back unvoted.
+     * @param vH
+     * */
+    private fun onThrottled(vH: RecyclerView.ViewHolder) {
+        AppMetrics.WRITES_THROTTLED.increment()
+        Toast.makeText(vH.itemView.context, R.string.writing_too_fast, Toast.LENGTH_SHORT).show()
+    }
+
     override fun getSwipeThreshold(viewHolder: RecyclerView.ViewHolder): Float = .5f
 
     override fun onChildDraw(
@@ -98,40 +195,68 @@ class SwipeToVoteCallback(
         actionState: Int,
         isCurrentlyActive: Boolean
     ) {
-        val attendee = rvAdapter.attendee
-        val track =
-            if (vH.adapterPosition != -1) rvAdapter.queue[vH.adapterPosition] else QueueTrack()
+        // called for every frame of a swipe => must not allocate anything
+        // row is being removed from the adapter => draw the empty placeholder
+        val item =
+            if (vH.adapterPosition != -1) rvAdapter.getItem(vH.adapterPosition) else QueueItemDisplay.EMPTY
 
-        val progress = min(abs(dX) / (vH.itemView.right - vH.itemView.left) * 2, 1.0f)
+        val itemView = vH.itemView
+        val progress = min(abs(dX) / (itemView.right - itemView.left) * 2, 1.0f)
+        val alpha = (progress * 255).toInt()
 
-        val builder =
-            RecyclerViewSwipeDecorator.Builder(c, rV, vH, dX, dY, actionState, isCurrentlyActive)
-        builder
+        if (dX > 0) {
             // Swiping to the right => up vote
-            .addSwipeRightBackgroundColor(
-                Color.argb(
-                    (progress * 255).toInt(),
-                    Color.red(upVoteBackgroundColor),
-                    Color.green(upVoteBackgroundColor),
-                    Color.blue(upVoteBackgroundColor)
-                )
+            backgroundPaint.color = FrameMath.withAlpha(upVoteBackgroundColor, alpha)
+            c.drawRect(
+                itemView.left.toFloat(), itemView.top.toFloat(),
+                itemView.left + dX, itemView.bottom.toFloat(), backgroundPaint
             )
-            .addSwipeRightActionIcon(if (track.hasUpVoted(attendee)) upVoteIconRes else upVoteIconOutlineRes)
-            .addSwipeRightLabel("${track.upvotes.size}")
-            .setSwipeRightLabelColor(Color.parseColor("#c8ffffff"))
+            val icon = if (item.ownVote == QueueItemDisplay.VOTE_UP) upVoteIcon else upVoteIconOutline
+            drawIconAndLabel(c, itemView, icon, item.upvotes, dX, true)
+        } else if (dX < 0) {
             // Swiping to the left => down vote
-            .addSwipeLeftBackgroundColor(
-                Color.argb(
-                    (progress * 255).toInt(),
-                    Color.red(downVoteBackgroundColor),
-                    Color.green(downVoteBackgroundColor),
-                    Color.blue(downVoteBackgroundColor)
-                )
+            backgroundPaint.color = FrameMath.withAlpha(downVoteBackgroundColor, alpha)
+            c.drawRect(
+                itemView.right + dX, itemView.top.toFloat(),
+                itemView.right.toFloat(), itemView.bottom.toFloat(), backgroundPaint
             )
-            .addSwipeLeftActionIcon(if (track.hasDownVoted(attendee)) downVoteIconRes else downVoteIconOutlineRes)
-            .addSwipeLeftLabel("${track.downvotes.size}")
-            .setSwipeLeftLabelColor(Color.parseColor("#c8ffffff"))
-            .create().decorate()
+            val icon = if (item.ownVote == QueueItemDisplay.VOTE_DOWN) downVoteIcon else downVoteIconOutline
+            drawIconAndLabel(c, itemView, icon, item.downvotes, dX, false)
+        }
         super.onChildDraw(c, rV, vH, dX / 2, dY, actionState, isCurrentlyActive)
     }
-}
\ No newline at end of file
+
+    /**
+     * Draw the vote icon next to the swiped edge, followed by the vote count.
+     * */
+    private fun drawIconAndLabel(
+        c: Canvas,
+        itemView: View,
+        icon: Drawable?,
+        votes: Int,
+        dX: Float,
+        right: Boolean
+    ) {
+        if (icon == null || abs(dX) <= iconMargin) {
+            return
+        }
+        val centerY = (itemView.top + itemView.bottom) / 2
+        val iconTop = centerY - icon.intrinsicHeight / 2
+        val labelLength = FrameMath.formatDecimal(votes, labelBuffer)
+        val labelWidth = labelPaint.measureText(labelBuffer, 0, labelLength)
+        val labelY = centerY - (labelPaint.descent() + labelPaint.ascent()) / 2
+        if (right) {
+            val iconLeft = itemView.left + iconMargin
+            icon.setBounds(iconLeft, iconTop, iconLeft + icon.intrinsicWidth, iconTop + icon.intrinsicHeight)
+            icon.draw(c)
+            val labelX = (iconLeft + icon.intrinsicWidth + iconMargin).toFloat()
+            c.drawText(labelBuffer, 0, labelLength, labelX, labelY, labelPaint)
+        } else {
+            val iconRight = itemView.right - iconMargin
+            icon.setBounds(iconRight - icon.intrinsicWidth, iconTop, iconRight, iconTop + icon.intrinsicHeight)
+            icon.draw(c)
+            val labelX = iconRight - icon.intrinsicWidth - iconMargin - labelWidth
+            c.drawText(labelBuffer, 0, labelLength, labelX, labelY, labelPaint)
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package edu.illinois.cs465.spotmix.benchmark
+
+import edu.illinois.cs465.spotmix.api.firebase.models.FairShareScheduler
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Picking the next track in fair-share mode, for queues of many tracks added by many attendees in
+ * turn. Should stay flat as both grow.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class FairShareBenchmark {
+
+    @Param("1000", "10000")
+    @JvmField
+    var size: Int = 0
+
+    @Param("10", "100", "500")
+    @JvmField
+    var submitters: Int = 0
+
+    private lateinit var party: Party
+
+    private val scheduler = FairShareScheduler()
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        party = PartyFixtures.party(size, submitters = submitters)
+        scheduler.rebuild(party.queue, party.history)
+    }
+
+    @Benchmark
+    fun next(): QueueTrack? = scheduler.next()
+
+    /**
+     * Play the next track and queue it again, so the queue keeps its size.
+     * */
+    @Benchmark
+    fun playAndRequeue(): QueueTrack {
+        val next = scheduler.next()!!
+        scheduler.onRemoved(next)
+        scheduler.onPlayed(next)
+        scheduler.onAdded(next)
+        return next
+    }
+
+    /**
+     * Reschedule the track that would be played next, as after a vote on it.
+     * */
+    @Benchmark
+    fun rescheduleNext(): QueueTrack {
+        val next = scheduler.next()!!
+        scheduler.onChanged(next)
+        return next
+    }
+
+    /**
+     * Without incremental updates: schedule the whole queue for every pick.
+     * */
+    @Benchmark
+    fun rebuildAndNext(): QueueTrack? {
+        scheduler.rebuild(party.queue, party.history)
+        return scheduler.next()
+    }
+}
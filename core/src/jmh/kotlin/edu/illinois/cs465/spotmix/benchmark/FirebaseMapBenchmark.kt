@@ -0,0 +1,53 @@
+package edu.illinois.cs465.spotmix.benchmark
+
+import com.google.gson.Gson
+import com.google.gson.JsonElement
+import edu.illinois.cs465.spotmix.api.firebase.FirebaseTrees
+import edu.illinois.cs465.spotmix.api.firebase.SnapshotMapper
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Conversion between a party and the Firebase value tree, in both directions.
+ * Decoding is what every client does for every party change. The reflective benchmarks are the
+ * baseline the hand-written mappers replaced: the Firebase class mapper isn't available on the
+ * JVM, Gson maps the same tree to the same models by reflection on their fields instead.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class FirebaseMapBenchmark {
+
+    @Param("10", "100", "500", "1000", "10000")
+    @JvmField
+    var size: Int = 0
+
+    private val gson = Gson()
+
+    private lateinit var party: Party
+
+    private lateinit var tree: Map<String, Any?>
+
+    // the same tree as Gson holds it, like a snapshot holds the parsed JSON
+    private lateinit var jsonTree: JsonElement
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        party = PartyFixtures.party(size, votesPerTrack = 3)
+        tree = FirebaseTrees.party(party)
+        jsonTree = gson.toJsonTree(tree)
+    }
+
+    @Benchmark
+    fun toTree(): Map<String, Any?> = FirebaseTrees.party(party)
+
+    @Benchmark
+    fun fromTree(): Party? = SnapshotMapper.party(tree)
+
+    @Benchmark
+    fun toTreeReflective(): JsonElement = gson.toJsonTree(party)
+
+    @Benchmark
+    fun fromTreeReflective(): Party = gson.fromJson(jsonTree, Party::class.java)
+}
@@ -0,0 +1,45 @@
+package edu.illinois.cs465.spotmix.benchmark
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import org.openjdk.jmh.annotations.*
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.util.concurrent.TimeUnit
+
+/**
+ * Parcel equivalent marshalling of a whole party, as done for every activity start and
+ * onSaveInstanceState().
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class MarshallingBenchmark {
+
+    @Param("10", "100", "1000", "10000")
+    @JvmField
+    var size: Int = 0
+
+    private lateinit var party: Party
+
+    private val buffer = ByteArrayOutputStream()
+
+    private lateinit var marshalled: ByteArray
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        party = PartyFixtures.party(size, votesPerTrack = 3)
+        marshalled = marshall()
+    }
+
+    @Benchmark
+    fun marshall(): ByteArray {
+        buffer.reset()
+        PartyMarshaller.write(DataOutputStream(buffer), party)
+        return buffer.toByteArray()
+    }
+
+    @Benchmark
+    fun unmarshall(): Party = PartyMarshaller.read(DataInputStream(ByteArrayInputStream(marshalled)))
+}
@@ -0,0 +1,55 @@
+package edu.illinois.cs465.spotmix.benchmark
+
+import edu.illinois.cs465.spotmix.metrics.Metrics
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Overhead the metrics add to the instrumented hot paths, single threaded and contended.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class MetricsBenchmark {
+
+    private val counter = Metrics.counter("benchmark.counter")
+
+    private val histogram = Metrics.histogram("benchmark.histogram")
+
+    // spreads the recorded values over many buckets
+    private var value = 0L
+
+    @Benchmark
+    fun increment() {
+        counter.increment()
+    }
+
+    @Benchmark
+    fun record() {
+        value = (value * 31 + 7) and 0xFFFFFF
+        histogram.record(value)
+    }
+
+    @Benchmark
+    fun recordSince() {
+        histogram.recordSince(System.nanoTime())
+    }
+
+    @Benchmark
+    @Threads(4)
+    fun incrementContended() {
+        counter.increment()
+    }
+
+    @Benchmark
+    @Threads(4)
+    fun recordSinceContended() {
+        histogram.recordSince(System.nanoTime())
+    }
+
+    /**
+     * Baseline: the clock read every timed section needs anyway.
+     * */
+    @Benchmark
+    fun nanoTime(): Long = System.nanoTime()
+}
@@ -0,0 +1,62 @@
+package edu.illinois.cs465.spotmix.benchmark
+
+import edu.illinois.cs465.spotmix.api.PartyBackend
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.memory.InMemoryPartyBackend
+import edu.illinois.cs465.spotmix.api.memory.InMemoryPartyStore
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * A vote travelling through the in-memory backend: applied locally, written to the store and
+ * delivered as a fresh party to another attendee, without latency.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class PartyBackendBenchmark {
+
+    @Param("10", "100", "1000", "10000")
+    @JvmField
+    var size: Int = 0
+
+    private lateinit var voterBackend: PartyBackend
+
+    private lateinit var voterParty: Party
+
+    private val voter = Attendee("Voter", "voter")
+
+    // last party delivered to the listening attendee
+    private var received: Party? = null
+
+    private lateinit var fixture: Party
+
+    @Setup(Level.Trial)
+    fun setUpFixture() {
+        fixture = PartyFixtures.party(size)
+    }
+
+    /**
+     * Fresh store per vote, otherwise the votes pile up on the tracks and every copy grows.
+     * */
+    @Setup(Level.Invocation)
+    fun setUp() {
+        val store = InMemoryPartyStore()
+        val key = store.create(fixture)
+        voterBackend = InMemoryPartyBackend(store)
+        voterParty = store.read(key)!!
+        InMemoryPartyBackend(store).addPartyListener(voterParty, object : PartyBackend.PartyListener {
+            override fun onPartyChanged(party: Party) {
+                received = party
+            }
+        })
+    }
+
+    @Benchmark
+    fun upvoteRoundTrip(): Party? {
+        // the last track is the worst case for moving up
+        voterBackend.upvoteTrack(voterParty, voterParty.queue[size - 1], voter)
+        return received
+    }
+}
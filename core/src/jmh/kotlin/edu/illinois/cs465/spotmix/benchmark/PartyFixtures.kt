@@ -0,0 +1,84 @@
+package edu.illinois.cs465.spotmix.benchmark
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.spotify.models.*
+
+/**
+ * Generates parties with realistic looking tracks for the benchmarks.
+ * */
+object PartyFixtures {
+
+    private val markets = listOf("CA", "DE", "FR", "GB", "MX", "US")
+
+    fun attendee(i: Int) = Attendee("Attendee $i", "attendee-$i")
+
+    fun track(i: Int): Track {
+        val artist = Artist(
+            ExternalUrls("https://open.spotify.com/artist/artist$i"),
+            "https://api.spotify.com/v1/artists/artist$i",
+            "artist$i",
+            "Artist $i",
+            "artist",
+            "spotify:artist:artist$i"
+        )
+        val album = Album(
+            "album",
+            listOf(artist),
+            markets,
+            ExternalUrls("https://open.spotify.com/album/album$i"),
+            "https://api.spotify.com/v1/albums/album$i",
+            "album$i",
+            listOf(640, 300, 64).map { Image(it, "https://i.scdn.co/image/album$i-$it", it) },
+            "Album $i",
+            "2019-11-29",
+            "day",
+            12,
+            "album",
+            "spotify:album:album$i"
+        )
+        return Track(
+            album,
+            listOf(artist),
+            markets,
+            1,
+            200000 + i,
+            false,
+            ExternalIds("USRC1190$i"),
+            ExternalUrls("https://open.spotify.com/track/track$i"),
+            "https://api.spotify.com/v1/tracks/track$i",
+            "track$i",
+            false,
+            "Track $i",
+            50,
+            "https://p.scdn.co/mp3-preview/track$i",
+            i % 12 + 1,
+            "track",
+            "spotify:track:track$i"
+        )
+    }
+
+    /**
+     * @param size number of tracks in the queue
+     * @param votesPerTrack number of upvotes of every track
+     * @param submitters number of attendees who added the tracks in turn, 0 if unknown
+     * */
+    fun party(size: Int, votesPerTrack: Int = 0, submitters: Int = 0): Party {
+        val party = Party("Benchmark Party", "-benchmark", accessToken = "Bearer token")
+        for (i in 0 until size) {
+            val addedBy = if (submitters > 0) attendee(i % submitters) else null
+            val queueTrack = QueueTrack(track(i), addedBy = addedBy)
+            for (v in 0 until votesPerTrack) {
+                queueTrack.upvotes.add(attendee(v))
+            }
+            party.queue.add(queueTrack)
+        }
+        // position keys, as the queue of a stored party has
+        party.rebalance()
+        for (i in 0 until 20) {
+            party.attendees.add(attendee(i))
+        }
+        return party
+    }
+}
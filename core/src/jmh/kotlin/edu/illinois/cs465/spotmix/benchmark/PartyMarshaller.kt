@@ -0,0 +1,185 @@
+package edu.illinois.cs465.spotmix.benchmark
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.spotify.models.*
+import java.io.DataInputStream
+import java.io.DataOutputStream
+
+/**
+ * Parcel equivalent for the JVM: writes the models field by field in the same order and with the
+ * same primitives the Parcelize generated writeToParcel() uses, so the cost of passing a party
+ * between activities can be measured without Android.
+ * */
+object PartyMarshaller {
+
+    fun write(out: DataOutputStream, party: Party) {
+        out.writeString(party.name)
+        out.writeString(party.key)
+        out.writeList(party.queue) { writeQueueTrack(out, it) }
+        out.writeList(party.attendees) { writeAttendee(out, it) }
+        out.writeString(party.accessToken)
+        out.writeInt(if (party.playing) 1 else 0)
+        out.writeInt(if (party.currentTrack != null) 1 else 0)
+        party.currentTrack?.let { writeQueueTrack(out, it) }
+        out.writeInt(if (party.fairShare) 1 else 0)
+    }
+
+    fun read(input: DataInputStream): Party = Party(
+        input.readString()!!,
+        input.readString(),
+        input.readList { readQueueTrack(input) },
+        input.readList { readAttendee(input) },
+        input.readString(),
+        input.readInt() != 0,
+        if (input.readInt() != 0) readQueueTrack(input) else null,
+        fairShare = input.readInt() != 0
+    )
+
+    private fun writeQueueTrack(out: DataOutputStream, queueTrack: QueueTrack) {
+        writeTrack(out, queueTrack.track)
+        out.writeList(queueTrack.upvotes) { writeAttendee(out, it) }
+        out.writeList(queueTrack.downvotes) { writeAttendee(out, it) }
+        out.writeString(queueTrack.position)
+        out.writeInt(if (queueTrack.addedBy != null) 1 else 0)
+        queueTrack.addedBy?.let { writeAttendee(out, it) }
+    }
+
+    private fun readQueueTrack(input: DataInputStream) = QueueTrack(
+        readTrack(input),
+        input.readList { readAttendee(input) },
+        input.readList { readAttendee(input) },
+        input.readString(),
+        if (input.readInt() != 0) readAttendee(input) else null
+    )
+
+    private fun writeAttendee(out: DataOutputStream, attendee: Attendee) {
+        out.writeString(attendee.name)
+        out.writeString(attendee.id)
+        out.writeInt(if (attendee.admin) 1 else 0)
+    }
+
+    private fun readAttendee(input: DataInputStream) =
+        Attendee(input.readString()!!, input.readString()!!, input.readInt() != 0)
+
+    private fun writeTrack(out: DataOutputStream, track: Track) {
+        writeAlbum(out, track.album)
+        out.writeList(track.artists) { writeArtist(out, it) }
+        out.writeList(track.available_markets) { out.writeString(it) }
+        out.writeInt(track.disc_number)
+        out.writeInt(track.duration_ms)
+        out.writeInt(if (track.explicit) 1 else 0)
+        out.writeString(track.external_ids.isrc)
+        out.writeString(track.external_urls.spotify)
+        out.writeString(track.href)
+        out.writeString(track.id)
+        out.writeInt(if (track.is_local) 1 else 0)
+        out.writeString(track.name)
+        out.writeInt(track.popularity)
+        out.writeString(track.preview_url)
+        out.writeInt(track.track_number)
+        out.writeString(track.type)
+        out.writeString(track.uri)
+    }
+
+    private fun readTrack(input: DataInputStream) = Track(
+        readAlbum(input),
+        input.readList { readArtist(input) },
+        input.readList { input.readString()!! },
+        input.readInt(),
+        input.readInt(),
+        input.readInt() != 0,
+        ExternalIds(input.readString()!!),
+        ExternalUrls(input.readString()!!),
+        input.readString()!!,
+        input.readString()!!,
+        input.readInt() != 0,
+        input.readString()!!,
+        input.readInt(),
+        input.readString()!!,
+        input.readInt(),
+        input.readString()!!,
+        input.readString()!!
+    )
+
+    private fun writeAlbum(out: DataOutputStream, album: Album) {
+        out.writeString(album.album_type)
+        out.writeList(album.artists) { writeArtist(out, it) }
+        out.writeList(album.available_markets) { out.writeString(it) }
+        out.writeString(album.external_urls.spotify)
+        out.writeString(album.href)
+        out.writeString(album.id)
+        out.writeList(album.images) {
+            out.writeInt(it.height)
+            out.writeString(it.url)
+            out.writeInt(it.width)
+        }
+        out.writeString(album.name)
+        out.writeString(album.release_date)
+        out.writeString(album.release_date_precision)
+        out.writeInt(album.total_tracks)
+        out.writeString(album.type)
+        out.writeString(album.uri)
+    }
+
+    private fun readAlbum(input: DataInputStream) = Album(
+        input.readString()!!,
+        input.readList { readArtist(input) },
+        input.readList { input.readString()!! },
+        ExternalUrls(input.readString()!!),
+        input.readString()!!,
+        input.readString()!!,
+        input.readList { Image(input.readInt(), input.readString()!!, input.readInt()) },
+        input.readString()!!,
+        input.readString()!!,
+        input.readString()!!,
+        input.readInt(),
+        input.readString()!!,
+        input.readString()!!
+    )
+
+    private fun writeArtist(out: DataOutputStream, artist: Artist) {
+        out.writeString(artist.external_urls.spotify)
+        out.writeString(artist.href)
+        out.writeString(artist.id)
+        out.writeString(artist.name)
+        out.writeString(artist.type)
+        out.writeString(artist.uri)
+    }
+
+    private fun readArtist(input: DataInputStream) = Artist(
+        ExternalUrls(input.readString()!!),
+        input.readString()!!,
+        input.readString()!!,
+        input.readString()!!,
+        input.readString()!!,
+        input.readString()!!
+    )
+
+    // Parcel.writeString() writes -1 as length for null
+    private fun DataOutputStream.writeString(value: String?) {
+        if (value == null) {
+            writeInt(-1)
+        } else {
+            writeInt(value.length)
+            writeUTF(value)
+        }
+    }
+
+    private fun DataInputStream.readString(): String? = if (readInt() == -1) null else readUTF()
+
+    private inline fun <T> DataOutputStream.writeList(list: List<T>, writeElement: (T) -> Unit) {
+        writeInt(list.size)
+        list.forEach(writeElement)
+    }
+
+    private inline fun <T> DataInputStream.readList(readElement: () -> T): MutableList<T> {
+        val size = readInt()
+        val list = ArrayList<T>(size)
+        for (i in 0 until size) {
+            list.add(readElement())
+        }
+        return list
+    }
+}
@@ -0,0 +1,68 @@
+package edu.illinois.cs465.spotmix.benchmark
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.spotify.models.Track
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Membership queries done while binding rows: whether a track is queued and whether an attendee
+ * voted for a track. The voted track has as many voters as the queue has tracks.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class QueueLookupBenchmark {
+
+    @Param("10", "100", "1000", "10000")
+    @JvmField
+    var size: Int = 0
+
+    private lateinit var party: Party
+
+    private lateinit var votedTrack: QueueTrack
+
+    // last track in the queue, the worst case for a linear scan
+    private lateinit var queuedTrack: Track
+
+    private val notQueuedTrack = PartyFixtures.track(-1)
+
+    // last voter of the voted track
+    private lateinit var voter: Attendee
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        party = PartyFixtures.party(size)
+        queuedTrack = party.queue[size - 1].track
+        votedTrack = QueueTrack(PartyFixtures.track(size))
+        for (i in 0 until size) {
+            votedTrack.upvotes.add(PartyFixtures.attendee(i))
+        }
+        voter = PartyFixtures.attendee(size - 1)
+    }
+
+    @Benchmark
+    fun isTrackInQueue(): Boolean = party.isTrackInQueue(queuedTrack)
+
+    @Benchmark
+    fun isTrackInQueueMiss(): Boolean = party.isTrackInQueue(notQueuedTrack)
+
+    /**
+     * Previous implementation of isTrackInQueue.
+     * */
+    @Benchmark
+    fun isTrackInQueueLinear(): Boolean =
+        party.queue.find { it.track.uri == queuedTrack.uri } != null
+
+    @Benchmark
+    fun hasVoted(): Boolean = votedTrack.hasVoted(voter)
+
+    /**
+     * Previous implementation of hasVoted.
+     * */
+    @Benchmark
+    fun hasVotedLinear(): Boolean =
+        votedTrack.downvotes.contains(voter) || votedTrack.upvotes.contains(voter)
+}
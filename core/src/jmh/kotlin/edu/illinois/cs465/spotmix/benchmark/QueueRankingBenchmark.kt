@@ -0,0 +1,50 @@
+package edu.illinois.cs465.spotmix.benchmark
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Re-ranking the queue after a vote. The last track is upvoted, so it moves to the front.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class QueueRankingBenchmark {
+
+    @Param("10", "100", "1000", "10000")
+    @JvmField
+    var size: Int = 0
+
+    private lateinit var party: Party
+
+    private lateinit var last: QueueTrack
+
+    private val voter = Attendee("Voter", "voter")
+
+    @Setup(Level.Invocation)
+    fun setUp() {
+        party = PartyFixtures.party(size)
+        last = party.queue[size - 1]
+        // index is built once per snapshot, not per vote
+        party.isTrackInQueue(last.track)
+    }
+
+    @Benchmark
+    fun upvote(): Party {
+        party.upvote(last, voter)
+        return party
+    }
+
+    /**
+     * Previous implementation: add the vote and sort the whole queue.
+     * */
+    @Benchmark
+    fun upvoteAndSort(): Party {
+        last.upvotes.add(voter)
+        party.queue.sortByDescending { it.upvotes.size }
+        return party
+    }
+}
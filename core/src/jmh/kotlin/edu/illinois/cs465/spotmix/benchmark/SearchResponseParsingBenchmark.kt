@@ -0,0 +1,48 @@
+package edu.illinois.cs465.spotmix.benchmark
+
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import edu.illinois.cs465.spotmix.api.spotify.models.TrackSearchRequestBase
+import org.openjdk.jmh.annotations.*
+import java.io.InputStreamReader
+import java.util.concurrent.TimeUnit
+
+/**
+ * Gson parsing of a recorded Spotify search response, the same way Retrofit does it.
+ * The recorded items are repeated to get the given number of tracks.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class SearchResponseParsingBenchmark {
+
+    @Param("10", "100", "1000", "10000")
+    @JvmField
+    var size: Int = 0
+
+    // same configuration as in SpotifyHelper
+    private val gson: Gson = GsonBuilder().setLenient().create()
+
+    private lateinit var json: String
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        val recorded = javaClass.getResourceAsStream("/search_response.json").use {
+            JsonParser().parse(InputStreamReader(it, Charsets.UTF_8)).asJsonObject
+        }
+        val tracks = recorded.getAsJsonObject("tracks")
+        val recordedItems = tracks.getAsJsonArray("items")
+        val items = JsonArray()
+        for (i in 0 until size) {
+            items.add(recordedItems[i % recordedItems.size()])
+        }
+        tracks.add("items", items)
+        json = gson.toJson(recorded as JsonObject)
+    }
+
+    @Benchmark
+    fun parse(): TrackSearchRequestBase = gson.fromJson(json, TrackSearchRequestBase::class.java)
+}
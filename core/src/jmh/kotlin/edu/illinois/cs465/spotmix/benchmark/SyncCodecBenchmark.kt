@@ -0,0 +1,75 @@
+package edu.illinois.cs465.spotmix.benchmark
+
+import com.google.gson.Gson
+import edu.illinois.cs465.spotmix.api.firebase.FirebaseTrees
+import edu.illinois.cs465.spotmix.api.firebase.SnapshotMapper
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.sync.PartyDelta
+import edu.illinois.cs465.spotmix.sync.SyncCodec
+import edu.illinois.cs465.spotmix.sync.SyncMessage
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Binary delta sync against the JSON party state the LAN server used to fan out.
+ * Snapshot sizes are printed once per trial, a vote stays the same size regardless of the party.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class SyncCodecBenchmark {
+
+    @Param("10", "100", "1000", "10000")
+    @JvmField
+    var size: Int = 0
+
+    private val gson = Gson()
+
+    private lateinit var party: Party
+
+    private lateinit var snapshot: ByteArray
+
+    private lateinit var json: String
+
+    private lateinit var vote: List<PartyDelta>
+
+    private lateinit var voteBytes: ByteArray
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        party = PartyFixtures.party(size, votesPerTrack = 3)
+        snapshot = SyncCodec.encodeSnapshot(CODE, 1, party)
+        json = gson.toJson(FirebaseTrees.party(party))
+        // upvote in the middle of the queue moving the track to the front
+        vote = listOf(
+            PartyDelta.Voted(size / 2, PartyFixtures.attendee(7), true),
+            PartyDelta.TrackMoved(size / 2, 0)
+        )
+        voteBytes = SyncCodec.encodeDeltas(CODE, 2, vote, System.nanoTime())
+        println(
+            "size=$size snapshot=${snapshot.size}B json=${json.toByteArray().size}B vote=${voteBytes.size}B"
+        )
+    }
+
+    @Benchmark
+    fun encodeSnapshot(): ByteArray = SyncCodec.encodeSnapshot(CODE, 1, party)
+
+    @Benchmark
+    fun decodeSnapshot(): SyncMessage = SyncCodec.decode(snapshot)
+
+    @Benchmark
+    fun encodeJson(): String = gson.toJson(FirebaseTrees.party(party))
+
+    @Benchmark
+    fun decodeJson(): Party? = SnapshotMapper.party(gson.fromJson(json, Map::class.java))
+
+    @Benchmark
+    fun encodeVote(): ByteArray = SyncCodec.encodeDeltas(CODE, 2, vote, System.nanoTime())
+
+    @Benchmark
+    fun decodeVote(): SyncMessage = SyncCodec.decode(voteBytes)
+
+    private companion object {
+        const val CODE = "ABCDEF"
+    }
+}
@@ -0,0 +1,273 @@
+package edu.illinois.cs465.spotmix.api
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.spotify.models.Track
+import edu.illinois.cs465.spotmix.api.spotify.models.User
+
+/**
+ * Backend storing the parties and notifying the attendees of changes.
+ * Mutations are applied to the passed party right away and then written to the backend, which
+ * notifies all subscribed listeners of the party with a fresh copy.
+ * */
+interface PartyBackend {
+
+    /**
+     * Parts of a party a listener can subscribe to separately.
+     * */
+    enum class Partition {
+
+        // the queued tracks
+        QUEUE,
+
+        // whether the party plays, the current track and the history
+        PLAYBACK
+    }
+
+    /**
+     * Callback used for creating parties.
+     * */
+    interface CreateCallback {
+        /**
+         * Called when creation process is done, either successful or unsuccessful.
+         * When unsuccessful the instances are null.
+         * @param party
+         * @param attendee
+         * */
+        fun onPartyCreated(party: Party?, attendee: Attendee?)
+    }
+
+    /**
+     * Callback used for joining parties.
+     * */
+    interface JoinCallback {
+
+        /**
+         * Called when join process is done, either successful or unsuccessful.
+         * When unsuccessful the instances are null.
+         * @param party
+         * @param attendee
+         * */
+        fun onPartyJoined(party: Party?, attendee: Attendee?)
+    }
+
+    /**
+     * Interface for receiving changes to a party.
+     * */
+    interface PartyListener {
+
+        /**
+         * Called if there was a change in the party.
+         * @param party
+         * */
+        fun onPartyChanged(party: Party)
+    }
+
+    /**
+     * Interface for receiving changes to the attendees list.
+     * */
+    interface AttendeeListener {
+
+        /**
+         * Called when new attendee was added to the party.
+         * @param attendees
+         * @param position
+         * */
+        fun onAttendeeAdded(attendees: List<Attendee>, position: Int)
+
+        /**
+         * Called when attendee was removed from the party.
+         * @param attendees
+         * @param position
+         * */
+        fun onAttendeeRemoved(attendees: List<Attendee>, position: Int)
+
+        /**
+         * Called when attendee state changed, e.g. becoming an admin.
+         * @param attendees
+         * @param position
+         * */
+        fun onAttendeeChanged(attendees: List<Attendee>, position: Int)
+
+        /**
+         * Called when whole list changed.
+         * @param attendees
+         * */
+        fun onAttendeeListChanged(attendees: List<Attendee>)
+    }
+
+    /**
+     * Callback for adding track to the queue.
+     * */
+    interface AddToQueueCallback {
+
+        /**
+         * Called when track was added to the queue.
+         * @param track; null in case of an error or if the track was queued already
+         * */
+        fun onAddedTrackToQueue(track: QueueTrack?)
+    }
+
+    /**
+     * Create a new party with the host as first attendee.
+     * @param partyName
+     * @param host a reference to the Spotify Account of the host
+     * @param accessToken the token to access the Spotify Api, this should be provided by the host.
+     * @param callback
+     * */
+    fun createParty(partyName: String, host: User, accessToken: String, callback: CreateCallback)
+
+    /**
+     * Join a already existing party as an attendee.
+     * @param partyCode
+     * @param attendeeName
+     * @param callback
+     * */
+    fun joinParty(partyCode: String, attendeeName: String, callback: JoinCallback)
+
+    /**
+     * Admin only: close a given party. Entirely deletes the party.
+     * @param party
+     * */
+    fun closeParty(party: Party)
+
+    /**
+     * Remove a given Attendee from a party.
+     * @param party
+     * @param attendee the attendee to remove
+     * */
+    fun removeAttendee(party: Party, attendee: Attendee)
+
+    /**
+     * Add a Spotify track to the current queue of the party.
+     * @param party
+     * @param track
+     * @param attendee the attendee adding the track, whose share of the queue it counts to
+     * @param callback not called if the track wasn't added because of the quota
+     * @return false if the attendee is over their write quota, see WriteQuotas; nothing is
+     * written then
+     * */
+    fun addTrackToQueue(
+        party: Party,
+        track: Track,
+        attendee: Attendee,
+        callback: AddToQueueCallback
+    ): Boolean
+
+    /**
+     * Admin only: remove a track from the queue of the party, if it is still queued.
+     * @param party
+     * @param trackUri
+     * */
+    fun removeTrackFromQueue(party: Party, trackUri: String)
+
+    /**
+     * Admin only: move a queued track to another position within the tracks with as many
+     * upvotes, see Party.reorder.
+     * @param party
+     * @param trackUri
+     * @param rank position in the queue to move the track to
+     * */
+    fun moveTrackInQueue(party: Party, trackUri: String, rank: Int)
+
+    /**
+     * Host only: spread the position keys of the queue out again if they got too long, see
+     * FractionalIndex. Nothing happens if they don't need it.
+     * @param party
+     * */
+    fun rebalanceQueue(party: Party)
+
+    /**
+     * Host only: switch between playing the most upvoted track next and fair-share scheduling,
+     * see FairShareScheduler.
+     * @param party
+     * @param fairShare
+     * */
+    fun setFairShare(party: Party, fairShare: Boolean)
+
+    /**
+     * Playback started.
+     * @param party
+     * */
+    fun playing(party: Party)
+
+    /**
+     * Paused playback.
+     * @param party
+     * */
+    fun paused(party: Party)
+
+    /**
+     * Admin only: finish the current track, it moves to the history and the next track of the
+     * queue, see Party.nextInQueue(), becomes the current track. Only applied if the current track is still the one of the passed
+     * party, so devices advancing at the same time skip a single track.
+     * @param party
+     * */
+    fun skipToNext(party: Party)
+
+    /**
+     * Admin only: play the last track of the history again, the current track returns to the
+     * queue. Only applied if the current track is still the one of the passed party.
+     * @param party
+     * */
+    fun skipToPrevious(party: Party)
+
+    /**
+     * Upvote a track from the current party queue.
+     * @param party
+     * @param track
+     * @param attendee the attendee voting on the track
+     * @return false if the attendee is over their write quota; nothing is written then
+     * */
+    fun upvoteTrack(party: Party, track: QueueTrack, attendee: Attendee): Boolean
+
+    /**
+     * Downvote a track from the current party queue.
+     * @param party
+     * @param track
+     * @param attendee the attendee voting on the track
+     * @return false if the attendee is over their write quota; nothing is written then
+     * */
+    fun downvoteTrack(party: Party, track: QueueTrack, attendee: Attendee): Boolean
+
+    /**
+     * Get notified when the state of the party changes.
+     * @param party
+     * @param listener
+     * */
+    fun addPartyListener(party: Party, listener: PartyListener)
+
+    /**
+     * Get notified when some partitions of the party change, for screens that only render those.
+     * The other partitions of the notified party keep the values of the passed party. Backends
+     * that don't store the partitions apart notify of every change, as addPartyListener(party,
+     * listener) does.
+     * @param party
+     * @param listener
+     * @param partitions
+     * */
+    fun addPartyListener(party: Party, listener: PartyListener, partitions: Set<Partition>) =
+        addPartyListener(party, listener)
+
+    /**
+     * Unsubscribe from receiving party change updates.
+     * @param party
+     * @param listener
+     * */
+    fun removePartyListener(party: Party, listener: PartyListener)
+
+    /**
+     * Get notified when the attendees list changes.
+     * @param party
+     * @param listener
+     * */
+    fun addAttendeeListener(party: Party, listener: AttendeeListener)
+
+    /**
+     * Unsubscribe from attendee list changes.
+     * @param party
+     * @param listener
+     * */
+    fun removeAttendeeListener(party: Party, listener: AttendeeListener)
+}
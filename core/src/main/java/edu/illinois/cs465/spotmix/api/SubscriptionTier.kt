@@ -0,0 +1,85 @@
+package edu.illinois.cs465.spotmix.api
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * How much of a party the party listeners of a backend receive, from the most to the least.
+ * */
+enum class SubscriptionTier {
+
+    // the whole party, while a screen is shown
+    FOREGROUND,
+
+    // only the current track and whether the party plays, enough to keep the playback in line;
+    // the other properties keep the values of the last whole party received
+    BACKGROUND,
+
+    // nothing; the whole party is received again once the tier rises
+    IDLE
+}
+
+/**
+ * The subscription tier of the process, shared by all backends. The app sets it from its
+ * lifecycle, services playing along keep it from dropping below the tier they need.
+ * */
+object SubscriptionTiers {
+
+    /**
+     * Notified on the thread changing the tier, the main thread in the app.
+     * */
+    interface Listener {
+
+        /**
+         * @param tier the new tier
+         * */
+        fun onTierChanged(tier: SubscriptionTier)
+    }
+
+    private val listeners = CopyOnWriteArrayList<Listener>()
+
+    @Volatile
+    private var requested = SubscriptionTier.FOREGROUND
+
+    @Volatile
+    private var minimum = SubscriptionTier.IDLE
+
+    /**
+     * The tier to subscribe with, the higher one of the requested tier and the minimum.
+     * */
+    @JvmStatic
+    val tier: SubscriptionTier
+        get() = minOf(requested, minimum)
+
+    /**
+     * Request a tier, e.g. when the app went to the background.
+     * @param tier
+     * */
+    @JvmStatic
+    fun request(tier: SubscriptionTier) = change { requested = tier }
+
+    /**
+     * Keep the tier from dropping below a minimum, IDLE to allow every tier again.
+     * @param tier
+     * */
+    @JvmStatic
+    fun keepAtLeast(tier: SubscriptionTier) = change { minimum = tier }
+
+    @JvmStatic
+    fun addListener(listener: Listener) {
+        listeners.add(listener)
+    }
+
+    @JvmStatic
+    fun removeListener(listener: Listener) {
+        listeners.remove(listener)
+    }
+
+    private fun change(change: () -> Unit) {
+        val old = tier
+        change()
+        val new = tier
+        if (new != old) {
+            listeners.forEach { it.onTierChanged(new) }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package edu.illinois.cs465.spotmix.api
+
+/**
+ * Token buckets limiting how fast each attendee may write to a party, so one flooding client
+ * can't make every other device download the queue again and again. A bucket holds up to
+ * capacity writes and refills at perSecond; a write takes one, writes finding it empty are
+ * rejected. Backends check the quota of the writing attendee before writing, the LAN server checks
+ * every connection again with a larger bucket. Firebase has no server in between, the quota is only
+ * kept by the clients there and a modified client can ignore it.
+ * @param capacity writes in a burst
+ * @param perSecond writes per second in the long run
+ * @param clock monotonic time in nanoseconds
+ * */
+class WriteQuotas<K> @JvmOverloads constructor(
+    private val capacity: Double = DEFAULT_CAPACITY,
+    private val perSecond: Double = DEFAULT_PER_SECOND,
+    private val clock: () -> Long = System::nanoTime
+) {
+
+    companion object {
+
+        /**
+         * Writes in a burst, a few quick votes in a row.
+         * */
+        const val DEFAULT_CAPACITY = 10.0
+
+        /**
+         * Writes per second in the long run, faster than anyone swipes through the queue.
+         * */
+        const val DEFAULT_PER_SECOND = 2.0
+
+        // full buckets are dropped once there are more, a missing bucket counts as full
+        internal const val MAX_BUCKETS = 256
+
+        /**
+         * @return quotas that never reject a write, e.g. for benchmarks
+         * */
+        @JvmStatic
+        fun <K> unlimited(): WriteQuotas<K> = WriteQuotas(Double.POSITIVE_INFINITY)
+    }
+
+    private class Bucket(var tokens: Double, var updatedNanos: Long)
+
+    private val buckets = HashMap<K, Bucket>()
+
+    /**
+     * Number of buckets kept; full buckets may have been dropped.
+     * */
+    internal val size: Int
+        @Synchronized get() = buckets.size
+
+    /**
+     * Take a write from the bucket of a key.
+     * @param key e.g. the writing attendee
+     * @return false if the bucket is empty, the write must not be made then
+     * */
+    @Synchronized
+    fun tryAcquire(key: K): Boolean {
+        val now = clock()
+        val bucket = buckets[key] ?: Bucket(capacity, now).also {
+            if (buckets.size >= MAX_BUCKETS) {
+                prune(now)
+            }
+            buckets[key] = it
+        }
+        refill(bucket, now)
+        if (bucket.tokens < 1) {
+            return false
+        }
+        bucket.tokens -= 1
+        return true
+    }
+
+    private fun refill(bucket: Bucket, now: Long) {
+        val refilled = (now - bucket.updatedNanos) / 1e9 * perSecond
+        bucket.tokens = minOf(capacity, bucket.tokens + refilled)
+        bucket.updatedNanos = now
+    }
+
+    private fun prune(now: Long) {
+        val iterator = buckets.values.iterator()
+        while (iterator.hasNext()) {
+            val bucket = iterator.next()
+            refill(bucket, now)
+            if (bucket.tokens >= capacity) {
+                iterator.remove()
+            }
+        }
+    }
+}
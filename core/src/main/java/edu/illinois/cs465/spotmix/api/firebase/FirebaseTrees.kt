@@ -0,0 +1,143 @@
+package edu.illinois.cs465.spotmix.api.firebase
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.Playback
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueViewEntry
+import edu.illinois.cs465.spotmix.api.spotify.models.*
+import edu.illinois.cs465.spotmix.playback.PlaybackCommand
+import edu.illinois.cs465.spotmix.playback.ProgressAnchor
+
+/**
+ * Converts the models into the tree of maps, lists and primitives that Firebase writes for them
+ * and that DataSnapshot.getValue() returns; the inverse of the SnapshotMapper. Numbers are Longs, as
+ * they are when read from Firebase.
+ * */
+object FirebaseTrees {
+
+    fun party(party: Party): Map<String, Any?> = mapOf(
+        "name" to party.name,
+        "key" to party.key,
+        "queue" to party.queue.map(::queueTrack),
+        "attendees" to party.attendees.map(::attendee),
+        "accessToken" to party.accessToken,
+        "playing" to party.playing,
+        "currentTrack" to party.currentTrack?.let(::queueTrack),
+        "history" to party.history.map(::queueTrack),
+        "fairShare" to party.fairShare
+    )
+
+    /**
+     * @param party
+     * @return the tree stored under parties/{key}/meta, what is shown before joining
+     * */
+    fun meta(party: Party): Map<String, Any?> = mapOf(
+        "name" to party.name,
+        "key" to party.key
+    )
+
+    /**
+     * @param playback
+     * @return the tree stored under playback/{key}
+     * */
+    fun playback(playback: Playback): Map<String, Any?> = mapOf(
+        "playing" to playback.playing,
+        "currentTrack" to playback.currentTrack?.let(::queueTrack),
+        "history" to playback.history.map(::queueTrack),
+        "fairShare" to playback.fairShare
+    )
+
+    /**
+     * @param party
+     * @return the tree stored under secrets/{key}, only read when joining
+     * */
+    fun secrets(party: Party): Map<String, Any?> = mapOf(
+        "accessToken" to party.accessToken
+    )
+
+    fun queueTrack(queueTrack: QueueTrack): Map<String, Any?> = mapOf(
+        "track" to track(queueTrack.track),
+        "upvotes" to queueTrack.upvotes.map(::attendee),
+        "downvotes" to queueTrack.downvotes.map(::attendee),
+        "position" to queueTrack.position,
+        "addedBy" to queueTrack.addedBy?.let(::attendee)
+    )
+
+    fun queueViewEntry(entry: QueueViewEntry): Map<String, Any?> = mapOf(
+        "rank" to entry.rank.toLong(),
+        "uri" to entry.uri,
+        "title" to entry.title,
+        "artists" to entry.artists,
+        "thumbnailUrl" to entry.thumbnailUrl,
+        "score" to entry.score.toLong(),
+        "downvotes" to entry.downvotes.toLong()
+    )
+
+    fun attendee(attendee: Attendee): Map<String, Any?> = attendee.toMap()
+
+    fun command(command: PlaybackCommand): Map<String, Any?> = mapOf(
+        "type" to command.type.name,
+        "issuer" to command.issuer,
+        "seq" to command.seq,
+        "trackUri" to command.trackUri,
+        "positionMs" to command.positionMs,
+        "rank" to command.rank.toLong()
+    )
+
+    fun progressAnchor(anchor: ProgressAnchor): Map<String, Any?> = mapOf(
+        "trackUri" to anchor.trackUri,
+        "positionMs" to anchor.positionMs,
+        "timestampMs" to anchor.timestampMs,
+        "playing" to anchor.playing
+    )
+
+    fun track(track: Track): Map<String, Any?> = mapOf(
+        "album" to album(track.album),
+        "artists" to track.artists.map(::artist),
+        "available_markets" to track.available_markets,
+        "disc_number" to track.disc_number.toLong(),
+        "duration_ms" to track.duration_ms.toLong(),
+        "explicit" to track.explicit,
+        "external_ids" to mapOf("isrc" to track.external_ids.isrc),
+        "external_urls" to mapOf("spotify" to track.external_urls.spotify),
+        "href" to track.href,
+        "id" to track.id,
+        "is_local" to track.is_local,
+        "name" to track.name,
+        "popularity" to track.popularity.toLong(),
+        "preview_url" to track.preview_url,
+        "track_number" to track.track_number.toLong(),
+        "type" to track.type,
+        "uri" to track.uri,
+        // written by Firebase because of the getArtistNames() getter
+        "artistNames" to track.getArtistNames()
+    )
+
+    private fun album(album: Album): Map<String, Any?> = mapOf(
+        "album_type" to album.album_type,
+        "artists" to album.artists.map(::artist),
+        "available_markets" to album.available_markets,
+        "external_urls" to mapOf("spotify" to album.external_urls.spotify),
+        "href" to album.href,
+        "id" to album.id,
+        "images" to album.images.map {
+            mapOf("height" to it.height.toLong(), "url" to it.url, "width" to it.width.toLong())
+        },
+        "name" to album.name,
+        "release_date" to album.release_date,
+        "release_date_precision" to album.release_date_precision,
+        "total_tracks" to album.total_tracks.toLong(),
+        "type" to album.type,
+        "uri" to album.uri
+    )
+
+    private fun artist(artist: Artist): Map<String, Any?> = mapOf(
+        "external_urls" to mapOf("spotify" to artist.external_urls.spotify),
+        "href" to artist.href,
+        "id" to artist.id,
+        "name" to artist.name,
+        "type" to artist.type,
+        "uri" to artist.uri
+    )
+}
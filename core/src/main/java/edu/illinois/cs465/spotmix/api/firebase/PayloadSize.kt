@@ -0,0 +1,145 @@
+package edu.illinois.cs465.spotmix.api.firebase
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.Playback
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueViewEntry
+import edu.illinois.cs465.spotmix.api.spotify.models.*
+
+/**
+ * Estimates the size in bytes of the JSON Firebase uploads for a model, to measure the write
+ * traffic. Walks the same properties as SnapshotMapper without building the JSON, escapes and
+ * multi-byte characters are not accounted for.
+ * */
+object PayloadSize {
+
+    fun party(party: Party): Int = OBJECT +
+            field("name", string(party.name)) +
+            optionalField("key", party.key?.let { string(it) }) +
+            field("queue", queue(party.queue)) +
+            field("attendees", attendees(party.attendees)) +
+            optionalField("accessToken", party.accessToken?.let { string(it) }) +
+            field("playing", boolean(party.playing)) +
+            optionalField("currentTrack", party.currentTrack?.let { queueTrack(it) }) +
+            field("history", queue(party.history)) +
+            field("fairShare", boolean(party.fairShare))
+
+    fun playback(playback: Playback): Int = OBJECT +
+            field("playing", boolean(playback.playing)) +
+            optionalField("currentTrack", playback.currentTrack?.let { queueTrack(it) }) +
+            field("history", queue(playback.history)) +
+            field("fairShare", boolean(playback.fairShare))
+
+    fun queue(queue: List<QueueTrack>): Int = list(queue, ::queueTrack)
+
+    fun attendees(attendees: List<Attendee>): Int = list(attendees, ::attendee)
+
+    fun queueTrack(queueTrack: QueueTrack): Int = OBJECT +
+            field("track", track(queueTrack.track)) +
+            field("upvotes", attendees(queueTrack.upvotes)) +
+            field("downvotes", attendees(queueTrack.downvotes)) +
+            optionalField("position", queueTrack.position?.let { string(it) }) +
+            optionalField("addedBy", queueTrack.addedBy?.let { attendee(it) })
+
+    fun queueView(entries: List<QueueViewEntry>): Int = list(entries, ::queueViewEntry)
+
+    fun queueViewEntry(entry: QueueViewEntry): Int = OBJECT +
+            field("rank", number(entry.rank)) +
+            field("uri", string(entry.uri)) +
+            field("title", string(entry.title)) +
+            field("artists", string(entry.artists)) +
+            optionalField("thumbnailUrl", entry.thumbnailUrl?.let { string(it) }) +
+            field("score", number(entry.score)) +
+            field("downvotes", number(entry.downvotes))
+
+    fun attendee(attendee: Attendee): Int = OBJECT +
+            field("name", string(attendee.name)) +
+            field("id", string(attendee.id)) +
+            field("admin", boolean(attendee.admin))
+
+    fun track(track: Track): Int = OBJECT +
+            field("album", album(track.album)) +
+            field("artists", list(track.artists, ::artist)) +
+            field("available_markets", list(track.available_markets, ::string)) +
+            field("disc_number", number(track.disc_number)) +
+            field("duration_ms", number(track.duration_ms)) +
+            field("explicit", boolean(track.explicit)) +
+            field("external_ids", OBJECT + field("isrc", string(track.external_ids.isrc))) +
+            field("external_urls", externalUrls(track.external_urls)) +
+            field("href", string(track.href)) +
+            field("id", string(track.id)) +
+            field("is_local", boolean(track.is_local)) +
+            field("name", string(track.name)) +
+            field("popularity", number(track.popularity)) +
+            field("preview_url", string(track.preview_url)) +
+            field("track_number", number(track.track_number)) +
+            field("type", string(track.type)) +
+            field("uri", string(track.uri))
+
+    fun album(album: Album): Int = OBJECT +
+            field("album_type", string(album.album_type)) +
+            field("artists", list(album.artists, ::artist)) +
+            field("available_markets", list(album.available_markets, ::string)) +
+            field("external_urls", externalUrls(album.external_urls)) +
+            field("href", string(album.href)) +
+            field("id", string(album.id)) +
+            field("images", list(album.images, ::image)) +
+            field("name", string(album.name)) +
+            field("release_date", string(album.release_date)) +
+            field("release_date_precision", string(album.release_date_precision)) +
+            field("total_tracks", number(album.total_tracks)) +
+            field("type", string(album.type)) +
+            field("uri", string(album.uri))
+
+    fun artist(artist: Artist): Int = OBJECT +
+            field("external_urls", externalUrls(artist.external_urls)) +
+            field("href", string(artist.href)) +
+            field("id", string(artist.id)) +
+            field("name", string(artist.name)) +
+            field("type", string(artist.type)) +
+            field("uri", string(artist.uri))
+
+    fun image(image: Image): Int = OBJECT +
+            field("height", number(image.height)) +
+            field("url", string(image.url)) +
+            field("width", number(image.width))
+
+    /**
+     * @param value
+     * @return size of a boolean value
+     * */
+    fun boolean(value: Boolean): Int = if (value) 4 else 5
+
+    /**
+     * @param position key of a queued track
+     * @return size of the key written on its own
+     * */
+    fun position(position: String): Int = string(position)
+
+    // braces of an object
+    private const val OBJECT = 2
+
+    private fun externalUrls(urls: ExternalUrls): Int =
+        OBJECT + field("spotify", string(urls.spotify))
+
+    // quoted key, colon, value and separating comma
+    private fun field(key: String, valueSize: Int): Int = key.length + 3 + valueSize + 1
+
+    // null values are not written
+    private fun optionalField(key: String, valueSize: Int?): Int =
+        if (valueSize != null) field(key, valueSize) else 0
+
+    private fun string(value: String): Int = value.length + 2
+
+    private fun number(value: Int): Int = value.toString().length
+
+    // brackets and separating commas
+    private fun <T> list(list: List<T>, size: (T) -> Int): Int {
+        var total = 2
+        for (element in list) {
+            total += size(element) + 1
+        }
+        return total
+    }
+}
@@ -0,0 +1,236 @@
+package edu.illinois.cs465.spotmix.api.firebase
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.Playback
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueViewEntry
+import edu.illinois.cs465.spotmix.api.spotify.models.*
+import edu.illinois.cs465.spotmix.playback.PlaybackCommand
+import edu.illinois.cs465.spotmix.playback.ProgressAnchor
+
+/**
+ * Explicit, non-reflective mappers from the raw values of a DataSnapshot (maps, lists, strings,
+ * longs and booleans) to the models. Replaces DataSnapshot.getValue(Class), which inspects the
+ * models with reflection for every object in the tree.
+ * Keep in sync with the properties of the models, missing values fall back to the same defaults
+ * as the no-arg constructors used by Firebase.
+ * */
+object SnapshotMapper {
+
+    fun party(value: Any?): Party? {
+        val map = value as? Map<*, *> ?: return null
+        return Party(
+            map.string("name"),
+            map["key"] as? String,
+            queue(map["queue"]),
+            map.list("attendees", ::attendee),
+            map["accessToken"] as? String,
+            map.boolean("playing"),
+            queueTrack(map["currentTrack"]),
+            map.list("history", ::queueTrack),
+            map.boolean("fairShare")
+        )
+    }
+
+    /**
+     * @param value of parties/{key}/meta
+     * @return party with only the name and key, null if there is none
+     * */
+    fun partyMeta(value: Any?): Party? {
+        val map = value as? Map<*, *> ?: return null
+        return Party(map.string("name"), map["key"] as? String)
+    }
+
+    /**
+     * @param value of queues/{key}, null if the queue is empty
+     * */
+    fun queue(value: Any?): MutableList<QueueTrack> {
+        val queue = indexedList(value) { index, element ->
+            queueTrack(element)?.also { it.storedIndex = index }
+        }
+        Party.sortQueue(queue)
+        return queue
+    }
+
+    /**
+     * @param value of attendees/{key}
+     * */
+    fun attendees(value: Any?): MutableList<Attendee> = list(value, ::attendee)
+
+    /**
+     * @param value of playback/{key}
+     * @return null if the party doesn't exist
+     * */
+    fun playback(value: Any?): Playback? {
+        val map = value as? Map<*, *> ?: return null
+        return Playback(
+            map.boolean("playing"),
+            queueTrack(map["currentTrack"]),
+            map.list("history", ::queueTrack),
+            map.boolean("fairShare")
+        )
+    }
+
+    /**
+     * @param value of secrets/{key}
+     * @return the access token to the Spotify Api, null if there is none
+     * */
+    fun accessToken(value: Any?): String? = (value as? Map<*, *>)?.get("accessToken") as? String
+
+    fun attendee(value: Any?): Attendee? {
+        val map = value as? Map<*, *> ?: return null
+        return Attendee(map.string("name"), map.string("id"), map.boolean("admin"))
+    }
+
+    fun queueTrack(value: Any?): QueueTrack? {
+        val map = value as? Map<*, *> ?: return null
+        return QueueTrack(
+            track(map["track"]) ?: Track(),
+            map.list("upvotes", ::attendee),
+            map.list("downvotes", ::attendee),
+            map["position"] as? String,
+            attendee(map["addedBy"])
+        )
+    }
+
+    /**
+     * @param value of queueView/{key}
+     * @return the entries by rank
+     * */
+    fun queueView(value: Any?): List<QueueViewEntry> = list(value, ::queueViewEntry)
+
+    fun queueViewEntry(value: Any?): QueueViewEntry? {
+        val map = value as? Map<*, *> ?: return null
+        return QueueViewEntry(
+            map.int("rank"),
+            map.string("uri"),
+            map.string("title"),
+            map.string("artists"),
+            map["thumbnailUrl"] as? String,
+            map.int("score"),
+            map.int("downvotes")
+        )
+    }
+
+    fun command(value: Any?): PlaybackCommand? {
+        val map = value as? Map<*, *> ?: return null
+        // commands of newer app versions are skipped
+        val type = PlaybackCommand.Type.values().find { it.name == map["type"] } ?: return null
+        return PlaybackCommand(
+            type,
+            map.string("issuer"),
+            map.long("seq"),
+            map["trackUri"] as? String,
+            map.long("positionMs"),
+            map.int("rank")
+        )
+    }
+
+    fun progressAnchor(value: Any?): ProgressAnchor? {
+        val map = value as? Map<*, *> ?: return null
+        return ProgressAnchor(
+            map.string("trackUri"),
+            map.long("positionMs"),
+            map.long("timestampMs"),
+            map.boolean("playing")
+        )
+    }
+
+    fun track(value: Any?): Track? {
+        val map = value as? Map<*, *> ?: return null
+        return Track(
+            album(map["album"]) ?: Album(),
+            map.list("artists", ::artist),
+            map.list("available_markets") { it as? String },
+            map.int("disc_number"),
+            map.int("duration_ms"),
+            map.boolean("explicit"),
+            ExternalIds((map["external_ids"] as? Map<*, *>)?.string("isrc") ?: ""),
+            externalUrls(map["external_urls"]),
+            map.string("href"),
+            map.string("id"),
+            map.boolean("is_local"),
+            map.string("name"),
+            map.int("popularity"),
+            map.string("preview_url"),
+            map.int("track_number"),
+            map.string("type"),
+            map.string("uri")
+        )
+    }
+
+    fun album(value: Any?): Album? {
+        val map = value as? Map<*, *> ?: return null
+        return Album(
+            map.string("album_type"),
+            map.list("artists", ::artist),
+            map.list("available_markets") { it as? String },
+            externalUrls(map["external_urls"]),
+            map.string("href"),
+            map.string("id"),
+            map.list("images", ::image),
+            map.string("name"),
+            map.string("release_date"),
+            map.string("release_date_precision"),
+            map.int("total_tracks"),
+            map.string("type"),
+            map.string("uri")
+        )
+    }
+
+    fun artist(value: Any?): Artist? {
+        val map = value as? Map<*, *> ?: return null
+        return Artist(
+            externalUrls(map["external_urls"]),
+            map.string("href"),
+            map.string("id"),
+            map.string("name"),
+            map.string("type"),
+            map.string("uri")
+        )
+    }
+
+    fun image(value: Any?): Image? {
+        val map = value as? Map<*, *> ?: return null
+        return Image(map.int("height"), map.string("url"), map.int("width"))
+    }
+
+    private fun externalUrls(value: Any?): ExternalUrls =
+        ExternalUrls((value as? Map<*, *>)?.string("spotify") ?: "")
+
+    private fun Map<*, *>.string(key: String): String = this[key] as? String ?: ""
+
+    private fun Map<*, *>.boolean(key: String): Boolean = this[key] as? Boolean ?: false
+
+    // Firebase returns all numbers as Long or Double
+    private fun Map<*, *>.int(key: String): Int = (this[key] as? Number)?.toInt() ?: -1
+
+    private fun Map<*, *>.long(key: String): Long = (this[key] as? Number)?.toLong() ?: 0
+
+    private fun <T> Map<*, *>.list(key: String, mapper: (Any?) -> T?): MutableList<T> =
+        list(this[key], mapper)
+
+    /**
+     * Firebase returns lists as List, or as Map with the indices as keys when the list is sparse.
+     * */
+    private fun <T> list(value: Any?, mapper: (Any?) -> T?): MutableList<T> =
+        indexedList(value) { _, element -> mapper(element) }
+
+    /**
+     * @param mapper gets the index of each element in the stored list, -1 if it has none
+     * */
+    private fun <T> indexedList(value: Any?, mapper: (Int, Any?) -> T?): MutableList<T> {
+        val result = mutableListOf<T>()
+        when (value) {
+            is List<*> -> value.forEachIndexed { index, element ->
+                mapper(index, element)?.let { result.add(it) }
+            }
+            is Map<*, *> -> value.entries
+                .map { ((it.key as? String)?.toIntOrNull() ?: -1) to it.value }
+                .sortedBy { (index, _) -> if (index == -1) Int.MAX_VALUE else index }
+                .forEach { (index, element) -> mapper(index, element)?.let { result.add(it) } }
+        }
+        return result
+    }
+}
@@ -0,0 +1,183 @@
+package edu.illinois.cs465.spotmix.api.firebase.models
+
+import java.util.TreeSet
+
+/**
+ * Fair-share order of a queue, the alternative to playing the most upvoted track next. Every
+ * attendee who added tracks has a subqueue of them, ordered like the queue; the next track is the
+ * head of the subqueue of the attendee with the least service, the cost of their tracks in the
+ * history. A track costs less the more upvotes it has, so popular tracks still get through
+ * quickly, but an attendee adding dozens of tracks doesn't keep everyone else waiting.
+ * The service only depends on the history and the queue, so all devices pick the same track.
+ * Subqueues and attendees are kept in search trees: picking the next track and every change are
+ * logarithmic in the number of tracks and attendees.
+ * */
+class FairShareScheduler {
+
+    companion object {
+
+        // cost of a track without upvotes, divisible by every number of voters up to 16
+        private const val BASE_COST = 720720L
+
+        /**
+         * @param upvotes
+         * @return service of playing a track with as many upvotes
+         * */
+        @JvmStatic
+        fun cost(upvotes: Int): Long = BASE_COST / (1 + upvotes)
+
+        private val ENTRY_ORDER = Comparator<Entry> { a, b ->
+            // like Party.compareInQueue, on the values the entries had when they were scheduled
+            val votes = b.upvotes.compareTo(a.upvotes)
+            when {
+                votes != 0 -> votes
+                a.position == null || b.position == null ->
+                    (a.position == null).compareTo(b.position == null)
+                a.position != b.position -> a.position.compareTo(b.position)
+                else -> a.uri.compareTo(b.uri)
+            }
+        }
+
+        private val SUBMITTER_ORDER = Comparator<Submitter> { a, b ->
+            val keys = a.key.compareTo(b.key)
+            when {
+                keys != 0 -> keys
+                a !== b -> ENTRY_ORDER.compare(a.tracks.first(), b.tracks.first())
+                else -> 0
+            }
+        }
+    }
+
+    // scheduled queue entry; the entries are changed in place, so the fields they are ordered by
+    // are copied and the entry is rescheduled when they change
+    private class Entry(
+        val queueTrack: QueueTrack,
+        val submitter: Submitter,
+        val upvotes: Int = queueTrack.upvotes.size,
+        val position: String? = queueTrack.position,
+        val uri: String = queueTrack.track.uri
+    )
+
+    private class Submitter {
+        val tracks = TreeSet<Entry>(ENTRY_ORDER)
+
+        // cost of the played tracks in the history
+        var service = 0L
+
+        // service after playing the head of the subqueue, what the submitters are ordered by
+        var key = 0L
+    }
+
+    // submitters with queued tracks, the next one to be served first
+    private val submitters = TreeSet<Submitter>(SUBMITTER_ORDER)
+
+    // by the attendee who added the tracks, like votes; tracks queued before tracks knew who added
+    // them share the subqueue of null
+    private val submittersByAttendee = HashMap<Attendee?, Submitter>()
+
+    private val entries = HashMap<String, Entry>()
+
+    /**
+     * Number of scheduled queue entries.
+     * */
+    val size: Int
+        get() = entries.size
+
+    /**
+     * Number of played tracks the service was counted of.
+     * */
+    var played = 0
+        private set
+
+    /**
+     * Schedule a whole queue, e.g. after a new snapshot arrived.
+     * @param queue
+     * @param history played tracks
+     * */
+    fun rebuild(queue: List<QueueTrack>, history: List<QueueTrack>) {
+        submitters.clear()
+        submittersByAttendee.clear()
+        entries.clear()
+        played = 0
+        history.forEach(::onPlayed)
+        queue.forEach(::onAdded)
+    }
+
+    /**
+     * @return the queue entry to play next, null if the queue is empty
+     * */
+    fun next(): QueueTrack? =
+        if (submitters.isEmpty()) null else submitters.first().tracks.first().queueTrack
+
+    /**
+     * Entry was added to the queue.
+     * @param queueTrack
+     * */
+    fun onAdded(queueTrack: QueueTrack) {
+        val submitter = submitterOf(queueTrack)
+        val entry = Entry(queueTrack, submitter)
+        entries.put(entry.uri, entry)?.let { remove(it) }
+        update(submitter) { it.tracks.add(entry) }
+    }
+
+    /**
+     * Entry was removed from the queue.
+     * @param queueTrack
+     * */
+    fun onRemoved(queueTrack: QueueTrack) {
+        entries.remove(queueTrack.track.uri)?.let { remove(it) }
+    }
+
+    /**
+     * Upvotes or the key of a queued entry changed.
+     * @param queueTrack
+     * */
+    fun onChanged(queueTrack: QueueTrack) {
+        if (queueTrack.track.uri in entries) {
+            onAdded(queueTrack)
+        }
+    }
+
+    /**
+     * Track was added to the history.
+     * @param queueTrack
+     * */
+    fun onPlayed(queueTrack: QueueTrack) {
+        val cost = cost(queueTrack.upvotes.size)
+        update(submitterOf(queueTrack)) { it.service += cost }
+        played++
+    }
+
+    /**
+     * Track was removed from the history, e.g. when it got too long.
+     * @param queueTrack
+     * */
+    fun onUnplayed(queueTrack: QueueTrack) {
+        val cost = cost(queueTrack.upvotes.size)
+        update(submitterOf(queueTrack)) { it.service -= cost }
+        played--
+    }
+
+    private fun remove(entry: Entry) {
+        update(entry.submitter) { it.tracks.remove(entry) }
+    }
+
+    /**
+     * Change a submitter, which is taken out of the tree of submitters meanwhile.
+     * @param submitter
+     * @param change
+     * */
+    private inline fun update(submitter: Submitter, change: (Submitter) -> Unit) {
+        if (submitter.tracks.isNotEmpty()) {
+            submitters.remove(submitter)
+        }
+        change(submitter)
+        if (submitter.tracks.isNotEmpty()) {
+            submitter.key = submitter.service + cost(submitter.tracks.first().upvotes)
+            submitters.add(submitter)
+        }
+    }
+
+    private fun submitterOf(queueTrack: QueueTrack): Submitter =
+        submittersByAttendee.getOrPut(queueTrack.addedBy) { Submitter() }
+}
@@ -0,0 +1,168 @@
+package edu.illinois.cs465.spotmix.api.firebase.models
+
+/**
+ * Position keys ordering the tracks of a vote tier, so a track moved by an admin only gets a new
+ * key between the keys of its new neighbours and no other track changes. Keys are base 62
+ * fractions without the leading "0.", compared as strings; they never end with the zero digit, so
+ * there is always a key before any other. A key between two others is the shortest prefix of their
+ * midpoint, so moving tracks between the same neighbours again and again adds a digit about every
+ * 6 moves; keys are spread out again once they get too long.
+ * */
+object FractionalIndex {
+
+    private const val DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
+
+    private const val BASE = DIGITS.length
+
+    /**
+     * Keys longer than this are spread out again, 8 digits still leave room for a few dozen moves
+     * between the same neighbours.
+     * */
+    const val MAX_LENGTH = 8
+
+    /**
+     * @param before key the new one comes after, null for the start
+     * @param after key the new one comes before, null for the end
+     * @return the shortest key around the midpoint of both; keys appended or prepended step the
+     * last digit instead, they only get longer with the logarithm of the number of tracks added
+     * at the same end
+     * @throws IllegalArgumentException if before is not less than after
+     * */
+    @JvmStatic
+    fun between(before: String?, after: String?): String {
+        require(before == null || after == null || before < after) {
+            "keys out of order: $before, $after"
+        }
+        return when {
+            before == null && after == null -> DIGITS[BASE / 2].toString()
+            after == null -> step(before!!, 1)
+            before == null -> step(after, -1)
+            else -> midpoint(before, after)
+        }
+    }
+
+    /**
+     * @param count
+     * @return count increasing keys, evenly spread and as short as possible
+     * */
+    @JvmStatic
+    fun spread(count: Int): List<String> {
+        // shortest length with more than count keys
+        var length = 1
+        var capacity = BASE.toLong()
+        while (capacity <= count) {
+            length++
+            capacity *= BASE
+        }
+        val step = capacity / (count + 1)
+        return (1..count).map { key(it * step, length) }
+    }
+
+    /**
+     * @param queue ordered by upvotes and then by key
+     * @return whether the keys of the queue must be spread out again before a move: a key is
+     * missing or too long, or two tracks with as many upvotes share a key, e.g. after two admins
+     * moved tracks between the same neighbours at once
+     * */
+    @JvmStatic
+    fun needsRebalance(queue: List<QueueTrack>): Boolean {
+        var previous: QueueTrack? = null
+        for (entry in queue) {
+            val position = entry.position ?: return true
+            if (position.length > MAX_LENGTH) {
+                return true
+            }
+            if (previous != null && previous.upvotes.size == entry.upvotes.size &&
+                previous.position!! >= position) {
+                return true
+            }
+            previous = entry
+        }
+        return false
+    }
+
+    /**
+     * @param before
+     * @param after greater than before
+     * @return the shortest prefix of the midpoint of both that is still between them
+     * */
+    private fun midpoint(before: String, after: String): String {
+        val length = maxOf(before.length, after.length)
+        // sum of both fractions, with the carry into the integer part
+        val sum = IntArray(length)
+        var carry = 0
+        for (i in length - 1 downTo 0) {
+            val digit = digitAt(before, i) + digitAt(after, i) + carry
+            sum[i] = digit % BASE
+            carry = digit / BASE
+        }
+        // halved, one digit longer if the last one is odd
+        val middle = CharArray(length + 1)
+        var remainder = carry
+        for (i in 0 until length) {
+            val value = remainder * BASE + sum[i]
+            middle[i] = DIGITS[value / 2]
+            remainder = value % 2
+        }
+        middle[length] = DIGITS[remainder * BASE / 2]
+        for (prefix in 1..length) {
+            val key = String(middle, 0, prefix).trimEnd(DIGITS[0])
+            if (key > before && key < after) {
+                return key
+            }
+        }
+        return String(middle).trimEnd(DIGITS[0])
+    }
+
+    /**
+     * @param key
+     * @param direction 1 to step after the key, -1 to step before it
+     * @return the key one unit of the last digit after or before it; the unit gets smaller as the
+     * key gets closer to the end, twice as many digits as the key has leading extreme digits
+     * ("z" after, "0" before), so every further digit fits many more steps than the one before
+     * */
+    private fun step(key: String, direction: Int): String {
+        val extreme = if (direction > 0) DIGITS[BASE - 1] else DIGITS[0]
+        val extremes = key.takeWhile { it == extreme }.length
+        var length = maxOf(key.length, 2 * extremes)
+        while (true) {
+            val digits = IntArray(length) { digitAt(key, it) }
+            // add or subtract one unit of the last digit; never overflows, as the key doesn't
+            // consist of extreme digits only at this length
+            var i = length - 1
+            while (true) {
+                val digit = digits[i] + direction
+                if (digit in 0 until BASE) {
+                    digits[i] = digit
+                    break
+                }
+                digits[i] = if (direction > 0) 0 else BASE - 1
+                i--
+            }
+            val stepped = String(CharArray(length) { DIGITS[digits[it]] }).trimEnd(DIGITS[0])
+            if (stepped.isNotEmpty()) {
+                return stepped
+            }
+            // stepped before the smallest key of the length, e.g. "01" -> "00zz"
+            length = maxOf(length + 1, 2 * (extremes + 1))
+        }
+    }
+
+    private fun digitAt(key: String, index: Int): Int =
+        if (index < key.length) DIGITS.indexOf(key[index]) else 0
+
+    /**
+     * @param value numerator of the fraction with BASE^length as denominator
+     * @param length number of digits
+     * @return the key of the fraction, without trailing zero digits
+     * */
+    private fun key(value: Long, length: Int): String {
+        val digits = CharArray(length)
+        var remaining = value
+        for (i in length - 1 downTo 0) {
+            digits[i] = DIGITS[(remaining % BASE).toInt()]
+            remaining /= BASE
+        }
+        return String(digits).trimEnd(DIGITS[0])
+    }
+}
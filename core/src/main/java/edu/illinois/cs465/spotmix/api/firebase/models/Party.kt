@@ -0,0 +1,438 @@
+package edu.illinois.cs465.spotmix.api.firebase.models
+
+import android.os.Parcelable
+import edu.illinois.cs465.spotmix.api.spotify.models.Track
+import kotlinx.android.parcel.IgnoredOnParcel
+import kotlinx.android.parcel.Parcelize
+
+/**
+ * Model for a party instance.
+ * */
+@Parcelize
+data class Party @JvmOverloads constructor(
+    val name: String,
+    var key: String? = null,
+    val queue: MutableList<QueueTrack> = mutableListOf(),
+    val attendees: MutableList<Attendee> = mutableListOf(),
+    // accessToken to use Spotify Api; provided by host
+    var accessToken: String? = null,
+    var playing: Boolean = false,
+    // track being played, dequeued from the head of the queue
+    var currentTrack: QueueTrack? = null,
+    // played tracks, the most recent one last
+    val history: MutableList<QueueTrack> = mutableListOf(),
+    // whether the next track is picked by the FairShareScheduler instead of the head of the queue
+    var fairShare: Boolean = false
+) : Parcelable {
+
+    companion object {
+
+        /**
+         * To pass the party obj between activities.
+         * */
+        const val PARCEL_KEY = "api.firebase.Party.PARCEL_KEY"
+
+        /**
+         * Number of played tracks kept in the history.
+         * */
+        const val HISTORY_SIZE = 50
+
+        /**
+         * Order of the queue: by upvotes descending, then by position key. Tracks without a key
+         * come last in their tier, in the order they are in; equal keys, e.g. of tracks two admins
+         * moved between the same neighbours at once, are ordered by uri so all devices agree.
+         * @return negative if a comes first, positive if b does, 0 if neither
+         * */
+        @JvmStatic
+        fun compareInQueue(a: QueueTrack, b: QueueTrack): Int {
+            val votes = b.upvotes.size.compareTo(a.upvotes.size)
+            if (votes != 0) {
+                return votes
+            }
+            val positionA = a.position
+            val positionB = b.position
+            return when {
+                positionA == null || positionB == null ->
+                    (positionA == null).compareTo(positionB == null)
+                positionA != positionB -> positionA.compareTo(positionB)
+                else -> a.track.uri.compareTo(b.track.uri)
+            }
+        }
+
+        /**
+         * Bring a queue read from storage into order, admin moves only change the key of the
+         * moved track. Queues written before tracks had keys get keys in their stored order.
+         * @param queue
+         * */
+        @JvmStatic
+        fun sortQueue(queue: MutableList<QueueTrack>) {
+            if (queue.any { it.position == null }) {
+                queue.zip(FractionalIndex.spread(queue.size)).forEach { (entry, position) ->
+                    entry.position = position
+                }
+            }
+            queue.sortWith(Comparator(::compareInQueue))
+        }
+    }
+
+    // used to reconstruct Party obj when reading from Firebase
+    @Suppress("unused")
+    constructor() : this("", null)
+
+    // index over the queue; built once per snapshot on first use, then updated incrementally
+    @IgnoredOnParcel
+    private val queueIndex = QueueIndex(queue) { it.track.uri }
+    @IgnoredOnParcel
+    private var queueIndexed = false
+
+    // fair-share order over the queue; built on first use in fair-share mode, then updated
+    // incrementally
+    @IgnoredOnParcel
+    private val scheduler = FairShareScheduler()
+    @IgnoredOnParcel
+    private var scheduled = false
+
+    fun isTrackInQueue(track: Track): Boolean = track.uri in index()
+
+    /**
+     * @param attendee
+     * @return whether the attendee is the host, who created the party and is its first attendee
+     * */
+    fun isHost(attendee: Attendee): Boolean = attendees.firstOrNull() == attendee
+
+    /**
+     * @param track
+     * @return position of the track in the queue, -1 if not queued
+     * */
+    fun positionInQueue(track: Track): Int = positionInQueue(track.uri)
+
+    /**
+     * @param trackUri
+     * @return position of the track with the uri in the queue, -1 if not queued
+     * */
+    fun positionInQueue(trackUri: String): Int = index().positionOf(trackUri)
+
+    /**
+     * Append a track to the queue. New tracks have no upvotes, so they end up last; a track
+     * without a key gets one after all others, so it stays behind the tracks queued before once
+     * it gains upvotes.
+     * @param queueTrack
+     * */
+    fun addToQueue(queueTrack: QueueTrack) {
+        if (queueTrack.position == null) {
+            queueTrack.position = FractionalIndex.between(lastPosition(), null)
+        }
+        queue.add(queueTrack)
+        if (queueIndexed) {
+            queueIndex.onAppended(queueTrack)
+        }
+        if (scheduled) {
+            scheduler.onAdded(queueTrack)
+        }
+    }
+
+    /**
+     * Remove a track from the queue.
+     * @param position
+     * @return the removed entry
+     * */
+    fun removeFromQueue(position: Int): QueueTrack {
+        val entry = queue.removeAt(position)
+        if (queueIndexed) {
+            queueIndex.onRemoved(entry, position)
+        }
+        if (scheduled) {
+            scheduler.onRemoved(entry)
+        }
+        return entry
+    }
+
+    /**
+     * Move a track within the queue.
+     * @param from
+     * @param to
+     * */
+    fun moveInQueue(from: Int, to: Int) {
+        queue.add(to, queue.removeAt(from))
+        if (queueIndexed) {
+            queueIndex.onMoved(from, to)
+        }
+    }
+
+    /**
+     * Finish the current track: it moves to the history and the next track of the queue, see
+     * nextInQueue(), becomes the current track.
+     * @return the new current track, null if the queue was empty
+     * */
+    fun advance(): QueueTrack? {
+        currentTrack?.let {
+            history.add(it)
+            if (scheduled) {
+                scheduler.onPlayed(it)
+            }
+            if (history.size > HISTORY_SIZE) {
+                val dropped = history.removeAt(0)
+                if (scheduled) {
+                    scheduler.onUnplayed(dropped)
+                }
+            }
+        }
+        val next = nextInQueue()
+        currentTrack = if (next != -1) removeFromQueue(next) else null
+        return currentTrack
+    }
+
+    /**
+     * @return position of the track advance() plays next, -1 if the queue is empty: the head of
+     * the queue, or in fair-share mode the track the FairShareScheduler picks
+     * */
+    fun nextInQueue(): Int {
+        if (queue.isEmpty()) {
+            return -1
+        }
+        if (!fairShare) {
+            return 0
+        }
+        val next = positionInQueue(schedule().next()!!.track.uri)
+        if (next != -1) {
+            return next
+        }
+        // the queue was replaced without the party knowing
+        scheduled = false
+        return positionInQueue(schedule().next()!!.track.uri)
+    }
+
+    /**
+     * Let the party know the upvotes or the key of a queued entry were changed on the entry
+     * itself, e.g. by a delta.
+     * @param entry
+     * */
+    fun queueEntryChanged(entry: QueueTrack) {
+        if (scheduled) {
+            scheduler.onChanged(entry)
+        }
+    }
+
+    /**
+     * Play the last track of the history again. The current track returns to the queue in front
+     * of all tracks with as many upvotes or fewer, which is the head unless others gained votes
+     * since it started.
+     * @return the new current track, null if the history is empty; nothing changes then
+     * */
+    fun previous(): QueueTrack? {
+        if (history.isEmpty()) {
+            return null
+        }
+        currentTrack?.let { requeue(it) }
+        currentTrack = history.removeAt(history.size - 1)
+        if (scheduled) {
+            scheduler.onUnplayed(currentTrack!!)
+        }
+        return currentTrack
+    }
+
+    /**
+     * Put a track back into the queue, in front of all tracks with as many upvotes or fewer.
+     * @param queueTrack
+     * @return position of the track in the queue
+     * */
+    fun requeue(queueTrack: QueueTrack): Int {
+        // keeps the queue ordered by upvotes
+        val position = firstWithFewerUpvotes(queueTrack.upvotes.size + 1, queue.size)
+        // and by key within the tier
+        val next = queue.getOrNull(position)
+        if (next?.position != null && next.upvotes.size == queueTrack.upvotes.size) {
+            queueTrack.position = FractionalIndex.between(null, next.position)
+        } else if (queueTrack.position == null) {
+            queueTrack.position = FractionalIndex.between(lastPosition(), null)
+        }
+        queue.add(position, queueTrack)
+        if (queueIndexed) {
+            queueIndex.onInserted(queueTrack, position)
+        }
+        if (scheduled) {
+            scheduler.onAdded(queueTrack)
+        }
+        return position
+    }
+
+    /**
+     * @return the playback partition of the party
+     * */
+    fun playback(): Playback = Playback(playing, currentTrack, history, fairShare)
+
+    /**
+     * @param playback
+     * @return copy of the party with the playback partition replaced, sharing the other lists
+     * */
+    fun withPlayback(playback: Playback): Party = copy(
+        playing = playback.playing,
+        currentTrack = playback.currentTrack,
+        history = playback.history,
+        fairShare = playback.fairShare
+    )
+
+    /**
+     * @param queue
+     * @return copy of the party with the queue replaced, sharing the other lists
+     * */
+    fun withQueue(queue: MutableList<QueueTrack>): Party = copy(queue = queue)
+
+    /**
+     * Upvote a track and move it up in the queue.
+     * @param track
+     * @param attendee the attendee voting on the track
+     * @return the updated queue entry, null if the track is not queued
+     * */
+    fun upvote(track: QueueTrack, attendee: Attendee): QueueTrack? {
+        val from = positionInQueue(track.track)
+        if (from == -1) {
+            return null
+        }
+        val entry = queue[from]
+        entry.upvote(attendee)
+        queueEntryChanged(entry)
+        // queue is ordered and only this entry gained an upvote
+        // => it moves up to its key within its new tier, the entries behind it don't move
+        val to = insertionPoint(entry, from)
+        if (to < from) {
+            queue.removeAt(from)
+            queue.add(to, entry)
+            if (queueIndexed) {
+                queueIndex.onMoved(from, to)
+            }
+        }
+        return entry
+    }
+
+    /**
+     * Admin only: move a track to another position within the tracks with as many upvotes, the
+     * ones ahead by votes stay ahead. Only the moved track gets a new key, unless the keys are
+     * out of order and are spread out again first.
+     * @param from
+     * @param to clamped to the tracks with as many upvotes
+     * @return new position of the track, -1 if it didn't move
+     * */
+    fun reorder(from: Int, to: Int): Int {
+        val entry = queue[from]
+        val upvotes = entry.upvotes.size
+        val first = firstWithFewerUpvotes(upvotes + 1, queue.size)
+        val last = firstWithFewerUpvotes(upvotes, queue.size) - 1
+        val target = to.coerceIn(first, last)
+        if (target == from) {
+            return -1
+        }
+        if (FractionalIndex.needsRebalance(queue)) {
+            rebalance()
+        }
+        queue.removeAt(from)
+        // neighbours within the tier, which is one shorter now
+        val before = if (target > first) queue[target - 1].position else null
+        val after = if (target < last) queue[target].position else null
+        entry.position = FractionalIndex.between(before, after)
+        queue.add(target, entry)
+        if (queueIndexed) {
+            queueIndex.onMoved(from, target)
+        }
+        queueEntryChanged(entry)
+        return target
+    }
+
+    /**
+     * Spread the keys of the queue out again, in the current order.
+     * */
+    fun rebalance() {
+        queue.zip(FractionalIndex.spread(queue.size)).forEach { (entry, position) ->
+            entry.position = position
+        }
+        // every key changed
+        scheduled = false
+    }
+
+    /**
+     * Downvote a track; the queue is ordered by upvotes only, so its position doesn't change.
+     * @param track
+     * @param attendee the attendee voting on the track
+     * @return the updated queue entry, null if the track is not queued
+     * */
+    fun downvote(track: QueueTrack, attendee: Attendee): QueueTrack? {
+        val position = positionInQueue(track.track)
+        if (position == -1) {
+            return null
+        }
+        val entry = queue[position]
+        entry.downvote(attendee)
+        return entry
+    }
+
+    /**
+     * Binary search in the queue, which is ordered by upvotes descending.
+     * @param upvotes
+     * @param end exclusive end of the searched range
+     * @return position of the first entry with fewer upvotes, end if there is none
+     * */
+    private fun firstWithFewerUpvotes(upvotes: Int, end: Int): Int {
+        var low = 0
+        var high = end
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (queue[mid].upvotes.size < upvotes) {
+                high = mid
+            } else {
+                low = mid + 1
+            }
+        }
+        return low
+    }
+
+    /**
+     * Binary search in the queue for where an entry belongs.
+     * @param entry not in the searched range
+     * @param end exclusive end of the searched range
+     * @return position of the first entry ordered after the entry, end if there is none
+     * */
+    private fun insertionPoint(entry: QueueTrack, end: Int): Int {
+        var low = 0
+        var high = end
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (compareInQueue(entry, queue[mid]) < 0) {
+                high = mid
+            } else {
+                low = mid + 1
+            }
+        }
+        return low
+    }
+
+    /**
+     * @return the greatest key in the queue, null if there is none
+     * */
+    private fun lastPosition(): String? {
+        var last: String? = null
+        for (entry in queue) {
+            val position = entry.position ?: continue
+            if (last == null || position > last) {
+                last = position
+            }
+        }
+        return last
+    }
+
+    private fun schedule(): FairShareScheduler {
+        // also rebuilt if the queue or the history were changed without the party knowing
+        if (!scheduled || scheduler.size != queue.size || scheduler.played != history.size) {
+            scheduler.rebuild(queue, history)
+            scheduled = true
+        }
+        return scheduler
+    }
+
+    private fun index(): QueueIndex<QueueTrack> {
+        if (!queueIndexed) {
+            queueIndex.rebuild()
+            queueIndexed = true
+        }
+        return queueIndex
+    }
+}
\ No newline at end of file
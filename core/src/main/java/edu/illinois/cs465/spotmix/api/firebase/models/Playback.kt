@@ -0,0 +1,15 @@
+package edu.illinois.cs465.spotmix.api.firebase.models
+
+/**
+ * Model for the playback partition of a party, stored apart from its queue so following the
+ * playback doesn't download the queue.
+ * */
+data class Playback @JvmOverloads constructor(
+    val playing: Boolean = false,
+    // track being played, dequeued from the head of the queue
+    val currentTrack: QueueTrack? = null,
+    // played tracks, the most recent one last
+    val history: MutableList<QueueTrack> = mutableListOf(),
+    // whether the next track is picked by the FairShareScheduler, see Party
+    val fairShare: Boolean = false
+)
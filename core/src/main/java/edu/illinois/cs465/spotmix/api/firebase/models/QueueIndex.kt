@@ -0,0 +1,88 @@
+package edu.illinois.cs465.spotmix.api.firebase.models
+
+/**
+ * Index over the queue of a party, maps the key (track uri) of each entry to its position.
+ * Makes membership and position queries constant time instead of scanning the queue.
+ * Changes only update the entries that shifted: moving an entry touches the entries it moved
+ * past, inserting or removing one the entries behind it.
+ * @param queue the indexed queue
+ * @param keyOf function to get the key of an entry
+ * */
+class QueueIndex<T>(private val queue: List<T>, private val keyOf: (T) -> String) {
+
+    // position in the queue by key
+    private val positions = HashMap<String, Int>()
+
+    /**
+     * Number of indexed entries.
+     * */
+    val size: Int
+        get() = positions.size
+
+    /**
+     * Index the whole queue, e.g. after a new snapshot arrived.
+     * */
+    fun rebuild() {
+        positions.clear()
+        updatePositions(0, queue.size)
+    }
+
+    /**
+     * @param key
+     * @return whether an entry with the key is in the queue
+     * */
+    operator fun contains(key: String): Boolean = positions.containsKey(key)
+
+    /**
+     * @param key
+     * @return position of the entry in the queue, -1 if not queued
+     * */
+    fun positionOf(key: String): Int = positions[key] ?: -1
+
+    /**
+     * Entry was appended to the queue.
+     * @param entry
+     * */
+    fun onAppended(entry: T) {
+        positions[keyOf(entry)] = queue.size - 1
+    }
+
+    /**
+     * Entry was inserted into the queue, all entries behind it shifted by one.
+     * @param entry
+     * @param position
+     * */
+    fun onInserted(entry: T, position: Int) {
+        positions[keyOf(entry)] = position
+        updatePositions(position + 1, queue.size)
+    }
+
+    /**
+     * Entry was moved within the queue, all entries in between shifted by one.
+     * @param from old position of the entry
+     * @param to new position of the entry
+     * */
+    fun onMoved(from: Int, to: Int) {
+        updatePositions(minOf(from, to), maxOf(from, to) + 1)
+    }
+
+    /**
+     * Entry was removed from the queue, all entries behind it shifted by one.
+     * @param entry
+     * @param position old position of the entry
+     * */
+    fun onRemoved(entry: T, position: Int) {
+        positions.remove(keyOf(entry))
+        updatePositions(position, queue.size)
+    }
+
+    /**
+     * @param from first position to index
+     * @param until position after the last one to index
+     * */
+    private fun updatePositions(from: Int, until: Int) {
+        for (position in from until until) {
+            positions[keyOf(queue[position])] = position
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package edu.illinois.cs465.spotmix.api.firebase.models
+
+import android.os.Parcelable
+import edu.illinois.cs465.spotmix.api.spotify.models.Track
+import kotlinx.android.parcel.IgnoredOnParcel
+import kotlinx.android.parcel.Parcelize
+
+/**
+ * Model for a Spotify Track in the queue.
+ * */
+@Parcelize
+data class QueueTrack @JvmOverloads constructor(
+    val track: Track,
+    val upvotes: MutableList<Attendee> = mutableListOf(),
+    val downvotes: MutableList<Attendee> = mutableListOf(),
+    // key ordering the tracks with as many upvotes, see FractionalIndex; null until queued
+    var position: String? = null,
+    // attendee who queued the track, null for tracks queued before this was kept
+    val addedBy: Attendee? = null
+) : Parcelable {
+
+    // used to reconstruct obj when reading from Firebase
+    @Suppress("unused")
+    constructor() : this(Track())
+
+    // index in the stored queue it was read from, -1 if unknown; the stored queue is only sorted
+    // by readers, so an admin move can write just this entry
+    @IgnoredOnParcel
+    var storedIndex = -1
+
+    // sets of the voters for constant time lookups; built on first use
+    @IgnoredOnParcel
+    private var upvoters: HashSet<Attendee>? = null
+    @IgnoredOnParcel
+    private var downvoters: HashSet<Attendee>? = null
+
+    fun hasVoted(attendee: Attendee) = hasDownVoted(attendee) || hasUpVoted(attendee)
+
+    fun hasUpVoted(attendee: Attendee) = upvoterSet().contains(attendee)
+
+    fun hasDownVoted(attendee: Attendee) = downvoterSet().contains(attendee)
+
+    /**
+     * Add the upvote of an attendee.
+     * @param attendee
+     * */
+    fun upvote(attendee: Attendee) {
+        upvotes.add(attendee)
+        upvoters?.add(attendee)
+    }
+
+    /**
+     * Add the downvote of an attendee.
+     * @param attendee
+     * */
+    fun downvote(attendee: Attendee) {
+        downvotes.add(attendee)
+        downvoters?.add(attendee)
+    }
+
+    private fun upvoterSet(): Set<Attendee> =
+        upvoters ?: HashSet(upvotes).also { upvoters = it }
+
+    private fun downvoterSet(): Set<Attendee> =
+        downvoters ?: HashSet(downvotes).also { downvoters = it }
+}
\ No newline at end of file
@@ -0,0 +1,22 @@
+package edu.illinois.cs465.spotmix.api.firebase.models
+
+/**
+ * Model for an entry of the queue view, the projection of the top of a queue that attendees
+ * subscribe to: a queued track with only what a queue row displays.
+ * @param rank position in the queue, from 0
+ * @param uri
+ * @param title
+ * @param artists displayable artist names
+ * @param thumbnailUrl url of the album cover for the thumbnail, null if the album has none
+ * @param score what the queue is ordered by, the number of upvotes
+ * @param downvotes number of downvotes
+ * */
+data class QueueViewEntry(
+    val rank: Int,
+    val uri: String,
+    val title: String,
+    val artists: String,
+    val thumbnailUrl: String?,
+    val score: Int,
+    val downvotes: Int
+)
@@ -0,0 +1,525 @@
+package edu.illinois.cs465.spotmix.api.lan
+
+import edu.illinois.cs465.spotmix.api.PartyBackend
+import edu.illinois.cs465.spotmix.api.PartyBackend.*
+import edu.illinois.cs465.spotmix.api.WriteQuotas
+import edu.illinois.cs465.spotmix.api.firebase.FirebaseTrees
+import edu.illinois.cs465.spotmix.api.firebase.SnapshotMapper
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.ACCESS_TOKEN
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.ATTENDEE
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.CODE
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.FAIR_SHARE
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.HOST
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.ID
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.NAME
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.OP
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.QUEUE_TRACK
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.RANK
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.SENT
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.STATE
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.TRACK
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.TRACK_URI
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.VERSION
+import edu.illinois.cs465.spotmix.api.memory.InMemoryPartyStore
+import edu.illinois.cs465.spotmix.api.spotify.models.Track
+import edu.illinois.cs465.spotmix.api.spotify.models.User
+import edu.illinois.cs465.spotmix.metrics.Histogram
+import edu.illinois.cs465.spotmix.sync.PartyReplica
+import edu.illinois.cs465.spotmix.sync.SyncCodec
+import edu.illinois.cs465.spotmix.sync.SyncMessage
+import okhttp3.*
+import okio.ByteString
+import java.io.IOException
+import java.util.concurrent.Executor
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * PartyBackend talking to a LAN party server over a WebSocket, see LanProtocol.
+ * Like the Firebase implementation, mutations are applied to the passed party right away. The
+ * server applies them again to its own copy of the party, which decides the ranking, and sends the
+ * resulting deltas to all subscribed attendees. They are applied to a replica of the party, which
+ * is kept after the last listener is removed, so subscribing again only catches up on the deltas
+ * missed meanwhile. Every instance opens its own connection, so screens should share one.
+ * @param address host and port of the server
+ * @param callbackExecutor delivers callbacks and notifications, e.g. by posting them to the main
+ * thread; runs them directly on the thread of the connection by default
+ * @param fanOutNanos records the time from sending a change to receiving the resulting party
+ * state; only meaningful when sender and receiver share the clock, e.g. in the load test
+ * @param client
+ * @param writeQuotas limit the additions and votes of each attendee, the server limits them again
+ * */
+class LanPartyBackend @JvmOverloads constructor(
+    val address: String,
+    private val callbackExecutor: Executor = Executor { it.run() },
+    private val fanOutNanos: Histogram? = null,
+    private val client: OkHttpClient = sharedClient,
+    private val writeQuotas: WriteQuotas<Attendee> = WriteQuotas()
+) : PartyBackend {
+
+    companion object {
+        // delay of the first reconnect, doubled after every failed attempt
+        private const val MIN_RECONNECT_DELAY_MS = 1000L
+        private const val MAX_RECONNECT_DELAY_MS = 60_000L
+
+        // every open WebSocket occupies a call of the dispatcher, so they must not be limited
+        private val sharedClient: OkHttpClient by lazy {
+            OkHttpClient.Builder()
+                .dispatcher(Dispatcher().apply {
+                    maxRequests = Int.MAX_VALUE
+                    maxRequestsPerHost = Int.MAX_VALUE
+                })
+                .pingInterval(15, TimeUnit.SECONDS)
+                .build()
+        }
+
+        // reconnects the backends of all servers
+        private val scheduler: ScheduledExecutorService by lazy {
+            ScheduledThreadPoolExecutor(1) { runnable ->
+                Thread(runnable, "LanPartyBackend").apply { isDaemon = true }
+            }
+        }
+    }
+
+    /**
+     * Listeners of a party, the party is subscribed on the server as long as there are any.
+     * */
+    private class Subscription {
+        val partyListeners = mutableListOf<PartyListener>()
+        val attendeeListeners = mutableListOf<AttendeeListener>()
+        // last notified attendees, to only notify when they changed
+        var attendees: List<Attendee>? = null
+    }
+
+    // all fields below are guarded by this
+    private var webSocket: WebSocket? = null
+    private var nextRequestId = 0L
+    // callbacks of requests waiting for their reply by id; called with null if the connection fails
+    private val pendingReplies = HashMap<Long, (Map<*, *>?) -> Unit>()
+    // subscriptions by party code
+    private val subscriptions = HashMap<String, Subscription>()
+    // replicas of the created, joined or subscribed parties by code
+    private val replicas = HashMap<String, PartyReplica>()
+    // codes of the parties waiting for a snapshot after deltas were missed
+    private val resyncing = HashSet<String>()
+    // delay of the next reconnect, reset once a connection opened
+    private var reconnectDelay = MIN_RECONNECT_DELAY_MS
+
+    private val listener = object : WebSocketListener() {
+        override fun onOpen(webSocket: WebSocket, response: Response) {
+            synchronized(this@LanPartyBackend) {
+                if (webSocket === this@LanPartyBackend.webSocket) {
+                    reconnectDelay = MIN_RECONNECT_DELAY_MS
+                }
+            }
+        }
+
+        override fun onMessage(webSocket: WebSocket, text: String) {
+            val message = LanProtocol.decode(text) ?: return
+            when (message[OP]) {
+                LanProtocol.CREATED, LanProtocol.JOINED, LanProtocol.ADDED -> onReply(message)
+                // closed parties are not notified, same as by Firebase
+            }
+        }
+
+        override fun onMessage(webSocket: WebSocket, bytes: ByteString) {
+            val message = try {
+                SyncCodec.decode(bytes.toByteArray())
+            } catch (e: IOException) {
+                return
+            }
+            onSyncMessage(message)
+        }
+
+        override fun onClosed(webSocket: WebSocket, code: Int, reason: String) {
+            onConnectionLost(webSocket)
+        }
+
+        override fun onFailure(webSocket: WebSocket, t: Throwable, response: Response?) {
+            onConnectionLost(webSocket)
+        }
+    }
+
+    override fun createParty(
+        partyName: String,
+        host: User,
+        accessToken: String,
+        callback: CreateCallback
+    ) {
+        val message = mapOf(
+            OP to LanProtocol.CREATE,
+            NAME to partyName,
+            HOST to host.display_name,
+            ACCESS_TOKEN to accessToken
+        )
+        request(message) { reply ->
+            val party = replicate(reply)
+            val attendee = SnapshotMapper.attendee(reply?.get(ATTENDEE))
+            deliver {
+                if (party != null && attendee != null) {
+                    callback.onPartyCreated(party, attendee)
+                } else {
+                    callback.onPartyCreated(null, null)
+                }
+            }
+        }
+    }
+
+    override fun joinParty(partyCode: String, attendeeName: String, callback: JoinCallback) {
+        val message = mapOf(
+            OP to LanProtocol.JOIN,
+            CODE to LanProtocol.codeOf(partyCode),
+            NAME to attendeeName
+        )
+        request(message) { reply ->
+            val party = replicate(reply)
+            val attendee = SnapshotMapper.attendee(reply?.get(ATTENDEE))
+            deliver {
+                if (party != null && attendee != null) {
+                    callback.onPartyJoined(party, attendee)
+                } else {
+                    callback.onPartyJoined(null, null)
+                }
+            }
+        }
+    }
+
+    override fun closeParty(party: Party) {
+        synchronized(this) { replicas.remove(codeOf(party)) }
+        send(mapOf(OP to LanProtocol.CLOSE, CODE to codeOf(party)))
+    }
+
+    override fun removeAttendee(party: Party, attendee: Attendee) {
+        party.attendees.remove(attendee)
+        sendChange(party, LanProtocol.REMOVE_ATTENDEE, ATTENDEE to FirebaseTrees.attendee(attendee))
+    }
+
+    override fun addTrackToQueue(
+        party: Party,
+        track: Track,
+        attendee: Attendee,
+        callback: AddToQueueCallback
+    ): Boolean {
+        if (!writeQuotas.tryAcquire(attendee)) {
+            return false
+        }
+        val queueTrack = QueueTrack(track, addedBy = attendee.copy())
+        party.addToQueue(queueTrack)
+        val message = mapOf(
+            OP to LanProtocol.ADD_TRACK,
+            CODE to codeOf(party),
+            TRACK to FirebaseTrees.track(track),
+            ATTENDEE to FirebaseTrees.attendee(attendee),
+            SENT to sentNanos()
+        )
+        request(message) { reply ->
+            val added = reply?.get(QUEUE_TRACK) != null
+            deliver { callback.onAddedTrackToQueue(if (added) queueTrack else null) }
+        }
+        return true
+    }
+
+    override fun removeTrackFromQueue(party: Party, trackUri: String) {
+        val position = party.positionInQueue(trackUri)
+        if (position != -1) {
+            party.removeFromQueue(position)
+            sendChange(party, LanProtocol.REMOVE_TRACK, TRACK_URI to trackUri)
+        }
+    }
+
+    override fun moveTrackInQueue(party: Party, trackUri: String, rank: Int) {
+        val position = party.positionInQueue(trackUri)
+        if (position != -1 && party.reorder(position, rank) != -1) {
+            sendChange(party, LanProtocol.MOVE_TRACK, TRACK_URI to trackUri, RANK to rank)
+        }
+    }
+
+    override fun rebalanceQueue(party: Party) {
+        // the server keeps the keys and rebalances them when it moves a track, replicas only
+        // follow the positions
+    }
+
+    override fun setFairShare(party: Party, fairShare: Boolean) {
+        party.fairShare = fairShare
+        sendChange(party, LanProtocol.SET_FAIR_SHARE, FAIR_SHARE to fairShare)
+    }
+
+    override fun playing(party: Party) {
+        party.playing = true
+        sendChange(party, LanProtocol.PLAYING)
+    }
+
+    override fun paused(party: Party) {
+        party.playing = false
+        sendChange(party, LanProtocol.PAUSED)
+    }
+
+    override fun skipToNext(party: Party) {
+        val current = party.currentTrack?.track?.uri
+        party.advance()
+        sendChange(party, LanProtocol.NEXT, TRACK_URI to current)
+    }
+
+    override fun skipToPrevious(party: Party) {
+        val current = party.currentTrack?.track?.uri
+        party.previous()
+        sendChange(party, LanProtocol.PREVIOUS, TRACK_URI to current)
+    }
+
+    override fun upvoteTrack(party: Party, track: QueueTrack, attendee: Attendee): Boolean {
+        if (!writeQuotas.tryAcquire(attendee)) {
+            return false
+        }
+        // upvote the track; moves it up in the queue, the server ranks its copy the same way
+        party.upvote(track, attendee)
+        sendChange(
+            party, LanProtocol.UPVOTE,
+            TRACK_URI to track.track.uri,
+            ATTENDEE to FirebaseTrees.attendee(attendee)
+        )
+        return true
+    }
+
+    override fun downvoteTrack(party: Party, track: QueueTrack, attendee: Attendee): Boolean {
+        if (!writeQuotas.tryAcquire(attendee)) {
+            return false
+        }
+        party.downvote(track, attendee)
+        sendChange(
+            party, LanProtocol.DOWNVOTE,
+            TRACK_URI to track.track.uri,
+            ATTENDEE to FirebaseTrees.attendee(attendee)
+        )
+        return true
+    }
+
+    override fun addPartyListener(party: Party, listener: PartyListener) {
+        val current = subscribe(codeOf(party)) { it.partyListeners.add(listener) }
+        // listeners added to an existing subscription start with the current state
+        current?.let { deliver { listener.onPartyChanged(it) } }
+    }
+
+    override fun removePartyListener(party: Party, listener: PartyListener) {
+        unsubscribe(codeOf(party)) { it.partyListeners.remove(listener) }
+    }
+
+    override fun addAttendeeListener(party: Party, listener: AttendeeListener) {
+        val current = subscribe(codeOf(party)) { it.attendeeListeners.add(listener) }
+        current?.let { deliver { listener.onAttendeeListChanged(it.attendees) } }
+    }
+
+    override fun removeAttendeeListener(party: Party, listener: AttendeeListener) {
+        unsubscribe(codeOf(party)) { it.attendeeListeners.remove(listener) }
+    }
+
+    /**
+     * Send a change of the party to the server.
+     * @param party
+     * @param op
+     * @param fields additional fields of the message
+     * */
+    private fun sendChange(party: Party, op: String, vararg fields: Pair<String, Any?>) {
+        send(mapOf(OP to op, CODE to codeOf(party), SENT to sentNanos(), *fields))
+    }
+
+    /**
+     * Send a request and receive its reply.
+     * @param message
+     * @param onReply called with the reply on the thread of the connection, with null if the
+     * connection failed before
+     * */
+    private fun request(message: Map<String, Any?>, onReply: (Map<*, *>?) -> Unit) {
+        val id = synchronized(this) {
+            (++nextRequestId).also { pendingReplies[it] = onReply }
+        }
+        send(message + (ID to id))
+    }
+
+    private fun send(message: Map<String, Any?>) {
+        val text = LanProtocol.encode(message)
+        synchronized(this) {
+            // queued by OkHttp until the connection is open
+            connection().send(text)
+        }
+    }
+
+    /**
+     * Add a listener to the subscription of a party, subscribes the party on the first listener.
+     * @param code
+     * @param add adds the listener
+     * @return copy of the replica of the party, null if there is none yet
+     * */
+    private fun subscribe(code: String, add: (Subscription) -> Unit): Party? = synchronized(this) {
+        val connection = connection()
+        val subscription = subscriptions[code]
+        if (subscription == null) {
+            subscriptions[code] = Subscription().also(add)
+            // the server replies with the deltas the replica missed, with a snapshot if there is none
+            connection.send(subscribeMessage(code))
+        } else {
+            add(subscription)
+        }
+        replicas[code]?.party?.let { copyOf(it) }
+    }
+
+    /**
+     * Remove a listener from the subscription of a party, unsubscribes the party after the last
+     * listener.
+     * @param code
+     * @param remove removes the listener
+     * */
+    private fun unsubscribe(code: String, remove: (Subscription) -> Unit) {
+        synchronized(this) {
+            val subscription = subscriptions[code] ?: return
+            remove(subscription)
+            if (subscription.partyListeners.isEmpty() && subscription.attendeeListeners.isEmpty()) {
+                subscriptions.remove(code)
+                connection().send(
+                    LanProtocol.encode(mapOf(OP to LanProtocol.UNSUBSCRIBE, CODE to code))
+                )
+            }
+        }
+    }
+
+    /**
+     * @return the open connection, connects and subscribes the parties of all listeners if there is
+     * none; must hold the lock
+     * */
+    private fun connection(): WebSocket {
+        webSocket?.let { return it }
+        val request = Request.Builder().url("ws://$address${LanProtocol.PATH}").build()
+        val connection = client.newWebSocket(request, listener)
+        subscriptions.keys.forEach { connection.send(subscribeMessage(it)) }
+        resyncing.clear()
+        webSocket = connection
+        return connection
+    }
+
+    private fun onConnectionLost(lost: WebSocket) {
+        val failed: List<(Map<*, *>?) -> Unit>
+        val reconnect: Boolean
+        val delay: Long
+        synchronized(this) {
+            if (webSocket !== lost) {
+                return
+            }
+            webSocket = null
+            failed = pendingReplies.values.toList()
+            pendingReplies.clear()
+            reconnect = subscriptions.isNotEmpty()
+            delay = reconnectDelay
+            if (reconnect) {
+                // a server that is gone for good isn't polled every second forever
+                reconnectDelay = minOf(reconnectDelay * 2, MAX_RECONNECT_DELAY_MS)
+            }
+        }
+        failed.forEach { it(null) }
+        if (reconnect) {
+            scheduler.schedule({
+                synchronized(this) {
+                    if (webSocket == null && subscriptions.isNotEmpty()) {
+                        connection()
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    private fun onReply(message: Map<*, *>) {
+        val id = (message[ID] as? Number)?.toLong() ?: return
+        synchronized(this) { pendingReplies.remove(id) }?.invoke(message)
+    }
+
+    private fun onSyncMessage(message: SyncMessage) {
+        val code = message.code
+        if (message is SyncMessage.Deltas && message.sentNanos != 0L) {
+            fanOutNanos?.recordSince(message.sentNanos)
+        }
+        // every listener gets its own copy, made on this thread
+        val partyChanges = ArrayList<Pair<PartyListener, Party>>()
+        val attendeeChanges = ArrayList<Pair<AttendeeListener, List<Attendee>>>()
+        synchronized(this) {
+            val replica = replicas.getOrPut(code) { PartyReplica() }
+            if (!replica.apply(message)) {
+                // deltas were lost, e.g. while reconnecting; the snapshot replaces the replica
+                if (resyncing.add(code)) {
+                    connection().send(subscribeMessage(code, null))
+                }
+                return
+            }
+            if (message is SyncMessage.Snapshot) {
+                resyncing.remove(code)
+            }
+            val party = replica.party!!
+            val subscription = subscriptions[code] ?: return
+            subscription.partyListeners.forEach { partyChanges.add(it to copyOf(party)) }
+            // most changes are votes which leave the attendees alone
+            if (party.attendees != subscription.attendees) {
+                subscription.attendees = InMemoryPartyStore.copyOfAttendees(party.attendees)
+                subscription.attendeeListeners.forEach {
+                    attendeeChanges.add(it to InMemoryPartyStore.copyOfAttendees(party.attendees))
+                }
+            }
+        }
+        partyChanges.forEach { (listener, party) -> deliver { listener.onPartyChanged(party) } }
+        attendeeChanges.forEach { (listener, attendees) ->
+            deliver { listener.onAttendeeListChanged(attendees) }
+        }
+    }
+
+    /**
+     * Start the replica of a created or joined party with the state in the reply.
+     * @param reply
+     * @return the party with its LAN party key, null if the reply has none
+     * */
+    private fun replicate(reply: Map<*, *>?): Party? {
+        val party = partyOf(reply?.get(STATE)) ?: return null
+        val version = (reply?.get(VERSION) as? Number)?.toLong() ?: return party
+        synchronized(this) {
+            val replica = replicas.getOrPut(LanProtocol.codeOf(party.key!!)) { PartyReplica() }
+            // deltas may already have arrived, e.g. when the party was subscribed before
+            if (replica.version < version) {
+                replica.reset(InMemoryPartyStore.copyOf(party), version)
+            }
+        }
+        return party
+    }
+
+    /**
+     * @param party the party of a replica
+     * @return copy of the party with its LAN party key
+     * */
+    private fun copyOf(party: Party): Party = InMemoryPartyStore.copyOf(party).also {
+        it.key = LanProtocol.keyOf(address, LanProtocol.codeOf(it.key ?: ""))
+    }
+
+    /**
+     * @param state value tree of the party received from the server
+     * @return the party with its LAN party key, null if there is no state
+     * */
+    private fun partyOf(state: Any?): Party? = SnapshotMapper.party(state)?.also {
+        it.key = LanProtocol.keyOf(address, it.key ?: "")
+    }
+
+    private fun codeOf(party: Party): String = LanProtocol.codeOf(party.key!!)
+
+    /**
+     * @param code
+     * @param version version of the party the client has, the replica's by default; must hold the
+     * lock
+     * @return the message subscribing the party
+     * */
+    private fun subscribeMessage(code: String, version: Long? = replicas[code]?.version): String =
+        LanProtocol.encode(mapOf(OP to LanProtocol.SUBSCRIBE, CODE to code, VERSION to version))
+
+    // only stamped when measured, the clocks of different devices can't be compared
+    private fun sentNanos(): Long? = if (fanOutNanos != null) System.nanoTime() else null
+
+    private fun deliver(action: () -> Unit) {
+        callbackExecutor.execute { action() }
+    }
+}
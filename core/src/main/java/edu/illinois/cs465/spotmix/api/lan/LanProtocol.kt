@@ -0,0 +1,105 @@
+package edu.illinois.cs465.spotmix.api.lan
+
+import com.google.gson.Gson
+
+/**
+ * Messages between the LAN party server and its clients. Requests and replies are JSON objects sent
+ * as WebSocket text frames, with the operation in OP and the parties, attendees and tracks as the
+ * same value trees Firebase stores (see FirebaseTrees and SnapshotMapper).
+ * Operations sent by the clients mirror the PartyBackend, requests expecting a reply carry an ID
+ * the reply repeats. Subscribed parties are synced in binary frames (see SyncCodec): a SUBSCRIBE
+ * is answered with the deltas missed since the VERSION the client has, or with a snapshot if it
+ * has none or they are not kept anymore; after that every change is fanned out as deltas.
+ * */
+object LanProtocol {
+
+    const val DEFAULT_PORT = 8080
+    const val PATH = "/party"
+
+    // client -> server
+    const val CREATE = "create"
+    const val JOIN = "join"
+    const val CLOSE = "close"
+    const val REMOVE_ATTENDEE = "removeAttendee"
+    const val ADD_TRACK = "addTrack"
+    const val REMOVE_TRACK = "removeTrack"
+    // carries the position to move the track to in RANK
+    const val MOVE_TRACK = "moveTrack"
+    // carries whether to schedule by fair share in FAIR_SHARE
+    const val SET_FAIR_SHARE = "setFairShare"
+    const val PLAYING = "playing"
+    const val PAUSED = "paused"
+    const val UPVOTE = "upvote"
+    const val DOWNVOTE = "downvote"
+    // carry the uri of the current track the client expects in TRACK_URI
+    const val NEXT = "next"
+    const val PREVIOUS = "previous"
+    const val SUBSCRIBE = "subscribe"
+    const val UNSUBSCRIBE = "unsubscribe"
+
+    // server -> client
+    const val CREATED = "created"
+    const val JOINED = "joined"
+    const val ADDED = "added"
+    const val CLOSED = "closed"
+
+    // fields
+    const val OP = "op"
+    const val ID = "id"
+    // code of the party on the server
+    const val CODE = "code"
+    const val NAME = "name"
+    const val HOST = "host"
+    const val ACCESS_TOKEN = "accessToken"
+    const val ATTENDEE = "attendee"
+    const val TRACK = "track"
+    const val TRACK_URI = "uri"
+    const val QUEUE_TRACK = "queueTrack"
+    const val RANK = "rank"
+    const val FAIR_SHARE = "fairShare"
+    const val STATE = "state"
+    // version of the party in STATE, the client's version when subscribing
+    const val VERSION = "version"
+    // System.nanoTime() of the sender of a change, repeated in the resulting deltas
+    const val SENT = "sent"
+
+    private val gson = Gson()
+
+    /**
+     * @param message
+     * @return the JSON text of the message, null values are left out
+     * */
+    fun encode(message: Map<String, Any?>): String = gson.toJson(message)
+
+    /**
+     * @param text
+     * @return the message, numbers are Doubles; null if the text is not a JSON object
+     * */
+    fun decode(text: String): Map<*, *>? = try {
+        gson.fromJson(text, Map::class.java)
+    } catch (e: RuntimeException) {
+        null
+    }
+
+    /**
+     * Party keys of LAN parties are "host:port/code", so the key alone tells joining attendees,
+     * e.g. from the QR code, which server to connect to.
+     * @param address host and port of the server
+     * @param code
+     * @return the party key
+     * */
+    fun keyOf(address: String, code: String): String = "$address/$code"
+
+    /**
+     * @param partyKey
+     * @return host and port of the server, null if the key is not a LAN party key
+     * */
+    fun addressOf(partyKey: String): String? =
+        if (partyKey.contains('/')) partyKey.substringBeforeLast('/') else null
+
+    /**
+     * @param partyKey
+     * @return the code of the party on its server
+     * */
+    fun codeOf(partyKey: String): String = partyKey.substringAfterLast('/')
+}
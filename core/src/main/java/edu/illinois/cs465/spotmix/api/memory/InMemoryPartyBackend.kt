@@ -0,0 +1,347 @@
+package edu.illinois.cs465.spotmix.api.memory
+
+import edu.illinois.cs465.spotmix.api.PartyBackend
+import edu.illinois.cs465.spotmix.api.PartyBackend.*
+import edu.illinois.cs465.spotmix.api.SubscriptionTier
+import edu.illinois.cs465.spotmix.api.SubscriptionTiers
+import edu.illinois.cs465.spotmix.api.WriteQuotas
+import edu.illinois.cs465.spotmix.api.firebase.PayloadSize
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.FractionalIndex
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.memory.InMemoryPartyStore.Companion.copyOfAttendees
+import edu.illinois.cs465.spotmix.api.memory.InMemoryPartyStore.Companion.copyOfQueue
+import edu.illinois.cs465.spotmix.api.spotify.models.Track
+import edu.illinois.cs465.spotmix.api.spotify.models.User
+import java.util.*
+import java.util.concurrent.Executor
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * In-process PartyBackend, to test and benchmark party logic without Firebase.
+ * Writes are applied to the store right away and write the same parts of the party the Firebase
+ * implementation does, so concurrent writers overwrite each other the same way. Callbacks and
+ * notifications can be delayed to simulate the network, they are delivered in the order they
+ * were caused. Party listeners receive what the Firebase implementation would with the current
+ * SubscriptionTier.
+ * @param store the database, shared by the backends of all attendees of a party
+ * @param latencyMillis delay of callbacks and notifications
+ * @param jitterMillis maximum random delay added to the latency
+ * @param callbackExecutor delivers callbacks and notifications, e.g. by posting them to the main
+ * thread; runs them directly by default
+ * @param writeQuotas limit the additions and votes of each attendee
+ * */
+class InMemoryPartyBackend @JvmOverloads constructor(
+    private val store: InMemoryPartyStore = InMemoryPartyStore(),
+    private val latencyMillis: Long = 0,
+    private val jitterMillis: Long = 0,
+    private val callbackExecutor: Executor = Executor { it.run() },
+    private val writeQuotas: WriteQuotas<Attendee> = WriteQuotas()
+) : PartyBackend {
+
+    companion object {
+        // delays the deliveries of all backends with latency
+        private val scheduler: ScheduledExecutorService by lazy {
+            ScheduledThreadPoolExecutor(1) { runnable ->
+                Thread(runnable, "InMemoryPartyBackend").apply { isDaemon = true }
+            }
+        }
+    }
+
+    private val random = Random()
+
+    // delayed deliveries in the order they were caused, guarded by this
+    private val pending = ArrayDeque<() -> Unit>()
+
+    // store subscriptions by listener
+    private val partySubscriptions = HashMap<PartyListener, TieredSubscriber>()
+    private val attendeeSubscriptions = HashMap<AttendeeListener, InMemoryPartyStore.Subscriber>()
+
+    private val received = AtomicLong()
+
+    /**
+     * Estimated bytes of party state the party listeners received, as Firebase would send them.
+     * */
+    val receivedBytes: Long
+        get() = received.get()
+
+    override fun createParty(
+        partyName: String,
+        host: User,
+        accessToken: String,
+        callback: CreateCallback
+    ) {
+        val party = Party(partyName)
+        // add accessToken to party so attendees can access the Spotify Api
+        party.accessToken = accessToken
+        // add host as attendee
+        val attendee = Attendee(host.display_name, admin = true)
+        party.attendees.add(attendee)
+        party.key = store.create(party)
+        deliver { callback.onPartyCreated(party, attendee) }
+    }
+
+    override fun joinParty(partyCode: String, attendeeName: String, callback: JoinCallback) {
+        val party = store.read(partyCode)
+        if (party == null) {
+            deliver { callback.onPartyJoined(null, null) }
+            return
+        }
+        // add self as attendee to party
+        val attendee = Attendee(attendeeName)
+        party.attendees.add(attendee)
+        writeAttendees(party)
+        deliver { callback.onPartyJoined(party, attendee) }
+    }
+
+    override fun closeParty(party: Party) {
+        store.delete(party.key!!)
+    }
+
+    override fun removeAttendee(party: Party, attendee: Attendee) {
+        party.attendees.remove(attendee)
+        writeAttendees(party)
+    }
+
+    override fun addTrackToQueue(
+        party: Party,
+        track: Track,
+        attendee: Attendee,
+        callback: AddToQueueCallback
+    ): Boolean {
+        if (!writeQuotas.tryAcquire(attendee)) {
+            return false
+        }
+        val queueTrack = QueueTrack(track, addedBy = attendee.copy())
+        party.addToQueue(queueTrack)
+        val written = writeQueue(party)
+        deliver { callback.onAddedTrackToQueue(if (written) queueTrack else null) }
+        return true
+    }
+
+    override fun removeTrackFromQueue(party: Party, trackUri: String) {
+        val position = party.positionInQueue(trackUri)
+        if (position != -1) {
+            party.removeFromQueue(position)
+            writeQueue(party)
+        }
+    }
+
+    override fun moveTrackInQueue(party: Party, trackUri: String, rank: Int) {
+        val position = party.positionInQueue(trackUri)
+        if (position != -1 && party.reorder(position, rank) != -1) {
+            writeQueue(party)
+        }
+    }
+
+    override fun rebalanceQueue(party: Party) {
+        if (FractionalIndex.needsRebalance(party.queue)) {
+            party.rebalance()
+            writeQueue(party)
+        }
+    }
+
+    override fun setFairShare(party: Party, fairShare: Boolean) {
+        party.fairShare = fairShare
+        store.update(party.key!!) { it.fairShare = fairShare }
+    }
+
+    override fun playing(party: Party) {
+        party.playing = true
+        writePlaying(party)
+    }
+
+    override fun paused(party: Party) {
+        party.playing = false
+        writePlaying(party)
+    }
+
+    override fun skipToNext(party: Party) {
+        val current = party.currentTrack?.track?.uri
+        party.advance()
+        writeIfCurrent(party, current) { it.advance() }
+    }
+
+    override fun skipToPrevious(party: Party) {
+        val current = party.currentTrack?.track?.uri
+        party.previous()
+        writeIfCurrent(party, current) { it.previous() }
+    }
+
+    override fun upvoteTrack(party: Party, track: QueueTrack, attendee: Attendee): Boolean {
+        if (!writeQuotas.tryAcquire(attendee)) {
+            return false
+        }
+        // upvote the track; moves it up in the queue
+        party.upvote(track, attendee)
+        writeQueue(party)
+        return true
+    }
+
+    override fun downvoteTrack(party: Party, track: QueueTrack, attendee: Attendee): Boolean {
+        if (!writeQuotas.tryAcquire(attendee)) {
+            return false
+        }
+        party.downvote(track, attendee)
+        writeQueue(party)
+        return true
+    }
+
+    override fun addPartyListener(party: Party, listener: PartyListener) {
+        val subscriber = TieredSubscriber(party, listener)
+        synchronized(partySubscriptions) { partySubscriptions[listener] = subscriber }
+        SubscriptionTiers.addListener(subscriber)
+        store.subscribe(party.key!!, subscriber)
+    }
+
+    override fun removePartyListener(party: Party, listener: PartyListener) {
+        synchronized(partySubscriptions) { partySubscriptions.remove(listener) }?.let {
+            SubscriptionTiers.removeListener(it)
+            store.unsubscribe(party.key!!, it)
+        }
+    }
+
+    override fun addAttendeeListener(party: Party, listener: AttendeeListener) {
+        val subscriber = object : InMemoryPartyStore.Subscriber {
+            // last delivered list, to only notify when the attendees changed
+            private var attendees: List<Attendee>? = null
+
+            override fun onPartyChanged(party: Party) {
+                val changed = synchronized(this) {
+                    (party.attendees != attendees).also { attendees = party.attendees }
+                }
+                if (changed) {
+                    deliver { listener.onAttendeeListChanged(party.attendees) }
+                }
+            }
+        }
+        synchronized(attendeeSubscriptions) { attendeeSubscriptions[listener] = subscriber }
+        store.subscribe(party.key!!, subscriber)
+    }
+
+    override fun removeAttendeeListener(party: Party, listener: AttendeeListener) {
+        synchronized(attendeeSubscriptions) { attendeeSubscriptions.remove(listener) }
+            ?.let { store.unsubscribe(party.key!!, it) }
+    }
+
+    private fun writeAttendees(party: Party): Boolean {
+        val attendees = copyOfAttendees(party.attendees)
+        return store.update(party.key!!) {
+            it.attendees.clear()
+            it.attendees.addAll(attendees)
+        }
+    }
+
+    private fun writeQueue(party: Party): Boolean {
+        val queue = copyOfQueue(party.queue)
+        return store.update(party.key!!) {
+            it.queue.clear()
+            it.queue.addAll(queue)
+        }
+    }
+
+    /**
+     * Apply a change to the stored party in one update, like a Firebase transaction.
+     * @param party
+     * @param current uri of the current track the change expects, null if none
+     * @param change
+     * @return false if the party doesn't exist
+     * */
+    private fun writeIfCurrent(party: Party, current: String?, change: (Party) -> Unit): Boolean =
+        store.update(party.key!!) {
+            if (it.currentTrack?.track?.uri == current) {
+                change(it)
+            }
+        }
+
+    private fun writePlaying(party: Party): Boolean {
+        val playing = party.playing
+        return store.update(party.key!!) { it.playing = playing }
+    }
+
+    /**
+     * Passes the changes of a party to a listener the way the Firebase implementation subscribes
+     * with the current tier: the whole party in the foreground, changes of the current track and
+     * playing in the background applied to the last whole party, nothing when idle.
+     * @param party the party the listener was added with, the base for background changes
+     * @param listener
+     * */
+    private inner class TieredSubscriber(
+        party: Party,
+        private val listener: PartyListener
+    ) : InMemoryPartyStore.Subscriber, SubscriptionTiers.Listener {
+
+        private val key = party.key!!
+
+        // last party delivered, guarded by this
+        private var last = party
+
+        override fun onPartyChanged(party: Party) {
+            val delivered = synchronized(this) { receive(party, SubscriptionTiers.tier) }
+            if (delivered != null) {
+                deliver { listener.onPartyChanged(delivered) }
+            }
+        }
+
+        override fun onTierChanged(tier: SubscriptionTier) {
+            // a new subscription gets the current state, like a new Firebase listener
+            store.read(key)?.let { onPartyChanged(it) }
+        }
+
+        /**
+         * @param party the stored party
+         * @param tier
+         * @return the party to deliver, null if the tier doesn't receive the change
+         * */
+        private fun receive(party: Party, tier: SubscriptionTier): Party? {
+            when (tier) {
+                SubscriptionTier.FOREGROUND -> {
+                    received.addAndGet(PayloadSize.party(party).toLong())
+                    last = party
+                }
+                SubscriptionTier.BACKGROUND -> {
+                    val trackChanged = party.currentTrack != last.currentTrack
+                    val playingChanged = party.playing != last.playing
+                    if (!trackChanged && !playingChanged) {
+                        return null
+                    }
+                    if (trackChanged) {
+                        val size = party.currentTrack?.let { PayloadSize.queueTrack(it) } ?: 0
+                        received.addAndGet(size.toLong())
+                    }
+                    if (playingChanged) {
+                        received.addAndGet(PayloadSize.boolean(party.playing).toLong())
+                    }
+                    last = last.copy(currentTrack = party.currentTrack, playing = party.playing)
+                }
+                SubscriptionTier.IDLE -> return null
+            }
+            return last
+        }
+    }
+
+    /**
+     * Deliver a callback or notification through the callback executor, after the latency.
+     * @param action
+     * */
+    private fun deliver(action: () -> Unit) {
+        if (latencyMillis == 0L && jitterMillis == 0L) {
+            callbackExecutor.execute { action() }
+            return
+        }
+        val delayMillis =
+            latencyMillis + if (jitterMillis > 0) (random.nextDouble() * jitterMillis).toLong() else 0L
+        synchronized(this) {
+            pending.add(action)
+        }
+        // every scheduled task runs the oldest pending delivery, so jitter can't reorder them
+        scheduler.schedule({
+            val next = synchronized(this) { pending.poll() }
+            callbackExecutor.execute { next() }
+        }, delayMillis, TimeUnit.MILLISECONDS)
+    }
+}
@@ -0,0 +1,135 @@
+package edu.illinois.cs465.spotmix.api.memory
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+
+/**
+ * In-process replacement of the party database. Backends sharing a store see the same parties,
+ * like attendees sharing the Firebase database. Stored parties are never handed out, readers and
+ * subscribers get deep copies like they would get fresh snapshots from Firebase. Thread safe.
+ * */
+class InMemoryPartyStore {
+
+    /**
+     * Subscriber to the changes of a party.
+     * */
+    interface Subscriber {
+
+        /**
+         * Called on the writing thread with a copy of the changed party.
+         * @param party
+         * */
+        fun onPartyChanged(party: Party)
+    }
+
+    companion object {
+
+        /**
+         * @param party
+         * @return deep copy of the party, the immutable tracks are shared
+         * */
+        @JvmStatic
+        fun copyOf(party: Party): Party = Party(
+            party.name,
+            party.key,
+            copyOfQueue(party.queue),
+            copyOfAttendees(party.attendees),
+            party.accessToken,
+            party.playing,
+            party.currentTrack?.let { copyOf(it) },
+            copyOfQueue(party.history),
+            party.fairShare
+        )
+
+        @JvmStatic
+        fun copyOfQueue(queue: List<QueueTrack>): MutableList<QueueTrack> =
+            queue.mapTo(ArrayList(queue.size)) { copyOf(it) }
+
+        @JvmStatic
+        fun copyOfAttendees(attendees: List<Attendee>): MutableList<Attendee> =
+            attendees.mapTo(ArrayList(attendees.size)) { it.copy() }
+
+        private fun copyOf(queueTrack: QueueTrack): QueueTrack = QueueTrack(
+            queueTrack.track,
+            copyOfAttendees(queueTrack.upvotes),
+            copyOfAttendees(queueTrack.downvotes),
+            queueTrack.position,
+            queueTrack.addedBy?.copy()
+        )
+    }
+
+    private val parties = HashMap<String, Party>()
+
+    private val subscribers = HashMap<String, MutableList<Subscriber>>()
+
+    private var nextKey = 0
+
+    /**
+     * Store a new party under a new key.
+     * @param party
+     * @return key of the party
+     * */
+    @Synchronized
+    fun create(party: Party): String {
+        val key = "party-${nextKey++}"
+        parties[key] = copyOf(party).also { it.key = key }
+        return key
+    }
+
+    /**
+     * @param key
+     * @return copy of the party, null if there is none with the key
+     * */
+    @Synchronized
+    fun read(key: String): Party? = parties[key]?.let { copyOf(it) }
+
+    /**
+     * Change a party and notify its subscribers.
+     * @param key
+     * @param update applied to the stored party; mustn't keep references to the party
+     * @return false if there is no party with the key
+     * */
+    fun update(key: String, update: (Party) -> Unit): Boolean {
+        val notifications = synchronized(this) {
+            val party = parties[key] ?: return false
+            update(party)
+            subscribers[key].orEmpty().map { it to copyOf(party) }
+        }
+        // outside the lock, subscribers may write again
+        notifications.forEach { (subscriber, party) -> subscriber.onPartyChanged(party) }
+        return true
+    }
+
+    /**
+     * Delete a party, its subscribers aren't notified.
+     * @param key
+     * */
+    @Synchronized
+    fun delete(key: String) {
+        parties.remove(key)
+        subscribers.remove(key)
+    }
+
+    /**
+     * Subscribe to a party, the subscriber is called with the current state right away.
+     * @param key
+     * @param subscriber
+     * */
+    fun subscribe(key: String, subscriber: Subscriber) {
+        val party = synchronized(this) {
+            subscribers.getOrPut(key) { mutableListOf() }.add(subscriber)
+            parties[key]?.let { copyOf(it) }
+        }
+        party?.let { subscriber.onPartyChanged(it) }
+    }
+
+    /**
+     * @param key
+     * @param subscriber
+     * */
+    @Synchronized
+    fun unsubscribe(key: String, subscriber: Subscriber) {
+        subscribers[key]?.remove(subscriber)
+    }
+}
@@ -49,4 +49,24 @@ data class Album(
         "",
         ""
     )
-}
\ No newline at end of file
+
+    /**
+     * Helper function to pick the smallest album cover that is at least as large as the view
+     * displaying it. Falls back to the largest cover when none is large enough.
+     * @param size size of the target view in pixels
+     * @return url of the cover, null if the album has no covers
+     * */
+    fun getImageUrl(size: Int): String? {
+        var best: Image? = null
+        var largest: Image? = null
+        for (image in images) {
+            if (largest == null || image.width > largest.width) {
+                largest = image
+            }
+            if (image.width >= size && image.height >= size && (best == null || image.width < best.width)) {
+                best = image
+            }
+        }
+        return (best ?: largest)?.url
+    }
+}
@@ -0,0 +1,33 @@
+package edu.illinois.cs465.spotmix.metrics
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Lock-free counter, safe to increment from any thread.
+ * @param name
+ * */
+class Counter internal constructor(val name: String) {
+
+    private val value = AtomicLong()
+
+    /**
+     * Current value of the counter.
+     * */
+    val count: Long
+        get() = value.get()
+
+    fun increment() {
+        value.incrementAndGet()
+    }
+
+    /**
+     * @param delta
+     * */
+    fun add(delta: Long) {
+        value.addAndGet(delta)
+    }
+
+    internal fun reset() {
+        value.set(0)
+    }
+}
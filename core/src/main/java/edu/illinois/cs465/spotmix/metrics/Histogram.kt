@@ -0,0 +1,138 @@
+package edu.illinois.cs465.spotmix.metrics
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock-free histogram of non-negative values, e.g. durations in nanoseconds or sizes in bytes.
+ * Like an HDR histogram, values are counted in buckets whose width grows with the magnitude of the
+ * value: every power of two is split into SUB_BUCKETS linear buckets. Recording is constant time
+ * and allocation free, percentiles are accurate to 1/SUB_BUCKETS of the value.
+ * @param name
+ * */
+class Histogram internal constructor(val name: String) {
+
+    companion object {
+        // values below are counted exactly, above they are split into this many buckets per power of two
+        private const val SUB_BUCKET_BITS = 4
+        private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+        // one bucket per value below SUB_BUCKETS, then SUB_BUCKETS per remaining power of two
+        private const val BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS
+
+        /**
+         * @param value non-negative
+         * @return index of the bucket counting the value
+         * */
+        internal fun bucketOf(value: Long): Int {
+            if (value < SUB_BUCKETS) {
+                return value.toInt()
+            }
+            // position of the highest set bit, at least SUB_BUCKET_BITS
+            val magnitude = 63 - java.lang.Long.numberOfLeadingZeros(value)
+            val shift = magnitude - SUB_BUCKET_BITS
+            // the SUB_BUCKET_BITS bits below the highest one
+            val subBucket = (value ushr shift).toInt() - SUB_BUCKETS
+            return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket
+        }
+
+        /**
+         * @param bucket
+         * @return largest value counted by the bucket
+         * */
+        internal fun upperBoundOf(bucket: Int): Long {
+            if (bucket < SUB_BUCKETS) {
+                return bucket.toLong()
+            }
+            val shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS
+            val subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS
+            val lowerBound = (SUB_BUCKETS + subBucket).toLong() shl shift
+            return lowerBound + (1L shl shift) - 1
+        }
+    }
+
+    private val buckets = AtomicLongArray(BUCKETS)
+
+    private val totalCount = AtomicLong()
+
+    private val totalSum = AtomicLong()
+
+    private val maxValue = AtomicLong()
+
+    /**
+     * Number of recorded values.
+     * */
+    val count: Long
+        get() = totalCount.get()
+
+    /**
+     * Sum of the recorded values.
+     * */
+    val sum: Long
+        get() = totalSum.get()
+
+    /**
+     * Largest recorded value, 0 if none.
+     * */
+    val max: Long
+        get() = maxValue.get()
+
+    /**
+     * Mean of the recorded values, 0 if none.
+     * */
+    val mean: Double
+        get() = count.let { if (it == 0L) 0.0 else sum.toDouble() / it }
+
+    /**
+     * Record a value, negative values are recorded as 0.
+     * @param value
+     * */
+    fun record(value: Long) {
+        val v = if (value < 0) 0 else value
+        buckets.incrementAndGet(bucketOf(v))
+        totalCount.incrementAndGet()
+        totalSum.addAndGet(v)
+        var max = maxValue.get()
+        while (v > max && !maxValue.compareAndSet(max, v)) {
+            max = maxValue.get()
+        }
+    }
+
+    /**
+     * Record the time passed since a start time.
+     * @param startNanos start time from System.nanoTime()
+     * */
+    fun recordSince(startNanos: Long) {
+        record(System.nanoTime() - startNanos)
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return value below which the given percentage of recorded values falls; 0 if none
+     * */
+    fun percentile(percentile: Double): Long {
+        val total = count
+        if (total == 0L) {
+            return 0
+        }
+        // rank of the value to find, at least the first one
+        val rank = maxOf(1L, Math.ceil(percentile / 100.0 * total).toLong())
+        var seen = 0L
+        for (bucket in 0 until BUCKETS) {
+            seen += buckets.get(bucket)
+            if (seen >= rank) {
+                // the bound may exceed the largest value recorded in the bucket
+                return minOf(upperBoundOf(bucket), max)
+            }
+        }
+        return max
+    }
+
+    internal fun reset() {
+        for (bucket in 0 until BUCKETS) {
+            buckets.set(bucket, 0)
+        }
+        totalCount.set(0)
+        totalSum.set(0)
+        maxValue.set(0)
+    }
+}
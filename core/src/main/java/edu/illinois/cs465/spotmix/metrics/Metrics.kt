@@ -0,0 +1,70 @@
+package edu.illinois.cs465.spotmix.metrics
+
+import java.io.StringWriter
+import java.io.Writer
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Process wide registry of counters and histograms.
+ * Looking up a metric by name goes through a map, so hot paths should keep the returned instance
+ * in a field and only call increment() or record() on it.
+ * */
+object Metrics {
+
+    private val counters = ConcurrentHashMap<String, Counter>()
+
+    private val histograms = ConcurrentHashMap<String, Histogram>()
+
+    /**
+     * Get or create a counter.
+     * @param name
+     * */
+    @JvmStatic
+    fun counter(name: String): Counter =
+        counters[name] ?: Counter(name).let { counters.putIfAbsent(name, it) ?: it }
+
+    /**
+     * Get or create a histogram.
+     * @param name
+     * */
+    @JvmStatic
+    fun histogram(name: String): Histogram =
+        histograms[name] ?: Histogram(name).let { histograms.putIfAbsent(name, it) ?: it }
+
+    /**
+     * Reset all metrics to zero, the instances stay registered.
+     * */
+    @JvmStatic
+    fun reset() {
+        counters.values.forEach { it.reset() }
+        histograms.values.forEach { it.reset() }
+    }
+
+    /**
+     * Write a plain text report of all metrics, sorted by name.
+     * Values are read one after another while they may still change, so the report is not an
+     * atomic snapshot.
+     * @param writer
+     * */
+    @JvmStatic
+    fun dump(writer: Writer) {
+        counters.values.sortedBy { it.name }.forEach {
+            writer.write("${it.name} count=${it.count}\n")
+        }
+        histograms.values.sortedBy { it.name }.forEach {
+            writer.write(
+                "${it.name} count=${it.count} mean=${"%.1f".format(Locale.US, it.mean)}" +
+                        " p50=${it.percentile(50.0)} p90=${it.percentile(90.0)}" +
+                        " p99=${it.percentile(99.0)} max=${it.max}\n"
+            )
+        }
+        writer.flush()
+    }
+
+    /**
+     * @return plain text report of all metrics
+     * */
+    @JvmStatic
+    fun report(): String = StringWriter().also { dump(it) }.toString()
+}
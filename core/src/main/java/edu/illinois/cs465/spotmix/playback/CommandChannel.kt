@@ -0,0 +1,77 @@
+package edu.illinois.cs465.spotmix.playback
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+
+/**
+ * Append-only channel carrying playback commands from the admins to the host of a party, apart
+ * from the party state, so the host gets them without receiving the whole party.
+ * Commands of an issuer are executed in the order they were sent; the host acknowledges the
+ * sequence number of the last one it executed, which covers all earlier ones of the issuer, and
+ * removes the executed commands.
+ * */
+interface CommandChannel {
+
+    /**
+     * Executes the commands, implemented by the host.
+     * */
+    interface Consumer {
+
+        /**
+         * Called for every command, once. The command is acknowledged after this returns.
+         * @param command
+         * */
+        fun onCommand(command: PlaybackCommand)
+    }
+
+    /**
+     * Tells the issuer when a command took effect.
+     * */
+    interface AckCallback {
+
+        /**
+         * The host executed the command.
+         * @param command
+         * @param latencyNanos from sending the command until its acknowledgement arrived
+         * */
+        fun onAcknowledged(command: PlaybackCommand, latencyNanos: Long)
+
+        /**
+         * The command wasn't acknowledged in time, e.g. because the host is offline.
+         * @param command
+         * */
+        fun onTimedOut(command: PlaybackCommand)
+    }
+
+    /**
+     * Send a command to the host of the party.
+     * @param party
+     * @param type
+     * @param trackUri see PlaybackCommand
+     * @param positionMs see PlaybackCommand
+     * @param rank see PlaybackCommand
+     * @param callback
+     * @return the sent command
+     * */
+    fun send(
+        party: Party,
+        type: PlaybackCommand.Type,
+        trackUri: String?,
+        positionMs: Long,
+        rank: Int,
+        callback: AckCallback?
+    ): PlaybackCommand
+
+    /**
+     * Host only: execute the commands sent to the party from now on. Commands sent while no host
+     * consumed them are dropped, they would be out of date.
+     * @param party
+     * @param consumer
+     * */
+    fun consume(party: Party, consumer: Consumer)
+
+    /**
+     * Stop consuming the commands of the party and drop pending acknowledgements.
+     * @param party
+     * */
+    fun close(party: Party)
+}
@@ -0,0 +1,31 @@
+package edu.illinois.cs465.spotmix.playback
+
+/**
+ * Playback control sent by an admin to the host of the party, which executes it.
+ * @param type
+ * @param issuer id of the sending device, the host acknowledges per issuer
+ * @param seq sequence number of the command, increasing per issuer starting at 1
+ * @param trackUri the current track skips expect, so a late or repeated skip isn't applied twice;
+ * the track to remove or move
+ * @param positionMs position to seek to
+ * @param rank position in the queue to move the track to
+ * */
+data class PlaybackCommand @JvmOverloads constructor(
+    val type: Type,
+    val issuer: String,
+    val seq: Long,
+    val trackUri: String? = null,
+    val positionMs: Long = 0,
+    val rank: Int = -1
+) {
+
+    enum class Type {
+        PLAY,
+        PAUSE,
+        NEXT,
+        PREVIOUS,
+        SEEK,
+        REMOVE_TRACK,
+        MOVE_TRACK
+    }
+}
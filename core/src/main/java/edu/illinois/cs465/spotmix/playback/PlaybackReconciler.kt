@@ -0,0 +1,214 @@
+package edu.illinois.cs465.spotmix.playback
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Drives the player towards the playback state the party asks for: the current track, playing or
+ * paused. The desired state is compared with the state the player reported last, and a command is
+ * only issued when they diverge, once per divergence: until the player reports the commanded
+ * state the reports in between are taken as transitions, e.g. the previous track still reported
+ * after play() was called. Changes of the desired state that the player already matches issue
+ * nothing, so votes and added tracks don't reach the player.
+ * Changes caused by own commands are not written back to the party either, only the ones made on
+ * the player itself, e.g. pausing from its notification, and tracks that finished.
+ * All methods have to be called on the same thread, the main thread in the app.
+ * @param player
+ * @param listener notified of the changes to write to the party
+ * @param clock monotonic time in nanoseconds
+ * */
+class PlaybackReconciler @JvmOverloads constructor(
+    private val player: Player,
+    private val listener: Listener,
+    private val clock: () -> Long = System::nanoTime
+) {
+
+    companion object {
+        // a command the player didn't confirm within this time is issued again
+        private val COMMAND_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(3)
+    }
+
+    /**
+     * Commands sent to the player, the Spotify App Remote in the app.
+     * */
+    interface Player {
+
+        /**
+         * Play a track from its start.
+         * @param uri
+         * */
+        fun play(uri: String)
+
+        fun resume()
+
+        fun pause()
+
+        /**
+         * Seek within the track being played.
+         * @param positionMs
+         * */
+        fun seekTo(positionMs: Long)
+    }
+
+    /**
+     * Changes made on the player, to be written to the party.
+     * */
+    interface Listener {
+
+        /**
+         * The current track finished, the player moved on to another one.
+         * Expected to advance the queue of the party and pass the new current track to desire().
+         * */
+        fun onTrackFinished()
+
+        /**
+         * The player was paused or resumed by something else than the reconciler.
+         * @param playing
+         * */
+        fun onPlayingChanged(playing: Boolean)
+    }
+
+    private var desiredUri: String? = null
+    private var desiredPlaying = false
+
+    // last state reported by the player, unknown until the first report after a (re)connect
+    private var reported = false
+    private var actualUri: String? = null
+    private var actualPaused = true
+
+    // state the last command drives the player to, while it wasn't reported yet
+    private var inFlight = false
+    private var expectedUri: String? = null
+    private var expectedPaused = false
+    private var commandNanos = 0L
+
+    // whether the player reported the desired track since it became desired
+    private var synced = false
+
+    // the track finished, nothing is commanded until the party advanced
+    private var awaitingNext = false
+
+    /**
+     * Number of commands sent to the player.
+     * */
+    var commands: Long = 0
+        private set
+
+    /**
+     * Number of changes passed to the listener to be written to the party.
+     * */
+    var writes: Long = 0
+        private set
+
+    /**
+     * Set the playback state of the party.
+     * @param trackUri uri of the current track, null if none
+     * @param playing
+     * */
+    fun desire(trackUri: String?, playing: Boolean) {
+        if (trackUri != desiredUri) {
+            synced = false
+            awaitingNext = false
+        }
+        desiredUri = trackUri
+        desiredPlaying = playing
+        reconcile()
+    }
+
+    /**
+     * Take a state reported by the player.
+     * @param trackUri uri of the track the player is at, null if none
+     * @param paused
+     * */
+    fun observe(trackUri: String?, paused: Boolean) {
+        val known = reported
+        reported = true
+        actualUri = trackUri
+        actualPaused = paused
+        if (inFlight) {
+            if (trackUri != expectedUri || paused != expectedPaused) {
+                if (clock() - commandNanos < COMMAND_TIMEOUT_NANOS) {
+                    // the player is still on its way
+                    return
+                }
+                // command was lost, it's issued again below
+            }
+            inFlight = false
+        } else if (known && synced) {
+            if (trackUri != desiredUri) {
+                synced = false
+                awaitingNext = true
+                writes++
+                listener.onTrackFinished()
+                return
+            }
+            if (paused == desiredPlaying) {
+                desiredPlaying = !paused
+                writes++
+                listener.onPlayingChanged(desiredPlaying)
+                return
+            }
+        }
+        if (trackUri == desiredUri && paused != desiredPlaying) {
+            synced = true
+        }
+        reconcile()
+    }
+
+    /**
+     * Seek within the current track. Positions aren't part of the reconciled state, so a seek is
+     * passed on whenever the player is at the desired track.
+     * @param positionMs
+     * */
+    fun seek(positionMs: Long) {
+        if (reported && desiredUri != null && actualUri == desiredUri) {
+            commands++
+            player.seekTo(positionMs)
+        }
+    }
+
+    /**
+     * Forget the state of the player, e.g. after the connection to it was lost. Nothing is
+     * commanded until it reports its state again.
+     * */
+    fun reset() {
+        reported = false
+        inFlight = false
+        synced = false
+    }
+
+    private fun reconcile() {
+        if (!reported || inFlight || awaitingNext) {
+            return
+        }
+        val uri = desiredUri
+        when {
+            uri == null || (!desiredPlaying && actualUri != uri) -> {
+                // the desired track is started once the party plays
+                if (!actualPaused) {
+                    command(actualUri, true)
+                    player.pause()
+                }
+            }
+            actualUri != uri -> {
+                command(uri, false)
+                player.play(uri)
+            }
+            desiredPlaying && actualPaused -> {
+                command(uri, false)
+                player.resume()
+            }
+            !desiredPlaying && !actualPaused -> {
+                command(uri, true)
+                player.pause()
+            }
+        }
+    }
+
+    private fun command(uri: String?, paused: Boolean) {
+        inFlight = true
+        expectedUri = uri
+        expectedPaused = paused
+        commandNanos = clock()
+        commands++
+    }
+}
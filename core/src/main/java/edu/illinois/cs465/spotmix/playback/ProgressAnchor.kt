@@ -0,0 +1,25 @@
+package edu.illinois.cs465.spotmix.playback
+
+/**
+ * Playback progress published by the host: the position of a track at a point in server time.
+ * Clients extrapolate the current position from it, so it only has to be published again when
+ * the playback jumps, i.e. on play, pause, seek and track changes.
+ * @param trackUri
+ * @param positionMs position at the timestamp
+ * @param timestampMs server time the position was taken at
+ * @param playing whether the position advances after the timestamp
+ * */
+data class ProgressAnchor(
+    val trackUri: String,
+    val positionMs: Long,
+    val timestampMs: Long,
+    val playing: Boolean
+) {
+
+    /**
+     * @param serverTimeMs
+     * @return the position at the server time, never before the anchored one
+     * */
+    fun positionAt(serverTimeMs: Long): Long =
+        if (playing) positionMs + maxOf(0, serverTimeMs - timestampMs) else positionMs
+}
@@ -0,0 +1,47 @@
+package edu.illinois.cs465.spotmix.playback
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+
+/**
+ * Shares the ProgressAnchor of a party from the host with all attendees, apart from the party
+ * state so the rare anchor writes don't notify the party listeners.
+ * */
+interface ProgressChannel {
+
+    /**
+     * Interface for receiving the anchors.
+     * */
+    interface Listener {
+
+        /**
+         * Called when the host published a new anchor.
+         * @param anchor null if none was published yet
+         * */
+        fun onProgress(anchor: ProgressAnchor?)
+    }
+
+    /**
+     * @return the current time of the server the anchors are timed with, estimated locally
+     * */
+    fun serverTimeMillis(): Long
+
+    /**
+     * Host only: publish a new anchor.
+     * @param party
+     * @param anchor
+     * */
+    fun publish(party: Party, anchor: ProgressAnchor)
+
+    /**
+     * Get notified of the anchors of the party, starting with the current one.
+     * @param party
+     * @param listener
+     * */
+    fun listen(party: Party, listener: Listener)
+
+    /**
+     * Stop listening to the anchors of the party.
+     * @param party
+     * */
+    fun close(party: Party)
+}
@@ -0,0 +1,59 @@
+package edu.illinois.cs465.spotmix.playback
+
+import kotlin.math.abs
+
+/**
+ * Decides on the host which player states need a new ProgressAnchor: a state the last anchor
+ * still predicts, within a tolerance for the jitter of reported positions, publishes nothing.
+ * @param toleranceMs
+ * */
+class ProgressPublisher @JvmOverloads constructor(
+    private val toleranceMs: Long = DEFAULT_TOLERANCE_MS
+) {
+
+    companion object {
+        // jumps shorter than this aren't seeks, but the delay of a player state
+        const val DEFAULT_TOLERANCE_MS = 1000L
+    }
+
+    /**
+     * The last published anchor, null if none yet.
+     * */
+    var anchor: ProgressAnchor? = null
+        private set
+
+    /**
+     * Number of anchors published.
+     * */
+    var published: Long = 0
+        private set
+
+    /**
+     * Take a state reported by the player.
+     * @param trackUri null if the player has no track
+     * @param positionMs
+     * @param paused
+     * @param serverTimeMs the server time the state was taken at
+     * @return the anchor to publish, null if the last one still holds
+     * */
+    fun onPlayerState(
+        trackUri: String?,
+        positionMs: Long,
+        paused: Boolean,
+        serverTimeMs: Long
+    ): ProgressAnchor? {
+        if (trackUri == null) {
+            return null
+        }
+        val last = anchor
+        if (last != null && last.trackUri == trackUri && last.playing == !paused &&
+            abs(last.positionAt(serverTimeMs) - positionMs) <= toleranceMs
+        ) {
+            return null
+        }
+        return ProgressAnchor(trackUri, positionMs, serverTimeMs, !paused).also {
+            anchor = it
+            published++
+        }
+    }
+}
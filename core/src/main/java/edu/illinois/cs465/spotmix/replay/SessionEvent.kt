@@ -0,0 +1,29 @@
+package edu.illinois.cs465.spotmix.replay
+
+/**
+ * A timestamped event of a recorded party session.
+ * Values are raw trees as Firebase returns them: maps, lists, strings, longs, doubles, booleans
+ * and null. Player states are recorded as trees of the same shape.
+ * @param timeMillis time since the start of the recording
+ * @param type one of the type constants
+ * @param key previous child name of child events; null for the other types
+ * @param value
+ * */
+class SessionEvent(val timeMillis: Long, val type: Int, val key: String?, val value: Any?) {
+
+    companion object {
+        // value of the whole party, recorded before the party was stored in partitions
+        const val PARTY_VALUE = 0
+        // child events of the attendee list
+        const val ATTENDEE_ADDED = 1
+        const val ATTENDEE_CHANGED = 2
+        const val ATTENDEE_REMOVED = 3
+        // player state of the Spotify App Remote
+        const val PLAYER_STATE = 4
+        // values of the queue and playback partitions of a party
+        const val QUEUE_VALUE = 5
+        const val PLAYBACK_VALUE = 6
+    }
+
+    override fun toString(): String = "SessionEvent(timeMillis=$timeMillis, type=$type, key=$key)"
+}
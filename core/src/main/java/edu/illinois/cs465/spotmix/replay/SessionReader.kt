@@ -0,0 +1,111 @@
+package edu.illinois.cs465.spotmix.replay
+
+import edu.illinois.cs465.spotmix.replay.SessionWriter.Companion.MAGIC
+import edu.illinois.cs465.spotmix.replay.SessionWriter.Companion.TAG_DOUBLE
+import edu.illinois.cs465.spotmix.replay.SessionWriter.Companion.TAG_FALSE
+import edu.illinois.cs465.spotmix.replay.SessionWriter.Companion.TAG_LIST
+import edu.illinois.cs465.spotmix.replay.SessionWriter.Companion.TAG_LONG
+import edu.illinois.cs465.spotmix.replay.SessionWriter.Companion.TAG_MAP
+import edu.illinois.cs465.spotmix.replay.SessionWriter.Companion.TAG_NULL
+import edu.illinois.cs465.spotmix.replay.SessionWriter.Companion.TAG_STRING
+import edu.illinois.cs465.spotmix.replay.SessionWriter.Companion.TAG_STRING_REF
+import edu.illinois.cs465.spotmix.replay.SessionWriter.Companion.TAG_TRUE
+import edu.illinois.cs465.spotmix.replay.SessionWriter.Companion.VERSION
+import java.io.*
+
+/**
+ * Reads session events written by SessionWriter. Not thread safe.
+ * @param input
+ * @throws IOException if the input is not a recorded session
+ * */
+class SessionReader(input: InputStream) : Closeable {
+
+    private val inp = DataInputStream(BufferedInputStream(input))
+
+    // strings in the order they were first written
+    private val strings = ArrayList<String>()
+
+    private var lastTime = 0L
+
+    /**
+     * Wall clock time of the start of the recording, in milliseconds.
+     * */
+    val startTime: Long
+
+    init {
+        if (inp.readInt() != MAGIC) {
+            throw IOException("not a recorded session")
+        }
+        val version = inp.readByte().toInt()
+        if (version != VERSION) {
+            throw IOException("unsupported session version $version")
+        }
+        startTime = inp.readLong()
+    }
+
+    /**
+     * @return the next event, null at the end of the recording
+     * */
+    fun read(): SessionEvent? {
+        val type = inp.read()
+        if (type == -1) {
+            return null
+        }
+        // types fit into a single varint byte
+        val time = lastTime + readVarint()
+        lastTime = time
+        val key = readValue() as String?
+        return SessionEvent(time, type, key, readValue())
+    }
+
+    override fun close() {
+        inp.close()
+    }
+
+    private fun readValue(): Any? {
+        return when (val tag = inp.readUnsignedByte()) {
+            TAG_NULL -> null
+            TAG_TRUE -> true
+            TAG_FALSE -> false
+            TAG_LONG -> unZigZag(readVarint())
+            TAG_DOUBLE -> inp.readDouble()
+            TAG_STRING, TAG_STRING_REF -> readString(tag)
+            TAG_MAP -> {
+                val size = readVarint().toInt()
+                val map = LinkedHashMap<String, Any?>(size * 4 / 3 + 1)
+                repeat(size) {
+                    map[readString(inp.readUnsignedByte())] = readValue()
+                }
+                map
+            }
+            TAG_LIST -> {
+                val size = readVarint().toInt()
+                val list = ArrayList<Any?>(size)
+                repeat(size) { list.add(readValue()) }
+                list
+            }
+            else -> throw IOException("unknown tag $tag")
+        }
+    }
+
+    private fun readString(tag: Int): String = when (tag) {
+        TAG_STRING -> inp.readUTF().also { strings.add(it) }
+        TAG_STRING_REF -> strings[readVarint().toInt()]
+        else -> throw IOException("expected a string, got tag $tag")
+    }
+
+    private fun unZigZag(value: Long): Long = (value ushr 1) xor -(value and 1)
+
+    private fun readVarint(): Long {
+        var result = 0L
+        var shift = 0
+        while (true) {
+            val byte = inp.readUnsignedByte()
+            result = result or ((byte and 0x7F).toLong() shl shift)
+            if (byte and 0x80 == 0) {
+                return result
+            }
+            shift += 7
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package edu.illinois.cs465.spotmix.replay
+
+import java.io.Closeable
+import java.io.IOException
+import java.io.OutputStream
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Records a party session. Events are timestamped when recorded, their values are converted and
+ * written on a background thread, so recording doesn't add work to the thread delivering them.
+ * Recording stops at the first failed write, the error is kept in the error property.
+ * @param output
+ * @param clock monotonic clock in milliseconds
+ * */
+class SessionRecorder @JvmOverloads constructor(
+    output: OutputStream,
+    private val clock: () -> Long = { System.nanoTime() / 1_000_000 }
+) : Closeable {
+
+    // writes events in the order they were recorded
+    private val executor: ExecutorService = Executors.newSingleThreadExecutor()
+
+    private val writer = SessionWriter(output, System.currentTimeMillis())
+
+    private val startTime = clock()
+
+    /**
+     * The error that stopped the recording, null while recording works.
+     * */
+    @Volatile
+    var error: IOException? = null
+        private set
+
+    /**
+     * Record an event.
+     * @param type one of the SessionEvent type constants
+     * @param key previous child name of child events
+     * @param value supplies the value tree; called on the background thread
+     * */
+    fun record(type: Int, key: String?, value: () -> Any?) {
+        val time = clock() - startTime
+        executor.execute {
+            if (error == null) {
+                try {
+                    writer.write(SessionEvent(time, type, key, value()))
+                } catch (e: IOException) {
+                    error = e
+                }
+            }
+        }
+    }
+
+    /**
+     * Write all recorded events and close the output, blocks until done.
+     * */
+    override fun close() {
+        executor.execute {
+            try {
+                writer.close()
+            } catch (e: IOException) {
+                error = error ?: e
+            }
+        }
+        executor.shutdown()
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+    }
+}
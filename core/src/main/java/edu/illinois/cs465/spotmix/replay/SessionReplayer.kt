@@ -0,0 +1,51 @@
+package edu.illinois.cs465.spotmix.replay
+
+/**
+ * Feeds a recorded session back to a listener, either with the recorded timing scaled by a speed
+ * factor or as fast as possible. Events are delivered on the thread calling replay().
+ * @param reader
+ * @param speed 1.0 to replay in real time, MAX_SPEED to not wait between events
+ * */
+class SessionReplayer @JvmOverloads constructor(
+    private val reader: SessionReader,
+    private val speed: Double = MAX_SPEED
+) {
+
+    companion object {
+        const val MAX_SPEED = Double.POSITIVE_INFINITY
+    }
+
+    /**
+     * Listener receiving the replayed events.
+     * */
+    interface Listener {
+
+        /**
+         * @param event
+         * */
+        fun onEvent(event: SessionEvent)
+    }
+
+    /**
+     * Replay the whole session, blocks until the last event was delivered.
+     * @param listener
+     * @return number of replayed events
+     * */
+    fun replay(listener: Listener): Int {
+        val start = System.nanoTime()
+        var count = 0
+        while (true) {
+            val event = reader.read() ?: return count
+            if (speed != MAX_SPEED) {
+                // wait until the scaled time of the event
+                val dueNanos = (event.timeMillis * 1_000_000 / speed).toLong()
+                val waitMillis = (dueNanos - (System.nanoTime() - start)) / 1_000_000
+                if (waitMillis > 0) {
+                    Thread.sleep(waitMillis)
+                }
+            }
+            listener.onEvent(event)
+            count++
+        }
+    }
+}
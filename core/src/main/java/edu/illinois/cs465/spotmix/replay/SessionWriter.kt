@@ -0,0 +1,119 @@
+package edu.illinois.cs465.spotmix.replay
+
+import java.io.*
+
+/**
+ * Writes session events in a compact binary format.
+ * Numbers are written as varints, times as the difference to the previous event and every
+ * distinct string only once; repetitions refer to the first occurrence. Snapshots repeat the same
+ * keys, uris and names over and over, so this is a fraction of the size of the JSON.
+ * Not thread safe.
+ * @param output
+ * @param startTime wall clock time of the start of the recording, in milliseconds
+ * */
+class SessionWriter(output: OutputStream, startTime: Long) : Closeable {
+
+    companion object {
+        // "SMRS", SpotMix recorded session
+        internal const val MAGIC = 0x534D5253
+        internal const val VERSION = 1
+
+        // tags of the values in a tree
+        internal const val TAG_NULL = 0
+        internal const val TAG_TRUE = 1
+        internal const val TAG_FALSE = 2
+        internal const val TAG_LONG = 3
+        internal const val TAG_DOUBLE = 4
+        internal const val TAG_STRING = 5
+        internal const val TAG_STRING_REF = 6
+        internal const val TAG_MAP = 7
+        internal const val TAG_LIST = 8
+    }
+
+    private val out = DataOutputStream(BufferedOutputStream(output))
+
+    // index of every string written so far
+    private val strings = HashMap<String, Int>()
+
+    private var lastTime = 0L
+
+    init {
+        out.writeInt(MAGIC)
+        out.writeByte(VERSION)
+        out.writeLong(startTime)
+    }
+
+    /**
+     * @param event events must be written in the order of their times
+     * */
+    fun write(event: SessionEvent) {
+        writeVarint(event.type.toLong())
+        writeVarint(event.timeMillis - lastTime)
+        lastTime = event.timeMillis
+        writeValue(event.key)
+        writeValue(event.value)
+    }
+
+    fun flush() {
+        out.flush()
+    }
+
+    override fun close() {
+        out.close()
+    }
+
+    private fun writeValue(value: Any?) {
+        when (value) {
+            null -> out.writeByte(TAG_NULL)
+            true -> out.writeByte(TAG_TRUE)
+            false -> out.writeByte(TAG_FALSE)
+            is Double, is Float -> {
+                out.writeByte(TAG_DOUBLE)
+                out.writeDouble((value as Number).toDouble())
+            }
+            is Number -> {
+                out.writeByte(TAG_LONG)
+                writeVarint(zigZag(value.toLong()))
+            }
+            is String -> writeString(value)
+            is Map<*, *> -> {
+                out.writeByte(TAG_MAP)
+                writeVarint(value.size.toLong())
+                value.forEach { (key, element) ->
+                    writeString(key.toString())
+                    writeValue(element)
+                }
+            }
+            is List<*> -> {
+                out.writeByte(TAG_LIST)
+                writeVarint(value.size.toLong())
+                value.forEach { writeValue(it) }
+            }
+            else -> throw IllegalArgumentException("can't write ${value.javaClass}")
+        }
+    }
+
+    private fun writeString(value: String) {
+        val index = strings[value]
+        if (index != null) {
+            out.writeByte(TAG_STRING_REF)
+            writeVarint(index.toLong())
+        } else {
+            strings[value] = strings.size
+            out.writeByte(TAG_STRING)
+            out.writeUTF(value)
+        }
+    }
+
+    // small negative numbers as small varints
+    private fun zigZag(value: Long): Long = (value shl 1) xor (value shr 63)
+
+    private fun writeVarint(value: Long) {
+        var remaining = value
+        while (remaining and 0x7FL.inv() != 0L) {
+            out.writeByte(((remaining and 0x7F) or 0x80).toInt())
+            remaining = remaining ushr 7
+        }
+        out.writeByte(remaining.toInt())
+    }
+}
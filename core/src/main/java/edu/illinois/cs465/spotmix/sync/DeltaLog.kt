@@ -0,0 +1,46 @@
+package edu.illinois.cs465.spotmix.sync
+
+/**
+ * Versions the changes of a party and keeps the most recent ones, so a client that fell behind
+ * or reconnected catches up with the deltas it missed instead of a whole snapshot.
+ * Versions start at 0 for the party as created, every delta increments it. Not thread safe.
+ * @param capacity number of recent deltas kept
+ * */
+class DeltaLog(private val capacity: Int = DEFAULT_CAPACITY) {
+
+    companion object {
+        const val DEFAULT_CAPACITY = 256
+    }
+
+    // ring buffer of the recent deltas, the one of a version is at version % capacity
+    private val deltas = arrayOfNulls<PartyDelta>(capacity)
+
+    /**
+     * Version of the party after the last appended delta.
+     * */
+    var version = 0L
+        private set
+
+    /**
+     * @param delta
+     * @return the version of the party after the delta
+     * */
+    fun append(delta: PartyDelta): Long {
+        version++
+        deltas[(version % capacity).toInt()] = delta
+        return version
+    }
+
+    /**
+     * @param version version of the party a client has
+     * @return the deltas from that version to the current one, null if they are not kept anymore
+     * or the version is unknown; then the client needs a snapshot
+     * */
+    fun since(version: Long): List<PartyDelta>? {
+        val missing = this.version - version
+        if (version < 0 || missing < 0 || missing > capacity) {
+            return null
+        }
+        return List(missing.toInt()) { deltas[((version + 1 + it) % capacity).toInt()]!! }
+    }
+}
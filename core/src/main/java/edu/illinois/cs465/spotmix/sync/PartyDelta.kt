@@ -0,0 +1,145 @@
+package edu.illinois.cs465.spotmix.sync
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+
+/**
+ * A change of a party, the unit of the delta sync. Every delta describes its change exactly, e.g.
+ * a vote doesn't move the track, the move the ranking made after it is a delta of its own; so
+ * replicas end up with the same party as the source without knowing the ranking.
+ * */
+sealed class PartyDelta {
+
+    /**
+     * Apply the change to a replica of the party.
+     * @param party
+     * */
+    abstract fun applyTo(party: Party)
+
+    /**
+     * Track was appended to the queue. The party gets a copy of the entry: the delta stays in the
+     * log, and is encoded again for clients catching up, after votes changed the queued entry.
+     * @param queueTrack
+     * */
+    data class TrackAdded(val queueTrack: QueueTrack) : PartyDelta() {
+        override fun applyTo(party: Party) = party.addToQueue(
+            queueTrack.copy(
+                upvotes = ArrayList(queueTrack.upvotes),
+                downvotes = ArrayList(queueTrack.downvotes)
+            )
+        )
+    }
+
+    /**
+     * Track was removed from the queue.
+     * @param position
+     * */
+    data class TrackRemoved(val position: Int) : PartyDelta() {
+        override fun applyTo(party: Party) {
+            party.removeFromQueue(position)
+        }
+    }
+
+    /**
+     * Track was moved within the queue.
+     * @param from
+     * @param to
+     * @param position new position key of the track if an admin moved it, null if the ranking
+     * moved it
+     * */
+    data class TrackMoved(val from: Int, val to: Int, val position: String? = null) : PartyDelta() {
+        override fun applyTo(party: Party) {
+            party.moveInQueue(from, to)
+            if (position != null) {
+                party.queue[to].position = position
+                party.queueEntryChanged(party.queue[to])
+            }
+        }
+    }
+
+    /**
+     * Attendee voted on a queued track.
+     * @param position position of the track in the queue
+     * @param attendee
+     * @param up upvote or downvote
+     * */
+    data class Voted(val position: Int, val attendee: Attendee, val up: Boolean) : PartyDelta() {
+        override fun applyTo(party: Party) {
+            val entry = party.queue[position]
+            if (up) {
+                entry.upvote(attendee)
+            } else {
+                entry.downvote(attendee)
+            }
+            party.queueEntryChanged(entry)
+        }
+    }
+
+    /**
+     * Attendee joined the party.
+     * @param attendee
+     * */
+    data class AttendeeAdded(val attendee: Attendee) : PartyDelta() {
+        override fun applyTo(party: Party) {
+            party.attendees.add(attendee)
+        }
+    }
+
+    /**
+     * Attendee left or was removed from the party.
+     * @param position position in the attendee list
+     * */
+    data class AttendeeRemoved(val position: Int) : PartyDelta() {
+        override fun applyTo(party: Party) {
+            party.attendees.removeAt(position)
+        }
+    }
+
+    /**
+     * Playback was started or paused.
+     * @param playing
+     * */
+    data class PlayingChanged(val playing: Boolean) : PartyDelta() {
+        override fun applyTo(party: Party) {
+            party.playing = playing
+        }
+    }
+
+    /**
+     * Host switched between playing the most upvoted track next and fair-share scheduling.
+     * @param fairShare
+     * */
+    data class FairShareChanged(val fairShare: Boolean) : PartyDelta() {
+        override fun applyTo(party: Party) {
+            party.fairShare = fairShare
+        }
+    }
+
+    /**
+     * Current track finished or was skipped, see Party.advance().
+     * */
+    object SkippedToNext : PartyDelta() {
+        override fun applyTo(party: Party) {
+            party.advance()
+        }
+    }
+
+    /**
+     * Last played track is played again, see Party.previous().
+     * */
+    object SkippedToPrevious : PartyDelta() {
+        override fun applyTo(party: Party) {
+            party.previous()
+        }
+    }
+
+    /**
+     * Position keys of the queue were spread out again, see Party.rebalance().
+     * */
+    object QueueRebalanced : PartyDelta() {
+        override fun applyTo(party: Party) {
+            party.rebalance()
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package edu.illinois.cs465.spotmix.sync
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+
+/**
+ * Copy of a party kept up to date by the messages of the delta sync. Not thread safe.
+ * */
+class PartyReplica {
+
+    /**
+     * The party as of the version, null until the first snapshot.
+     * */
+    var party: Party? = null
+        private set
+
+    /**
+     * Version of the party, -1 until the first snapshot.
+     * */
+    var version = -1L
+        private set
+
+    /**
+     * Start from a known state, e.g. the party returned when joining.
+     * @param party
+     * @param version
+     * */
+    fun reset(party: Party, version: Long) {
+        this.party = party
+        this.version = version
+    }
+
+    /**
+     * Apply a message, deltas the replica already has are skipped.
+     * @param message
+     * @return false if deltas between the replica and the message are missing; the replica is
+     * unchanged then and needs a snapshot or the missing deltas
+     * */
+    fun apply(message: SyncMessage): Boolean {
+        when (message) {
+            is SyncMessage.Snapshot -> reset(message.party, message.version)
+            is SyncMessage.Deltas -> {
+                val party = party ?: return false
+                if (message.firstVersion > version + 1) {
+                    return false
+                }
+                val skipped = (version + 1 - message.firstVersion).toInt()
+                for (i in skipped until message.deltas.size) {
+                    message.deltas[i].applyTo(party)
+                }
+                version = maxOf(version, message.lastVersion)
+            }
+        }
+        return true
+    }
+}
@@ -0,0 +1,89 @@
+package edu.illinois.cs465.spotmix.sync
+
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueViewEntry
+
+/**
+ * Materialized view of the top of a queue, maintained by the host of a party so attendees don't
+ * download and rank the whole queue. Keeps the entries of the last update, so every update only
+ * yields the ranks whose entry changed, e.g. the ranks a voted track moved across.
+ * @param size number of entries in the view
+ * */
+class QueueProjection @JvmOverloads constructor(private val size: Int = DEFAULT_SIZE) {
+
+    companion object {
+
+        /**
+         * Number of entries in the view, a few screens of rows.
+         * */
+        const val DEFAULT_SIZE = 30
+
+        /**
+         * Covers are picked for thumbnails of this size in pixels, about 56dp on dense screens.
+         * */
+        const val THUMBNAIL_SIZE = 160
+
+        /**
+         * @param rank
+         * @param queueTrack
+         * @return the view entry of a queued track
+         * */
+        @JvmStatic
+        fun entry(rank: Int, queueTrack: QueueTrack): QueueViewEntry {
+            val track = queueTrack.track
+            return QueueViewEntry(
+                rank,
+                track.uri,
+                track.name,
+                if (track.artists.isNotEmpty()) track.getArtistNames() else "",
+                track.album.getImageUrl(THUMBNAIL_SIZE),
+                queueTrack.upvotes.size,
+                queueTrack.downvotes.size
+            )
+        }
+    }
+
+    /**
+     * Entries of the last update, by rank.
+     * */
+    var entries: List<QueueViewEntry> = emptyList()
+        private set
+
+    /**
+     * Project a new state of the queue.
+     * @param queue
+     * @return the changed entries by rank, null for ranks that are no longer in the view; empty
+     * if the view didn't change
+     * */
+    fun update(queue: List<QueueTrack>): Map<Int, QueueViewEntry?> {
+        val view = project(queue)
+        val changes = LinkedHashMap<Int, QueueViewEntry?>()
+        for (rank in 0 until maxOf(view.size, entries.size)) {
+            val entry = view.getOrNull(rank)
+            if (entry != entries.getOrNull(rank)) {
+                changes[rank] = entry
+            }
+        }
+        entries = view
+        return changes
+    }
+
+    /**
+     * @param queue
+     * @return the view of the queue, independent of the last update
+     * */
+    fun project(queue: List<QueueTrack>): List<QueueViewEntry> {
+        val view = ArrayList<QueueViewEntry>(minOf(size, queue.size))
+        for (rank in 0 until minOf(size, queue.size)) {
+            view.add(entry(rank, queue[rank]))
+        }
+        return view
+    }
+
+    /**
+     * Forget the entries of the last update, the next update yields all ranks.
+     * */
+    fun reset() {
+        entries = emptyList()
+    }
+}
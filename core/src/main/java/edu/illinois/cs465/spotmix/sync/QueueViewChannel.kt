@@ -0,0 +1,43 @@
+package edu.illinois.cs465.spotmix.sync
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueViewEntry
+
+/**
+ * Shares the QueueProjection of a party from the host with all attendees, so the queue screens
+ * download a bounded view of the top of the queue instead of the whole queue.
+ * */
+interface QueueViewChannel {
+
+    /**
+     * Interface for receiving the view.
+     * */
+    interface Listener {
+
+        /**
+         * Called when the host changed the view.
+         * @param entries by rank, empty if the queue is empty or no view was published yet
+         * */
+        fun onQueueViewChanged(entries: List<QueueViewEntry>)
+    }
+
+    /**
+     * Host only: project the queue of the party and write the entries that changed since the
+     * last call.
+     * @param party
+     * */
+    fun publish(party: Party)
+
+    /**
+     * Get notified of the view of the party, starting with the current one.
+     * @param party
+     * @param listener
+     * */
+    fun listen(party: Party, listener: Listener)
+
+    /**
+     * Stop listening to the view of the party; the next publish writes the whole view.
+     * @param party
+     * */
+    fun close(party: Party)
+}
@@ -0,0 +1,467 @@
+package edu.illinois.cs465.spotmix.sync
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.spotify.models.*
+import java.io.IOException
+
+/**
+ * Compact binary format of the delta sync messages.
+ * Numbers are varints, strings and attendees are interned per message: the first occurrence is
+ * written in full, repetitions as the index of the first one. Attendees repeat in every vote and
+ * tracks share artists, albums and markets, so a snapshot is a fraction of the JSON of the party;
+ * a delta is a few bytes.
+ *
+ * message  := format kind code (SNAPSHOT version party | DELTAS firstVersion sentNanos count delta*)
+ * string   := 0 (null) | 1 length utf8 | index + 2
+ * attendee := 0 name id admin | index + 1
+ * */
+object SyncCodec {
+
+    // 2: history of the party, skipping deltas
+    // 3: position keys of queued tracks, rebalancing deltas
+    // 4: attendees who queued the tracks, fair-share mode
+    private const val FORMAT = 4
+
+    // kinds of messages
+    private const val SNAPSHOT = 1
+    private const val DELTAS = 2
+
+    // types of deltas
+    private const val TRACK_ADDED = 1
+    private const val TRACK_REMOVED = 2
+    private const val TRACK_MOVED = 3
+    private const val UPVOTED = 4
+    private const val DOWNVOTED = 5
+    private const val ATTENDEE_ADDED = 6
+    private const val ATTENDEE_REMOVED = 7
+    private const val PLAYING_CHANGED = 8
+    private const val SKIPPED_TO_NEXT = 9
+    private const val SKIPPED_TO_PREVIOUS = 10
+    private const val QUEUE_REBALANCED = 11
+    private const val FAIR_SHARE_CHANGED = 12
+
+    /**
+     * @param code code of the party
+     * @param version version of the party
+     * @param party
+     * @return the encoded snapshot
+     * */
+    fun encodeSnapshot(code: String, version: Long, party: Party): ByteArray =
+        Encoder().run {
+            header(SNAPSHOT, code)
+            varint(version)
+            party(party)
+            toByteArray()
+        }
+
+    /**
+     * @param code code of the party
+     * @param firstVersion version of the party after applying the first delta
+     * @param deltas
+     * @param sentNanos System.nanoTime() of the sender of the oldest change, 0 if unknown
+     * @return the encoded deltas
+     * */
+    @JvmOverloads
+    fun encodeDeltas(
+        code: String,
+        firstVersion: Long,
+        deltas: List<PartyDelta>,
+        sentNanos: Long = 0
+    ): ByteArray = Encoder().run {
+        header(DELTAS, code)
+        varint(firstVersion)
+        varint(zigZag(sentNanos))
+        varint(deltas.size.toLong())
+        deltas.forEach { delta(it) }
+        toByteArray()
+    }
+
+    /**
+     * @param bytes
+     * @return the decoded message
+     * @throws IOException if the bytes are not a sync message
+     * */
+    @Throws(IOException::class)
+    fun decode(bytes: ByteArray): SyncMessage {
+        val decoder = Decoder(bytes)
+        try {
+            return decoder.message()
+        } catch (e: IndexOutOfBoundsException) {
+            throw IOException("truncated sync message", e)
+        }
+    }
+
+    // small negative numbers as small varints
+    private fun zigZag(value: Long): Long = (value shl 1) xor (value shr 63)
+
+    private fun unZigZag(value: Long): Long = (value ushr 1) xor -(value and 1)
+
+    private class Encoder {
+
+        private var bytes = ByteArray(256)
+        private var size = 0
+
+        // index of every string and attendee written so far
+        private val strings = HashMap<String, Int>()
+        private val attendees = HashMap<Attendee, Int>()
+
+        fun toByteArray(): ByteArray = bytes.copyOf(size)
+
+        fun header(kind: Int, code: String) {
+            byte(FORMAT)
+            byte(kind)
+            string(code)
+        }
+
+        fun delta(delta: PartyDelta) {
+            when (delta) {
+                is PartyDelta.TrackAdded -> {
+                    byte(TRACK_ADDED)
+                    queueTrack(delta.queueTrack)
+                }
+                is PartyDelta.TrackRemoved -> {
+                    byte(TRACK_REMOVED)
+                    varint(delta.position.toLong())
+                }
+                is PartyDelta.TrackMoved -> {
+                    byte(TRACK_MOVED)
+                    varint(delta.from.toLong())
+                    varint(delta.to.toLong())
+                    string(delta.position)
+                }
+                is PartyDelta.Voted -> {
+                    byte(if (delta.up) UPVOTED else DOWNVOTED)
+                    varint(delta.position.toLong())
+                    attendee(delta.attendee)
+                }
+                is PartyDelta.AttendeeAdded -> {
+                    byte(ATTENDEE_ADDED)
+                    attendee(delta.attendee)
+                }
+                is PartyDelta.AttendeeRemoved -> {
+                    byte(ATTENDEE_REMOVED)
+                    varint(delta.position.toLong())
+                }
+                is PartyDelta.PlayingChanged -> {
+                    byte(PLAYING_CHANGED)
+                    boolean(delta.playing)
+                }
+                PartyDelta.SkippedToNext -> byte(SKIPPED_TO_NEXT)
+                PartyDelta.SkippedToPrevious -> byte(SKIPPED_TO_PREVIOUS)
+                PartyDelta.QueueRebalanced -> byte(QUEUE_REBALANCED)
+                is PartyDelta.FairShareChanged -> {
+                    byte(FAIR_SHARE_CHANGED)
+                    boolean(delta.fairShare)
+                }
+            }
+        }
+
+        fun party(party: Party) {
+            string(party.name)
+            string(party.key)
+            string(party.accessToken)
+            boolean(party.playing)
+            // attendees first, so the votes refer to them
+            list(party.attendees) { attendee(it) }
+            list(party.queue) { queueTrack(it) }
+            val currentTrack = party.currentTrack
+            boolean(currentTrack != null)
+            currentTrack?.let { queueTrack(it) }
+            list(party.history) { queueTrack(it) }
+            boolean(party.fairShare)
+        }
+
+        private fun queueTrack(queueTrack: QueueTrack) {
+            track(queueTrack.track)
+            list(queueTrack.upvotes) { attendee(it) }
+            list(queueTrack.downvotes) { attendee(it) }
+            string(queueTrack.position)
+            val addedBy = queueTrack.addedBy
+            boolean(addedBy != null)
+            addedBy?.let { attendee(it) }
+        }
+
+        private fun track(track: Track) {
+            album(track.album)
+            list(track.artists) { artist(it) }
+            list(track.available_markets) { string(it) }
+            int(track.disc_number)
+            int(track.duration_ms)
+            boolean(track.explicit)
+            string(track.external_ids.isrc)
+            string(track.external_urls.spotify)
+            string(track.href)
+            string(track.id)
+            boolean(track.is_local)
+            string(track.name)
+            int(track.popularity)
+            string(track.preview_url)
+            int(track.track_number)
+            string(track.type)
+            string(track.uri)
+        }
+
+        private fun album(album: Album) {
+            string(album.album_type)
+            list(album.artists) { artist(it) }
+            list(album.available_markets) { string(it) }
+            string(album.external_urls.spotify)
+            string(album.href)
+            string(album.id)
+            list(album.images) {
+                int(it.height)
+                string(it.url)
+                int(it.width)
+            }
+            string(album.name)
+            string(album.release_date)
+            string(album.release_date_precision)
+            int(album.total_tracks)
+            string(album.type)
+            string(album.uri)
+        }
+
+        private fun artist(artist: Artist) {
+            string(artist.external_urls.spotify)
+            string(artist.href)
+            string(artist.id)
+            string(artist.name)
+            string(artist.type)
+            string(artist.uri)
+        }
+
+        private fun attendee(attendee: Attendee) {
+            val index = attendees[attendee]
+            if (index != null) {
+                varint(index + 1L)
+                return
+            }
+            attendees[attendee] = attendees.size
+            varint(0)
+            string(attendee.name)
+            string(attendee.id)
+            boolean(attendee.admin)
+        }
+
+        private fun string(value: String?) {
+            if (value == null) {
+                varint(0)
+                return
+            }
+            val index = strings[value]
+            if (index != null) {
+                varint(index + 2L)
+                return
+            }
+            strings[value] = strings.size
+            val utf8 = value.toByteArray(Charsets.UTF_8)
+            varint(1)
+            varint(utf8.size.toLong())
+            ensureCapacity(utf8.size)
+            System.arraycopy(utf8, 0, bytes, size, utf8.size)
+            size += utf8.size
+        }
+
+        private inline fun <T> list(list: List<T>, write: (T) -> Unit) {
+            varint(list.size.toLong())
+            list.forEach(write)
+        }
+
+        private fun boolean(value: Boolean) = byte(if (value) 1 else 0)
+
+        private fun int(value: Int) = varint(zigZag(value.toLong()))
+
+        fun varint(value: Long) {
+            ensureCapacity(10)
+            var remaining = value
+            while (remaining and 0x7FL.inv() != 0L) {
+                bytes[size++] = ((remaining and 0x7F) or 0x80).toByte()
+                remaining = remaining ushr 7
+            }
+            bytes[size++] = remaining.toByte()
+        }
+
+        private fun byte(value: Int) {
+            ensureCapacity(1)
+            bytes[size++] = value.toByte()
+        }
+
+        private fun ensureCapacity(additional: Int) {
+            if (size + additional > bytes.size) {
+                bytes = bytes.copyOf(maxOf(bytes.size * 2, size + additional))
+            }
+        }
+    }
+
+    private class Decoder(private val bytes: ByteArray) {
+
+        private var position = 0
+
+        // strings and attendees in the order they were first written
+        private val strings = ArrayList<String>()
+        private val attendees = ArrayList<Attendee>()
+
+        fun message(): SyncMessage {
+            val format = byte()
+            if (format != FORMAT) {
+                throw IOException("unsupported sync format $format")
+            }
+            val kind = byte()
+            val code = string() ?: throw IOException("missing party code")
+            return when (kind) {
+                SNAPSHOT -> SyncMessage.Snapshot(code, varint(), party())
+                DELTAS -> {
+                    val firstVersion = varint()
+                    val sentNanos = unZigZag(varint())
+                    val deltas = list { delta() }
+                    SyncMessage.Deltas(code, firstVersion, deltas, sentNanos)
+                }
+                else -> throw IOException("unknown sync message kind $kind")
+            }
+        }
+
+        private fun delta(): PartyDelta = when (val type = byte()) {
+            TRACK_ADDED -> PartyDelta.TrackAdded(queueTrack())
+            TRACK_REMOVED -> PartyDelta.TrackRemoved(varint().toInt())
+            TRACK_MOVED -> PartyDelta.TrackMoved(varint().toInt(), varint().toInt(), string())
+            UPVOTED -> PartyDelta.Voted(varint().toInt(), attendee(), true)
+            DOWNVOTED -> PartyDelta.Voted(varint().toInt(), attendee(), false)
+            ATTENDEE_ADDED -> PartyDelta.AttendeeAdded(attendee())
+            ATTENDEE_REMOVED -> PartyDelta.AttendeeRemoved(varint().toInt())
+            PLAYING_CHANGED -> PartyDelta.PlayingChanged(boolean())
+            SKIPPED_TO_NEXT -> PartyDelta.SkippedToNext
+            SKIPPED_TO_PREVIOUS -> PartyDelta.SkippedToPrevious
+            QUEUE_REBALANCED -> PartyDelta.QueueRebalanced
+            FAIR_SHARE_CHANGED -> PartyDelta.FairShareChanged(boolean())
+            else -> throw IOException("unknown delta type $type")
+        }
+
+        private fun party(): Party {
+            val name = string() ?: ""
+            val key = string()
+            val accessToken = string()
+            val playing = boolean()
+            val attendees = list { attendee() }
+            val queue = list { queueTrack() }
+            val currentTrack = if (boolean()) queueTrack() else null
+            val history = list { queueTrack() }
+            val fairShare = boolean()
+            return Party(
+                name, key, queue, attendees, accessToken, playing, currentTrack, history, fairShare
+            )
+        }
+
+        private fun queueTrack(): QueueTrack =
+            QueueTrack(
+                track(),
+                list { attendee() },
+                list { attendee() },
+                string(),
+                if (boolean()) attendee() else null
+            )
+
+        private fun track(): Track = Track(
+            album(),
+            list { artist() },
+            list { nonNullString() },
+            int(),
+            int(),
+            boolean(),
+            ExternalIds(nonNullString()),
+            ExternalUrls(nonNullString()),
+            nonNullString(),
+            nonNullString(),
+            boolean(),
+            nonNullString(),
+            int(),
+            nonNullString(),
+            int(),
+            nonNullString(),
+            nonNullString()
+        )
+
+        private fun album(): Album = Album(
+            nonNullString(),
+            list { artist() },
+            list { nonNullString() },
+            ExternalUrls(nonNullString()),
+            nonNullString(),
+            nonNullString(),
+            list { Image(int(), nonNullString(), int()) },
+            nonNullString(),
+            nonNullString(),
+            nonNullString(),
+            int(),
+            nonNullString(),
+            nonNullString()
+        )
+
+        private fun artist(): Artist = Artist(
+            ExternalUrls(nonNullString()),
+            nonNullString(),
+            nonNullString(),
+            nonNullString(),
+            nonNullString(),
+            nonNullString()
+        )
+
+        private fun attendee(): Attendee {
+            val reference = varint().toInt()
+            if (reference > 0) {
+                // a copy, the attendee's fields are mutable
+                return attendees[reference - 1].copy()
+            }
+            val attendee = Attendee(nonNullString(), nonNullString(), boolean())
+            attendees.add(attendee.copy())
+            return attendee
+        }
+
+        private fun nonNullString(): String = string() ?: ""
+
+        private fun string(): String? {
+            when (val reference = varint().toInt()) {
+                0 -> return null
+                1 -> {
+                    val length = varint().toInt()
+                    if (position + length > bytes.size) {
+                        throw IndexOutOfBoundsException()
+                    }
+                    val value = String(bytes, position, length, Charsets.UTF_8)
+                    position += length
+                    strings.add(value)
+                    return value
+                }
+                else -> return strings[reference - 2]
+            }
+        }
+
+        private inline fun <T> list(read: () -> T): MutableList<T> {
+            val size = varint().toInt()
+            // every element takes at least a byte, so a corrupt size can't allocate a huge list
+            val list = ArrayList<T>(minOf(size, bytes.size - position))
+            repeat(size) { list.add(read()) }
+            return list
+        }
+
+        private fun boolean(): Boolean = byte() != 0
+
+        private fun int(): Int = unZigZag(varint()).toInt()
+
+        private fun varint(): Long {
+            var value = 0L
+            var shift = 0
+            while (true) {
+                val byte = bytes[position++].toInt()
+                value = value or ((byte and 0x7F).toLong() shl shift)
+                if (byte and 0x80 == 0) {
+                    return value
+                }
+                shift += 7
+            }
+        }
+
+        private fun byte(): Int = bytes[position++].toInt() and 0xFF
+    }
+}
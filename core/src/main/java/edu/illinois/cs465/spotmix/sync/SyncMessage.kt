@@ -0,0 +1,39 @@
+package edu.illinois.cs465.spotmix.sync
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+
+/**
+ * State of a party at a version, as sent by the delta sync.
+ * @param code code of the party
+ * */
+sealed class SyncMessage(val code: String) {
+
+    /**
+     * The whole party, sent to new subscribers and to clients that fell too far behind.
+     * @param code
+     * @param version version of the party
+     * @param party
+     * */
+    class Snapshot(code: String, val version: Long, val party: Party) : SyncMessage(code)
+
+    /**
+     * Consecutive changes of the party.
+     * @param code
+     * @param firstVersion version of the party after applying the first delta
+     * @param deltas
+     * @param sentNanos System.nanoTime() of the sender of the oldest change, 0 if unknown
+     * */
+    class Deltas(
+        code: String,
+        val firstVersion: Long,
+        val deltas: List<PartyDelta>,
+        val sentNanos: Long
+    ) : SyncMessage(code) {
+
+        /**
+         * Version of the party after applying all deltas.
+         * */
+        val lastVersion: Long
+            get() = firstVersion + deltas.size - 1
+    }
+}
@@ -0,0 +1,55 @@
+package edu.illinois.cs465.spotmix.util
+
+/**
+ * Arithmetic of the code drawing every frame of an animation, the swipe decoration of the queue
+ * and the playback gradient. Works on ints and buffers of the caller, so it allocates nothing.
+ * */
+object FrameMath {
+
+    /**
+     * @param color ARGB
+     * @param alpha between 0 and 255
+     * @return the color with the alpha replaced
+     * */
+    @JvmStatic
+    fun withAlpha(color: Int, alpha: Int): Int = (alpha shl 24) or (color and 0xFFFFFF)
+
+    /**
+     * Blend two colors channel by channel, like ColorUtils.blendARGB.
+     * @param from ARGB
+     * @param to ARGB
+     * @param fraction between 0 for from and 1 for to
+     * @return the blended ARGB color
+     * */
+    @JvmStatic
+    fun blend(from: Int, to: Int, fraction: Float): Int {
+        var blended = 0
+        for (shift in 0..24 step 8) {
+            val a = (from ushr shift) and 0xFF
+            val b = (to ushr shift) and 0xFF
+            val channel = (a * (1 - fraction) + b * fraction).toInt()
+            blended = blended or (channel shl shift)
+        }
+        return blended
+    }
+
+    /**
+     * Write the decimal digits of a number into the front of a buffer.
+     * @param value negative values are written as 0
+     * @param buffer large enough for the digits, 10 for any Int
+     * @return number of characters written
+     * */
+    @JvmStatic
+    fun formatDecimal(value: Int, buffer: CharArray): Int {
+        var remaining = maxOf(value, 0)
+        var length = 0
+        do {
+            buffer[buffer.size - 1 - length] = '0' + remaining % 10
+            remaining /= 10
+            length++
+        } while (remaining > 0 && length < buffer.size)
+        // move digits to the front
+        System.arraycopy(buffer, buffer.size - length, buffer, 0, length)
+        return length
+    }
+}
@@ -0,0 +1,8 @@
+package android.os;
+
+/**
+ * Stub of the Android interface, so the models compile as plain JVM classes.
+ * In the app the models are compiled with the Parcelize plugin against the real Android SDK.
+ */
+public interface Parcelable {
+}
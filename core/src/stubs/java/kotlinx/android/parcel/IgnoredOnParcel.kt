@@ -0,0 +1,8 @@
+package kotlinx.android.parcel
+
+/**
+ * Stub of the IgnoredOnParcel annotation; has no effect outside of the app.
+ * */
+@Target(AnnotationTarget.PROPERTY)
+@Retention(AnnotationRetention.SOURCE)
+annotation class IgnoredOnParcel
@@ -0,0 +1,8 @@
+package kotlinx.android.parcel
+
+/**
+ * Stub of the Parcelize annotation; has no effect outside of the app.
+ * */
+@Target(AnnotationTarget.CLASS)
+@Retention(AnnotationRetention.BINARY)
+annotation class Parcelize
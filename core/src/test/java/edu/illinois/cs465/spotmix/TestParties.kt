@@ -0,0 +1,96 @@
+package edu.illinois.cs465.spotmix
+
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.spotify.models.*
+import kotlin.random.Random
+
+/**
+ * Generates random parties for the tests, the same ones for the same seed.
+ * */
+object TestParties {
+
+    fun attendee(i: Int) = Attendee("Attendee $i")
+
+    fun track(i: Int): Track {
+        val artist = Artist(
+            ExternalUrls("https://open.spotify.com/artist/artist$i"),
+            "https://api.spotify.com/v1/artists/artist$i",
+            "artist$i",
+            "Artist $i",
+            "artist",
+            "spotify:artist:artist$i"
+        )
+        val album = Album(
+            "album",
+            listOf(artist),
+            listOf("US"),
+            ExternalUrls("https://open.spotify.com/album/album$i"),
+            "https://api.spotify.com/v1/albums/album$i",
+            "album$i",
+            listOf(640, 300, 64).map { Image(it, "https://i.scdn.co/image/album$i-$it", it) },
+            "Album $i",
+            "2019-11-29",
+            "day",
+            12,
+            "album",
+            "spotify:album:album$i"
+        )
+        return Track(
+            album,
+            listOf(artist),
+            listOf("US"),
+            1,
+            200000 + i,
+            false,
+            ExternalIds("USRC1190$i"),
+            ExternalUrls("https://open.spotify.com/track/track$i"),
+            "https://api.spotify.com/v1/tracks/track$i",
+            "track$i",
+            false,
+            "Track $i",
+            50,
+            "https://p.scdn.co/mp3-preview/track$i",
+            i % 12 + 1,
+            "track",
+            "spotify:track:track$i"
+        )
+    }
+
+    /**
+     * @param seed
+     * @param size number of tracks in the queue
+     * @param attendees number of attendees, who add and vote on the tracks at random
+     * @return a party with a sorted queue with position keys, playing a track with some history
+     * */
+    fun party(seed: Int, size: Int = 50, attendees: Int = 8): Party {
+        val random = Random(seed)
+        val party = Party("Test Party $seed", "-test$seed", accessToken = "Bearer token")
+        for (i in 0 until attendees) {
+            party.attendees.add(attendee(i))
+        }
+        for (i in 0 until size) {
+            party.queue.add(queueTrack(i, random, attendees))
+        }
+        party.queue.sortWith(Comparator { a, b -> b.upvotes.size.compareTo(a.upvotes.size) })
+        party.rebalance()
+        party.currentTrack = queueTrack(size, random, attendees)
+        party.playing = random.nextBoolean()
+        for (i in 0 until random.nextInt(5)) {
+            party.history.add(queueTrack(size + 1 + i, random, attendees))
+        }
+        return party
+    }
+
+    private fun queueTrack(i: Int, random: Random, attendees: Int): QueueTrack {
+        val queueTrack = QueueTrack(track(i), addedBy = attendee(random.nextInt(attendees)))
+        for (v in 0 until attendees) {
+            when (random.nextInt(4)) {
+                0 -> queueTrack.upvotes.add(attendee(v))
+                1 -> queueTrack.downvotes.add(attendee(v))
+            }
+        }
+        return queueTrack
+    }
+}
@@ -0,0 +1,139 @@
+package edu.illinois.cs465.spotmix.api
+
+import edu.illinois.cs465.spotmix.api.firebase.PayloadSize
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.memory.InMemoryPartyBackend
+import edu.illinois.cs465.spotmix.api.memory.InMemoryPartyStore
+import edu.illinois.cs465.spotmix.sync.DeltaSource
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+
+class SubscriptionTiersTest {
+
+    /**
+     * Party subscribed to through an InMemoryPartyBackend, its store mirrors a DeltaSource.
+     * @param seed of the DeltaSource
+     * */
+    private class Subscription(seed: Int) {
+
+        val source = DeltaSource(seed)
+
+        val store = InMemoryPartyStore()
+
+        val backend = InMemoryPartyBackend(store)
+
+        val key = store.create(source.party)
+
+        val delivered = mutableListOf<Party>()
+
+        private val listener = object : PartyBackend.PartyListener {
+            override fun onPartyChanged(party: Party) {
+                delivered.add(party)
+            }
+        }
+
+        private val party = store.read(key)!!
+
+        init {
+            backend.addPartyListener(party, listener)
+        }
+
+        /**
+         * Apply a random operation to the source and write the changed party to the store.
+         * */
+        fun step() {
+            source.step()
+            val changed = source.party
+            store.update(key) {
+                it.queue.clear()
+                it.queue.addAll(InMemoryPartyStore.copyOfQueue(changed.queue))
+                it.history.clear()
+                it.history.addAll(InMemoryPartyStore.copyOfQueue(changed.history))
+                it.currentTrack = InMemoryPartyStore.copyOf(changed).currentTrack
+                it.playing = changed.playing
+            }
+        }
+
+        fun close() {
+            backend.removePartyListener(party, listener)
+        }
+    }
+
+    @After
+    fun tearDown() {
+        SubscriptionTiers.request(SubscriptionTier.FOREGROUND)
+        SubscriptionTiers.keepAtLeast(SubscriptionTier.IDLE)
+    }
+
+    /**
+     * @param tier
+     * @return bytes received in the tier while the same random changes happen to a party
+     * */
+    private fun receivedBytes(tier: SubscriptionTier): Long {
+        SubscriptionTiers.request(tier)
+        val subscription = Subscription(1)
+        try {
+            repeat(500) { subscription.step() }
+        } finally {
+            subscription.close()
+        }
+        return subscription.backend.receivedBytes
+    }
+
+    @Test
+    fun lowerTiersReceiveLess() {
+        val foreground = receivedBytes(SubscriptionTier.FOREGROUND)
+        val background = receivedBytes(SubscriptionTier.BACKGROUND)
+        val idle = receivedBytes(SubscriptionTier.IDLE)
+        assertEquals(0L, idle)
+        assertTrue("background $background", background > 0)
+        // votes and additions, most of the changes, are only received in the foreground
+        assertTrue("background $background, foreground $foreground", background * 20 < foreground)
+    }
+
+    @Test
+    fun minimumKeepsTheTier() {
+        val tiers = mutableListOf<SubscriptionTier>()
+        val listener = object : SubscriptionTiers.Listener {
+            override fun onTierChanged(tier: SubscriptionTier) {
+                tiers.add(tier)
+            }
+        }
+        SubscriptionTiers.addListener(listener)
+        SubscriptionTiers.keepAtLeast(SubscriptionTier.BACKGROUND)
+        SubscriptionTiers.request(SubscriptionTier.IDLE)
+        assertEquals(SubscriptionTier.BACKGROUND, SubscriptionTiers.tier)
+        SubscriptionTiers.keepAtLeast(SubscriptionTier.IDLE)
+        assertEquals(SubscriptionTier.IDLE, SubscriptionTiers.tier)
+        SubscriptionTiers.request(SubscriptionTier.FOREGROUND)
+        SubscriptionTiers.request(SubscriptionTier.FOREGROUND)
+        SubscriptionTiers.removeListener(listener)
+        // only actual changes are notified
+        assertEquals(
+            listOf(SubscriptionTier.BACKGROUND, SubscriptionTier.IDLE, SubscriptionTier.FOREGROUND),
+            tiers
+        )
+    }
+
+    /**
+     * There is no delta catch-up: once the tier rises, the whole party is received again.
+     * */
+    @Test
+    fun risingTierReceivesTheWholeParty() {
+        SubscriptionTiers.request(SubscriptionTier.IDLE)
+        val subscription = Subscription(2)
+        try {
+            repeat(100) { subscription.step() }
+            assertEquals(0L, subscription.backend.receivedBytes)
+            assertTrue(subscription.delivered.isEmpty())
+            SubscriptionTiers.request(SubscriptionTier.FOREGROUND)
+        } finally {
+            subscription.close()
+        }
+        val party = subscription.store.read(subscription.key)!!
+        assertEquals(PayloadSize.party(party).toLong(), subscription.backend.receivedBytes)
+        assertEquals(listOf(party), subscription.delivered)
+        assertEquals(subscription.source.party.queue, subscription.delivered.single().queue)
+    }
+}
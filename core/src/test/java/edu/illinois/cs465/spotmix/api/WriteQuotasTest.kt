@@ -0,0 +1,99 @@
+package edu.illinois.cs465.spotmix.api
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class WriteQuotasTest {
+
+    private var nanos = 0L
+
+    private val quotas = WriteQuotas<String>(clock = { nanos })
+
+    private fun advanceMillis(millis: Long) {
+        nanos += millis * 1_000_000
+    }
+
+    /**
+     * @return writes of the key accepted until the first rejected one
+     * */
+    private fun drain(key: String): Int {
+        var accepted = 0
+        while (quotas.tryAcquire(key)) {
+            accepted++
+            assertTrue("bucket never empties", accepted <= 1000)
+        }
+        return accepted
+    }
+
+    @Test
+    fun burstIsCapped() {
+        assertEquals(WriteQuotas.DEFAULT_CAPACITY.toInt(), drain("a"))
+        assertFalse(quotas.tryAcquire("a"))
+        // a long pause refills no more than the capacity
+        advanceMillis(3_600_000)
+        assertEquals(WriteQuotas.DEFAULT_CAPACITY.toInt(), drain("a"))
+    }
+
+    @Test
+    fun refillsAtTheRate() {
+        drain("a")
+        // 2 writes a second, one every 500 ms
+        advanceMillis(499)
+        assertFalse(quotas.tryAcquire("a"))
+        advanceMillis(1)
+        assertTrue(quotas.tryAcquire("a"))
+        assertFalse(quotas.tryAcquire("a"))
+        advanceMillis(2_000)
+        assertEquals(4, drain("a"))
+        // the rate holds over a long run of writes as fast as they are allowed
+        var accepted = 0
+        repeat(60_000) {
+            advanceMillis(1)
+            if (quotas.tryAcquire("a")) {
+                accepted++
+            }
+        }
+        assertEquals(120, accepted)
+    }
+
+    @Test
+    fun keysHaveTheirOwnBuckets() {
+        drain("a")
+        assertFalse(quotas.tryAcquire("a"))
+        assertEquals(WriteQuotas.DEFAULT_CAPACITY.toInt(), drain("b"))
+    }
+
+    @Test
+    fun fullBucketsArePruned() {
+        for (i in 0 until WriteQuotas.MAX_BUCKETS) {
+            assertTrue(quotas.tryAcquire("attendee $i"))
+        }
+        drain("flooder")
+        // no bucket is full yet, none can be dropped
+        assertEquals(WriteQuotas.MAX_BUCKETS + 1, quotas.size)
+        // the buckets written once are full again, the emptied one isn't
+        advanceMillis(1_000)
+        assertTrue(quotas.tryAcquire("newcomer"))
+        assertEquals(2, quotas.size)
+        // dropping didn't refill the flooder, and dropped keys start full
+        assertEquals(2, drain("flooder"))
+        assertEquals(WriteQuotas.DEFAULT_CAPACITY.toInt(), drain("attendee 0"))
+    }
+
+    @Test
+    fun bucketsStayBoundedUnderManyKeys() {
+        repeat(100_000) { i ->
+            advanceMillis(1)
+            assertTrue(quotas.tryAcquire("attendee $i"))
+        }
+        assertTrue("${quotas.size} buckets", quotas.size <= 2 * WriteQuotas.MAX_BUCKETS)
+    }
+
+    @Test
+    fun unlimitedNeverRejects() {
+        val unlimited = WriteQuotas.unlimited<String>()
+        repeat(100_000) {
+            assertTrue(unlimited.tryAcquire("a"))
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package edu.illinois.cs465.spotmix.api.firebase.models
+
+import edu.illinois.cs465.spotmix.TestParties
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.random.Random
+
+class FractionalIndexTest {
+
+    private fun assertValid(key: String) {
+        assertTrue("empty key", key.isNotEmpty())
+        assertFalse("trailing zero digit in $key", key.endsWith("0"))
+    }
+
+    @Test
+    fun betweenIsStrictlyBetween() {
+        val random = Random(1)
+        val keys = mutableListOf(FractionalIndex.between(null, null))
+        repeat(5000) {
+            val i = random.nextInt(keys.size + 1)
+            val key = FractionalIndex.between(keys.getOrNull(i - 1), keys.getOrNull(i))
+            assertValid(key)
+            keys.getOrNull(i - 1)?.let { assertTrue("$it < $key", it < key) }
+            keys.getOrNull(i)?.let { assertTrue("$key < $it", key < it) }
+            keys.add(i, key)
+        }
+    }
+
+    @Test
+    fun movesIntoTheSameGapGrowSlowly() {
+        val keys = FractionalIndex.spread(20)
+        // always right after the same key
+        var after = keys[1]
+        repeat(30) {
+            after = FractionalIndex.between(keys[0], after)
+            assertValid(after)
+        }
+        assertTrue("length ${after.length}", after.length <= FractionalIndex.MAX_LENGTH)
+        // always right before the same key
+        var before = keys[0]
+        repeat(30) {
+            before = FractionalIndex.between(before, keys[1])
+            assertValid(before)
+        }
+        assertTrue("length ${before.length}", before.length <= FractionalIndex.MAX_LENGTH)
+    }
+
+    @Test
+    fun appendsAndPrependsGrowLogarithmically() {
+        var last = FractionalIndex.between(null, null)
+        var first = last
+        repeat(5000) {
+            val appended = FractionalIndex.between(last, null)
+            assertValid(appended)
+            assertTrue("$last < $appended", last < appended)
+            last = appended
+            val prepended = FractionalIndex.between(null, first)
+            assertValid(prepended)
+            assertTrue("$prepended < $first", prepended < first)
+            first = prepended
+        }
+        assertTrue("length ${last.length}", last.length <= FractionalIndex.MAX_LENGTH)
+        assertTrue("length ${first.length}", first.length <= FractionalIndex.MAX_LENGTH)
+    }
+
+    @Test
+    fun spreadIsIncreasingAndShort() {
+        for (count in listOf(0, 1, 61, 62, 500, 3000)) {
+            val keys = FractionalIndex.spread(count)
+            assertEquals(count, keys.size)
+            keys.forEach(::assertValid)
+            keys.zipWithNext().forEach { (a, b) -> assertTrue("$a < $b", a < b) }
+            assertFalse(keys.any { it.length > 2 })
+        }
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun betweenRejectsKeysOutOfOrder() {
+        FractionalIndex.between("V", "1")
+    }
+
+    @Test
+    fun concurrentMovesConverge() {
+        for (seed in 0 until 200) {
+            val random = Random(seed)
+            // two admins move tracks on their own copy of the same queue at once
+            val a = TestParties.party(seed, size = 30)
+            val b = TestParties.party(seed, size = 30)
+            val movedA = move(a, random)
+            val movedB = move(b, random)
+            // every device gets both keys, the write of b wins if both moved the same track
+            val positions = (movedA + movedB).associate { it.track.uri to it.position }
+            for (party in listOf(a, b)) {
+                party.queue.forEach { entry ->
+                    positions[entry.track.uri]?.let { entry.position = it }
+                }
+                Party.sortQueue(party.queue)
+                assertOrdered(party.queue)
+            }
+            assertEquals(a.queue.map { it.track.uri }, b.queue.map { it.track.uri })
+            // keys two admins generated between the same neighbours collide, and get spread
+            // out again in the order all devices agree on
+            if (FractionalIndex.needsRebalance(a.queue)) {
+                val order = a.queue.map { it.track.uri }
+                a.rebalance()
+                assertFalse(FractionalIndex.needsRebalance(a.queue))
+                Party.sortQueue(a.queue)
+                assertEquals(order, a.queue.map { it.track.uri })
+            }
+        }
+    }
+
+    /**
+     * @return the entries that got new keys
+     * */
+    private fun move(party: Party, random: Random): List<QueueTrack> {
+        val moved = mutableListOf<QueueTrack>()
+        repeat(random.nextInt(1, 10)) {
+            val from = random.nextInt(party.queue.size)
+            val to = random.nextInt(party.queue.size)
+            val target = party.reorder(from, to)
+            if (target != -1) {
+                moved.add(party.queue[target])
+            }
+            assertOrdered(party.queue)
+        }
+        return moved
+    }
+
+    private fun assertOrdered(queue: List<QueueTrack>) {
+        queue.zipWithNext().forEach { (a, b) ->
+            assertTrue("${a.position} before ${b.position}", Party.compareInQueue(a, b) <= 0)
+        }
+    }
+}
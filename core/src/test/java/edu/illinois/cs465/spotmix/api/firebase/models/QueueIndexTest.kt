@@ -0,0 +1,46 @@
+package edu.illinois.cs465.spotmix.api.firebase.models
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.random.Random
+
+class QueueIndexTest {
+
+    @Test
+    fun positionsFollowTheQueue() {
+        val random = Random(1)
+        val queue = MutableList(50) { "track $it" }
+        val index = QueueIndex(queue) { it }
+        index.rebuild()
+        var added = queue.size
+        repeat(5000) {
+            when (random.nextInt(4)) {
+                0 -> {
+                    val entry = "track ${added++}"
+                    queue.add(entry)
+                    index.onAppended(entry)
+                }
+                1 -> {
+                    val position = random.nextInt(queue.size + 1)
+                    val entry = "track ${added++}"
+                    queue.add(position, entry)
+                    index.onInserted(entry, position)
+                }
+                2 -> if (queue.size > 1) {
+                    val position = random.nextInt(queue.size)
+                    index.onRemoved(queue.removeAt(position), position)
+                }
+                else -> {
+                    val from = random.nextInt(queue.size)
+                    val to = random.nextInt(queue.size)
+                    queue.add(to, queue.removeAt(from))
+                    index.onMoved(from, to)
+                }
+            }
+            val key = "track ${random.nextInt(added)}"
+            assertEquals(key, queue.indexOf(key), index.positionOf(key))
+            assertEquals(queue.size, index.size)
+        }
+        queue.forEachIndexed { position, key -> assertEquals(position, index.positionOf(key)) }
+    }
+}
@@ -0,0 +1,27 @@
+package edu.illinois.cs465.spotmix.metrics
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class CounterTest {
+
+    @Test
+    fun concurrentIncrementsAreAllCounted() {
+        val counter = Counter("test")
+        val threads = 8
+        val perThread = 100000
+        val executor = Executors.newFixedThreadPool(threads)
+        repeat(threads) {
+            executor.execute {
+                for (i in 0 until perThread) {
+                    if (i % 2 == 0) counter.increment() else counter.add(2)
+                }
+            }
+        }
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES))
+        assertEquals(threads * perThread / 2 * 3L, counter.count)
+    }
+}
@@ -0,0 +1,111 @@
+package edu.illinois.cs465.spotmix.metrics
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+class HistogramTest {
+
+    @Test
+    fun smallValuesHaveTheirOwnBucket() {
+        for (value in 0L..15L) {
+            assertEquals(value.toInt(), Histogram.bucketOf(value))
+            assertEquals(value, Histogram.upperBoundOf(value.toInt()))
+        }
+        assertEquals(16, Histogram.bucketOf(16))
+    }
+
+    @Test
+    fun powersOfTwoStartABucket() {
+        for (power in 4..62) {
+            val value = 1L shl power
+            val bucket = Histogram.bucketOf(value)
+            assertEquals(value - 1, Histogram.upperBoundOf(bucket - 1))
+            assertEquals(bucket - 1, Histogram.bucketOf(value - 1))
+            // 16 buckets per power of two
+            if (power < 62) {
+                assertEquals(bucket + 16, Histogram.bucketOf(value shl 1))
+            }
+        }
+    }
+
+    @Test
+    fun largestValueFitsTheLastBucket() {
+        val bucket = Histogram.bucketOf(Long.MAX_VALUE)
+        assertEquals(Long.MAX_VALUE, Histogram.upperBoundOf(bucket))
+        val histogram = Histogram("test")
+        histogram.record(Long.MAX_VALUE)
+        assertEquals(Long.MAX_VALUE, histogram.max)
+        assertEquals(Long.MAX_VALUE, histogram.percentile(50.0))
+        assertEquals(Long.MAX_VALUE, histogram.percentile(100.0))
+    }
+
+    @Test
+    fun bucketsCoverEveryValueOnce() {
+        val random = Random(1)
+        repeat(100000) {
+            val value = random.nextLong(Long.MAX_VALUE) ushr random.nextInt(63)
+            val bucket = Histogram.bucketOf(value)
+            assertTrue(value <= Histogram.upperBoundOf(bucket))
+            if (bucket > 0) {
+                assertTrue(value > Histogram.upperBoundOf(bucket - 1))
+            }
+        }
+    }
+
+    @Test
+    fun percentilesAreWithinTheBucketWidth() {
+        val random = Random(2)
+        val histogram = Histogram("test")
+        val values = LongArray(100000) { random.nextLong(1L shl random.nextInt(1, 40)) }
+        values.forEach(histogram::record)
+        values.sort()
+        for (percentile in listOf(0.0, 1.0, 10.0, 50.0, 90.0, 99.0, 99.9, 100.0)) {
+            val rank = maxOf(1, Math.ceil(percentile / 100 * values.size).toInt())
+            val exact = values[rank - 1]
+            val estimate = histogram.percentile(percentile)
+            // the upper bound of the bucket of the exact value, off by at most 1/16 of it
+            assertTrue("p$percentile $estimate < $exact", estimate >= exact)
+            assertTrue("p$percentile $estimate > $exact", estimate <= exact + exact / 16)
+        }
+        assertEquals(values.last(), histogram.max)
+        assertEquals(values.sum(), histogram.sum)
+        assertEquals(values.size.toLong(), histogram.count)
+    }
+
+    @Test
+    fun emptyAndNegative() {
+        val histogram = Histogram("test")
+        assertEquals(0L, histogram.percentile(50.0))
+        assertEquals(0.0, histogram.mean, 0.0)
+        histogram.record(-5)
+        assertEquals(1L, histogram.count)
+        assertEquals(0L, histogram.sum)
+        assertEquals(0L, histogram.percentile(100.0))
+    }
+
+    @Test
+    fun concurrentRecordsAreAllCounted() {
+        val histogram = Histogram("test")
+        val threads = 8
+        val perThread = 100000
+        val executor = Executors.newFixedThreadPool(threads)
+        repeat(threads) { thread ->
+            executor.execute {
+                for (i in 0 until perThread) {
+                    histogram.record(i.toLong() + thread)
+                }
+            }
+        }
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES))
+        assertEquals(threads.toLong() * perThread, histogram.count)
+        val sum = (0 until threads).fold(0L) { sum, thread ->
+            sum + (0 until perThread).fold(0L) { threadSum, i -> threadSum + i + thread }
+        }
+        assertEquals(sum, histogram.sum)
+        assertEquals(perThread - 1L + threads - 1, histogram.max)
+    }
+}
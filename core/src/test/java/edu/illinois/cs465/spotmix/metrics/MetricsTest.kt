@@ -0,0 +1,22 @@
+package edu.illinois.cs465.spotmix.metrics
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class MetricsTest {
+
+    @Test
+    fun registryReturnsOneInstancePerName() {
+        val counter = Metrics.counter("test.counter.instance")
+        assertSame(counter, Metrics.counter("test.counter.instance"))
+        assertSame(Metrics.histogram("test.histogram.instance"), Metrics.histogram("test.histogram.instance"))
+        counter.add(3)
+        Metrics.histogram("test.histogram.instance").record(7)
+        val report = Metrics.report()
+        assertTrue(report, report.contains("test.counter.instance count=3\n"))
+        assertTrue(report, report.contains("test.histogram.instance count=1 mean=7.0 p50=7 p90=7 p99=7 max=7\n"))
+        Metrics.reset()
+        assertEquals(0L, counter.count)
+        assertSame(counter, Metrics.counter("test.counter.instance"))
+    }
+}
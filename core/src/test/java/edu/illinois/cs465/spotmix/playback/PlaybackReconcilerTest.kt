@@ -0,0 +1,142 @@
+package edu.illinois.cs465.spotmix.playback
+
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class PlaybackReconcilerTest {
+
+    /**
+     * Player taking commands at once, its state is reported when the test calls report().
+     * */
+    private class FakePlayer : PlaybackReconciler.Player {
+
+        val commands = mutableListOf<String>()
+        var uri: String? = null
+        var paused = true
+
+        override fun play(uri: String) {
+            commands.add("play $uri")
+            this.uri = uri
+            paused = false
+        }
+
+        override fun resume() {
+            commands.add("resume")
+            paused = false
+        }
+
+        override fun pause() {
+            commands.add("pause")
+            paused = true
+        }
+
+        override fun seekTo(positionMs: Long) {
+            commands.add("seek $positionMs")
+        }
+    }
+
+    private class RecordingListener : PlaybackReconciler.Listener {
+
+        val changes = mutableListOf<String>()
+
+        override fun onTrackFinished() {
+            changes.add("finished")
+        }
+
+        override fun onPlayingChanged(playing: Boolean) {
+            changes.add("playing $playing")
+        }
+    }
+
+    private var nanos = 0L
+    private val player = FakePlayer()
+    private val listener = RecordingListener()
+    private val reconciler = PlaybackReconciler(player, listener, { nanos })
+
+    private fun report() = reconciler.observe(player.uri, player.paused)
+
+    @Before
+    fun startPlaying() {
+        reconciler.observe(null, true)
+        reconciler.desire("track 1", true)
+        report()
+        assertEquals(listOf("play track 1"), player.commands)
+        player.commands.clear()
+    }
+
+    @Test
+    fun votesIssueNoCommands() {
+        // every vote or added track delivers the party again, with the same playback
+        repeat(1000) {
+            reconciler.desire("track 1", true)
+        }
+        assertEquals(emptyList<String>(), player.commands)
+        assertEquals(emptyList<String>(), listener.changes)
+    }
+
+    @Test
+    fun progressUpdatesIssueNoCommands() {
+        // the player reports its state again and again while it plays
+        repeat(1000) {
+            nanos += TimeUnit.SECONDS.toNanos(1)
+            report()
+        }
+        assertEquals(emptyList<String>(), player.commands)
+        assertEquals(emptyList<String>(), listener.changes)
+        assertEquals(1L, reconciler.commands)
+    }
+
+    @Test
+    fun skipIssuesOnePlay() {
+        reconciler.desire("track 2", true)
+        // votes arrive and the player still reports the previous track before it switches
+        repeat(10) {
+            reconciler.desire("track 2", true)
+            reconciler.observe("track 1", false)
+        }
+        report()
+        repeat(10) {
+            reconciler.desire("track 2", true)
+            report()
+        }
+        assertEquals(listOf("play track 2"), player.commands)
+        assertEquals(emptyList<String>(), listener.changes)
+    }
+
+    @Test
+    fun lostCommandIsIssuedAgain() {
+        reconciler.desire("track 2", true)
+        reconciler.observe("track 1", false)
+        nanos += TimeUnit.SECONDS.toNanos(4)
+        reconciler.observe("track 1", false)
+        assertEquals(listOf("play track 2", "play track 2"), player.commands)
+    }
+
+    @Test
+    fun changesOnThePlayerAreWrittenOnce() {
+        // paused from the notification
+        player.paused = true
+        report()
+        report()
+        assertEquals(listOf("playing false"), listener.changes)
+        // the party follows, nothing to command
+        reconciler.desire("track 1", false)
+        assertEquals(emptyList<String>(), player.commands)
+        // resumed from the party
+        reconciler.desire("track 1", true)
+        report()
+        assertEquals(listOf("resume"), player.commands)
+        // the track finished and the player moved on by itself
+        player.uri = "track 3"
+        report()
+        report()
+        assertEquals(listOf("playing false", "finished"), listener.changes)
+        assertEquals(listOf("resume"), player.commands)
+        player.commands.clear()
+        // the party advanced to another track than the player
+        reconciler.desire("track 2", true)
+        assertEquals(listOf("play track 2"), player.commands)
+    }
+}
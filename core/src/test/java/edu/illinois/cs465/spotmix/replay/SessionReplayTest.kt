@@ -0,0 +1,118 @@
+package edu.illinois.cs465.spotmix.replay
+
+import edu.illinois.cs465.spotmix.api.firebase.FirebaseTrees
+import edu.illinois.cs465.spotmix.sync.DeltaSource
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import kotlin.random.Random
+
+class SessionReplayTest {
+
+    /**
+     * @return the fields of an event, SessionEvent has no equals
+     * */
+    private fun fields(event: SessionEvent) =
+        listOf(event.timeMillis, event.type, event.key, event.value)
+
+    /**
+     * Record a session of a party changing at random, like SessionRecording does in the app.
+     * @return the recorded events and the recording
+     * */
+    private fun record(seed: Int): Pair<List<SessionEvent>, ByteArray> {
+        val random = Random(seed)
+        val source = DeltaSource(seed)
+        var millis = 1000L
+        val output = ByteArrayOutputStream()
+        val recorder = SessionRecorder(output, { millis })
+        val events = mutableListOf<SessionEvent>()
+        fun record(type: Int, key: String?, value: Any?) {
+            events.add(SessionEvent(millis - 1000, type, key, value))
+            recorder.record(type, key) { value }
+        }
+        record(SessionEvent.PARTY_VALUE, null, FirebaseTrees.party(source.party))
+        repeat(300) {
+            millis += random.nextLong(0, 2000)
+            source.step()
+            val party = source.party
+            when (random.nextInt(5)) {
+                0 -> {
+                    val queue = party.queue.map(FirebaseTrees::queueTrack)
+                    record(SessionEvent.QUEUE_VALUE, null, queue)
+                }
+                1 -> {
+                    val playback = FirebaseTrees.playback(party.playback())
+                    record(SessionEvent.PLAYBACK_VALUE, null, playback)
+                }
+                2 -> record(
+                    SessionEvent.PLAYER_STATE,
+                    null,
+                    mapOf(
+                        "uri" to party.currentTrack?.track?.uri,
+                        "paused" to !party.playing,
+                        "positionMs" to random.nextLong(-1, 300_000),
+                        "speed" to random.nextDouble()
+                    )
+                )
+                3 -> party.attendees.lastOrNull()?.let {
+                    val previous = "attendee ${party.attendees.size - 2}"
+                    record(SessionEvent.ATTENDEE_ADDED, previous, FirebaseTrees.attendee(it))
+                }
+                else -> {
+                    val removed = mapOf("name" to "Ünïcødé ${random.nextInt()}")
+                    record(SessionEvent.ATTENDEE_REMOVED, null, removed)
+                }
+            }
+        }
+        recorder.close()
+        assertNull(recorder.error)
+        return events to output.toByteArray()
+    }
+
+    @Test
+    fun replayDeliversTheRecordedEvents() {
+        for (seed in 0 until 5) {
+            val (recorded, bytes) = record(seed)
+            val replayed = mutableListOf<SessionEvent>()
+            val reader = SessionReader(ByteArrayInputStream(bytes))
+            val count = SessionReplayer(reader).replay(object : SessionReplayer.Listener {
+                override fun onEvent(event: SessionEvent) {
+                    replayed.add(event)
+                }
+            })
+            assertEquals(recorded.size, count)
+            assertEquals(recorded.map(::fields), replayed.map(::fields))
+        }
+    }
+
+    @Test
+    fun replayKeepsTheScaledTiming() {
+        val output = ByteArrayOutputStream()
+        SessionWriter(output, 0).use { writer ->
+            for (time in 0L..1000L step 100) {
+                writer.write(SessionEvent(time, SessionEvent.PLAYER_STATE, null, time))
+            }
+        }
+        val reader = SessionReader(ByteArrayInputStream(output.toByteArray()))
+        val start = System.nanoTime()
+        val lateness = mutableListOf<Long>()
+        SessionReplayer(reader, 20.0).replay(object : SessionReplayer.Listener {
+            override fun onEvent(event: SessionEvent) {
+                lateness.add((System.nanoTime() - start) / 1_000_000 - event.timeMillis / 20)
+            }
+        })
+        assertEquals(11, lateness.size)
+        // waits are whole milliseconds, events are at most one early
+        assertTrue("$lateness", lateness.all { it >= -1 })
+        // a second of events takes 50 ms at 20 times the speed
+        val elapsedMillis = (System.nanoTime() - start) / 1_000_000
+        assertTrue("$elapsedMillis ms", elapsedMillis >= 49)
+    }
+
+    @Test(expected = IOException::class)
+    fun readerRejectsOtherInput() {
+        SessionReader(ByteArrayInputStream("{\"queue\": []}".toByteArray()))
+    }
+}
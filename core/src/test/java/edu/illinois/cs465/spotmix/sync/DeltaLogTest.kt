@@ -0,0 +1,62 @@
+package edu.illinois.cs465.spotmix.sync
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class DeltaLogTest {
+
+    private fun log(capacity: Int, deltas: Int): DeltaLog {
+        val log = DeltaLog(capacity)
+        for (i in 0 until deltas) {
+            log.append(PartyDelta.TrackRemoved(i))
+        }
+        return log
+    }
+
+    @Test
+    fun versionsIncrement() {
+        val log = DeltaLog(4)
+        assertEquals(0L, log.version)
+        assertEquals(1L, log.append(PartyDelta.SkippedToNext))
+        assertEquals(2L, log.append(PartyDelta.SkippedToPrevious))
+        assertEquals(2L, log.version)
+    }
+
+    @Test
+    fun sinceCurrentVersionIsEmpty() {
+        assertEquals(emptyList<PartyDelta>(), log(4, 10).since(10))
+        assertEquals(emptyList<PartyDelta>(), DeltaLog(4).since(0))
+    }
+
+    @Test
+    fun sinceReturnsTheMissedDeltasInOrder() {
+        val log = log(8, 20)
+        assertEquals((15 until 20).map { PartyDelta.TrackRemoved(it) }, log.since(15))
+    }
+
+    @Test
+    fun sinceAtTheRingBufferBoundary() {
+        for (capacity in listOf(1, 2, 7, 256)) {
+            for (deltas in listOf(capacity, capacity + 1, 3 * capacity + 2)) {
+                val log = log(capacity, deltas)
+                // missing == capacity: every kept delta, the oldest one not overwritten yet
+                val version = (deltas - capacity).toLong()
+                assertEquals(
+                    (deltas - capacity until deltas).map { PartyDelta.TrackRemoved(it) },
+                    log.since(version)
+                )
+                // one more than kept
+                if (version > 0) {
+                    assertNull(log.since(version - 1))
+                }
+            }
+        }
+    }
+
+    @Test
+    fun unknownVersionsNeedASnapshot() {
+        val log = log(4, 3)
+        assertNull(log.since(-1))
+        assertNull(log.since(4))
+    }
+}
@@ -0,0 +1,93 @@
+package edu.illinois.cs465.spotmix.sync
+
+import edu.illinois.cs465.spotmix.TestParties
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.FractionalIndex
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import kotlin.random.Random
+
+/**
+ * Applies random operations to a party like the LAN party server does and logs their deltas.
+ * @param seed
+ * @param capacity of the delta log
+ * */
+class DeltaSource(seed: Int, capacity: Int = DeltaLog.DEFAULT_CAPACITY) {
+
+    private val random = Random(seed)
+
+    val party = TestParties.party(seed, size = 20)
+
+    val log = DeltaLog(capacity)
+
+    val code = party.key!!
+
+    // tracks and guests not in the generated party yet
+    private var added = 1000
+
+    /**
+     * Apply a random operation.
+     * @return the deltas of the operation, empty if it changed nothing
+     * */
+    fun step(): List<PartyDelta> {
+        val version = log.version
+        val queue = party.queue
+        when (random.nextInt(12)) {
+            0, 1 -> {
+                val addedBy = if (party.attendees.isEmpty()) null else party.attendees.random(random)
+                changed(PartyDelta.TrackAdded(QueueTrack(TestParties.track(added++), addedBy = addedBy)))
+            }
+            2, 3, 4 -> if (queue.isNotEmpty() && party.attendees.isNotEmpty()) {
+                vote(random.nextInt(queue.size), party.attendees.random(random), random.nextBoolean())
+            }
+            5 -> if (queue.isNotEmpty()) {
+                changed(PartyDelta.TrackRemoved(random.nextInt(queue.size)))
+            }
+            6 -> if (queue.isNotEmpty()) {
+                move(random.nextInt(queue.size), random.nextInt(queue.size))
+            }
+            7 -> if (party.currentTrack != null || queue.isNotEmpty()) {
+                changed(PartyDelta.SkippedToNext)
+            }
+            8 -> if (party.history.isNotEmpty()) {
+                changed(PartyDelta.SkippedToPrevious)
+            }
+            9 -> changed(PartyDelta.PlayingChanged(!party.playing))
+            10 -> changed(PartyDelta.FairShareChanged(!party.fairShare))
+            11 -> if (random.nextBoolean() || party.attendees.isEmpty()) {
+                changed(PartyDelta.AttendeeAdded(Attendee("Guest ${added++}")))
+            } else {
+                changed(PartyDelta.AttendeeRemoved(random.nextInt(party.attendees.size)))
+            }
+        }
+        return log.since(version)!!
+    }
+
+    private fun vote(from: Int, attendee: Attendee, up: Boolean) {
+        val entry = party.queue[from]
+        if (up) {
+            party.upvote(entry, attendee)
+        } else {
+            party.downvote(entry, attendee)
+        }
+        log.append(PartyDelta.Voted(from, attendee, up))
+        val to = party.positionInQueue(entry.track)
+        if (to != from) {
+            log.append(PartyDelta.TrackMoved(from, to))
+        }
+    }
+
+    private fun move(from: Int, rank: Int) {
+        if (FractionalIndex.needsRebalance(party.queue)) {
+            changed(PartyDelta.QueueRebalanced)
+        }
+        val to = party.reorder(from, rank)
+        if (to != -1) {
+            log.append(PartyDelta.TrackMoved(from, to, party.queue[to].position))
+        }
+    }
+
+    private fun changed(delta: PartyDelta) {
+        delta.applyTo(party)
+        log.append(delta)
+    }
+}
@@ -0,0 +1,86 @@
+package edu.illinois.cs465.spotmix.sync
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.random.Random
+
+class PartyReplicaTest {
+
+    @Test
+    fun deltasConvergeWithSource() {
+        for (seed in 0 until 100) {
+            val source = DeltaSource(seed)
+            val replica = subscribe(source)
+            repeat(100) {
+                val deltas = source.step()
+                if (deltas.isNotEmpty()) {
+                    val bytes = SyncCodec.encodeDeltas(source.code, source.log.version - deltas.size + 1, deltas)
+                    assertTrue(replica.apply(SyncCodec.decode(bytes)))
+                }
+                assertEquals(source.log.version, replica.version)
+                assertEquals(source.party, replica.party)
+            }
+        }
+    }
+
+    @Test
+    fun catchesUpAfterLostBatches() {
+        for (seed in 0 until 100) {
+            val random = Random(seed)
+            // small log, so some clients fall too far behind and need a snapshot
+            val source = DeltaSource(seed, capacity = 32)
+            val replica = subscribe(source)
+            repeat(100) {
+                // batches of deltas like the server fans them out, some get lost
+                val firstVersion = source.log.version + 1
+                val deltas = (0 until random.nextInt(1, 8)).flatMap { source.step() }
+                if (deltas.isEmpty() || random.nextInt(4) == 0) {
+                    return@repeat
+                }
+                val bytes = SyncCodec.encodeDeltas(source.code, firstVersion, deltas)
+                if (!replica.apply(SyncCodec.decode(bytes))) {
+                    // resubscribes with the version it has, like the LAN backend
+                    val missed = source.log.since(replica.version)
+                    val catchUp = if (missed == null) {
+                        SyncCodec.encodeSnapshot(source.code, source.log.version, source.party)
+                    } else {
+                        SyncCodec.encodeDeltas(source.code, replica.version + 1, missed)
+                    }
+                    assertTrue(replica.apply(SyncCodec.decode(catchUp)))
+                }
+                assertEquals(source.log.version, replica.version)
+                assertEquals(source.party, replica.party)
+            }
+        }
+    }
+
+    @Test
+    fun deltasAlreadyAppliedAreSkipped() {
+        val source = DeltaSource(1)
+        val replica = subscribe(source)
+        val deltas = (0 until 20).flatMap { source.step() }
+        val bytes = SyncCodec.encodeDeltas(source.code, 1, deltas)
+        assertTrue(replica.apply(SyncCodec.decode(bytes)))
+        // delivered again, e.g. the fan-out and a resync crossed
+        assertTrue(replica.apply(SyncCodec.decode(bytes)))
+        assertEquals(source.log.version, replica.version)
+        assertEquals(source.party, replica.party)
+    }
+
+    @Test
+    fun deltasBeforeSnapshotAreMissing() {
+        val source = DeltaSource(1)
+        val deltas = source.step() + source.step()
+        val replica = PartyReplica()
+        assertFalse(replica.apply(SyncCodec.decode(SyncCodec.encodeDeltas(source.code, 1, deltas))))
+        assertNull(replica.party)
+    }
+
+    private fun subscribe(source: DeltaSource): PartyReplica {
+        val replica = PartyReplica()
+        val snapshot = SyncCodec.encodeSnapshot(source.code, source.log.version, source.party)
+        assertTrue(replica.apply(SyncCodec.decode(snapshot)))
+        assertEquals(source.party, replica.party)
+        return replica
+    }
+}
@@ -0,0 +1,59 @@
+package edu.illinois.cs465.spotmix.sync
+
+import edu.illinois.cs465.spotmix.TestParties
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.IOException
+
+class SyncCodecTest {
+
+    @Test
+    fun snapshotRoundTrip() {
+        for (seed in 0 until 100) {
+            val party = TestParties.party(seed, size = seed)
+            val message = SyncCodec.decode(SyncCodec.encodeSnapshot(party.key!!, seed * 7L, party))
+            assertTrue(message is SyncMessage.Snapshot)
+            message as SyncMessage.Snapshot
+            assertEquals(party.key, message.code)
+            assertEquals(seed * 7L, message.version)
+            assertEquals(party, message.party)
+        }
+    }
+
+    @Test
+    fun emptyPartyRoundTrip() {
+        val party = Party("", null)
+        val message = SyncCodec.decode(SyncCodec.encodeSnapshot("code", 0, party))
+        assertEquals(party, (message as SyncMessage.Snapshot).party)
+    }
+
+    @Test
+    fun deltasRoundTrip() {
+        for (seed in 0 until 100) {
+            val source = DeltaSource(seed)
+            val deltas = (0 until 50).flatMap { source.step() }
+            val sentNanos = if (seed % 2 == 0) -seed * 1000L else seed * 1000L
+            val bytes = SyncCodec.encodeDeltas(source.code, 1, deltas, sentNanos)
+            val message = SyncCodec.decode(bytes) as SyncMessage.Deltas
+            assertEquals(source.code, message.code)
+            assertEquals(1L, message.firstVersion)
+            assertEquals(deltas.size.toLong(), message.lastVersion)
+            assertEquals(sentNanos, message.sentNanos)
+            assertEquals(deltas, message.deltas)
+        }
+    }
+
+    @Test
+    fun truncatedMessagesAreRejected() {
+        val party = TestParties.party(1, size = 5)
+        val bytes = SyncCodec.encodeSnapshot(party.key!!, 1, party)
+        for (length in 0 until bytes.size) {
+            try {
+                SyncCodec.decode(bytes.copyOf(length))
+                fail("decoded $length of ${bytes.size} bytes")
+            } catch (expected: IOException) {
+            }
+        }
+    }
+}
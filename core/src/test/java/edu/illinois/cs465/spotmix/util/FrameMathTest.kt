@@ -0,0 +1,77 @@
+package edu.illinois.cs465.spotmix.util
+
+import org.junit.Assert.*
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+class FrameMathTest {
+
+    @Test
+    fun formatDecimal() {
+        val buffer = CharArray(10)
+        for (value in listOf(0, 7, 10, 99, 12345, Int.MAX_VALUE)) {
+            val length = FrameMath.formatDecimal(value, buffer)
+            assertEquals(value.toString(), String(buffer, 0, length))
+        }
+        assertEquals("0", String(buffer, 0, FrameMath.formatDecimal(-3, buffer)))
+    }
+
+    @Test
+    fun withAlpha() {
+        assertEquals(0x80123456.toInt(), FrameMath.withAlpha(0xFF123456.toInt(), 0x80))
+        assertEquals(0x00123456, FrameMath.withAlpha(0x7F123456, 0))
+    }
+
+    @Test
+    fun blend() {
+        val from = 0xFF212121.toInt()
+        val to = 0x00FF8000
+        assertEquals(from, FrameMath.blend(from, to, 0f))
+        assertEquals(to, FrameMath.blend(from, to, 1f))
+        assertEquals(0x7F905010, FrameMath.blend(from, to, 0.5f))
+    }
+
+    /**
+     * One frame of a swipe and of the gradient animation, everything but the Android calls.
+     * */
+    private fun frame(
+        frame: Int,
+        buffer: CharArray,
+        colors: IntArray,
+        start: IntArray,
+        target: IntArray
+    ): Int {
+        val alpha = frame % 256
+        var drawn = FrameMath.withAlpha(0xFF4CAF50.toInt(), alpha)
+        drawn += FrameMath.formatDecimal(frame, buffer)
+        val fraction = (frame % 60) / 60f
+        for (i in colors.indices) {
+            colors[i] = FrameMath.blend(start[i], target[i], fraction)
+        }
+        return drawn + colors[0]
+    }
+
+    @Test
+    fun framesAllocateNothing() {
+        val threads = ManagementFactory.getThreadMXBean()
+        assumeTrue(threads is com.sun.management.ThreadMXBean)
+        threads as com.sun.management.ThreadMXBean
+        val buffer = CharArray(10)
+        val colors = IntArray(2)
+        val start = intArrayOf(0xFF212121.toInt(), 0xFF000000.toInt())
+        val target = intArrayOf(0xFF1DB954.toInt(), 0xFF000000.toInt())
+        val thread = Thread.currentThread().id
+        var sum = 0
+        // the first rounds load classes and get compiled, which allocates a little; garbage made
+        // by the frames themselves would show in every round
+        val allocated = (0 until 5).map {
+            val before = threads.getThreadAllocatedBytes(thread)
+            for (i in 1..100000) {
+                sum += frame(i, buffer, colors, start, target)
+            }
+            threads.getThreadAllocatedBytes(thread) - before
+        }.min()
+        assertEquals("bytes allocated by 100000 frames, checksum $sum", 0L, allocated)
+    }
+}
@@ -0,0 +1,126 @@
+package edu.illinois.cs465.spotmix.server
+
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol
+import io.ktor.http.cio.websocket.Frame
+import io.ktor.http.cio.websocket.WebSocketSession
+import kotlinx.coroutines.channels.Channel
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A client connected to the server. Messages are queued without blocking and written by the
+ * connection's own coroutine, so a slow client never holds up a party. Replies are all delivered,
+ * so are the deltas of a party until the client falls too far behind: then its queued deltas are
+ * skipped and it gets a snapshot of the party instead.
+ * @param session
+ * @param onBehind asks the party with the code to send a snapshot to the connection
+ * */
+class Connection(
+    private val session: WebSocketSession,
+    private val onBehind: (Connection, String) -> Unit
+) {
+
+    companion object {
+        // queued sync messages of a client that is this far behind are dropped
+        private const val MAX_QUEUED_BYTES = 256 * 1024L
+    }
+
+    // codes of the subscribed parties, to unsubscribe them when the connection closes
+    val subscriptions: MutableSet<String> = ConcurrentHashMap.newKeySet()
+
+    private val replies = ConcurrentLinkedQueue<String>()
+    // encoded sync messages with the code of their party
+    private val syncMessages = ConcurrentLinkedQueue<Pair<String, ByteArray>>()
+    private val queuedBytes = AtomicLong()
+    // codes of the parties waiting for a snapshot, true once it was requested
+    private val behind = ConcurrentHashMap<String, Boolean>()
+    // wakes the writer up, which sends everything queued until then
+    private val wakeUp = Channel<Unit>(Channel.CONFLATED)
+
+    /**
+     * Queue a reply to a request.
+     * @param text
+     * */
+    fun reply(text: String) {
+        replies.add(text)
+        wakeUp.offer(Unit)
+    }
+
+    /**
+     * Reply to a request that failed, e.g. for a party that doesn't exist (anymore) or over the
+     * write quota, if the request expects a reply.
+     * @param message
+     * */
+    fun replyFailed(message: Map<*, *>) {
+        val op = when (message[LanProtocol.OP]) {
+            LanProtocol.JOIN -> LanProtocol.JOINED
+            LanProtocol.ADD_TRACK -> LanProtocol.ADDED
+            else -> return
+        }
+        reply(LanProtocol.encode(mapOf(LanProtocol.OP to op, LanProtocol.ID to message[LanProtocol.ID])))
+    }
+
+    /**
+     * Queue deltas of a party, dropped while the party waits for a snapshot.
+     * @param code
+     * @param bytes the encoded deltas
+     * */
+    fun sendDeltas(code: String, bytes: ByteArray) {
+        if (behind.containsKey(code)) {
+            return
+        }
+        if (queuedBytes.get() + bytes.size > MAX_QUEUED_BYTES) {
+            // the snapshot is requested once the writer caught up with the queue
+            behind[code] = false
+            wakeUp.offer(Unit)
+        } else {
+            queue(code, bytes)
+        }
+    }
+
+    /**
+     * Queue a snapshot of a party, the following deltas of the party are delivered again.
+     * @param code
+     * @param bytes the encoded snapshot
+     * */
+    fun sendSnapshot(code: String, bytes: ByteArray) {
+        behind.remove(code)
+        queue(code, bytes)
+    }
+
+    /**
+     * Write the queued messages until the connection is closed.
+     * */
+    suspend fun write() {
+        for (signal in wakeUp) {
+            while (true) {
+                val reply = replies.poll() ?: break
+                session.outgoing.send(Frame.Text(reply))
+            }
+            while (true) {
+                val (code, bytes) = syncMessages.poll() ?: break
+                queuedBytes.addAndGet(-bytes.size.toLong())
+                // deltas queued before the client fell behind are superseded by the snapshot
+                if (behind[code] == null) {
+                    session.outgoing.send(Frame.Binary(true, bytes))
+                }
+            }
+            for (code in behind.keys) {
+                if (behind.replace(code, false, true)) {
+                    onBehind(this, code)
+                }
+            }
+        }
+    }
+
+    fun close() {
+        wakeUp.close()
+    }
+
+    private fun queue(code: String, bytes: ByteArray) {
+        queuedBytes.addAndGet(bytes.size.toLong())
+        syncMessages.add(code to bytes)
+        wakeUp.offer(Unit)
+    }
+}
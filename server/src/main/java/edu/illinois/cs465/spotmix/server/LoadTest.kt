@@ -0,0 +1,251 @@
+package edu.illinois.cs465.spotmix.server
+
+import edu.illinois.cs465.spotmix.api.PartyBackend
+import edu.illinois.cs465.spotmix.api.WriteQuotas
+import edu.illinois.cs465.spotmix.api.firebase.SnapshotMapper
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.lan.LanPartyBackend
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol
+import edu.illinois.cs465.spotmix.api.spotify.models.User
+import edu.illinois.cs465.spotmix.metrics.Counter
+import edu.illinois.cs465.spotmix.metrics.Histogram
+import edu.illinois.cs465.spotmix.metrics.Metrics
+import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.system.exitProcess
+
+// each flooding attendee votes once per interval
+private const val FLOOD_INTERVAL_MICROS = 1000L
+
+/**
+ * Load test of a running party server. Creates parties and joins attendees to them, each attendee
+ * with its own connection like on its own phone, then lets random attendees upvote at a fixed rate.
+ * Reports the fan-out latency from sending a vote to each attendee receiving the resulting state.
+ * Flooding attendees vote as fast as they can without a client-side write quota, the latency of
+ * the others should stay the same as without them.
+ * @param args host:port, parties, attendees per party, seconds, votes per second and party,
+ * flooding attendees per party
+ * */
+fun main(args: Array<String>) {
+    val address = args.getOrElse(0) { "localhost:${LanProtocol.DEFAULT_PORT}" }
+    val partyCount = args.getOrNull(1)?.toInt() ?: 10
+    val attendeeCount = args.getOrNull(2)?.toInt() ?: 100
+    val seconds = args.getOrNull(3)?.toLong() ?: 30
+    val votesPerSecond = args.getOrNull(4)?.toLong() ?: 10
+    val flooderCount = args.getOrNull(5)?.toInt() ?: 0
+
+    val fanOut = Metrics.histogram("loadtest.fanout.ns")
+    val states = Metrics.counter("loadtest.states")
+    val votes = Metrics.counter("loadtest.votes")
+    val floods = Metrics.counter("loadtest.floods")
+
+    val parties = List(partyCount) {
+        LoadTestParty(address, it, attendeeCount, flooderCount, fanOut, states)
+    }
+    println("connected ${partyCount * (attendeeCount + flooderCount + 1)} clients to $address")
+    // only measure the votes
+    Metrics.reset()
+
+    val scheduler = Executors.newScheduledThreadPool(1)
+    // on a thread of its own, so flooding doesn't delay the measured votes on this side
+    val floodScheduler = Executors.newScheduledThreadPool(1)
+    parties.forEach { party ->
+        scheduler.scheduleAtFixedRate({
+            if (party.vote()) {
+                votes.increment()
+            }
+        }, 0, 1_000_000L / votesPerSecond, TimeUnit.MICROSECONDS)
+        if (flooderCount > 0) {
+            floodScheduler.scheduleAtFixedRate({
+                floods.add(party.flood().toLong())
+            }, 0, FLOOD_INTERVAL_MICROS, TimeUnit.MICROSECONDS)
+        }
+    }
+    Thread.sleep(TimeUnit.SECONDS.toMillis(seconds))
+    scheduler.shutdownNow()
+    floodScheduler.shutdownNow()
+    // let the last states arrive
+    Thread.sleep(1000)
+
+    println(String.format(
+        Locale.US,
+        "votes=%d floods=%d states=%d (%.1f per vote) " +
+            "fan-out p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+        votes.count, floods.count, states.count, states.count.toDouble() / maxOf(1L, votes.count),
+        fanOut.percentile(50.0) / 1e6, fanOut.percentile(90.0) / 1e6,
+        fanOut.percentile(99.0) / 1e6, fanOut.max / 1e6
+    ))
+    // the connections keep OkHttp's threads alive
+    exitProcess(0)
+}
+
+/**
+ * A party of the load test with its attendees.
+ * @param address host and port of the server
+ * @param index
+ * @param attendeeCount
+ * @param flooderCount number of flooding attendees
+ * @param fanOut records the fan-out latencies
+ * @param states counts the received party states
+ * */
+private class LoadTestParty(
+    address: String,
+    index: Int,
+    attendeeCount: Int,
+    flooderCount: Int,
+    fanOut: Histogram,
+    states: Counter
+) {
+
+    companion object {
+        private const val TRACKS = 50
+        // wait before adding a track the write quota of the server rejected again
+        private const val QUOTA_RETRY_MS = 250L
+    }
+
+    private val random = Random()
+
+    // backends and attendees, one connection each
+    private val backends = ArrayList<LanPartyBackend>()
+    private val attendees = ArrayList<Attendee>()
+    // newest party state received by each attendee
+    private val parties = ArrayList<AtomicReference<Party>>()
+    // flooding attendees, their states aren't followed
+    private val flooders = ArrayList<Pair<LanPartyBackend, Attendee>>()
+    // the party of the flooders, their votes and additions are applied to it
+    private lateinit var flooded: Party
+    // number of the next track a flooder adds
+    private var floodedTracks = TRACKS
+    private val ignored = object : PartyBackend.AddToQueueCallback {
+        override fun onAddedTrackToQueue(track: QueueTrack?) {
+            // rejected additions are counted by the server
+        }
+    }
+
+    init {
+        // the server limits the additions of the host, the client doesn't have to
+        val host = LanPartyBackend(address, writeQuotas = WriteQuotas.unlimited())
+        val party = await<Party> { future ->
+            host.createParty("Load test $index", User(), "", object : PartyBackend.CreateCallback {
+                override fun onPartyCreated(party: Party?, attendee: Attendee?) {
+                    future.complete(party)
+                }
+            })
+        }
+        repeat(TRACKS) {
+            val track = track(it)
+            // a burst is accepted at once, then a few tracks a second
+            while (tryAwait<QueueTrack> { future ->
+                    val callback = object : PartyBackend.AddToQueueCallback {
+                        override fun onAddedTrackToQueue(track: QueueTrack?) {
+                            future.complete(track)
+                        }
+                    }
+                    host.addTrackToQueue(party, track, party.attendees.first(), callback)
+                } == null
+            ) {
+                Thread.sleep(QUOTA_RETRY_MS)
+            }
+        }
+        repeat(attendeeCount) {
+            val backend = LanPartyBackend(address, fanOutNanos = fanOut)
+            var joinedAttendee: Attendee? = null
+            val joined = await<Party> { future ->
+                backend.joinParty(party.key!!, "Attendee $it", object : PartyBackend.JoinCallback {
+                    override fun onPartyJoined(party: Party?, attendee: Attendee?) {
+                        joinedAttendee = attendee
+                        future.complete(party)
+                    }
+                })
+            }
+            val state = AtomicReference(joined)
+            backend.addPartyListener(joined, object : PartyBackend.PartyListener {
+                override fun onPartyChanged(party: Party) {
+                    states.increment()
+                    state.set(party)
+                }
+            })
+            backends.add(backend)
+            attendees.add(joinedAttendee!!)
+            parties.add(state)
+        }
+        repeat(flooderCount) {
+            val backend = LanPartyBackend(address, writeQuotas = WriteQuotas.unlimited())
+            var joinedAttendee: Attendee? = null
+            flooded = await { future ->
+                backend.joinParty(party.key!!, "Flooder $it", object : PartyBackend.JoinCallback {
+                    override fun onPartyJoined(party: Party?, attendee: Attendee?) {
+                        joinedAttendee = attendee
+                        future.complete(party)
+                    }
+                })
+            }
+            flooders.add(backend to joinedAttendee!!)
+        }
+    }
+
+    /**
+     * Let a random attendee upvote a random track it hasn't voted on yet.
+     * @return false if the attendee voted on all tracks
+     * */
+    fun vote(): Boolean {
+        val i = random.nextInt(attendees.size)
+        val attendee = attendees[i]
+        val party = parties[i].get()
+        val start = random.nextInt(party.queue.size)
+        for (offset in party.queue.indices) {
+            val track = party.queue[(start + offset) % party.queue.size]
+            if (!track.hasVoted(attendee)) {
+                backends[i].upvoteTrack(party, track, attendee)
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * Let every flooding attendee upvote a random track it hasn't voted on yet, or add a new track
+     * once it voted on all of them; valid writes, so only the write quota of the server stops them.
+     * @return number of writes sent
+     * */
+    fun flood(): Int {
+        for ((backend, attendee) in flooders) {
+            val queue = flooded.queue
+            val start = random.nextInt(queue.size)
+            val track = queue.indices.asSequence()
+                .map { queue[(start + it) % queue.size] }
+                .firstOrNull { !it.hasVoted(attendee) }
+            if (track != null) {
+                backend.upvoteTrack(flooded, track, attendee)
+            } else {
+                backend.addTrackToQueue(flooded, track(floodedTracks++), attendee, ignored)
+            }
+        }
+        return flooders.size
+    }
+
+    private fun track(i: Int) = SnapshotMapper.track(mapOf(
+        "uri" to "spotify:track:$i",
+        "name" to "Track $i",
+        "artists" to listOf(mapOf("name" to "Artist $i"))
+    ))!!
+
+    /**
+     * @param request starts a request completing the future, with null on failure
+     * @return the result of the request, null if it failed
+     * */
+    private fun <T> tryAwait(request: (CompletableFuture<T?>) -> Unit): T? =
+        CompletableFuture<T?>().also(request).get(10, TimeUnit.SECONDS)
+
+    /**
+     * @param request starts a request completing the future, with null on failure
+     * @return the result of the request
+     * */
+    private fun <T> await(request: (CompletableFuture<T?>) -> Unit): T =
+        tryAwait(request) ?: throw IllegalStateException("request failed")
+}
@@ -0,0 +1,337 @@
+package edu.illinois.cs465.spotmix.server
+
+import edu.illinois.cs465.spotmix.api.WriteQuotas
+import edu.illinois.cs465.spotmix.api.firebase.FirebaseTrees
+import edu.illinois.cs465.spotmix.api.firebase.SnapshotMapper
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.FractionalIndex
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.firebase.models.QueueTrack
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.ATTENDEE
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.CODE
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.FAIR_SHARE
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.ID
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.NAME
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.OP
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.QUEUE_TRACK
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.RANK
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.SENT
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.STATE
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.TRACK
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.TRACK_URI
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.VERSION
+import edu.illinois.cs465.spotmix.sync.DeltaLog
+import edu.illinois.cs465.spotmix.sync.PartyDelta
+import edu.illinois.cs465.spotmix.sync.SyncCodec
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ClosedSendChannelException
+import kotlinx.coroutines.launch
+
+/**
+ * Owns one party: a coroutine applies the operations sent to the party one after another, so the
+ * party needs no locks and concurrent votes can't overwrite each other, and fans the resulting
+ * deltas out to the subscribed connections. Operations queued while applying are applied before
+ * the next fan-out, so a burst of votes is encoded once and sent as one message.
+ * @param party
+ * @param scope runs the coroutine of the actor
+ * @param onClosed called when the party was closed
+ * */
+class PartyActor(
+    private val party: Party,
+    private val scope: CoroutineScope,
+    private val onClosed: (PartyActor) -> Unit
+) {
+
+    companion object {
+        // maximum operations applied before a fan-out, bounds the delay of the first one
+        private const val MAX_BATCH = 64
+
+        // operations limited by the write quotas
+        private val WRITES = setOf(LanProtocol.ADD_TRACK, LanProtocol.UPVOTE, LanProtocol.DOWNVOTE)
+    }
+
+    val code = party.key!!
+
+    private val mailbox = Channel<Pair<Connection, Map<*, *>>>(Channel.UNLIMITED)
+
+    // only accessed by the coroutine of the actor
+    private val subscribers = HashSet<Connection>()
+    private val log = DeltaLog()
+    // deltas applied since the last fan-out
+    private val changes = ArrayList<PartyDelta>()
+    private var closed = false
+    // by connection, which a client can't pretend to be another one of; the buckets are larger
+    // than the ones of the clients, so writes arriving bunched up by the network pass
+    private val writeQuotas = WriteQuotas<Connection>(2 * WriteQuotas.DEFAULT_CAPACITY)
+
+    /**
+     * Start applying the queued operations, the actor owns the party from now on.
+     * */
+    fun start() {
+        scope.launch { run() }
+    }
+
+    /**
+     * Queue an operation for the party.
+     * @param connection the connection that sent it
+     * @param message
+     * @return false if the party was closed
+     * */
+    fun send(connection: Connection, message: Map<*, *>): Boolean {
+        if (mailbox.isClosedForSend) {
+            return false
+        }
+        return try {
+            mailbox.offer(connection to message)
+        } catch (e: ClosedSendChannelException) {
+            // closed after the check, before the registry dropped the actor
+            false
+        }
+    }
+
+    private suspend fun run() {
+        for (first in mailbox) {
+            // sender timestamp of the oldest applied change, to measure the worst fan-out latency
+            var sent: Double? = null
+            var batch = 0
+            var next: Pair<Connection, Map<*, *>>? = first
+            while (next != null) {
+                val (connection, message) = next
+                val before = changes.size
+                apply(connection, message)
+                if (changes.size > before) {
+                    (message[SENT] as? Number)?.toDouble()?.let { sent = minOf(sent ?: it, it) }
+                }
+                next = if (++batch < MAX_BATCH) mailbox.poll() else null
+            }
+            ServerMetrics.BATCH_SIZE.record(batch.toLong())
+            if (changes.isNotEmpty()) {
+                fanOut(sent)
+            }
+        }
+    }
+
+    /**
+     * Apply an operation to the party, changes are appended to the log and to the changes.
+     * @param connection
+     * @param message
+     * */
+    private fun apply(connection: Connection, message: Map<*, *>) {
+        if (closed) {
+            connection.replyFailed(message)
+            return
+        }
+        if (message[OP] in WRITES && !writeQuotas.tryAcquire(connection)) {
+            // a flooding client, dropped before its writes reach the log and the subscribers
+            ServerMetrics.WRITES_REJECTED.increment()
+            connection.replyFailed(message)
+            return
+        }
+        when (message[OP]) {
+            LanProtocol.JOIN -> join(connection, message)
+            LanProtocol.CLOSE -> close()
+            LanProtocol.REMOVE_ATTENDEE -> removeAttendee(message)
+            LanProtocol.ADD_TRACK -> addTrack(connection, message)
+            LanProtocol.REMOVE_TRACK -> removeTrack(message)
+            LanProtocol.MOVE_TRACK -> moveTrack(message)
+            LanProtocol.SET_FAIR_SHARE -> setFairShare(message)
+            LanProtocol.PLAYING -> setPlaying(true)
+            LanProtocol.PAUSED -> setPlaying(false)
+            LanProtocol.UPVOTE -> vote(message, true)
+            LanProtocol.DOWNVOTE -> vote(message, false)
+            LanProtocol.NEXT -> skip(message, PartyDelta.SkippedToNext)
+            LanProtocol.PREVIOUS -> skip(message, PartyDelta.SkippedToPrevious)
+            LanProtocol.SUBSCRIBE -> subscribe(connection, message)
+            LanProtocol.UNSUBSCRIBE -> subscribers.remove(connection)
+        }
+    }
+
+    private fun join(connection: Connection, message: Map<*, *>) {
+        // add the attendee to the party
+        val attendee = Attendee(message[NAME] as? String ?: "")
+        changed(PartyDelta.AttendeeAdded(attendee))
+        val reply = mapOf(
+            OP to LanProtocol.JOINED,
+            ID to message[ID],
+            STATE to FirebaseTrees.party(party),
+            VERSION to log.version,
+            ATTENDEE to FirebaseTrees.attendee(attendee)
+        )
+        connection.reply(LanProtocol.encode(reply))
+    }
+
+    private fun removeAttendee(message: Map<*, *>) {
+        val attendee = SnapshotMapper.attendee(message[ATTENDEE]) ?: return
+        val position = party.attendees.indexOf(attendee)
+        if (position != -1) {
+            changed(PartyDelta.AttendeeRemoved(position))
+        }
+    }
+
+    private fun addTrack(connection: Connection, message: Map<*, *>) {
+        val track = SnapshotMapper.track(message[TRACK])
+        if (track == null) {
+            connection.replyFailed(message)
+            return
+        }
+        val queueTrack = QueueTrack(track, addedBy = SnapshotMapper.attendee(message[ATTENDEE]))
+        changed(PartyDelta.TrackAdded(queueTrack))
+        val reply = mapOf(
+            OP to LanProtocol.ADDED,
+            ID to message[ID],
+            // the queued copy, with its position key
+            QUEUE_TRACK to FirebaseTrees.queueTrack(party.queue.last())
+        )
+        connection.reply(LanProtocol.encode(reply))
+    }
+
+    private fun removeTrack(message: Map<*, *>) {
+        val uri = message[TRACK_URI] as? String ?: return
+        val position = party.positionInQueue(uri)
+        if (position != -1) {
+            changed(PartyDelta.TrackRemoved(position))
+        }
+    }
+
+    /**
+     * Move a track within its vote tier, replicas get the move with the new position key of the
+     * track as a delta.
+     * @param message
+     * */
+    private fun moveTrack(message: Map<*, *>) {
+        val uri = message[TRACK_URI] as? String ?: return
+        val rank = (message[RANK] as? Number)?.toInt() ?: return
+        val from = party.positionInQueue(uri)
+        if (from == -1) {
+            return
+        }
+        if (FractionalIndex.needsRebalance(party.queue)) {
+            changed(PartyDelta.QueueRebalanced)
+        }
+        val to = party.reorder(from, rank)
+        if (to != -1) {
+            record(PartyDelta.TrackMoved(from, to, party.queue[to].position))
+        }
+    }
+
+    private fun setFairShare(message: Map<*, *>) {
+        val fairShare = message[FAIR_SHARE] as? Boolean ?: return
+        if (party.fairShare != fairShare) {
+            changed(PartyDelta.FairShareChanged(fairShare))
+        }
+    }
+
+    private fun setPlaying(playing: Boolean) {
+        if (party.playing != playing) {
+            changed(PartyDelta.PlayingChanged(playing))
+        }
+    }
+
+    /**
+     * Apply a vote on a queued track, ranks the queue like the clients do. The vote and the move it
+     * caused are separate deltas, so replicas don't need to rank. Every attendee votes on a track
+     * once, repeated votes are dropped.
+     * @param message
+     * @param up upvote or downvote
+     * */
+    private fun vote(message: Map<*, *>, up: Boolean) {
+        val uri = message[TRACK_URI] as? String ?: return
+        val attendee = SnapshotMapper.attendee(message[ATTENDEE]) ?: return
+        val from = party.positionInQueue(uri)
+        if (from == -1 || party.queue[from].hasVoted(attendee)) {
+            return
+        }
+        if (up) {
+            party.upvote(party.queue[from], attendee)
+        } else {
+            party.downvote(party.queue[from], attendee)
+        }
+        record(PartyDelta.Voted(from, attendee, up))
+        val to = party.positionInQueue(uri)
+        if (to != from) {
+            record(PartyDelta.TrackMoved(from, to))
+        }
+    }
+
+    /**
+     * Skip if the current track is still the one the client expects, so clients advancing at the
+     * same time skip a single track.
+     * @param message
+     * @param delta SkippedToNext or SkippedToPrevious
+     * */
+    private fun skip(message: Map<*, *>, delta: PartyDelta) {
+        if (party.currentTrack?.track?.uri != message[TRACK_URI]) {
+            return
+        }
+        val skips = if (delta == PartyDelta.SkippedToNext) {
+            party.currentTrack != null || party.queue.isNotEmpty()
+        } else {
+            party.history.isNotEmpty()
+        }
+        if (skips) {
+            changed(delta)
+        }
+    }
+
+    /**
+     * Subscribe a connection, also used to resync one that fell behind. It catches up from the
+     * version it has, if any.
+     * @param connection
+     * @param message
+     * */
+    private fun subscribe(connection: Connection, message: Map<*, *>) {
+        subscribers.add(connection)
+        val missed = (message[VERSION] as? Number)?.let { log.since(it.toLong()) }
+        when {
+            missed == null ->
+                connection.sendSnapshot(code, SyncCodec.encodeSnapshot(code, log.version, party))
+            missed.isNotEmpty() ->
+                connection.sendDeltas(code, SyncCodec.encodeDeltas(code, log.version - missed.size + 1, missed))
+        }
+    }
+
+    private fun close() {
+        closed = true
+        val message = LanProtocol.encode(mapOf(OP to LanProtocol.CLOSED, CODE to code))
+        subscribers.forEach { it.reply(message) }
+        subscribers.clear()
+        changes.clear()
+        // operations still queued are answered as for a missing party
+        mailbox.close()
+        onClosed(this)
+    }
+
+    /**
+     * Apply a change to the party and record it.
+     * @param delta
+     * */
+    private fun changed(delta: PartyDelta) {
+        delta.applyTo(party)
+        record(delta)
+    }
+
+    /**
+     * Record a change already applied to the party.
+     * @param delta
+     * */
+    private fun record(delta: PartyDelta) {
+        log.append(delta)
+        changes.add(delta)
+    }
+
+    /**
+     * Encode the changes once and queue them for all subscribers.
+     * @param sent sender timestamp of the oldest change
+     * */
+    private fun fanOut(sent: Double?) {
+        val start = System.nanoTime()
+        val firstVersion = log.version - changes.size + 1
+        val bytes = SyncCodec.encodeDeltas(code, firstVersion, changes, sent?.toLong() ?: 0L)
+        changes.clear()
+        subscribers.forEach { it.sendDeltas(code, bytes) }
+        ServerMetrics.FAN_OUT_NANOS.recordSince(start)
+        ServerMetrics.FAN_OUT_SUBSCRIBERS.record(subscribers.size.toLong())
+    }
+}
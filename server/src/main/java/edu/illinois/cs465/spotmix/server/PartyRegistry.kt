@@ -0,0 +1,117 @@
+package edu.illinois.cs465.spotmix.server
+
+import edu.illinois.cs465.spotmix.api.firebase.FirebaseTrees
+import edu.illinois.cs465.spotmix.api.firebase.models.Attendee
+import edu.illinois.cs465.spotmix.api.firebase.models.Party
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.ACCESS_TOKEN
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.ATTENDEE
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.CODE
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.HOST
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.ID
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.NAME
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.OP
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.STATE
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol.VERSION
+import kotlinx.coroutines.CoroutineScope
+import java.security.SecureRandom
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * The open parties of the server by code. Creates parties and routes all other operations to the
+ * actor of their party.
+ * @param scope runs the actors of the parties
+ * */
+class PartyRegistry(private val scope: CoroutineScope) {
+
+    companion object {
+        // short enough to type, without characters that are easily confused
+        private const val CODE_CHARS = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789"
+        private const val CODE_LENGTH = 6
+    }
+
+    private val parties = ConcurrentHashMap<String, PartyActor>()
+    private val random = SecureRandom()
+
+    /**
+     * Handle a message received from a connection.
+     * @param connection
+     * @param text
+     * */
+    fun handle(connection: Connection, text: String) {
+        val message = LanProtocol.decode(text) ?: return
+        ServerMetrics.OPERATIONS.increment()
+        val op = message[OP]
+        if (op == LanProtocol.CREATE) {
+            create(connection, message)
+            return
+        }
+        val code = message[CODE] as? String ?: return
+        when (op) {
+            LanProtocol.SUBSCRIBE -> connection.subscriptions.add(code)
+            LanProtocol.UNSUBSCRIBE -> connection.subscriptions.remove(code)
+        }
+        val actor = parties[code]
+        if (actor == null || !actor.send(connection, message)) {
+            connection.replyFailed(message)
+        }
+    }
+
+    /**
+     * Unsubscribe a closed connection from its parties.
+     * @param connection
+     * */
+    fun disconnected(connection: Connection) {
+        connection.subscriptions.forEach { code ->
+            parties[code]?.send(connection, mapOf(OP to LanProtocol.UNSUBSCRIBE, CODE to code))
+        }
+    }
+
+    /**
+     * Send a snapshot of a party to a connection that fell behind.
+     * @param connection
+     * @param code
+     * */
+    fun resync(connection: Connection, code: String) {
+        parties[code]?.send(connection, mapOf(OP to LanProtocol.SUBSCRIBE, CODE to code))
+    }
+
+    private fun create(connection: Connection, message: Map<*, *>) {
+        val party = Party(message[NAME] as? String ?: "")
+        // add accessToken to party so attendees can access the Spotify Api
+        party.accessToken = message[ACCESS_TOKEN] as? String
+        // add host as attendee
+        val host = Attendee(message[HOST] as? String ?: "", admin = true)
+        party.attendees.add(host)
+        val actor = newActor(party)
+        // encode the reply before the actor owns the party
+        val reply = mapOf(
+            OP to LanProtocol.CREATED,
+            ID to message[ID],
+            STATE to FirebaseTrees.party(party),
+            VERSION to 0,
+            ATTENDEE to FirebaseTrees.attendee(host)
+        )
+        actor.start()
+        ServerMetrics.PARTIES.increment()
+        connection.reply(LanProtocol.encode(reply))
+    }
+
+    /**
+     * Register an actor for a new party under a new unused code.
+     * @param party
+     * @return the actor, not started yet
+     * */
+    private fun newActor(party: Party): PartyActor {
+        while (true) {
+            party.key = String(CharArray(CODE_LENGTH) { CODE_CHARS[random.nextInt(CODE_CHARS.length)] })
+            val actor = PartyActor(party, scope) { closed ->
+                parties.remove(closed.code, closed)
+                ServerMetrics.PARTIES.add(-1)
+            }
+            if (parties.putIfAbsent(actor.code, actor) == null) {
+                return actor
+            }
+        }
+    }
+}
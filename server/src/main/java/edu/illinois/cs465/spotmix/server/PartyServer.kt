@@ -0,0 +1,59 @@
+package edu.illinois.cs465.spotmix.server
+
+import edu.illinois.cs465.spotmix.api.lan.LanProtocol
+import edu.illinois.cs465.spotmix.metrics.Metrics
+import io.ktor.application.call
+import io.ktor.application.install
+import io.ktor.http.cio.websocket.Frame
+import io.ktor.http.cio.websocket.readText
+import io.ktor.response.respondText
+import io.ktor.routing.get
+import io.ktor.routing.routing
+import io.ktor.server.engine.embeddedServer
+import io.ktor.server.netty.Netty
+import io.ktor.websocket.WebSockets
+import io.ktor.websocket.webSocket
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import java.time.Duration
+
+/**
+ * Starts the LAN party server, see LanProtocol.
+ * Clients connect with a WebSocket to LanProtocol.PATH, the metrics are served as text at /metrics.
+ * @param args optional port, LanProtocol.DEFAULT_PORT by default
+ * */
+fun main(args: Array<String>) {
+    val port = args.firstOrNull()?.toInt() ?: LanProtocol.DEFAULT_PORT
+    // the actors of all parties share the threads of the default dispatcher
+    val registry = PartyRegistry(CoroutineScope(SupervisorJob() + Dispatchers.Default))
+
+    embeddedServer(Netty, port) {
+        install(WebSockets) {
+            pingPeriod = Duration.ofSeconds(15)
+        }
+        routing {
+            webSocket(LanProtocol.PATH) {
+                val connection = Connection(this, registry::resync)
+                ServerMetrics.CONNECTIONS.increment()
+                val writer = launch { connection.write() }
+                try {
+                    for (frame in incoming) {
+                        if (frame is Frame.Text) {
+                            registry.handle(connection, frame.readText())
+                        }
+                    }
+                } finally {
+                    registry.disconnected(connection)
+                    connection.close()
+                    writer.cancel()
+                    ServerMetrics.CONNECTIONS.add(-1)
+                }
+            }
+            get("/metrics") {
+                call.respondText(Metrics.report())
+            }
+        }
+    }.start(wait = true)
+}
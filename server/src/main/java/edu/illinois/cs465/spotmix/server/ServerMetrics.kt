@@ -0,0 +1,25 @@
+package edu.illinois.cs465.spotmix.server
+
+import edu.illinois.cs465.spotmix.metrics.Counter
+import edu.illinois.cs465.spotmix.metrics.Histogram
+import edu.illinois.cs465.spotmix.metrics.Metrics
+
+/**
+ * The metrics recorded by the party server, reported at /metrics.
+ * */
+object ServerMetrics {
+
+    // open connections and parties
+    val CONNECTIONS: Counter = Metrics.counter("server.connections")
+    val PARTIES: Counter = Metrics.counter("server.parties")
+
+    // received operations and the number of them applied before one fan-out
+    val OPERATIONS: Counter = Metrics.counter("server.operations")
+    val BATCH_SIZE: Histogram = Metrics.histogram("server.batch.size")
+    // additions and votes over the write quota of their connection
+    val WRITES_REJECTED: Counter = Metrics.counter("server.writes.rejected")
+
+    // encoding a party state once and queueing it for all subscribers
+    val FAN_OUT_NANOS: Histogram = Metrics.histogram("server.fanout.ns")
+    val FAN_OUT_SUBSCRIBERS: Histogram = Metrics.histogram("server.fanout.subscribers")
+}